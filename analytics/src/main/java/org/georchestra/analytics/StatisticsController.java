@@ -21,7 +21,6 @@ package org.georchestra.analytics;
 
 import java.beans.PropertyVetoException;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.lang.reflect.InvocationTargetException;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -32,17 +31,21 @@ import java.util.Map;
 import java.util.Set;
 
 import javax.annotation.PostConstruct;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.sql.DataSource;
+import javax.sql.rowset.CachedRowSet;
 
 import org.georchestra.analytics.util.DBConnection;
+import org.georchestra.analytics.util.QueryCache;
+import org.georchestra.analytics.util.ResultWriter;
+import org.georchestra.analytics.util.RollupQuery;
 import org.georchestra.commons.configuration.GeorchestraConfiguration;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.joda.time.Duration;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.jsondoc.core.annotation.Api;
@@ -176,6 +179,17 @@ public class StatisticsController {
 	private DateTimeFormatter dbMonthOutputFormatter;
 	private DateTimeFormatter dbDayInputFormatter;
 
+	// read the OGC services logs from the hourly and daily rollup tables when possible
+	private boolean useRollups = true;
+
+	// maximum number of rows kept in the query cache, 0 to disable it
+	private long queryCacheMaxRows = 100000;
+	// time to live in seconds of the cached results covering the current period
+	private long queryCacheTimeToLive = 300;
+
+	// number of rows read at once from the database by the full exports
+	private int exportFetchSize = 1000;
+
 	private static enum FORMAT { JSON, CSV }
 	private static enum REQUEST_TYPE { USAGE, EXTRACTION }
 
@@ -211,6 +225,9 @@ public class StatisticsController {
 	@PostConstruct
 	public void init() throws PropertyVetoException, SQLException {
 		this.db = new DBConnection(this.jpaDataSource);
+		if (this.queryCacheMaxRows > 0) {
+			this.db.setCache(new QueryCache<CachedRowSet>(this.queryCacheMaxRows, this.queryCacheTimeToLive * 1000));
+		}
 	}
 	// Getter and setter for unit tests
 
@@ -226,6 +243,22 @@ public class StatisticsController {
 		this.db = db;
 	}
 
+	public void setUseRollups(boolean useRollups) {
+		this.useRollups = useRollups;
+	}
+
+	public void setQueryCacheMaxRows(long queryCacheMaxRows) {
+		this.queryCacheMaxRows = queryCacheMaxRows;
+	}
+
+	public void setQueryCacheTimeToLive(long queryCacheTimeToLive) {
+		this.queryCacheTimeToLive = queryCacheTimeToLive;
+	}
+
+	public void setExportFetchSize(int exportFetchSize) {
+		this.exportFetchSize = exportFetchSize;
+	}
+
 
 
 	/** Granularity used for the returned date type in combined requests statistics */
@@ -263,13 +296,13 @@ public class StatisticsController {
 	 * group.
 	 *
 	 * @param payload the JSON object containing the input parameters
-	 * @param response the HttpServletResponse object.
-	 * @return a JSON string or CSV doc containing the requested aggregated statistics.
+	 * @param request the HttpServletRequest object, gzip is used if accepted.
+	 * @param response the HttpServletResponse object, where the JSON string or CSV doc containing the requested
+	 *        aggregated statistics is written.
 	 *
 	 * @throws JSONException
 	 */
 	@RequestMapping(value="/combinedRequests.{format}", method=RequestMethod.POST)
-	@ResponseBody
     @ApiMethod(description="Returns the Total combined requests count group by time interval "
 	            + "(hour, day, week or month). It must be filtered by either a user or a group. "
 	            + "User or group is mandatory, a startDate and an endDate must be specified, ie:"
@@ -281,8 +314,8 @@ public class StatisticsController {
 	            + "</code><br/>"
 	            + "is a valid request."
 	            + "")
-	public String combinedRequests(@RequestBody String payload, @PathVariable String format, HttpServletResponse response)
-			throws JSONException, ParseException, SQLException {
+	public void combinedRequests(@RequestBody String payload, @PathVariable String format, HttpServletRequest request,
+			HttpServletResponse response) throws JSONException, ParseException, SQLException, IOException {
 
 		JSONObject input = null;
 		Map<String, Object> sqlValues = new HashMap<String, Object>();
@@ -292,7 +325,7 @@ public class StatisticsController {
 			input = new JSONObject(payload);
 			if (!input.has("startDate") || !input.has("endDate")) {
 				response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-				return null;
+				return;
 			}
 
 			sqlValues.put("startDate", this.convertLocalDateToUTC(input.getString("startDate")));
@@ -300,13 +333,13 @@ public class StatisticsController {
 
 		} catch (Throwable e) {
 			response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-			return null;
+			return;
 		}
 
 		// not both group and user can be defined at the same time
 		if (input.has("user") && input.has("group")) {
 			response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-			return null;
+			return;
 		}
 		if (input.has("user"))
 			sqlValues.put("user", input.getString("user"));
@@ -334,129 +367,117 @@ public class StatisticsController {
 		}
 		sqlValues.put("aggregateDateExpression", aggregateDate);
 
-		// Generate SQL query
-		String sql = "SELECT COUNT(*) AS count," +
-				"            to_char(date, {aggregateDateExpression}) AS aggregate_date " +
-				"     FROM ogcstatistics.ogc_services_log " +
-				"     WHERE date >= CAST({startDate} AS timestamp without time zone) " +
-				"     AND date < CAST({endDate} AS timestamp without time zone) ";
+		// Generate SQL query, hourly statistics can't be read from the daily rollup
+		RollupQuery query = new RollupQuery(new String[] { "to_char(date, {aggregateDateExpression})" },
+				new String[] { "aggregate_date" });
 
 		// Handle user and group
 		if (input.has("user"))
-			sql += " AND user_name = {user} ";
+			query.setFilter(" AND user_name = {user} ");
 		if (input.has("group"))
-			sql += " AND {group} = ANY (roles) ";
+			query.setFilter(" AND {group} = ANY (roles) ");
 
-		sql += "GROUP BY to_char(date, {aggregateDateExpression}) " +
-				"ORDER BY to_char(date, {aggregateDateExpression})";
+		query.setOrderBy("aggregate_date");
+		String sql = query.generateSql((String) sqlValues.get("startDate"), (String) sqlValues.get("endDate"),
+				g == GRANULARITY.HOUR ? this.getRollup(RollupQuery.Rollup.HOURLY) : this.getRollup(RollupQuery.Rollup.DAILY),
+				sqlValues);
 
 		// Fetch and format results
-		ResultSet res = db.execute(db.generateQuery(sql,sqlValues));
-
-		response.setCharacterEncoding("utf-8");
+		ResultSet res = db.execute(sql, sqlValues, this.getPeriodEnd(sqlValues));
 
+		ResultWriter out;
 		if("json".equals(format)) {
-			response.setContentType("application/json");
+			response.setContentType("application/json; charset=utf-8");
+			out = ResultWriter.json(ResultWriter.open(request, response), "date", "count");
+			out.writeProperty("granularity", g);
 		} else if("csv".equals(format)) {
-			response.setContentType("application/csv");
+			response.setContentType("application/csv; charset=utf-8");
+			out = ResultWriter.csv(ResultWriter.open(request, response), ",", "date", "count");
 		} else {
 			throw new IllegalArgumentException("Invalid format : " + format);
 		}
 
-		JSONArray results = new JSONArray();
-		StringBuilder csv = new StringBuilder();
-		csv.append("date,count\n");
-
-		while (res.next()) {
-			String date = this.convertUTCDateToLocal(res.getString("aggregate_date"), g);
-			int count = res.getInt("count");
-			if("json".equals(format)) {
-				results.put(new JSONObject().put("count", count).put("date", date));
-			} else if("csv".equals(format)) {
-				csv.append(date + "," + count + "\n");
-			}
-		}
-
-		if("json".equals(format)) {
-			return new JSONObject().put("results", results)
-					.put("granularity", g)
-					.toString(4);
-		} else if("csv".equals(format)) {
-			return csv.toString();
-		} else {
-			throw new IllegalArgumentException("Invalid format : " + format);
+		try {
+			while (res.next())
+				out.writeRow(this.convertUTCDateToLocal(res.getString("aggregate_date"), g), res.getInt("count"));
+		} finally {
+			out.close();
 		}
-
 	}
 
 	/**
 	 * Gets statistics for layers consumption in JSON format. May be filtered by a user or a group and limited.
 	 *
 	 * @param payload the JSON object containing the input parameters
-	 * @param response the HttpServletResponse object.
-	 * @return a JSON string containing the requested aggregated statistics.
+	 * @param request the HttpServletRequest object, gzip is used if accepted.
+	 * @param response the HttpServletResponse object, where the JSON string containing the requested aggregated
+	 *        statistics is written.
 	 *
 	 * @throws JSONException 
 	 */
 	@RequestMapping(value="/layersUsage.json", method=RequestMethod.POST, produces= "application/json; charset=utf-8")
-	@ResponseBody
-	public String layersUsageJson(@RequestBody String payload, HttpServletResponse response) throws JSONException, SQLException {
-		return this.generateStats(payload, REQUEST_TYPE.USAGE, response, FORMAT.JSON);
+	public void layersUsageJson(@RequestBody String payload, HttpServletRequest request, HttpServletResponse response)
+			throws JSONException, SQLException, IOException {
+		this.generateStats(payload, REQUEST_TYPE.USAGE, request, response, FORMAT.JSON);
 	}
 
 	/**
 	 * Gets statistics for layers consumption in CSV format. May be filtered by a user or a group and limited.
 	 *
 	 * @param payload the JSON object containing the input parameters
-	 * @param response the HttpServletResponse object.
-	 * @return a CSV string containing the requested aggregated statistics.
+	 * @param request the HttpServletRequest object, gzip is used if accepted.
+	 * @param response the HttpServletResponse object, where the CSV string containing the requested aggregated
+	 *        statistics is written.
 	 *
 	 * @throws JSONException
 	 */
 	@RequestMapping(value="/layersUsage.csv", method=RequestMethod.POST, produces= "application/csv; charset=utf-8")
-	@ResponseBody
-	public String layersUsage(@RequestBody String payload, HttpServletResponse response) throws JSONException, SQLException {
-		return this.generateStats(payload, REQUEST_TYPE.USAGE, response, FORMAT.CSV);
+	public void layersUsage(@RequestBody String payload, HttpServletRequest request, HttpServletResponse response)
+			throws JSONException, SQLException, IOException {
+		this.generateStats(payload, REQUEST_TYPE.USAGE, request, response, FORMAT.CSV);
 	}
 
 	/**
 	 * Gets statistics for layers extraction in JSON format. May be filtered by a user or a group and limited.
 	 *
 	 * @param payload the JSON object containing the input parameters
-	 * @param response the HttpServletResponse object.
-	 * @return a JSON string containing the requested aggregated statistics.
+	 * @param request the HttpServletRequest object, gzip is used if accepted.
+	 * @param response the HttpServletResponse object, where the JSON string containing the requested aggregated
+	 *        statistics is written.
 	 *
 	 * @throws JSONException
 	 */
 	@RequestMapping(value="/layersExtraction.json", method=RequestMethod.POST, produces= "application/json; charset=utf-8")
-	@ResponseBody
-	public String layersExtractionJson(@RequestBody String payload, HttpServletResponse response) throws JSONException, SQLException {
-		return this.generateStats(payload, REQUEST_TYPE.EXTRACTION, response, FORMAT.JSON);
+	public void layersExtractionJson(@RequestBody String payload, HttpServletRequest request, HttpServletResponse response)
+			throws JSONException, SQLException, IOException {
+		this.generateStats(payload, REQUEST_TYPE.EXTRACTION, request, response, FORMAT.JSON);
 	}
 
 	/**
-	 * Gets full statistics for layers extraction in JSON format. Compared to previous method, this method will not
+	 * Gets full statistics for layers extraction in CSV format. Compared to previous method, this method will not
 	 * aggregate records and it will contains several new informations : organization, start date, end date, duration ...
+	 * Rows are streamed from the database to the response as they are read, and never cached.
 	 *
 	 * @param startDate minimum date for stats
 	 * @param endDate maximum date for stats
-	 * @param response the HttpServletResponse object.
-	 * @return a JSON string containing the requested statistics.
+	 * @param request the HttpServletRequest object, gzip is used if accepted.
+	 * @param response the HttpServletResponse object, where the CSV document containing the requested statistics
+	 *        is written.
 	 *
 	 * @throws JSONException
 	 */
 	@RequestMapping(value="/fullLayersExtraction.csv", method=RequestMethod.GET, produces= "application/csv; charset=utf-8")
-	@ResponseBody
-	public String fullLayersExtractionStats(@RequestParam String startDate, @RequestParam String endDate, HttpServletResponse response) throws JSONException, SQLException {
+	public void fullLayersExtractionStats(@RequestParam String startDate, @RequestParam String endDate,
+			HttpServletRequest request, HttpServletResponse response) throws JSONException, SQLException, IOException {
 
 		try {
 			if (startDate == null || endDate == null) {
 				response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-				return null;
+				return;
 			}
 		} catch (Throwable e) {
 			response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-			return null;
+			return;
 		}
 
 		response.setHeader("Content-Disposition", "attachment; filename=data.csv");
@@ -475,42 +496,47 @@ public class StatisticsController {
 		sqlValues.put("startDate", startDate);
 		sqlValues.put("endDate", endDate);
 
-		ResultSet sqlRes = this.db.execute(this.db.generateQuery(sql, sqlValues));
-
-		StringBuilder res = new StringBuilder("username;organization;creation_date;duration;end_date;layer_name;is_successful;bbox;area_km2\n");
-		while(sqlRes.next()){
-			for(int i=1; i<9; i++)
-				res.append(sqlRes.getString(i) + ";");
-			res.append(sqlRes.getString(9) + "\n");
+		final ResultWriter out = ResultWriter.csv(ResultWriter.open(request, response), ";", "username", "organization",
+				"creation_date", "duration", "end_date", "layer_name", "is_successful", "bbox", "area_km2");
+		try {
+			this.db.stream(this.db.generateQuery(sql, sqlValues), this.exportFetchSize, new DBConnection.RowHandler() {
+				public void handle(ResultSet row) throws SQLException, IOException {
+					out.writeRow(row.getString(1), row.getString(2), row.getString(3), row.getString(4),
+							row.getString(5), row.getString(6), row.getString(7), row.getString(8), row.getString(9));
+				}
+			});
+		} finally {
+			out.close();
 		}
-		return res.toString();
 	}
 
 	/**
 	 * Gets statistics for layers extraction in CSV format. May be filtered by a user or a group and limited.
 	 *
 	 * @param payload the JSON object containing the input parameters
-	 * @param response the HttpServletResponse object.
-	 * @return a CSV string containing the requested aggregated statistics.
+	 * @param request the HttpServletRequest object, gzip is used if accepted.
+	 * @param response the HttpServletResponse object, where the CSV string containing the requested aggregated
+	 *        statistics is written.
 	 *
 	 * @throws JSONException
 	 */
 	@RequestMapping(value="/layersExtraction.csv", method=RequestMethod.POST, produces= "application/csv; charset=utf-8")
-	@ResponseBody
-	public String layersExtractionCsv(@RequestBody String payload, HttpServletResponse response) throws JSONException, SQLException {
-		return this.generateStats(payload, REQUEST_TYPE.EXTRACTION, response, FORMAT.CSV);
+	public void layersExtractionCsv(@RequestBody String payload, HttpServletRequest request, HttpServletResponse response)
+			throws JSONException, SQLException, IOException {
+		this.generateStats(payload, REQUEST_TYPE.EXTRACTION, request, response, FORMAT.CSV);
 	}
 
 	/**
 	 *  This method generates stats for layer usage or extraction and return results in CSV or JSON format
 	 * @param payload JSON payload, should contain 'startDate', 'endDate', 'limit', 'group'
 	 * @param type either layer usage 'USAGE' or layer extraction 'EXTRACTION'
-	 * @param response response
+	 * @param request request, gzip is used if accepted
+	 * @param response response, where the results are written
 	 * @param format
-	 * @return
 	 * @throws JSONException
 	 */
-	private String generateStats(String payload, REQUEST_TYPE type, HttpServletResponse response, FORMAT format) throws JSONException,SQLException {
+	private void generateStats(String payload, REQUEST_TYPE type, HttpServletRequest request, HttpServletResponse response,
+			FORMAT format) throws JSONException, SQLException, IOException {
 
 		JSONObject input;
 		String userId, groupId;
@@ -532,21 +558,29 @@ public class StatisticsController {
 
 			if (sqlValues.get("startDate") == null || sqlValues.get("endDate") == null) {
 				response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-				return null;
+				return;
 			}
 
 		} catch (Throwable e) {
 			response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
-			return null;
+			return;
 		}
 
 		String sql;
 
 		if (type == REQUEST_TYPE.USAGE) {
-			sql = "SELECT layer, COUNT(*) AS count " +
-				  "FROM ogcstatistics.ogc_services_log " +
-				  "WHERE date >= CAST({startDate} AS timestamp without time zone) AND date < CAST({endDate} AS timestamp without time zone) " +
-				  "AND layer != '' ";
+			RollupQuery query = new RollupQuery(new String[] { "layer" }, new String[] { "layer" });
+			String filter = " AND layer != '' ";
+			if(groupId != null)
+				filter += " AND {group} = ANY(roles) ";
+			if(userId != null)
+				filter += " AND user_name = {user} ";
+			query.setFilter(filter);
+			query.setOrderBy("count DESC");
+			if(limit != null)
+				query.setLimit("{limit}");
+			sql = query.generateSql((String) sqlValues.get("startDate"), (String) sqlValues.get("endDate"),
+					this.getRollup(RollupQuery.Rollup.DAILY), sqlValues);
 		} else if (type == REQUEST_TYPE.EXTRACTION){
 			sql = "SELECT layer_name AS layer, COUNT(*) AS count " +
 				  "FROM extractorapp.extractor_layer_log " +
@@ -554,53 +588,39 @@ public class StatisticsController {
 				  "	ON (extractorapp.extractor_log.id = extractorapp.extractor_layer_log.extractor_log_id) " +
 			      "WHERE creation_date >= CAST({startDate} AS timestamp without time zone) AND creation_date < CAST({endDate} AS timestamp without time zone) " +
 				  "AND is_successful ";
-		} else {
-			throw new IllegalArgumentException("Invalid request type : " + type);
-		}
-
-		if(groupId != null)
-			sql += " AND {group} = ANY(roles) ";
-		if(userId != null){
-			if (type == REQUEST_TYPE.USAGE) {
-				sql += " AND user_name = {user} ";
-			} else if (type == REQUEST_TYPE.EXTRACTION){
+			if(groupId != null)
+				sql += " AND {group} = ANY(roles) ";
+			if(userId != null)
 				sql += " AND username = {user} ";
-			} else {
-				throw new IllegalArgumentException("Invalid request type : " + type);
-			}
-		}
-
-
-		if (type == REQUEST_TYPE.USAGE) {
-			sql += " GROUP BY layer " +
-				   " ORDER BY COUNT(*) DESC " ;
-		} else if (type == REQUEST_TYPE.EXTRACTION){
 			sql += " GROUP BY layer_name " +
 				   " ORDER BY COUNT(*) DESC";
+			if(limit != null)
+				sql += " LIMIT {limit}";
 		} else {
 			throw new IllegalArgumentException("Invalid request type : " + type);
 		}
 
-		if(limit != null)
-			sql += " LIMIT {limit}";
-
-		ResultSet sqlRes = db.execute(db.generateQuery(sql,sqlValues));
+		ResultSet sqlRes = db.execute(sql, sqlValues, this.getPeriodEnd(sqlValues));
 
+		ResultWriter out;
 		switch (format){
 			case JSON:
-				JSONArray results = new JSONArray();
-				while(sqlRes.next())
-					results.put(new JSONObject().put("layer", sqlRes.getString("layer")).put("count", sqlRes.getInt("count")));
-				return new JSONObject().put("results", results)
-						.toString(4);
+				response.setContentType("application/json; charset=utf-8");
+				out = ResultWriter.json(ResultWriter.open(request, response), "layer", "count");
+				break;
 			case CSV:
-				StringBuilder res = new StringBuilder("layer,count\n");
-				while(sqlRes.next())
-					res.append(sqlRes.getString("layer") + "," + sqlRes.getInt("count") + "\n");
-				return res.toString();
+				response.setContentType("application/csv; charset=utf-8");
+				out = ResultWriter.csv(ResultWriter.open(request, response), ",", "layer", "count");
+				break;
 			default:
 				throw new JSONException("Invalid format " + format);
 		}
+		try {
+			while(sqlRes.next())
+				out.writeRow(sqlRes.getString("layer"), sqlRes.getInt("count"));
+		} finally {
+			out.close();
+		}
 	}
 
 
@@ -612,11 +632,13 @@ public class StatisticsController {
 	 *
 	 * @param payload
 	 *            the JSON object containing the parameters
+	 * @param request
+	 *            the HTTP Servlet Request object, gzip is used if accepted.
 	 * @param response
 	 *            the HTTP Servlet Response object, used to set the 40x HTTP
 	 *            code in case of errors.
 	 *
-	 * @return A string representing a JSON object with the requested datas. The
+	 * The response is a JSON object with the requested datas. The
 	 *         output JSON has the following form:
 	 * 
 	 * <pre>
@@ -643,7 +665,7 @@ public class StatisticsController {
             + "<code>"
             + "{ startDate: 2015-01-01, endDate: 2015-12-01 }"
             + "</code>")
-	public void distinctUsers(@RequestBody String payload, HttpServletResponse response) throws JSONException, IOException, InvocationTargetException, SQLException, IllegalAccessException, NoSuchMethodException {
+	public void distinctUsers(@RequestBody String payload, HttpServletRequest request, HttpServletResponse response) throws JSONException, IOException, InvocationTargetException, SQLException, IllegalAccessException, NoSuchMethodException {
 		JSONObject input;
 		String groupId = null;
 		String startDate;
@@ -673,15 +695,14 @@ public class StatisticsController {
 		}
 
 		// construct SQL query
-		String sql = "SELECT user_name, org, COUNT(*) AS count " +
-				"FROM ogcstatistics.ogc_services_log " +
-				"WHERE date >= CAST({startDate} AS timestamp without time zone) AND date < CAST({endDate} AS timestamp without time zone) ";
+		RollupQuery query = new RollupQuery(new String[] { "user_name", "org" }, new String[] { "user_name", "org" });
 
 		if (groupId != null)
-			sql += " AND {group} = ANY (roles) ";
+			query.setFilter(" AND {group} = ANY (roles) ");
 
-		sql += "GROUP BY user_name, org " +
-			   "ORDER BY COUNT(*) DESC";
+		query.setOrderBy("count DESC");
+		String sql = query.generateSql((String) sqlValues.get("startDate"), (String) sqlValues.get("endDate"),
+				this.getRollup(RollupQuery.Rollup.DAILY), sqlValues);
 
 		// Extract list of user to ignore in stats
 		Set<String> excluded_users = new HashSet<String>();
@@ -695,25 +716,55 @@ public class StatisticsController {
 		}
 
 		// Fetch and format results
-		ResultSet res = this.db.execute(this.db.generateQuery(sql, sqlValues));
-		JSONArray results = new JSONArray();
-		while (res.next()) {
-			if (excluded_users.contains(res.getString("user_name")))
-				continue;
-			JSONObject row = new JSONObject();
-			row.put("user", res.getString("user_name"));
-			row.put("organization", res.getString("org"));
-			row.put("nb_requests", res.getInt("count"));
-			results.put(row);
+		ResultSet res = this.db.execute(sql, sqlValues, this.getPeriodEnd(sqlValues));
+		ResultWriter out = ResultWriter.json(ResultWriter.open(request, response), "user", "organization", "nb_requests");
+		try {
+			while (res.next()) {
+				if (excluded_users.contains(res.getString("user_name")))
+					continue;
+				out.writeRow(res.getString("user_name"), res.getString("org"), res.getInt("count"));
+			}
+		} finally {
+			out.close();
 		}
-		String jsonOutput = new JSONObject().put("results", results)
-				.toString(4);
-
-		PrintWriter writer = response.getWriter();
-		writer.print(jsonOutput);
-		writer.close();
 	}
 	
+	/**
+	 * Gets the hit rate and size of the cache of the statistics queries.
+	 *
+	 * @return a JSON string describing the query cache
+	 * @throws JSONException
+	 */
+	@RequestMapping(value="/queryCache.json", method=RequestMethod.GET, produces= "application/json; charset=utf-8")
+	@ResponseBody
+	public String queryCacheStats() throws JSONException {
+		QueryCache<CachedRowSet> cache = this.db.getCache();
+		JSONObject stats = new JSONObject().put("enabled", cache != null);
+		if (cache != null) {
+			stats.put("hits", cache.getHits())
+				.put("misses", cache.getMisses())
+				.put("hitRate", cache.getHitRate())
+				.put("entries", cache.getSize())
+				.put("rows", cache.getWeight());
+		}
+		return stats.toString(4);
+	}
+
+	/**
+	 * @return the end of the period requested, used to decide how long the result can be cached
+	 */
+	private DateTime getPeriodEnd(Map<String, Object> sqlValues) {
+		return DateTime.parse((String) sqlValues.get("endDate"), this.dbOutputFormatter);
+	}
+
+	/**
+	 * @param coarsest the coarsest rollup allowed by the query
+	 * @return the rollup to read, NONE if the rollups are disabled
+	 */
+	private RollupQuery.Rollup getRollup(RollupQuery.Rollup coarsest) {
+		return this.useRollups ? coarsest : RollupQuery.Rollup.NONE;
+	}
+
 	/**
 	 * Calculates the appropriate granularity given the begin date and the end date.
 	 *
@@ -2,17 +2,30 @@ package org.georchestra.analytics.util;
 
 import javax.sql.DataSource;
 import java.beans.PropertyVetoException;
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetFactory;
+import javax.sql.rowset.RowSetProvider;
+
+import org.joda.time.DateTime;
+
 /**
  * The purpose of this class is to keep parameter replacment feature without using SQL prepared statements.
  *
@@ -34,12 +47,23 @@ import java.util.regex.Pattern;
  * String rawSql = db.generateQuery(sql, sqlValues);
  * ResultSet res = db.execute(rawSql);
  *
+ * If a cache is set, execute(sql, values, periodEnd) answers the queries already run from the cache, without
+ * touching the database : results computed over a period which is over are kept until evicted, the others only for
+ * the cache time to live. Concurrent requests for a query which is not cached yet wait for a single execution.
+ *
+ * Large exports should use stream(query, fetchSize, handler) instead, which reads the rows through a server side
+ * cursor and never caches them.
+ *
  */
 public class DBConnection {
 
     private DataSource dataSource;
     private Pattern namedParameterPattern;
     private Connection nativeConnection;
+    private QueryCache<CachedRowSet> cache;
+    private RowSetFactory rowSetFactory;
+    private final ConcurrentMap<String, FutureTask<CachedRowSet>> pendingQueries =
+            new ConcurrentHashMap<String, FutureTask<CachedRowSet>>();
 
     public DBConnection(DataSource jpaDataSource) throws PropertyVetoException, SQLException {
 
@@ -99,6 +123,157 @@ public class DBConnection {
 
     }
 
+    /**
+     * Executes the query, or reads its result from the cache if it has already been run. The cache is looked up
+     * with the sql template and the parameter values, so that a cache hit does not use the database connection.
+     *
+     * @param sql the query, with named parameters
+     * @param values the values of the parameters
+     * @param periodEnd the end of the period covered by the query
+     * @return a copy of the result, which can be read independently of the cached one
+     */
+    public ResultSet execute(final String sql, final Map<String, Object> values, DateTime periodEnd)
+            throws SQLException {
+        if (this.cache == null)
+            return this.execute(this.generateQuery(sql, values));
+
+        final String key = this.cacheKey(sql, values);
+        CachedRowSet result = this.cache.get(key);
+        if (result == null) {
+            // logs may still be written a little after the end of the period
+            final boolean over = periodEnd.plus(this.cache.getTimeToLive()).isBeforeNow();
+            FutureTask<CachedRowSet> task = new FutureTask<CachedRowSet>(new Callable<CachedRowSet>() {
+                public CachedRowSet call() throws SQLException {
+                    // the query may have been run by a concurrent request in the mean time
+                    CachedRowSet cached = cache.peek(key);
+                    if (cached != null)
+                        return cached;
+                    ResultSet res = execute(generateQuery(sql, values));
+                    cached = rowSetFactory.createCachedRowSet();
+                    try {
+                        cached.populate(res);
+                    } finally {
+                        res.close();
+                    }
+                    cache.put(key, cached, cached.size() + 1, over);
+                    return cached;
+                }
+            });
+            FutureTask<CachedRowSet> running = this.pendingQueries.putIfAbsent(key, task);
+            if (running == null) {
+                running = task;
+                try {
+                    task.run();
+                } finally {
+                    this.pendingQueries.remove(key, task);
+                }
+            }
+            result = this.await(running);
+        }
+        synchronized (result) {
+            return result.createCopy();
+        }
+    }
+
+    /**
+     * Builds the cache key of a query from its template and the values of its parameters, in the order of the
+     * template.
+     */
+    String cacheKey(String sql, Map<String, Object> values) {
+        StringBuilder key = new StringBuilder(sql);
+        Matcher m = this.namedParameterPattern.matcher(sql);
+        while (m.find()) {
+            String parameterName = m.group(1);
+            if (!values.containsKey(parameterName))
+                throw new IllegalArgumentException("No value specified for parameter : " + parameterName + " in " + sql);
+            Object value = values.get(parameterName);
+            String rendered;
+            if (value == null)
+                rendered = "null";
+            else if (value instanceof Object[])
+                rendered = value.getClass().getName() + Arrays.deepToString((Object[]) value);
+            else
+                rendered = value.getClass().getName() + ":" + value;
+            // the length prefix keeps the values apart whatever they contain
+            key.append('\n').append(rendered.length()).append(':').append(rendered);
+        }
+        return key.toString();
+    }
+
+    private CachedRowSet await(FutureTask<CachedRowSet> task) throws SQLException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof SQLException)
+                        throw (SQLException) cause;
+                    if (cause instanceof RuntimeException)
+                        throw (RuntimeException) cause;
+                    if (cause instanceof Error)
+                        throw (Error) cause;
+                    throw new SQLException(cause);
+                }
+            }
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Runs the query on a dedicated connection and hands each row to the handler as soon as it is read. Rows are
+     * fetched from the database by batches of fetchSize, so the result is never held in memory as a whole.
+     *
+     * @param query the query, as returned by generateQuery()
+     * @param fetchSize number of rows fetched from the database at once
+     * @param handler called for each row
+     */
+    public void stream(String query, int fetchSize, RowHandler handler) throws SQLException, IOException {
+        Connection connection = this.dataSource.getConnection();
+        try {
+            // the postgresql driver only uses a cursor within a transaction
+            connection.setAutoCommit(false);
+            Statement st = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            try {
+                st.setFetchSize(fetchSize);
+                ResultSet res = st.executeQuery(query);
+                while (res.next())
+                    handler.handle(res);
+                res.close();
+            } finally {
+                st.close();
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * Receives the rows read by stream(), one at a time.
+     */
+    public interface RowHandler {
+        /**
+         * @param row the result set, positioned on the current row
+         */
+        void handle(ResultSet row) throws SQLException, IOException;
+    }
+
+    public void setCache(QueryCache<CachedRowSet> cache) throws SQLException {
+        this.rowSetFactory = RowSetProvider.newFactory();
+        this.cache = cache;
+    }
+
+    public QueryCache<CachedRowSet> getCache() {
+        return this.cache;
+    }
+
 
 
 }
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2009-2018 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.georchestra.analytics.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Least recently used cache for query results, bounded by the total weight (eg:
+ * the number of rows) of the cached results.
+ *
+ * Results computed over a closed period of time never change, so they are kept
+ * until they are evicted. The others expire after a short time to live.
+ *
+ * @param <V> the type of the cached results
+ */
+public class QueryCache<V> {
+
+    private final long maxWeight;
+    private final long timeToLive;
+
+    private final LinkedHashMap<String, Entry<V>> entries = new LinkedHashMap<String, Entry<V>>(16, 0.75f, true);
+    private long weight;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param maxWeight the maximum total weight of the cached results
+     * @param timeToLive time to live in ms of the results which may still change
+     */
+    public QueryCache(long maxWeight, long timeToLive) {
+        this.maxWeight = maxWeight;
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * @return the cached result, null if it is missing or expired
+     */
+    public V get(String key) {
+        synchronized (this) {
+            Entry<V> entry = entries.get(key);
+            if (entry != null && entry.expires != 0 && entry.expires < System.currentTimeMillis()) {
+                remove(key);
+                entry = null;
+            }
+            if (entry != null) {
+                hits.incrementAndGet();
+                return entry.value;
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * @return the cached result, null if it is missing or expired, without counting a hit or a miss
+     */
+    synchronized V peek(String key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null || (entry.expires != 0 && entry.expires < System.currentTimeMillis())) {
+            return null;
+        }
+        return entry.value;
+    }
+
+    /**
+     * Caches a result, evicting the least recently used ones if needed. Results
+     * heavier than the cache itself are not cached.
+     *
+     * @param key the normalized query
+     * @param value the result
+     * @param weight the weight of the result
+     * @param immutable true if the result will never change
+     */
+    public synchronized void put(String key, V value, long weight, boolean immutable) {
+        remove(key);
+        if (weight > maxWeight) {
+            return;
+        }
+        Iterator<Map.Entry<String, Entry<V>>> eldest = entries.entrySet().iterator();
+        while (this.weight + weight > maxWeight && eldest.hasNext()) {
+            this.weight -= eldest.next().getValue().weight;
+            eldest.remove();
+        }
+        long expires = immutable ? 0 : System.currentTimeMillis() + timeToLive;
+        entries.put(key, new Entry<V>(value, weight, expires));
+        this.weight += weight;
+    }
+
+    private void remove(String key) {
+        Entry<V> previous = entries.remove(key);
+        if (previous != null) {
+            this.weight -= previous.weight;
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the ratio of requests answered from the cache, 0 if there was none
+     */
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    private static class Entry<V> {
+        final V value;
+        final long weight;
+        final long expires;
+
+        Entry(V value, long weight, long expires) {
+            this.value = value;
+            this.weight = weight;
+            this.expires = expires;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2009-2018 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.georchestra.analytics.util;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.json.JSONObject;
+
+/**
+ * Writes statistics rows one at a time, as a JSON object holding a "results" array or as CSV lines, so that the
+ * results never have to be held in memory as a whole.
+ *
+ * Example :
+ *
+ * ResultWriter out = ResultWriter.json(writer, "layer", "count");
+ * while (res.next())
+ *     out.writeRow(res.getString("layer"), res.getInt("count"));
+ * out.close();
+ *
+ * writes { "results": [ {"layer": "layername1", "count": 831}, ... ] }.
+ *
+ */
+public class ResultWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Writer writer;
+    private final String[] fields;
+    // null for JSON
+    private final String separator;
+    private boolean started = false;
+    private boolean first = true;
+
+    private ResultWriter(Writer writer, String[] fields, String separator) throws IOException {
+        this.writer = writer;
+        this.fields = fields;
+        this.separator = separator;
+        if (separator == null) {
+            writer.write('{');
+        } else {
+            this.writeCsvLine(fields);
+            this.started = true;
+        }
+    }
+
+    /**
+     * @param writer where to write the JSON document
+     * @param fields names of the fields of each result
+     */
+    public static ResultWriter json(Writer writer, String... fields) throws IOException {
+        return new ResultWriter(writer, fields, null);
+    }
+
+    /**
+     * @param writer where to write the CSV document, starting with a header line
+     * @param separator the column separator
+     * @param fields names of the columns
+     */
+    public static ResultWriter csv(Writer writer, String separator, String... fields) throws IOException {
+        return new ResultWriter(writer, fields, separator);
+    }
+
+    /**
+     * Opens a buffered UTF-8 writer on the response body, gzipped if the client accepts it.
+     */
+    public static Writer open(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setCharacterEncoding("UTF-8");
+        OutputStream out = response.getOutputStream();
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            response.setHeader("Content-Encoding", "gzip");
+            response.addHeader("Vary", "Accept-Encoding");
+            out = new GZIPOutputStream(out, BUFFER_SIZE);
+        }
+        return new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), BUFFER_SIZE);
+    }
+
+    /**
+     * Adds a property to the JSON object, next to the results. Must be called before the first row, ignored in CSV.
+     */
+    public void writeProperty(String name, Object value) throws IOException {
+        if (this.separator != null)
+            return;
+        if (this.started)
+            throw new IllegalStateException("Properties must be written before the results");
+        this.writer.write(JSONObject.quote(name));
+        this.writer.write(": ");
+        this.writeJsonValue(value);
+        this.writer.write(", ");
+    }
+
+    /**
+     * @param values the values of the row, in the same order as the fields
+     */
+    public void writeRow(Object... values) throws IOException {
+        if (values.length != this.fields.length)
+            throw new IllegalArgumentException("Expected " + this.fields.length + " values, got " + values.length);
+
+        if (this.separator != null) {
+            this.writeCsvLine(values);
+            return;
+        }
+        this.start();
+        if (!this.first)
+            this.writer.write(",\n");
+        this.first = false;
+        this.writer.write('{');
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0)
+                this.writer.write(", ");
+            this.writer.write(JSONObject.quote(this.fields[i]));
+            this.writer.write(": ");
+            this.writeJsonValue(values[i]);
+        }
+        this.writer.write('}');
+    }
+
+    /**
+     * Ends the document and closes the underlying writer.
+     */
+    public void close() throws IOException {
+        try {
+            if (this.separator == null) {
+                this.start();
+                this.writer.write("]}");
+            }
+        } finally {
+            this.writer.close();
+        }
+    }
+
+    private void start() throws IOException {
+        if (!this.started) {
+            this.writer.write("\"results\": [");
+            this.started = true;
+        }
+    }
+
+    private void writeCsvLine(Object[] values) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0)
+                this.writer.write(this.separator);
+            this.writer.write(String.valueOf(values[i]));
+        }
+        this.writer.write('\n');
+    }
+
+    private void writeJsonValue(Object value) throws IOException {
+        if (value == null)
+            this.writer.write("null");
+        else if (value instanceof Number || value instanceof Boolean)
+            this.writer.write(value.toString());
+        else
+            this.writer.write(JSONObject.quote(value.toString()));
+    }
+}
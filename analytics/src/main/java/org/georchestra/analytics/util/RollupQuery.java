@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2009-2018 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.georchestra.analytics.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+/**
+ * Builds aggregate queries over the OGC services logs, reading the rollup tables
+ * maintained by the <code>ogcstatistics.ogc_services_log</code> insert trigger
+ * instead of the raw logs wherever possible.
+ *
+ * The requested period is split in up to five segments: the whole UTC days are
+ * read from the daily rollup, the whole hours at both ends from the hourly rollup,
+ * and only the remaining minutes, if any, from the raw logs. Each segment is
+ * grouped separately and the partial counts are summed by an outer query.
+ *
+ * The grouping expressions and filters may only use the columns available in the
+ * rollup tables: date, user_name, org, roles, service and layer. Dates are bucketed
+ * in UTC, so the daily rollup can only be used for expressions coarser than an hour.
+ *
+ * Example :
+ *
+ * RollupQuery query = new RollupQuery(new String[] { "layer" }, new String[] { "layer" });
+ * query.setFilter(" AND user_name = {user} ");
+ * query.setOrderBy("count DESC");
+ * String sql = query.generateSql("2016-11-14 23:00:00", "2016-12-14 23:00:00", RollupQuery.Rollup.DAILY, sqlValues);
+ * ResultSet res = db.execute(db.generateQuery(sql, sqlValues));
+ */
+public class RollupQuery {
+
+    public static final String RAW_TABLE = "ogcstatistics.ogc_services_log";
+    public static final String HOURLY_TABLE = "ogcstatistics.ogc_services_log_hourly";
+    public static final String DAILY_TABLE = "ogcstatistics.ogc_services_log_daily";
+
+    /** The coarsest table a query may read */
+    public static enum Rollup { NONE, HOURLY, DAILY }
+
+    private static final DateTimeFormatter DB_FORMATTER = DateTimeFormat.forPattern("yyyy-MM-dd HH:mm:ss")
+            .withZone(DateTimeZone.UTC);
+
+    private final String[] expressions;
+    private final String[] aliases;
+    private String filter = "";
+    private String orderBy;
+    private String limit;
+
+    /**
+     * @param expressions the grouping expressions, may contain named parameters
+     * @param aliases the names of the grouping expressions in the result set
+     */
+    public RollupQuery(String[] expressions, String[] aliases) {
+        if (expressions.length != aliases.length) {
+            throw new IllegalArgumentException("Each grouping expression needs an alias");
+        }
+        this.expressions = expressions;
+        this.aliases = aliases;
+    }
+
+    /**
+     * @param filter additional conditions, starting with AND, eg: " AND user_name = {user} "
+     */
+    public void setFilter(String filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * @param orderBy order clause of the outer query, using the aliases or count
+     */
+    public void setOrderBy(String orderBy) {
+        this.orderBy = orderBy;
+    }
+
+    /**
+     * @param limit limit clause, eg: "{limit}"
+     */
+    public void setLimit(String limit) {
+        this.limit = limit;
+    }
+
+    /**
+     * Generates the query counting the logs between startDate (included) and endDate (excluded).
+     *
+     * @param startDate UTC start date, formatted as yyyy-MM-dd HH:mm:ss
+     * @param endDate UTC end date, formatted as yyyy-MM-dd HH:mm:ss
+     * @param rollup the coarsest table allowed by the grouping expressions, NONE to read the raw logs only
+     * @param values the named parameters values, the segment bounds are added to it
+     * @return the SQL query, with named parameters
+     */
+    public String generateSql(String startDate, String endDate, Rollup rollup, Map<String, Object> values) {
+
+        List<Segment> segments = split(DB_FORMATTER.parseDateTime(startDate), DB_FORMATTER.parseDateTime(endDate),
+                rollup);
+
+        StringBuilder groupBy = new StringBuilder();
+        StringBuilder select = new StringBuilder();
+        StringBuilder outerColumns = new StringBuilder();
+        for (int i = 0; i < expressions.length; i++) {
+            if (i > 0) {
+                groupBy.append(", ");
+                select.append(", ");
+                outerColumns.append(", ");
+            }
+            groupBy.append(expressions[i]);
+            select.append(expressions[i]).append(" AS ").append(aliases[i]);
+            outerColumns.append(aliases[i]);
+        }
+
+        StringBuilder sql = new StringBuilder("SELECT ").append(outerColumns)
+                .append(", CAST(SUM(count) AS bigint) AS count FROM (");
+        for (int i = 0; i < segments.size(); i++) {
+            Segment segment = segments.get(i);
+            String from = "rollupFrom" + i;
+            String to = "rollupTo" + i;
+            values.put(from, DB_FORMATTER.print(segment.from));
+            values.put(to, DB_FORMATTER.print(segment.to));
+
+            if (i > 0) {
+                sql.append(" UNION ALL ");
+            }
+            sql.append("SELECT ").append(select);
+            if (RAW_TABLE.equals(segment.table)) {
+                sql.append(", COUNT(*) AS count");
+            } else {
+                sql.append(", CAST(SUM(count) AS bigint) AS count");
+            }
+            sql.append(" FROM ").append(segment.table)
+                .append(" WHERE date >= CAST({").append(from).append("} AS timestamp without time zone)")
+                .append(" AND date < CAST({").append(to).append("} AS timestamp without time zone) ")
+                .append(filter)
+                .append(" GROUP BY ").append(groupBy);
+        }
+        sql.append(") AS buckets GROUP BY ").append(outerColumns);
+
+        if (orderBy != null) {
+            sql.append(" ORDER BY ").append(orderBy);
+        }
+        if (limit != null) {
+            sql.append(" LIMIT ").append(limit);
+        }
+        return sql.toString();
+    }
+
+    /**
+     * Splits the period in segments, each read from the coarsest table aligned with its bounds.
+     */
+    static List<Segment> split(DateTime start, DateTime end, Rollup rollup) {
+        List<Segment> segments = new ArrayList<Segment>(5);
+
+        DateTime firstHour = ceilHour(start);
+        DateTime lastHour = end.hourOfDay().roundFloorCopy();
+        if (rollup == Rollup.NONE || !firstHour.isBefore(lastHour)) {
+            // rollups disabled, or less than a whole hour (the period may even be empty)
+            segments.add(new Segment(RAW_TABLE, start, end));
+            return segments;
+        }
+        DateTime firstDay = ceilDay(start);
+        DateTime lastDay = end.withTimeAtStartOfDay();
+        if (rollup == Rollup.HOURLY || !firstDay.isBefore(lastDay)) {
+            addSegment(segments, RAW_TABLE, start, firstHour);
+            addSegment(segments, HOURLY_TABLE, firstHour, lastHour);
+            addSegment(segments, RAW_TABLE, lastHour, end);
+            return segments;
+        }
+        addSegment(segments, RAW_TABLE, start, firstHour);
+        addSegment(segments, HOURLY_TABLE, firstHour, firstDay);
+        addSegment(segments, DAILY_TABLE, firstDay, lastDay);
+        addSegment(segments, HOURLY_TABLE, lastDay, lastHour);
+        addSegment(segments, RAW_TABLE, lastHour, end);
+        return segments;
+    }
+
+    private static void addSegment(List<Segment> segments, String table, DateTime from, DateTime to) {
+        if (from.isBefore(to)) {
+            segments.add(new Segment(table, from, to));
+        }
+    }
+
+    private static DateTime ceilHour(DateTime date) {
+        DateTime floor = date.hourOfDay().roundFloorCopy();
+        return floor.isEqual(date) ? floor : floor.plusHours(1);
+    }
+
+    private static DateTime ceilDay(DateTime date) {
+        DateTime floor = date.withTimeAtStartOfDay();
+        return floor.isEqual(date) ? floor : floor.plusDays(1);
+    }
+
+    /**
+     * A part of the requested period, read from a single table.
+     */
+    static class Segment {
+        final String table;
+        final DateTime from;
+        final DateTime to;
+
+        Segment(String table, DateTime from, DateTime to) {
+            this.table = table;
+            this.from = from;
+            this.to = to;
+        }
+    }
+}
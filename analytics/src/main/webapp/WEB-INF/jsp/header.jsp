@@ -0,0 +1,9 @@
+<%@ page pageEncoding="UTF-8"%>
+
+<c:choose>
+    <c:when test='<%= request.getParameter("noheader") == null %>'>
+    <div id="go_head">
+        <iframe src="/header/?lang=<%= lang %>" style="width:100%;height:90px;border:none;overflow:hidden;" scrolling="no" frameborder="0"></iframe>
+    </div>
+    </c:when>
+</c:choose>
@@ -19,6 +19,7 @@ import org.georchestra.analytics.StatisticsController.GRANULARITY;
 
 import org.georchestra.analytics.util.DBConnection;
 import org.georchestra.commons.configuration.GeorchestraConfiguration;
+import org.joda.time.DateTime;
 import org.json.JSONObject;
 import org.junit.After;
 import org.junit.Before;
@@ -42,6 +43,7 @@ public class StatisticsControllerTest {
 		Mockito.when(this.res.next()).thenReturn(false);
 		Mockito.when(this.db.generateQuery(Mockito.anyString(), Mockito.anyMap())).thenReturn(new String());
 		Mockito.when(this.db.execute(Mockito.anyString())).thenReturn(this.res);
+		Mockito.when(this.db.execute(Mockito.anyString(), Mockito.anyMap(), Mockito.any(DateTime.class))).thenReturn(this.res);
 
 		this.ctrl = new StatisticsController("UTC");
 		this.mockMvc = standaloneSetup(ctrl).build();
@@ -10,11 +10,29 @@ import org.junit.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import java.beans.PropertyVetoException;
+import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
 import java.sql.Date;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetMetaDataImpl;
+import javax.sql.rowset.RowSetProvider;
 
 public class DBConnectionTest {
 
@@ -64,4 +82,120 @@ public class DBConnectionTest {
 
         Assert.assertEquals(sqlWithReplacments, finalQuery);
     }
+
+    private static final String CACHED_SQL = "SELECT layer, COUNT(*) AS count FROM ogcstatistics.ogc_services_log "
+            + "WHERE date >= {startDate} AND user_name = {user} GROUP BY layer";
+
+    private final AtomicInteger connectionCalls = new AtomicInteger();
+    private final AtomicInteger queries = new AtomicInteger();
+
+    /**
+     * A data source whose connections count their calls and the queries they run, each query returning one row
+     * after a while.
+     */
+    private DataSource countingDataSource() {
+        final InvocationHandler statement = new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("executeQuery")) {
+                    if (!"SELECT 1".equals(args[0])) {
+                        queries.incrementAndGet();
+                        Thread.sleep(100);
+                    }
+                    return oneRow();
+                }
+                if (method.getName().equals("toString"))
+                    return "SELECT ...";
+                return null;
+            }
+        };
+        final InvocationHandler connection = new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                connectionCalls.incrementAndGet();
+                if (method.getName().equals("createStatement"))
+                    return Proxy.newProxyInstance(getClass().getClassLoader(),
+                            new Class<?>[] { java.sql.Statement.class }, statement);
+                if (method.getName().equals("prepareStatement"))
+                    return Proxy.newProxyInstance(getClass().getClassLoader(),
+                            new Class<?>[] { java.sql.PreparedStatement.class }, statement);
+                return null;
+            }
+        };
+        return (DataSource) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { DataSource.class },
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        return Proxy.newProxyInstance(getClass().getClassLoader(),
+                                new Class<?>[] { Connection.class }, connection);
+                    }
+                });
+    }
+
+    private static ResultSet oneRow() throws SQLException {
+        CachedRowSet rows = RowSetProvider.newFactory().createCachedRowSet();
+        RowSetMetaDataImpl metaData = new RowSetMetaDataImpl();
+        metaData.setColumnCount(1);
+        metaData.setColumnName(1, "count");
+        metaData.setColumnType(1, Types.INTEGER);
+        rows.setMetaData(metaData);
+        rows.moveToInsertRow();
+        rows.updateInt(1, 42);
+        rows.insertRow();
+        rows.moveToCurrentRow();
+        rows.beforeFirst();
+        return rows;
+    }
+
+    private static Map<String, Object> cachedSqlValues(String user) {
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("startDate", "2017-08-15");
+        values.put("user", user);
+        return values;
+    }
+
+    @Test
+    public void testCacheHitWithoutConnection() throws Exception {
+        DBConnection conn = new DBConnection(countingDataSource());
+        conn.setCache(new QueryCache<CachedRowSet>(1000, 60000));
+        DateTime periodEnd = new DateTime(2017, 9, 15, 0, 0);
+
+        ResultSet res = conn.execute(CACHED_SQL, cachedSqlValues("biloute"), periodEnd);
+        Assert.assertTrue(res.next());
+        Assert.assertEquals(42, res.getInt("count"));
+        Assert.assertEquals(1, queries.get());
+
+        int calls = connectionCalls.get();
+        res = conn.execute(CACHED_SQL, cachedSqlValues("biloute"), periodEnd);
+        Assert.assertTrue(res.next());
+        Assert.assertEquals(42, res.getInt("count"));
+        Assert.assertEquals(calls, connectionCalls.get());
+
+        // other parameter values are another query
+        conn.execute(CACHED_SQL, cachedSqlValues("other"), periodEnd);
+        Assert.assertEquals(2, queries.get());
+    }
+
+    @Test
+    public void testConcurrentMissesRunOnce() throws Exception {
+        final DBConnection conn = new DBConnection(countingDataSource());
+        conn.setCache(new QueryCache<CachedRowSet>(1000, 60000));
+        final DateTime periodEnd = new DateTime(2017, 9, 15, 0, 0);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(new Callable<Integer>() {
+                    public Integer call() throws Exception {
+                        ResultSet res = conn.execute(CACHED_SQL, cachedSqlValues("biloute"), periodEnd);
+                        res.next();
+                        return res.getInt("count");
+                    }
+                }));
+            }
+            for (Future<Integer> result : results)
+                Assert.assertEquals(Integer.valueOf(42), result.get());
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertEquals(1, queries.get());
+    }
 }
@@ -0,0 +1,56 @@
+package org.georchestra.analytics.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class QueryCacheTest {
+
+    @Test
+    public void testLeastRecentlyUsedEviction() {
+        QueryCache<String> cache = new QueryCache<String>(10, 60000);
+        cache.put("a", "A", 4, true);
+        cache.put("b", "B", 4, true);
+        // a becomes the most recently used
+        Assert.assertEquals("A", cache.get("a"));
+
+        cache.put("c", "C", 4, true);
+        Assert.assertNull(cache.get("b"));
+        Assert.assertEquals("A", cache.get("a"));
+        Assert.assertEquals("C", cache.get("c"));
+        Assert.assertEquals(8, cache.getWeight());
+
+        // heavier than the whole cache
+        cache.put("d", "D", 11, true);
+        Assert.assertNull(cache.get("d"));
+        Assert.assertEquals(2, cache.getSize());
+    }
+
+    @Test
+    public void testExpiration() throws InterruptedException {
+        QueryCache<String> cache = new QueryCache<String>(10, 1);
+        cache.put("closed", "A", 1, true);
+        cache.put("today", "B", 1, false);
+        Thread.sleep(10);
+
+        Assert.assertEquals("A", cache.get("closed"));
+        Assert.assertNull(cache.get("today"));
+        Assert.assertEquals(1, cache.getSize());
+        Assert.assertEquals(1, cache.getWeight());
+    }
+
+    @Test
+    public void testHitRate() {
+        QueryCache<String> cache = new QueryCache<String>(10, 60000);
+        Assert.assertEquals(0, cache.getHitRate(), 0);
+
+        cache.get("a");
+        cache.put("a", "A", 1, true);
+        cache.get("a");
+        cache.get("a");
+        cache.get("a");
+
+        Assert.assertEquals(3, cache.getHits());
+        Assert.assertEquals(1, cache.getMisses());
+        Assert.assertEquals(0.75, cache.getHitRate(), 0.0001);
+    }
+}
@@ -0,0 +1,52 @@
+package org.georchestra.analytics.util;
+
+import java.io.StringWriter;
+
+import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ResultWriterTest {
+
+    @Test
+    public void testJson() throws Exception {
+        StringWriter writer = new StringWriter();
+        ResultWriter out = ResultWriter.json(writer, "date", "count");
+        out.writeProperty("granularity", "HOUR");
+        out.writeRow("2015-01-01 00", 12);
+        out.writeRow("2015-01-01 \"01\"", 3);
+        out.close();
+
+        JSONObject result = new JSONObject(writer.toString());
+        Assert.assertEquals("HOUR", result.getString("granularity"));
+        Assert.assertEquals(2, result.getJSONArray("results").length());
+        Assert.assertEquals(12, result.getJSONArray("results").getJSONObject(0).getInt("count"));
+        Assert.assertEquals("2015-01-01 \"01\"", result.getJSONArray("results").getJSONObject(1).getString("date"));
+    }
+
+    @Test
+    public void testEmptyJson() throws Exception {
+        StringWriter writer = new StringWriter();
+        ResultWriter.json(writer, "layer", "count").close();
+
+        Assert.assertEquals(0, new JSONObject(writer.toString()).getJSONArray("results").length());
+    }
+
+    @Test
+    public void testCsv() throws Exception {
+        StringWriter writer = new StringWriter();
+        ResultWriter out = ResultWriter.csv(writer, ";", "layer", "count");
+        out.writeRow("layername1", 831);
+        out.writeRow(null, 1);
+        out.close();
+
+        Assert.assertEquals("layer;count\nlayername1;831\nnull;1\n", writer.toString());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testPropertyAfterResults() throws Exception {
+        ResultWriter out = ResultWriter.json(new StringWriter(), "layer");
+        out.writeRow("layername1");
+        out.writeProperty("granularity", "HOUR");
+    }
+}
@@ -0,0 +1,92 @@
+package org.georchestra.analytics.util;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.georchestra.analytics.util.RollupQuery.Rollup;
+import org.georchestra.analytics.util.RollupQuery.Segment;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RollupQueryTest {
+
+    private static DateTime utc(String date) {
+        return new DateTime(date, DateTimeZone.UTC);
+    }
+
+    private static void assertSegment(Segment segment, String table, String from, String to) {
+        Assert.assertEquals(table, segment.table);
+        Assert.assertEquals(utc(from), segment.from);
+        Assert.assertEquals(utc(to), segment.to);
+    }
+
+    @Test
+    public void testSplitWithDailyRollup() {
+        // one month in Europe/Paris, converted to UTC
+        List<Segment> segments = RollupQuery.split(utc("2016-11-14T23:00:00"), utc("2016-12-14T23:00:00"),
+                Rollup.DAILY);
+
+        Assert.assertEquals(3, segments.size());
+        assertSegment(segments.get(0), RollupQuery.HOURLY_TABLE, "2016-11-14T23:00:00", "2016-11-15T00:00:00");
+        assertSegment(segments.get(1), RollupQuery.DAILY_TABLE, "2016-11-15T00:00:00", "2016-12-14T00:00:00");
+        assertSegment(segments.get(2), RollupQuery.HOURLY_TABLE, "2016-12-14T00:00:00", "2016-12-14T23:00:00");
+    }
+
+    @Test
+    public void testSplitWithPartialHours() {
+        // Asia/Kolkata is 5:30 ahead of UTC
+        List<Segment> segments = RollupQuery.split(utc("2016-11-14T18:30:00"), utc("2016-11-16T18:30:00"),
+                Rollup.DAILY);
+
+        Assert.assertEquals(5, segments.size());
+        assertSegment(segments.get(0), RollupQuery.RAW_TABLE, "2016-11-14T18:30:00", "2016-11-14T19:00:00");
+        assertSegment(segments.get(1), RollupQuery.HOURLY_TABLE, "2016-11-14T19:00:00", "2016-11-15T00:00:00");
+        assertSegment(segments.get(2), RollupQuery.DAILY_TABLE, "2016-11-15T00:00:00", "2016-11-16T00:00:00");
+        assertSegment(segments.get(3), RollupQuery.HOURLY_TABLE, "2016-11-16T00:00:00", "2016-11-16T18:00:00");
+        assertSegment(segments.get(4), RollupQuery.RAW_TABLE, "2016-11-16T18:00:00", "2016-11-16T18:30:00");
+    }
+
+    @Test
+    public void testSplitWithHourlyRollup() {
+        List<Segment> segments = RollupQuery.split(utc("2016-11-14T23:00:00"), utc("2016-11-15T23:00:00"),
+                Rollup.HOURLY);
+
+        Assert.assertEquals(1, segments.size());
+        assertSegment(segments.get(0), RollupQuery.HOURLY_TABLE, "2016-11-14T23:00:00", "2016-11-15T23:00:00");
+    }
+
+    @Test
+    public void testSplitWithoutRollup() {
+        List<Segment> segments = RollupQuery.split(utc("2016-11-14T23:00:00"), utc("2016-12-14T23:00:00"),
+                Rollup.NONE);
+        Assert.assertEquals(1, segments.size());
+        assertSegment(segments.get(0), RollupQuery.RAW_TABLE, "2016-11-14T23:00:00", "2016-12-14T23:00:00");
+
+        // empty period
+        segments = RollupQuery.split(utc("2016-11-14T23:00:00"), utc("2016-11-14T23:00:00"), Rollup.DAILY);
+        Assert.assertEquals(1, segments.size());
+        Assert.assertEquals(RollupQuery.RAW_TABLE, segments.get(0).table);
+    }
+
+    @Test
+    public void testGenerateSql() {
+        RollupQuery query = new RollupQuery(new String[] { "layer" }, new String[] { "layer" });
+        query.setFilter(" AND user_name = {user} ");
+        query.setOrderBy("count DESC");
+        query.setLimit("{limit}");
+
+        Map<String, Object> values = new HashMap<String, Object>();
+        String sql = query.generateSql("2016-11-14 23:00:00", "2016-11-15 23:00:00", Rollup.HOURLY, values);
+
+        Assert.assertEquals("SELECT layer, CAST(SUM(count) AS bigint) AS count FROM ("
+                + "SELECT layer AS layer, CAST(SUM(count) AS bigint) AS count FROM " + RollupQuery.HOURLY_TABLE
+                + " WHERE date >= CAST({rollupFrom0} AS timestamp without time zone)"
+                + " AND date < CAST({rollupTo0} AS timestamp without time zone)  AND user_name = {user}  GROUP BY layer"
+                + ") AS buckets GROUP BY layer ORDER BY count DESC LIMIT {limit}", sql);
+        Assert.assertEquals("2016-11-14 23:00:00", values.get("rollupFrom0"));
+        Assert.assertEquals("2016-11-15 23:00:00", values.get("rollupTo0"));
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2009-2018 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.georchestra.extractorapp.ws.extractor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Sends an extraction archive, supporting the HTTP byte ranges so that an
+ * interrupted download can be resumed, or a large one fetched in parallel
+ * chunks.
+ * <p>
+ * The ETag is derived from the size and the modification time of the
+ * archive, which never changes once written. When the container supports
+ * it (Tomcat with sendfile enabled), a single range or the whole archive is
+ * sent by the container straight from the file.
+ * </p>
+ */
+final class ArchiveDownload {
+
+    /** a request with more ranges gets the whole archive */
+    static final int MAX_RANGES = 32;
+
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private static final String CONTENT_TYPE = "application/zip";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * An inclusive range of bytes.
+     */
+    static final class Range {
+        final long start;
+        final long end;
+
+        Range(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        long length() {
+            return end - start + 1;
+        }
+
+        String contentRange(long total) {
+            return "bytes " + start + "-" + end + "/" + total;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Range && ((Range) other).start == start && ((Range) other).end == end;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (start ^ end);
+        }
+
+        @Override
+        public String toString() {
+            return start + "-" + end;
+        }
+    }
+
+    private ArchiveDownload() {
+        // a utility class is not intended to be instantiated
+    }
+
+    static String etag(File file) {
+        return "\"" + Long.toHexString(file.length()) + "-" + Long.toHexString(file.lastModified()) + "\"";
+    }
+
+    /**
+     * Parses a Range header.
+     *
+     * @return null if the header is missing, malformed or has too many
+     *         ranges, so that the whole file is sent; an empty list if no
+     *         range can be satisfied
+     */
+    static List<Range> parseRanges(String header, long length) {
+        if (header == null || !header.startsWith("bytes=")) {
+            return null;
+        }
+        String[] specs = header.substring("bytes=".length()).split(",");
+        if (specs.length > MAX_RANGES) {
+            return null;
+        }
+        List<Range> ranges = new ArrayList<Range>();
+        for (String spec : specs) {
+            spec = spec.trim();
+            int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+            try {
+                String first = spec.substring(0, dash).trim();
+                String last = spec.substring(dash + 1).trim();
+                if (first.isEmpty()) {
+                    // the last bytes
+                    long suffix = Long.parseLong(last);
+                    if (suffix > 0 && length > 0) {
+                        ranges.add(new Range(Math.max(0, length - suffix), length - 1));
+                    }
+                    continue;
+                }
+                long start = Long.parseLong(first);
+                long end = last.isEmpty() ? length - 1 : Long.parseLong(last);
+                if (start > end && !last.isEmpty()) {
+                    return null;
+                }
+                if (start < length) {
+                    ranges.add(new Range(start, Math.min(end, length - 1)));
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * Answers a GET or HEAD request for the archive.
+     *
+     * @param filename the name given to the downloaded file
+     */
+    static void send(File file, String filename, HttpServletRequest request, HttpServletResponse response)
+            throws IOException {
+        long length = file.length();
+        String etag = etag(file);
+        response.setHeader("ETag", etag);
+        response.setDateHeader("Last-Modified", file.lastModified());
+        response.setHeader("Accept-Ranges", "bytes");
+
+        if (matches(request.getHeader("If-None-Match"), etag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        response.setHeader("Content-Disposition", "attachment; filename=" + filename);
+
+        List<Range> ranges = null;
+        String ifRange = request.getHeader("If-Range");
+        if (ifRange == null || ifRange.equals(etag)) {
+            ranges = parseRanges(request.getHeader("Range"), length);
+        }
+        boolean head = "HEAD".equals(request.getMethod());
+
+        if (ranges == null) {
+            response.setContentType(CONTENT_TYPE);
+            sendRange(file, new Range(0, length - 1), request, response, head);
+        } else if (ranges.isEmpty()) {
+            response.setHeader("Content-Range", "bytes */" + length);
+            response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+        } else if (ranges.size() == 1) {
+            Range range = ranges.get(0);
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setContentType(CONTENT_TYPE);
+            response.setHeader("Content-Range", range.contentRange(length));
+            sendRange(file, range, request, response, head);
+        } else {
+            sendRanges(file, ranges, response, head);
+        }
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.equals("*") || candidate.equals(etag) || candidate.equals("W/" + etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void sendRange(File file, Range range, HttpServletRequest request,
+            HttpServletResponse response, boolean head) throws IOException {
+        response.setHeader("Content-Length", String.valueOf(Math.max(0, range.length())));
+        if (head || range.length() <= 0) {
+            return;
+        }
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            // the container sends the file once the request is processed
+            request.setAttribute(SENDFILE_FILENAME, file.getCanonicalPath());
+            request.setAttribute(SENDFILE_START, Long.valueOf(range.start));
+            request.setAttribute(SENDFILE_END, Long.valueOf(range.end + 1));
+            return;
+        }
+        ServletOutputStream out = response.getOutputStream();
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            copy(in.getChannel(), range, out);
+        } finally {
+            try {
+                in.close();
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Sends the ranges as a multipart/byteranges response.
+     */
+    private static void sendRanges(File file, List<Range> ranges, HttpServletResponse response, boolean head)
+            throws IOException {
+        long length = file.length();
+        String boundary = UUID.randomUUID().toString();
+        List<byte[]> partHeaders = new ArrayList<byte[]>();
+        long contentLength = 0;
+        for (Range range : ranges) {
+            String partHeader = "\r\n--" + boundary + "\r\nContent-Type: " + CONTENT_TYPE + "\r\nContent-Range: "
+                    + range.contentRange(length) + "\r\n\r\n";
+            byte[] bytes = partHeader.getBytes("US-ASCII");
+            partHeaders.add(bytes);
+            contentLength += bytes.length + range.length();
+        }
+        byte[] end = ("\r\n--" + boundary + "--\r\n").getBytes("US-ASCII");
+        contentLength += end.length;
+
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        response.setHeader("Content-Length", String.valueOf(contentLength));
+        if (head) {
+            return;
+        }
+        ServletOutputStream out = response.getOutputStream();
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            for (int i = 0; i < ranges.size(); i++) {
+                out.write(partHeaders.get(i));
+                copy(in.getChannel(), ranges.get(i), out);
+            }
+            out.write(end);
+        } finally {
+            try {
+                in.close();
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    private static void copy(FileChannel channel, Range range, OutputStream out) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long position = range.start;
+        long remaining = range.length();
+        while (remaining > 0) {
+            buffer.clear();
+            if (remaining < BUFFER_SIZE) {
+                buffer.limit((int) remaining);
+            }
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of " + range + " in the archive");
+            }
+            out.write(buffer.array(), 0, read);
+            position += read;
+            remaining -= read;
+        }
+    }
+}
@@ -32,6 +32,7 @@ import org.georchestra.extractorapp.ws.extractor.task.ExtractionManager;
 /**
  * This is a bean that starts a timer in the startup method.  When the timer task is run (this)
  * all files in the archive storage directory are checked and the expired elements are deleted.
+ * The extraction result cache is evicted at the same time.
  *
  * @author jeichar
  */
@@ -67,6 +68,11 @@ public class ExpiredArchiveDaemon extends TimerTask implements FilenameFilter {
 
         extractionManager.cleanExpiredTasks(expiry);
 
+        ExtractionResultCache resultCache = extractionManager.getResultCache();
+        if (resultCache != null) {
+            resultCache.evict();
+        }
+
         for (File f : storageFile.listFiles(this)) {
             if (f.lastModified() + expiry < System.currentTimeMillis()) {
                 if (f.delete()) {
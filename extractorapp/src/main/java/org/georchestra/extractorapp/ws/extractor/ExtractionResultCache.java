@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) 2009-2018 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.georchestra.extractorapp.ws.extractor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.geotools.referencing.CRS;
+
+/**
+ * Keeps the extracted files of the layers, so that a layer requested again
+ * with the same parameters is copied from the cache instead of being
+ * downloaded and converted again.
+ * <p>
+ * The entries are directories named after a hash of the layer request, see
+ * {@link #key(ExtractorLayerRequest)}. They are written under a temporary
+ * name and renamed once complete, so a partial entry is never read. An entry
+ * is used until its time to live is over, which bounds how stale the
+ * extracted data can be. The last modification time of the entry directory
+ * is updated on each hit, {@link #evict()} removes the expired entries and
+ * then the least recently used ones until the cache fits its quota.
+ * </p>
+ * <p>
+ * The files are hard linked into the extractions when the file system
+ * allows it, copied otherwise. An entry is renamed before being deleted, so
+ * an extraction reading it concurrently either sees all its files or fails.
+ * </p>
+ * <p>
+ * The cache does not check the permissions: the caller must still check
+ * that the user can access the layer.
+ * </p>
+ */
+public class ExtractionResultCache {
+
+    private static final Log LOG = LogFactory.getLog(ExtractionResultCache.class.getPackage().getName());
+
+    /** created in each entry, its modification time is the creation time of the entry */
+    private static final String MARKER = ".entry";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final String DELETED_SUFFIX = ".deleted";
+
+    private final File directory;
+    private final long quota;
+    private final long timeToLive;
+
+    /**
+     * @param directory where the entries are stored
+     * @param quota maximum size of the cache in bytes
+     * @param timeToLive time in ms during which an entry is used
+     */
+    public ExtractionResultCache(File directory, long quota, long timeToLive) {
+        if (quota <= 0 || timeToLive <= 0) {
+            throw new IllegalArgumentException("The quota and the time to live of the cache must be positive");
+        }
+        this.directory = directory;
+        this.quota = quota;
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * @return a hash of the parameters which change the extracted files
+     */
+    public static String key(ExtractorLayerRequest request) {
+        StringBuilder canonical = new StringBuilder();
+        canonical.append(request._owsType).append('\n');
+        canonical.append(request._url.toExternalForm()).append('\n');
+        canonical.append(request._namespace).append('\n');
+        canonical.append(request._layerName).append('\n');
+        canonical.append(request._format).append('\n');
+        canonical.append(request._epsg).append('\n');
+        canonical.append(request._resolution).append('\n');
+        canonical.append(CRS.toSRS(request._bbox.getCoordinateReferenceSystem())).append('\n');
+        canonical.append(request._bbox.getMinX()).append(',').append(request._bbox.getMinY()).append(',');
+        canonical.append(request._bbox.getMaxX()).append(',').append(request._bbox.getMaxY()).append('\n');
+        canonical.append(request._isoMetadataURL == null ? "" : request._isoMetadataURL.toExternalForm());
+        return sha1(canonical.toString());
+    }
+
+    static String sha1(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(value.getBytes("UTF-8"));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b & 0xff));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Links, or copies, the files of the entry into the target directory.
+     *
+     * @return false if there is no valid entry for the key
+     * @throws IOException if the copy fails, or the entry is evicted
+     *             meanwhile, the target directory may then contain some of
+     *             the files
+     */
+    public boolean fetch(String key, File target) throws IOException {
+        File entry = new File(directory, key);
+        File marker = new File(entry, MARKER);
+        if (!marker.exists()) {
+            return false;
+        }
+        if (isExpired(marker)) {
+            remove(entry);
+            return false;
+        }
+        entry.setLastModified(System.currentTimeMillis());
+        for (File file : list(entry)) {
+            if (file.getName().equals(MARKER)) {
+                continue;
+            }
+            link(file, new File(target, file.getName()));
+        }
+        return true;
+    }
+
+    /**
+     * Hard links the file, or the files of the directory, falling back to a
+     * copy where links are not supported. Fails if a file disappears.
+     */
+    private static void link(File from, File to) throws IOException {
+        if (from.isDirectory()) {
+            if (!to.mkdirs() && !to.isDirectory()) {
+                throw new IOException("Unable to create " + to);
+            }
+            for (File file : list(from)) {
+                link(file, new File(to, file.getName()));
+            }
+            return;
+        }
+        try {
+            Files.createLink(to.toPath(), from.toPath());
+        } catch (UnsupportedOperationException e) {
+            Files.copy(from.toPath(), to.toPath());
+        } catch (FileSystemException e) {
+            // another file system, or too many links: the copy fails as well if the file is gone
+            Files.copy(from.toPath(), to.toPath());
+        }
+    }
+
+    private static File[] list(File directory) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            throw new IOException("Extraction result evicted while being read: " + directory);
+        }
+        return files;
+    }
+
+    /**
+     * Moves the entry out of the way of the readers, then deletes it.
+     */
+    private void remove(File entry) {
+        File deleted = new File(directory, entry.getName() + "." + System.nanoTime() + DELETED_SUFFIX);
+        if (entry.renameTo(deleted)) {
+            FileUtils.delete(deleted);
+        } else if (entry.exists()) {
+            LOG.warn("Unable to rename the extraction result " + entry + " before deleting it");
+            FileUtils.delete(entry);
+        }
+    }
+
+    /**
+     * Copies the files of the source directory into a new entry, unless an
+     * entry already exists for the key or the files are larger than the
+     * quota.
+     */
+    public void store(String key, File source) throws IOException {
+        File entry = new File(directory, key);
+        if (entry.exists() || size(source) > quota) {
+            return;
+        }
+        directory.mkdirs();
+        File tmp = new File(directory, key + "." + System.nanoTime() + TMP_SUFFIX);
+        try {
+            org.apache.commons.io.FileUtils.copyDirectory(source, tmp);
+            new File(tmp, MARKER).createNewFile();
+            if (!tmp.renameTo(entry)) {
+                // stored concurrently by another extraction
+                LOG.debug("Extraction result already cached: " + key);
+            }
+        } finally {
+            if (tmp.exists()) {
+                FileUtils.delete(tmp);
+            }
+        }
+    }
+
+    /**
+     * Deletes the expired entries, then the least recently used ones until
+     * the cache fits its quota.
+     */
+    public void evict() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        List<File> entries = new ArrayList<File>();
+        long total = 0;
+        for (File file : files) {
+            File marker = new File(file, MARKER);
+            boolean abandoned = file.getName().endsWith(TMP_SUFFIX)
+                    && file.lastModified() + timeToLive < System.currentTimeMillis();
+            if (file.getName().endsWith(DELETED_SUFFIX)) {
+                // left by an interrupted deletion
+                FileUtils.delete(file);
+            } else if (abandoned) {
+                FileUtils.delete(file);
+            } else if (!file.getName().endsWith(TMP_SUFFIX) && (!marker.exists() || isExpired(marker))) {
+                remove(file);
+            } else if (!file.getName().endsWith(TMP_SUFFIX)) {
+                entries.add(file);
+                total += size(file);
+            }
+        }
+        if (total <= quota) {
+            return;
+        }
+        final long[] lastAccess = new long[entries.size()];
+        for (int i = 0; i < lastAccess.length; i++) {
+            lastAccess[i] = entries.get(i).lastModified();
+        }
+        Integer[] order = new Integer[entries.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        // the access times are read once, the hits may change them meanwhile
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer i1, Integer i2) {
+                return lastAccess[i1] < lastAccess[i2] ? -1 : (lastAccess[i1] > lastAccess[i2] ? 1 : 0);
+            }
+        });
+        for (Integer i : order) {
+            if (total <= quota) {
+                break;
+            }
+            File entry = entries.get(i);
+            long size = size(entry);
+            remove(entry);
+            total -= size;
+            LOG.debug("Evicted extraction result " + entry.getName());
+        }
+    }
+
+    /**
+     * @return the size of the cached files in bytes
+     */
+    public long getSize() {
+        return size(directory);
+    }
+
+    private boolean isExpired(File marker) {
+        return marker.lastModified() + timeToLive < System.currentTimeMillis();
+    }
+
+    private static long size(File file) {
+        if (!file.isDirectory()) {
+            return file.length();
+        }
+        long size = 0;
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                size += size(child);
+            }
+        }
+        return size;
+    }
+}
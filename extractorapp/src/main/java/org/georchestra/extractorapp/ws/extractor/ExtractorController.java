@@ -28,14 +28,12 @@ import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.nio.channels.Channels;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
 
 import javax.servlet.ServletContext;
-import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
@@ -50,6 +48,7 @@ import org.georchestra.extractorapp.ws.extractor.task.ExecutionMetadata;
 import org.georchestra.extractorapp.ws.extractor.task.ExecutionPriority;
 import org.georchestra.extractorapp.ws.extractor.task.ExtractionManager;
 import org.georchestra.extractorapp.ws.extractor.task.ExtractionTask;
+import org.georchestra.extractorapp.ws.extractor.task.PhaseHistograms;
 import org.json.JSONObject;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
@@ -75,6 +74,7 @@ public class ExtractorController implements ServletContextAware {
     private static final String UUID_PARAM = "uuid";
 
     private static final String EXTRACTOR_TASKS = BASE_MAPPING + "tasks";
+    private static final String METRICS_MAPPING = BASE_MAPPING + "metrics";
 
     private String responseTemplateFile;
     private String reponseMimeType;
@@ -127,26 +127,19 @@ public class ExtractorController implements ServletContextAware {
         }
     }
 
-    @RequestMapping(value = RESULTS_MAPPING, method = RequestMethod.GET)
+    /**
+     * Sends the archive of an extraction. Byte ranges are supported, see
+     * {@link ArchiveDownload}.
+     */
+    @RequestMapping(value = RESULTS_MAPPING, method = { RequestMethod.GET, RequestMethod.HEAD })
     public void results(HttpServletRequest request, HttpServletResponse response) throws IOException {
         String uuid = request.getParameter(UUID_PARAM);
         File file = FileUtils.storageFile(uuid + EXTRACTION_ZIP_EXT);
 
         if (file.exists()) {
-            LOG.info("request for extraction archive: " + file + " requested by " + request.getRemoteAddr());
-            FileInputStream in = new FileInputStream(file);
-            ServletOutputStream out = response.getOutputStream();
-            try {
-                response.setContentType("application/zip");
-                response.setHeader("Content-Disposition", "attachment; filename=" + extractionFolderPrefix + uuid + ".zip");
-                in.getChannel().transferTo(0, file.length(), Channels.newChannel(out));
-            } finally {
-                try {
-                    in.close();
-                } finally {
-                    out.close();
-                }
-            }
+            LOG.info("request for extraction archive: " + file + " requested by " + request.getRemoteAddr()
+                    + (request.getHeader("Range") == null ? "" : " (" + request.getHeader("Range") + ")"));
+            ArchiveDownload.send(file, extractionFolderPrefix + uuid + ".zip", request, response);
         } else {
             LOG.warn("request for a non-existing extraction archive: " + file + " requested by " + request.getRemoteAddr());
             response.sendError(404, "Requested file not found");
@@ -190,6 +183,24 @@ public class ExtractorController implements ServletContextAware {
         }
     }
 
+    /**
+     * Returns the histograms of the extraction phase durations, see
+     * {@link PhaseHistograms#toJSON()}.
+     */
+    @RequestMapping(value = METRICS_MAPPING, method = RequestMethod.GET)
+    public void getMetrics(HttpServletRequest request, HttpServletResponse response) throws Exception {
+
+        response.setCharacterEncoding(responseCharset);
+        response.setContentType("application/json");
+
+        PrintWriter out = response.getWriter();
+        try {
+            out.println(extractionManager.getPhaseHistograms().toJSON().toString());
+        } finally {
+            out.close();
+        }
+    }
+
     /**
      * Analyzes the changes required in the task described in the parameter.
      * This method supposes that only one change is done in one call.
@@ -57,7 +57,8 @@ final class ExtractorGetTaskQueueResponse {
      *    
      * <pre>
      * 
-     * <b>JSON format:</b> {"tasks":[ {"uuid":"value", "priority":value,"status":value,...}, ...]}
+     * <b>JSON format:</b> {"tasks":[ {"uuid":"value", "priority":value,"status":value,...,
+     *                         "phases":[{"phase":"wfs_download","layer":"...","host":"...","format":"shp","attempt":1,"duration":1250}, ...]}, ...]}
      * 
      * </pre>
      * 
@@ -89,6 +90,7 @@ final class ExtractorGetTaskQueueResponse {
     		jsonTask.put(TaskDescriptor.REQUEST_TS_KEY, requestTimeStamp);
     		jsonTask.put(TaskDescriptor.BEGIN_TS_KEY, beginTimeStamp);
     		jsonTask.put(TaskDescriptor.END_TS_KEY, endTimeStamp);
+    		jsonTask.put(TaskDescriptor.PHASES_KEY, phasesAsJson(metadata.getPhaseSpans()));
 
     		jsonTaskArray.put(i, jsonTask);
     		i++;
@@ -105,5 +107,21 @@ final class ExtractorGetTaskQueueResponse {
 		return strTaskQueue;
 	}
 
-
-}
+	/**
+	 * @return the phases of the task, their duration is in milliseconds
+	 */
+	private static JSONArray phasesAsJson(List<PhaseTimer.Span> spans) throws JSONException {
+		JSONArray phases = new JSONArray();
+		for (PhaseTimer.Span span : spans) {
+			JSONObject phase = new JSONObject();
+			phase.put("phase", span.phase);
+			phase.put("layer", span.layer == null ? JSONObject.NULL : span.layer);
+			phase.put("host", span.host == null ? JSONObject.NULL : span.host);
+			phase.put("format", span.format == null ? JSONObject.NULL : span.format);
+			phase.put("attempt", span.attempt);
+			phase.put("duration", span.duration);
+			phases.put(phase);
+		}
+		return phases;
+	}
+}
\ No newline at end of file
@@ -20,7 +20,6 @@
 package org.georchestra.extractorapp.ws.extractor;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
@@ -86,19 +85,14 @@ public final class FileUtils {
         }
     }
 
+    /**
+     * Archives the directory in the calling thread. See
+     * {@link ParallelZipArchiver} to compress the files in parallel.
+     */
     public static void archiveToZip(File tmpExtractionBundle, File storageFile) throws IOException {
-        FileOutputStream fileOut = null;
-        try {
-            fileOut = new FileOutputStream(storageFile);
-            BufferedOutputStream buffered = new BufferedOutputStream(fileOut);
-            ZipOutputStream zip = new ZipOutputStream(buffered);
-            zipDir(zip, tmpExtractionBundle, tmpExtractionBundle);
-            zip.close();
-        } finally {
-            if (fileOut != null) {
-                fileOut.close();
-            }
-        }
+        ParallelZipArchiver archiver = new ParallelZipArchiver(tmpExtractionBundle, storageFile, null);
+        archiver.add(tmpExtractionBundle);
+        archiver.finish();
     }
 
     public static List<String> listZip(File archive) throws IOException {
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2009-2018 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.georchestra.extractorapp.ws.extractor;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Bounds the number of requests sent at once to each remote host. Permits
+ * are given in arrival order.
+ */
+public class HostPermits {
+
+    private final int permitsPerHost;
+    private final ConcurrentMap<String, Semaphore> hosts = new ConcurrentHashMap<String, Semaphore>();
+
+    /**
+     * @param permitsPerHost maximum number of requests sent at once to a host
+     */
+    public HostPermits(int permitsPerHost) {
+        if (permitsPerHost < 1) {
+            throw new IllegalArgumentException("The number of permits per host must be positive");
+        }
+        this.permitsPerHost = permitsPerHost;
+    }
+
+    public int getPermitsPerHost() {
+        return permitsPerHost;
+    }
+
+    /**
+     * Waits until a request can be sent to the host.
+     */
+    public void acquire(String host) throws InterruptedException {
+        getSemaphore(host).acquire();
+    }
+
+    /**
+     * Must be called once the request acquired for the host is done.
+     */
+    public void release(String host) {
+        getSemaphore(host).release();
+    }
+
+    /**
+     * @return number of requests which can still be sent at once to the host
+     */
+    public int availablePermits(String host) {
+        return getSemaphore(host).availablePermits();
+    }
+
+    private Semaphore getSemaphore(String host) {
+        Semaphore semaphore = hosts.get(host);
+        if (semaphore == null) {
+            Semaphore created = new Semaphore(permitsPerHost, true);
+            semaphore = hosts.putIfAbsent(host, created);
+            if (semaphore == null) {
+                semaphore = created;
+            }
+        }
+        return semaphore;
+    }
+}
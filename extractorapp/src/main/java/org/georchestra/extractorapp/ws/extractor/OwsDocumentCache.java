@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2009-2018 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.georchestra.extractorapp.ws.extractor;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Process wide cache of the OWS documents (GetCapabilities, DescribeCoverage)
+ * downloaded during the extractions.
+ * <p>
+ * The documents are keyed by service URL, request and credentials, and are
+ * kept in the form the callers query them, so they are parsed once. An entry
+ * older than the time to live is revalidated with the ETag and Last-Modified
+ * of the cached response: a 304 answer keeps the cached document. Concurrent
+ * requests for the same key wait for a single download.
+ * </p>
+ */
+public class OwsDocumentCache {
+
+    private static final Log LOG = LogFactory.getLog(OwsDocumentCache.class.getPackage().getName());
+
+    public static final long DEFAULT_TIME_TO_LIVE = 5 * 60 * 1000;
+    public static final int DEFAULT_MAX_ENTRIES = 500;
+
+    private static final OwsDocumentCache INSTANCE = new OwsDocumentCache(DEFAULT_TIME_TO_LIVE, DEFAULT_MAX_ENTRIES);
+
+    /**
+     * @return the cache shared by all the extractions
+     */
+    public static OwsDocumentCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Downloads a document.
+     */
+    public interface Fetcher<T> {
+        /**
+         * @param etag ETag of the cached response, null if none
+         * @param lastModified Last-Modified of the cached response, null if none
+         * @return the document, {@link Response#notModified()} if the
+         *         server answered 304 to the conditional request, or
+         *         {@link Response#uncached(Object)} for an error response
+         */
+        Response<T> fetch(String etag, String lastModified) throws IOException;
+    }
+
+    /**
+     * A downloaded document and its validators.
+     */
+    public static final class Response<T> {
+        private static final Response<Object> NOT_MODIFIED = new Response<Object>(null, null, null);
+
+        final T value;
+        final String etag;
+        final String lastModified;
+        final boolean cacheable;
+
+        /**
+         * @param value the document, as queried by the callers
+         * @param etag the ETag header of the response, may be null
+         * @param lastModified the Last-Modified header of the response, may be null
+         */
+        public Response(T value, String etag, String lastModified) {
+            this(value, etag, lastModified, true);
+        }
+
+        private Response(T value, String etag, String lastModified, boolean cacheable) {
+            this.value = value;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.cacheable = cacheable;
+        }
+
+        /**
+         * @return a document returned to the caller only, the cached one, if any, is kept
+         */
+        public static <T> Response<T> uncached(T value) {
+            return new Response<T>(value, null, null, false);
+        }
+
+        @SuppressWarnings("unchecked")
+        public static <T> Response<T> notModified() {
+            return (Response<T>) NOT_MODIFIED;
+        }
+    }
+
+    private static final class Entry {
+        Object value;
+        String etag;
+        String lastModified;
+        long expires;
+    }
+
+    private final long timeToLive;
+    private final int maxEntries;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * @param timeToLive time in ms during which a document is used without asking the server
+     * @param maxEntries number of documents above which the expired ones are dropped
+     */
+    public OwsDocumentCache(long timeToLive, int maxEntries) {
+        this.timeToLive = timeToLive;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Builds the key of a document.
+     *
+     * @param url the service URL
+     * @param request the request and its parameters which change the response
+     * @param username the user name sent along, may be null
+     * @param roles the roles sent along, may be null
+     * @param password the password sent along, may be null, only its SHA-256 digest is kept
+     */
+    public static String key(String url, String request, String username, String roles, String password) {
+        StringBuilder key = new StringBuilder(url).append('|').append(request);
+        appendKeyPart(key, username);
+        appendKeyPart(key, roles);
+        appendKeyPart(key, password == null ? null : DigestUtils.sha256Hex(password));
+        return key.toString();
+    }
+
+    /**
+     * Appends the part prefixed with its length, so that no value can be
+     * mistaken for another whatever characters it holds.
+     */
+    private static void appendKeyPart(StringBuilder key, String part) {
+        key.append('|');
+        if (part != null) {
+            key.append(part.length()).append(':').append(part);
+        }
+    }
+
+    /**
+     * Returns the cached document, downloading or revalidating it if needed.
+     * Nothing is cached when the download fails, or returns an uncached
+     * response.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String key, Fetcher<T> fetcher) throws IOException {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            if (entries.size() >= maxEntries) {
+                purge();
+                if (entries.size() >= maxEntries) {
+                    clear();
+                }
+            }
+            Entry created = new Entry();
+            entry = entries.putIfAbsent(key, created);
+            if (entry == null) {
+                entry = created;
+            }
+        }
+        synchronized (entry) {
+            long now = System.currentTimeMillis();
+            if (entry.value != null && now < entry.expires) {
+                return (T) entry.value;
+            }
+            Response<T> response;
+            if (entry.value != null) {
+                response = fetcher.fetch(entry.etag, entry.lastModified);
+            } else {
+                response = fetcher.fetch(null, null);
+            }
+            if (!response.cacheable) {
+                if (entry.value == null) {
+                    entries.remove(key, entry);
+                }
+                return response.value;
+            }
+            if (response == Response.NOT_MODIFIED && entry.value != null) {
+                LOG.debug("Cached document still valid: " + key);
+            } else {
+                entry.value = response.value;
+                entry.etag = response.etag;
+                entry.lastModified = response.lastModified;
+            }
+            entry.expires = now + timeToLive;
+            return (T) entry.value;
+        }
+    }
+
+    /**
+     * Drops the expired entries.
+     */
+    public void purge() {
+        long now = System.currentTimeMillis();
+        for (Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator(); it.hasNext();) {
+            Entry entry = it.next().getValue();
+            if (entry.expires < now) {
+                it.remove();
+            }
+        }
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+}
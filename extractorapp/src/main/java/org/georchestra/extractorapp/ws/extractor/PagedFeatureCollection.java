@@ -0,0 +1,720 @@
+/*
+ * Copyright (C) 2009-2018 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.georchestra.extractorapp.ws.extractor;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.geotools.data.Query;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.factory.GeoTools;
+import org.geotools.feature.collection.BaseSimpleFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.geometry.jts.JTS;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.CRS;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+import org.opengis.filter.FilterFactory2;
+import org.opengis.filter.sort.SortBy;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+import org.opengis.referencing.operation.MathTransform;
+import org.opengis.referencing.operation.TransformException;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+/**
+ * Features of a WFS layer downloaded by pages, several at a time, and read
+ * back in page order.
+ * <p>
+ * When the server supports it, the pages are requested with startIndex and
+ * maxFeatures, sorted so that the pages do not overlap. Otherwise the
+ * requested bounding box is split into tiles, fetched with an additional BBOX
+ * filter. A feature crossing several tiles is only kept in the first one, in
+ * page order, its geometry intersects: the BBOX filter of that tile returns it
+ * as well, since the servers test the intersection with the geometry. When the
+ * number of features is not known in advance, a first request limited to
+ * pageSize + 1 features tells whether the layer fits in a single page;
+ * otherwise the tiles are split in four until they hold less than a page.
+ * </p>
+ * <p>
+ * Each page is saved in the checkpoint directory once it is complete, along
+ * with the page layout. A new collection opened on the same directory, when
+ * the extraction of the layer is retried, only downloads the missing pages.
+ * </p>
+ */
+final class PagedFeatureCollection extends BaseSimpleFeatureCollection {
+
+    private static final Log LOG = LogFactory.getLog(PagedFeatureCollection.class.getPackage().getName());
+
+    /** maximum number of times the bounding box is split in four when the number of features is unknown */
+    static final int MAX_SPLITS = 8;
+    private static final String LAYOUT_FILE = "pages.properties";
+    /** the serialization stream keeps a reference on each written object until reset */
+    private static final int RESET_INTERVAL = 1000;
+
+    enum Mode {
+        SINGLE, OFFSET, TILES
+    }
+
+    private final SimpleFeatureSource source;
+    private final Query query;
+    private final ReferencedEnvelope bbox;
+    private final String geometryName;
+    private final String host;
+    private final WfsPaging paging;
+    private final File checkpointDir;
+    private Mode mode;
+    private int pageCount;
+    private List<Tile> tiles;
+    /** reprojects the tiles features, which are requested in the CRS of the layer to find their tile */
+    private MathTransform tileTransform;
+    private List<Future<File>> downloads;
+    private ExecutorService executor;
+
+    /**
+     * @param source the remote layer
+     * @param query the query of the whole extraction
+     * @param schema schema of the features returned by the query
+     * @param bbox the requested bounding box, in the CRS of the layer
+     * @param host the remote host, pages are downloaded within its limit
+     * @param paging page size and limits
+     * @param checkpointDir directory where the complete pages are saved
+     */
+    PagedFeatureCollection(SimpleFeatureSource source, Query query, SimpleFeatureType schema, ReferencedEnvelope bbox,
+            String host, WfsPaging paging, File checkpointDir) throws IOException {
+        super(schema);
+        this.source = source;
+        this.query = query;
+        this.bbox = bbox;
+        this.geometryName = source.getSchema().getGeometryDescriptor().getLocalName();
+        this.host = host;
+        this.paging = paging;
+        this.checkpointDir = checkpointDir;
+
+        CoordinateReferenceSystem targetCrs = query.getCoordinateSystemReproject();
+        if (targetCrs != null) {
+            try {
+                tileTransform = CRS.findMathTransform(source.getSchema().getCoordinateReferenceSystem(), targetCrs,
+                        true);
+            } catch (FactoryException e) {
+                throw new IOException("Unable to reproject " + source.getName() + " to " + targetCrs, e);
+            }
+        }
+
+        checkpointDir.mkdirs();
+        if (!readLayout()) {
+            computeLayout();
+            writeLayout();
+        }
+        LOG.info(String.format("Extracting %s in %d page(s), mode %s", source.getName(), pageCount, mode));
+    }
+
+    Mode getMode() {
+        return mode;
+    }
+
+    int getPageCount() {
+        return pageCount;
+    }
+
+    private void computeLayout() throws IOException {
+        // pages left by an attempt which stopped before saving the layout
+        for (File file : checkpointDir.listFiles()) {
+            if (file.getName().endsWith(".ser") || file.getName().endsWith(".ser.part")) {
+                file.delete();
+            }
+        }
+
+        int pageSize = paging.getPageSize();
+        int count = source.getCount(query);
+        if (count >= 0) {
+            int pages = Math.max(1, (count + pageSize - 1) / pageSize);
+            if (pages == 1) {
+                mode = Mode.SINGLE;
+                pageCount = 1;
+            } else if (source.getQueryCapabilities().isOffsetSupported() && sortBy() != null) {
+                mode = Mode.OFFSET;
+                pageCount = pages;
+            } else {
+                int tilesPerSide = (int) Math.ceil(Math.sqrt(pages));
+                mode = Mode.TILES;
+                tiles = new ArrayList<Tile>();
+                for (int row = 0; row < tilesPerSide; row++) {
+                    double minY = split(bbox.getMinY(), bbox.getMaxY(), row, tilesPerSide);
+                    double maxY = split(bbox.getMinY(), bbox.getMaxY(), row + 1, tilesPerSide);
+                    for (int column = 0; column < tilesPerSide; column++) {
+                        double minX = split(bbox.getMinX(), bbox.getMaxX(), column, tilesPerSide);
+                        double maxX = split(bbox.getMinX(), bbox.getMaxX(), column + 1, tilesPerSide);
+                        // the rows below, then the tiles on the left in the same row
+                        List<Envelope> before = new ArrayList<Envelope>(2);
+                        if (row > 0) {
+                            before.add(new Envelope(bbox.getMinX(), bbox.getMaxX(), bbox.getMinY(), minY));
+                        }
+                        if (column > 0) {
+                            before.add(new Envelope(bbox.getMinX(), minX, minY, maxY));
+                        }
+                        tiles.add(new Tile(minX, minY, maxX, maxY, before));
+                    }
+                }
+                pageCount = tiles.size();
+            }
+            return;
+        }
+
+        // unknown number of features: the first page is kept if it holds the whole layer
+        Query probe = new Query(query);
+        probe.setMaxFeatures(pageSize + 1);
+        acquire();
+        try {
+            if (download(probe, null, pageFile(0)) <= pageSize) {
+                mode = Mode.SINGLE;
+                pageCount = 1;
+                return;
+            }
+        } finally {
+            paging.release(host);
+        }
+        pageFile(0).delete();
+        mode = Mode.TILES;
+        tiles = subdivide();
+        pageCount = tiles.size();
+    }
+
+    /**
+     * @return the ith of n boundaries splitting [min, max], the same value for
+     *         both of the tiles it separates
+     */
+    private static double split(double min, double max, int i, int n) {
+        return i == n ? max : min + (max - min) * i / n;
+    }
+
+    /**
+     * Splits the bounding box in four, then each tile holding more than a
+     * page in four again, and so on. The tiles are probed in parallel, and
+     * the probes holding the whole tile are kept as its page.
+     *
+     * @return the tiles, depth first
+     */
+    private List<Tile> subdivide() throws IOException {
+        final int pageSize = paging.getPageSize();
+        Tile root = new Tile(bbox.getMinX(), bbox.getMinY(), bbox.getMaxX(), bbox.getMaxY(),
+                Collections.<Envelope> emptyList());
+        List<Tile> level = root.split();
+        ExecutorService probes = Executors.newFixedThreadPool(paging.getMaxPagesPerHost());
+        int probeCount = 0;
+        try {
+            for (int splits = 1; !level.isEmpty(); splits++) {
+                List<Future<Integer>> counts = new ArrayList<Future<Integer>>();
+                for (final Tile tile : level) {
+                    tile.probe = new File(checkpointDir, String.format("probe-%05d.ser", probeCount++));
+                    final Query probe = tileQuery(tile);
+                    probe.setMaxFeatures(pageSize + 1);
+                    counts.add(probes.submit(new Callable<Integer>() {
+                        @Override
+                        public Integer call() throws Exception {
+                            acquire();
+                            try {
+                                return download(probe, tile, tile.probe);
+                            } finally {
+                                paging.release(host);
+                            }
+                        }
+                    }));
+                }
+                List<Tile> next = new ArrayList<Tile>();
+                for (int i = 0; i < level.size(); i++) {
+                    Tile tile = level.get(i);
+                    if (await(counts.get(i)) > pageSize) {
+                        // incomplete, the page is downloaded again if the tile is not split
+                        tile.probe.delete();
+                        tile.probe = null;
+                        if (splits < MAX_SPLITS) {
+                            tile.children = tile.split();
+                            next.addAll(tile.children);
+                        }
+                    }
+                }
+                level = next;
+            }
+        } finally {
+            probes.shutdownNow();
+        }
+
+        List<Tile> leaves = new ArrayList<Tile>();
+        root.collectLeaves(leaves);
+        for (int page = 0; page < leaves.size(); page++) {
+            File probe = leaves.get(page).probe;
+            if (probe != null && !probe.renameTo(pageFile(page))) {
+                throw new IOException("Unable to save the page " + pageFile(page));
+            }
+        }
+        return leaves;
+    }
+
+    private int await(Future<Integer> count) throws IOException {
+        try {
+            return count.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while probing " + source.getName());
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Unable to probe " + source.getName(), e.getCause());
+        }
+    }
+
+    /**
+     * @return the sort order making the offset pages stable, null if the layer cannot be sorted
+     */
+    private SortBy[] sortBy() {
+        if (query.getSortBy() != null && query.getSortBy().length > 0) {
+            return query.getSortBy();
+        }
+        SortBy[] natural = new SortBy[] { SortBy.NATURAL_ORDER };
+        if (source.getQueryCapabilities().supportsSorting(natural)) {
+            return natural;
+        }
+        return null;
+    }
+
+    private boolean readLayout() throws IOException {
+        File file = new File(checkpointDir, LAYOUT_FILE);
+        if (!file.exists()) {
+            return false;
+        }
+        Properties layout = new Properties();
+        InputStream in = new FileInputStream(file);
+        try {
+            layout.load(in);
+        } finally {
+            in.close();
+        }
+        mode = Mode.valueOf(layout.getProperty("mode"));
+        pageCount = Integer.parseInt(layout.getProperty("pages"));
+        if (mode == Mode.TILES) {
+            tiles = new ArrayList<Tile>();
+            for (int page = 0; page < pageCount; page++) {
+                Envelope area = parseEnvelope(layout.getProperty("tile." + page));
+                List<Envelope> before = new ArrayList<Envelope>();
+                String beforeProperty = layout.getProperty("tile." + page + ".before");
+                if (beforeProperty == null) {
+                    // saved by an older version, which kept the features in other tiles
+                    LOG.info("Discarding the pages of " + source.getName() + " saved by an older version");
+                    tiles = null;
+                    return false;
+                }
+                for (String envelope : beforeProperty.split(";")) {
+                    if (envelope.length() > 0) {
+                        before.add(parseEnvelope(envelope));
+                    }
+                }
+                tiles.add(new Tile(area.getMinX(), area.getMinY(), area.getMaxX(), area.getMaxY(), before));
+            }
+        }
+        return true;
+    }
+
+    private static Envelope parseEnvelope(String envelope) {
+        String[] bounds = envelope.split(",");
+        return new Envelope(Double.parseDouble(bounds[0]), Double.parseDouble(bounds[2]),
+                Double.parseDouble(bounds[1]), Double.parseDouble(bounds[3]));
+    }
+
+    private static String formatEnvelope(Envelope envelope) {
+        return envelope.getMinX() + "," + envelope.getMinY() + "," + envelope.getMaxX() + "," + envelope.getMaxY();
+    }
+
+    private void writeLayout() throws IOException {
+        Properties layout = new Properties();
+        layout.setProperty("mode", mode.name());
+        layout.setProperty("pages", String.valueOf(pageCount));
+        if (mode == Mode.TILES) {
+            for (int page = 0; page < pageCount; page++) {
+                Tile tile = tiles.get(page);
+                layout.setProperty("tile." + page, formatEnvelope(tile.area));
+                StringBuilder before = new StringBuilder();
+                for (Envelope envelope : tile.before) {
+                    if (before.length() > 0) {
+                        before.append(';');
+                    }
+                    before.append(formatEnvelope(envelope));
+                }
+                layout.setProperty("tile." + page + ".before", before.toString());
+            }
+        }
+        File part = new File(checkpointDir, LAYOUT_FILE + ".part");
+        OutputStream out = new FileOutputStream(part);
+        try {
+            layout.store(out, "page layout, do not edit");
+        } finally {
+            out.close();
+        }
+        if (!part.renameTo(new File(checkpointDir, LAYOUT_FILE))) {
+            throw new IOException("Unable to save the page layout in " + checkpointDir);
+        }
+    }
+
+    /**
+     * @return the query of the page
+     */
+    Query pageQuery(int page) {
+        switch (mode) {
+        case OFFSET:
+            Query pageQuery = new Query(query);
+            pageQuery.setSortBy(sortBy());
+            pageQuery.setStartIndex(page * paging.getPageSize());
+            pageQuery.setMaxFeatures(paging.getPageSize());
+            return pageQuery;
+        case TILES:
+            return tileQuery(tiles.get(page));
+        default:
+            return new Query(query);
+        }
+    }
+
+    /**
+     * @return the query of the features crossing the tile, in the CRS of the layer
+     */
+    private Query tileQuery(Tile tile) {
+        Query tileQuery = new Query(query);
+        tileQuery.setCoordinateSystemReproject(null);
+        ReferencedEnvelope envelope = new ReferencedEnvelope(tile.minX, tile.maxX, tile.minY, tile.maxY,
+                bbox.getCoordinateReferenceSystem());
+        FilterFactory2 filterFactory = CommonFactoryFinder.getFilterFactory2(GeoTools.getDefaultHints());
+        Filter tileFilter = filterFactory.bbox(filterFactory.property(geometryName), envelope);
+        tileQuery.setFilter(filterFactory.and(query.getFilter(), tileFilter));
+        return tileQuery;
+    }
+
+    File pageFile(int page) {
+        return new File(checkpointDir, String.format("page-%05d.ser", page));
+    }
+
+    private void acquire() throws IOException {
+        try {
+            paging.acquire(host);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for " + host);
+        }
+    }
+
+    /**
+     * Downloads the features of the query into the file, which only appears
+     * once complete.
+     *
+     * @param tile if not null, only the features it holds are written, reprojected
+     * @return the number of features returned by the query
+     */
+    private int download(Query pageQuery, Tile tile, File file) throws IOException {
+        File part = new File(file.getPath() + ".part");
+        int count = 0;
+        int written = 0;
+        SimpleFeatureIterator features = source.getFeatures(pageQuery).features();
+        ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(part)));
+        try {
+            while (features.hasNext()) {
+                SimpleFeature feature = features.next();
+                count++;
+                Geometry geometry = (Geometry) feature.getDefaultGeometry();
+                if (tile != null && geometry != null && !tile.owns(geometry)) {
+                    // read from another tile
+                    continue;
+                }
+                Object[] values = feature.getAttributes().toArray();
+                for (int i = 0; i < values.length; i++) {
+                    if (values[i] instanceof Geometry) {
+                        if (tile != null && tileTransform != null) {
+                            try {
+                                values[i] = JTS.transform((Geometry) values[i], tileTransform);
+                            } catch (TransformException e) {
+                                throw new IOException("Unable to reproject " + feature.getID(), e);
+                            }
+                        }
+                        // may hold the CRS, which is known from the schema anyway
+                        ((Geometry) values[i]).setUserData(null);
+                    }
+                }
+                out.writeBoolean(true);
+                out.writeObject(feature.getID());
+                out.writeObject(values);
+                if (++written % RESET_INTERVAL == 0) {
+                    out.reset();
+                }
+            }
+            out.writeBoolean(false);
+        } finally {
+            features.close();
+            out.close();
+        }
+        if (!part.renameTo(file)) {
+            throw new IOException("Unable to save the page " + file);
+        }
+        return count;
+    }
+
+    /**
+     * Schedules the download of the missing pages, once.
+     */
+    private synchronized List<Future<File>> start() {
+        if (downloads != null) {
+            return downloads;
+        }
+        final String threadName = "Extractorapp-page-" + source.getName().getLocalPart() + "-";
+        executor = Executors.newFixedThreadPool(paging.getMaxPagesPerHost(), new ThreadFactory() {
+            private int count = 0;
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r);
+                thread.setName(threadName + (count++));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        downloads = new ArrayList<Future<File>>();
+        for (int i = 0; i < pageCount; i++) {
+            final int page = i;
+            downloads.add(executor.submit(new Callable<File>() {
+                @Override
+                public File call() throws Exception {
+                    File file = pageFile(page);
+                    if (file.exists()) {
+                        LOG.debug("Page " + page + " of " + source.getName() + " already downloaded");
+                        return file;
+                    }
+                    acquire();
+                    try {
+                        int count = download(pageQuery(page), mode == Mode.TILES ? tiles.get(page) : null, file);
+                        LOG.debug(String.format("Page %d/%d of %s: %d features", page + 1, pageCount,
+                                source.getName(), count));
+                    } finally {
+                        paging.release(host);
+                    }
+                    return file;
+                }
+            }));
+        }
+        // the submitted pages are still downloaded
+        executor.shutdown();
+        return downloads;
+    }
+
+    /**
+     * Cancels the downloads in progress, the complete pages are kept.
+     */
+    synchronized void cancel() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    @Override
+    public SimpleFeatureIterator features() {
+        return new PageIterator(start());
+    }
+
+    /**
+     * Reads the pages in order, waiting for each one to be downloaded.
+     */
+    private class PageIterator implements SimpleFeatureIterator {
+        private final List<Future<File>> pages;
+        private int page = 0;
+        private ObjectInputStream in;
+        private SimpleFeature next;
+
+        PageIterator(List<Future<File>> pages) {
+            this.pages = pages;
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while (next == null) {
+                    if (in == null) {
+                        if (page >= pages.size()) {
+                            return false;
+                        }
+                        File file = pages.get(page++).get();
+                        in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+                    }
+                    if (!in.readBoolean()) {
+                        in.close();
+                        in = null;
+                        continue;
+                    }
+                    String id = (String) in.readObject();
+                    Object[] values = (Object[]) in.readObject();
+                    next = SimpleFeatureBuilder.build(getSchema(), values, id);
+                }
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw fail(e);
+            } catch (ExecutionException e) {
+                throw fail(e.getCause());
+            } catch (IOException e) {
+                throw fail(e);
+            } catch (ClassNotFoundException e) {
+                throw fail(e);
+            }
+        }
+
+        private RuntimeException fail(Throwable cause) {
+            cancel();
+            close();
+            return new RuntimeException("Paged extraction of " + source.getName() + " failed", cause);
+        }
+
+        @Override
+        public SimpleFeature next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            SimpleFeature feature = next;
+            next = null;
+            return feature;
+        }
+
+        @Override
+        public void close() {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    LOG.debug("Unable to close page", e);
+                }
+                in = null;
+            }
+        }
+    }
+
+    /**
+     * Part of the bounding box, downloaded as a page.
+     */
+    static final class Tile {
+        private static final GeometryFactory GEOMETRY_FACTORY = new GeometryFactory();
+
+        final double minX;
+        final double minY;
+        final double maxX;
+        final double maxY;
+        final Envelope area;
+        /** covers the tiles before this one in the layout, whatever they are split into */
+        final List<Envelope> before;
+        /** the probe holding the whole tile, if any */
+        File probe;
+        List<Tile> children;
+
+        Tile(double minX, double minY, double maxX, double maxY, List<Envelope> before) {
+            this.minX = minX;
+            this.minY = minY;
+            this.maxX = maxX;
+            this.maxY = maxY;
+            this.area = new Envelope(minX, maxX, minY, maxY);
+            this.before = before;
+        }
+
+        /**
+         * A feature crossing several tiles is returned by each of them, and
+         * only kept by the first one.
+         *
+         * @return true if the geometry intersects the tile, and none of the tiles before it
+         */
+        boolean owns(Geometry geometry) {
+            if (!intersects(geometry, area)) {
+                return false;
+            }
+            for (Envelope envelope : before) {
+                if (intersects(geometry, envelope)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean intersects(Geometry geometry, Envelope envelope) {
+            return geometry.getEnvelopeInternal().intersects(envelope)
+                    && geometry.intersects(GEOMETRY_FACTORY.toGeometry(envelope));
+        }
+
+        /**
+         * @return the quarters of the tile, in layout order
+         */
+        List<Tile> split() {
+            double midX = (minX + maxX) / 2;
+            double midY = (minY + maxY) / 2;
+            List<Tile> quarters = new ArrayList<Tile>(4);
+            addQuarter(quarters, minX, minY, midX, midY);
+            addQuarter(quarters, midX, minY, maxX, midY);
+            addQuarter(quarters, minX, midY, midX, maxY);
+            addQuarter(quarters, midX, midY, maxX, maxY);
+            return quarters;
+        }
+
+        private void addQuarter(List<Tile> quarters, double minX, double minY, double maxX, double maxY) {
+            List<Envelope> quarterBefore = new ArrayList<Envelope>(before);
+            for (Tile quarter : quarters) {
+                quarterBefore.add(quarter.area);
+            }
+            quarters.add(new Tile(minX, minY, maxX, maxY, quarterBefore));
+        }
+
+        void collectLeaves(List<Tile> leaves) {
+            if (children == null) {
+                leaves.add(this);
+            } else {
+                for (Tile child : children) {
+                    child.collectLeaves(leaves);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,775 @@
+/*
+ * Copyright (C) 2009-2018 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.georchestra.extractorapp.ws.extractor;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import org.georchestra.extractorapp.ws.ExtractorException;
+
+/**
+ * Builds a zip archive whose entries are compressed in parallel.
+ * <p>
+ * Each file added is deflated on its own by the executor, into a temporary
+ * file next to the archive, as soon as it is added. {@link #finish()} then
+ * only has to append the compressed entries one after the other and write the
+ * central directory. Files which are already compressed (JPEG, PNG, zip,
+ * compressed GeoTIFF...) are stored as is. Archives and entries over 4GB are
+ * written with the zip64 extensions.
+ * </p>
+ * <p>
+ * Files larger than a block are split, the way pigz does, into blocks
+ * deflated in parallel: each block is primed with the last 32KB of the
+ * previous one as preset dictionary, and ends with a sync flush so that the
+ * deflated blocks can simply be concatenated. Their CRC32 are combined once
+ * they are all done.
+ * </p>
+ * <p>
+ * Entries are named after their path relative to the parent of the base
+ * directory, as {@link FileUtils#zipDir} does.
+ * </p>
+ */
+public class ParallelZipArchiver {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int BLOCK_SIZE = 4 * 1024 * 1024;
+    /** size of the deflate window, hence of the preset dictionaries */
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+    private static final long ZIP64_LIMIT = 0xFFFFFFFFL;
+    private static final int ZIP64_ENTRIES_LIMIT = 0xFFFF;
+    /** general purpose flag telling that entry names are UTF-8 encoded */
+    private static final int UTF8_FLAG = 0x0800;
+
+    private static final Set<String> COMPRESSED_EXTENSIONS = new HashSet<String>(Arrays.asList("jpg", "jpeg", "png",
+            "gif", "jp2", "ecw", "sid", "zip", "kmz", "gz", "tgz", "bz2", "7z"));
+
+    private final File baseDir;
+    private final File storageFile;
+    private final ExecutorService executor;
+    private final int blockSize;
+    private final List<Future<Entry>> entries = new ArrayList<Future<Entry>>();
+
+    private long inputSize;
+    private long archiveSize;
+    private long compressionTime;
+    private long finishTime;
+    private boolean finished = false;
+
+    /**
+     * @param baseDir the directory holding all the files to archive
+     * @param storageFile the zip file to create
+     * @param executor compresses the entries, if null they are compressed by the thread calling add()
+     */
+    public ParallelZipArchiver(File baseDir, File storageFile, ExecutorService executor) {
+        this(baseDir, storageFile, executor, BLOCK_SIZE);
+    }
+
+    /**
+     * @param blockSize files larger than this are deflated in several blocks in parallel
+     */
+    ParallelZipArchiver(File baseDir, File storageFile, ExecutorService executor, int blockSize) {
+        if (blockSize < DICTIONARY_SIZE) {
+            throw new IllegalArgumentException("The blocks must be at least " + DICTIONARY_SIZE + " bytes long");
+        }
+        this.baseDir = baseDir;
+        this.storageFile = storageFile;
+        this.executor = executor;
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Schedules the compression of a file, or of all the files of a directory.
+     * The files must not be modified until the archive is finished.
+     */
+    public synchronized void add(File file) {
+        if (finished) {
+            throw new IllegalStateException("The archive is already finished: " + storageFile);
+        }
+        if (!file.getPath().startsWith(baseDir.getPath())) {
+            throw new ExtractorException("When performing a Zip all files must be within the baseFile: " + file
+                    + " not contained by " + baseDir);
+        }
+
+        if (file.isDirectory()) {
+            for (File f : file.listFiles()) {
+                add(f);
+            }
+        } else {
+            final String name = file.getPath().substring(baseDir.getParent().length() + 1)
+                    .replace(File.separatorChar, '/');
+            final File source = file;
+            if (executor != null && file.length() > blockSize && !isCompressed(file)) {
+                entries.add(compressBlocks(source, name));
+                return;
+            }
+            Callable<Entry> compression = new Callable<Entry>() {
+                @Override
+                public Entry call() throws IOException {
+                    return compress(source, name);
+                }
+            };
+            if (executor == null) {
+                FutureTask<Entry> task = new FutureTask<Entry>(compression);
+                task.run();
+                entries.add(task);
+            } else {
+                entries.add(executor.submit(compression));
+            }
+        }
+    }
+
+    /**
+     * Waits for all the entries to be compressed and writes the archive.
+     *
+     * @return the archive
+     */
+    public synchronized File finish() throws IOException {
+        if (finished) {
+            throw new IllegalStateException("The archive is already finished: " + storageFile);
+        }
+        finished = true;
+        long start = System.currentTimeMillis();
+
+        List<Entry> written = new ArrayList<Entry>();
+        IOException failure = null;
+        CountingOutputStream out = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(
+                storageFile), BUFFER_SIZE));
+        try {
+            for (Future<Entry> future : entries) {
+                Entry entry;
+                try {
+                    entry = getEntry(future);
+                } catch (IOException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                    continue;
+                }
+                try {
+                    if (failure == null) {
+                        entry.offset = out.getCount();
+                        writeLocalHeader(out, entry);
+                        if (entry.data.isEmpty()) {
+                            copy(entry.source, out);
+                        }
+                        for (File data : entry.data) {
+                            copy(data, out);
+                        }
+                        written.add(entry);
+                        inputSize += entry.size;
+                        compressionTime += entry.compressionTime;
+                    }
+                } catch (IOException e) {
+                    failure = e;
+                } finally {
+                    for (File data : entry.data) {
+                        data.delete();
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            writeCentralDirectory(out, written);
+        } finally {
+            out.close();
+        }
+
+        archiveSize = storageFile.length();
+        finishTime = System.currentTimeMillis() - start;
+        return storageFile;
+    }
+
+    public File getStorageFile() {
+        return storageFile;
+    }
+
+    /**
+     * @return number of bytes archived, before compression
+     */
+    public long getInputSize() {
+        return inputSize;
+    }
+
+    /**
+     * @return size of the archive in bytes
+     */
+    public long getArchiveSize() {
+        return archiveSize;
+    }
+
+    /**
+     * @return time spent compressing the entries in ms, added over all the threads
+     */
+    public long getCompressionTime() {
+        return compressionTime / 1000000;
+    }
+
+    /**
+     * @return time spent in {@link #finish()} in ms, waiting for the last entries and writing the archive
+     */
+    public long getFinishTime() {
+        return finishTime;
+    }
+
+    private <T> T getEntry(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing " + storageFile);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Unable to compress an entry of " + storageFile, e.getCause());
+        }
+    }
+
+    private Entry compress(File file, String name) throws IOException {
+        long start = System.nanoTime();
+        Entry entry = new Entry(name, file);
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[BUFFER_SIZE];
+
+        InputStream in = new FileInputStream(file);
+        try {
+            if (isCompressed(file)) {
+                entry.method = STORED;
+                for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+                    crc.update(buffer, 0, read);
+                    entry.size += read;
+                }
+                entry.compressedSize = entry.size;
+            } else {
+                entry.method = DEFLATED;
+                File data = File.createTempFile("zip-entry", ".deflate", storageFile.getParentFile());
+                entry.data.add(data);
+                Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+                DeflaterOutputStream out = new DeflaterOutputStream(new FileOutputStream(data), deflater,
+                        BUFFER_SIZE);
+                boolean done = false;
+                try {
+                    for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+                        crc.update(buffer, 0, read);
+                        out.write(buffer, 0, read);
+                        entry.size += read;
+                    }
+                    out.finish();
+                    done = true;
+                } finally {
+                    out.close();
+                    deflater.end();
+                    if (!done) {
+                        data.delete();
+                    }
+                }
+                entry.compressedSize = data.length();
+            }
+        } finally {
+            in.close();
+        }
+
+        entry.crc = crc.getValue();
+        entry.compressionTime = System.nanoTime() - start;
+        return entry;
+    }
+
+    /**
+     * Schedules the compression of the blocks of a large file.
+     *
+     * @return the entry, assembled by the thread calling {@link #finish()} so
+     *         that the executor threads never wait for each other
+     */
+    private Future<Entry> compressBlocks(final File file, final String name) {
+        final long length = file.length();
+        final List<Future<Block>> blocks = new ArrayList<Future<Block>>();
+        for (long offset = 0; offset < length; offset += blockSize) {
+            final long blockOffset = offset;
+            final int size = (int) Math.min(blockSize, length - offset);
+            final boolean last = offset + size >= length;
+            blocks.add(executor.submit(new Callable<Block>() {
+                @Override
+                public Block call() throws IOException {
+                    return compressBlock(file, blockOffset, size, last);
+                }
+            }));
+        }
+        return new FutureTask<Entry>(new Callable<Entry>() {
+            @Override
+            public Entry call() throws IOException {
+                Entry entry = new Entry(name, file);
+                entry.method = DEFLATED;
+                IOException failure = null;
+                for (Future<Block> future : blocks) {
+                    try {
+                        Block block = getEntry(future);
+                        entry.data.add(block.data);
+                        entry.crc = crc32Combine(entry.crc, block.crc, block.size);
+                        entry.size += block.size;
+                        entry.compressedSize += block.data.length();
+                        entry.compressionTime += block.compressionTime;
+                    } catch (IOException e) {
+                        if (failure == null) {
+                            failure = e;
+                        }
+                    }
+                }
+                if (failure != null) {
+                    for (File data : entry.data) {
+                        data.delete();
+                    }
+                    throw failure;
+                }
+                if (entry.size != length) {
+                    for (File data : entry.data) {
+                        data.delete();
+                    }
+                    throw new IOException("File modified while being compressed: " + file);
+                }
+                return entry;
+            }
+        }) {
+            @Override
+            public Entry get() throws InterruptedException, ExecutionException {
+                run();
+                return super.get();
+            }
+        };
+    }
+
+    /**
+     * Deflates a block of a file. All the blocks but the last end with a sync
+     * flush, leaving the deflate stream open and byte aligned for the next one.
+     */
+    private Block compressBlock(File file, long offset, int size, boolean last) throws IOException {
+        long start = System.nanoTime();
+        int dictionarySize = (int) Math.min(DICTIONARY_SIZE, offset);
+        byte[] input = new byte[dictionarySize + size];
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            in.seek(offset - dictionarySize);
+            in.readFully(input);
+        } finally {
+            in.close();
+        }
+
+        Block block = new Block();
+        CRC32 crc = new CRC32();
+        crc.update(input, dictionarySize, size);
+        block.crc = crc.getValue();
+        block.size = size;
+        block.data = File.createTempFile("zip-block", ".deflate", storageFile.getParentFile());
+
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        OutputStream out = new FileOutputStream(block.data);
+        boolean done = false;
+        try {
+            if (dictionarySize > 0) {
+                deflater.setDictionary(input, 0, dictionarySize);
+            }
+            deflater.setInput(input, dictionarySize, size);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    out.write(buffer, 0, deflater.deflate(buffer));
+                }
+            } else {
+                // a full buffer means there may be more output pending
+                int deflated;
+                do {
+                    deflated = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    out.write(buffer, 0, deflated);
+                } while (deflated == buffer.length);
+            }
+            done = true;
+        } finally {
+            out.close();
+            deflater.end();
+            if (!done) {
+                block.data.delete();
+            }
+        }
+        block.compressionTime = System.nanoTime() - start;
+        return block;
+    }
+
+    /**
+     * Computes the CRC32 of two concatenated sequences from their own CRC32,
+     * as zlib's crc32_combine() does.
+     *
+     * @param crc1 CRC32 of the first sequence
+     * @param crc2 CRC32 of the second sequence
+     * @param length2 length of the second sequence
+     */
+    static long crc32Combine(long crc1, long crc2, long length2) {
+        if (length2 <= 0) {
+            return crc1;
+        }
+        long[] even = new long[32];
+        long[] odd = new long[32];
+
+        // operator for one zero bit
+        odd[0] = 0xEDB88320L;
+        long row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        // operators for two, then four zero bits
+        gf2MatrixSquare(even, odd);
+        gf2MatrixSquare(odd, even);
+
+        // apply the operators for the zero bytes of the second sequence
+        do {
+            gf2MatrixSquare(even, odd);
+            if ((length2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(even, crc1);
+            }
+            length2 >>= 1;
+            if (length2 == 0) {
+                break;
+            }
+            gf2MatrixSquare(odd, even);
+            if ((length2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(odd, crc1);
+            }
+            length2 >>= 1;
+        } while (length2 != 0);
+
+        return crc1 ^ crc2;
+    }
+
+    private static long gf2MatrixTimes(long[] matrix, long vector) {
+        long sum = 0;
+        for (int i = 0; vector != 0; i++, vector >>>= 1) {
+            if ((vector & 1) != 0) {
+                sum ^= matrix[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void gf2MatrixSquare(long[] square, long[] matrix) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = gf2MatrixTimes(matrix, matrix[n]);
+        }
+    }
+
+    /**
+     * @return true if deflating the file would not make it any smaller
+     */
+    static boolean isCompressed(File file) {
+        String name = file.getName();
+        String extension = name.substring(name.lastIndexOf('.') + 1).toLowerCase();
+        if (COMPRESSED_EXTENSIONS.contains(extension)) {
+            return true;
+        }
+        if ("tif".equals(extension) || "tiff".equals(extension)) {
+            return isCompressedTiff(file);
+        }
+        return false;
+    }
+
+    /**
+     * Reads the compression tag of the first image of a TIFF file.
+     */
+    static boolean isCompressedTiff(File file) {
+        try {
+            RandomAccessFile in = new RandomAccessFile(file, "r");
+            try {
+                byte[] header = new byte[8];
+                in.readFully(header);
+                boolean littleEndian;
+                if (header[0] == 'I' && header[1] == 'I') {
+                    littleEndian = true;
+                } else if (header[0] == 'M' && header[1] == 'M') {
+                    littleEndian = false;
+                } else {
+                    return false;
+                }
+                // BigTIFF is not handled
+                if (readShort(header, 2, littleEndian) != 42) {
+                    return false;
+                }
+                in.seek(readInt(header, 4, littleEndian));
+                byte[] count = new byte[2];
+                in.readFully(count);
+                byte[] tags = new byte[readShort(count, 0, littleEndian) * 12];
+                in.readFully(tags);
+                for (int i = 0; i < tags.length; i += 12) {
+                    if (readShort(tags, i, littleEndian) == 259) {
+                        int type = readShort(tags, i + 2, littleEndian);
+                        long compression = type == 3 ? readShort(tags, i + 8, littleEndian) : readInt(tags, i + 8,
+                                littleEndian);
+                        return compression != 1;
+                    }
+                }
+                return false;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static int readShort(byte[] b, int offset, boolean littleEndian) {
+        if (littleEndian) {
+            return (b[offset] & 0xFF) | (b[offset + 1] & 0xFF) << 8;
+        }
+        return (b[offset] & 0xFF) << 8 | (b[offset + 1] & 0xFF);
+    }
+
+    private static long readInt(byte[] b, int offset, boolean littleEndian) {
+        if (littleEndian) {
+            return (readShort(b, offset, true) | (long) readShort(b, offset + 2, true) << 16);
+        }
+        return ((long) readShort(b, offset, false) << 16 | readShort(b, offset + 2, false));
+    }
+
+    private static void copy(File file, OutputStream out) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        InputStream in = new FileInputStream(file);
+        try {
+            for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeLocalHeader(CountingOutputStream out, Entry entry) throws IOException {
+        boolean zip64 = entry.size >= ZIP64_LIMIT || entry.compressedSize >= ZIP64_LIMIT;
+        byte[] name = entry.name.getBytes("UTF-8");
+
+        out.writeInt(0x04034b50);
+        out.writeShort(zip64 ? 45 : 20);
+        out.writeShort(UTF8_FLAG);
+        out.writeShort(entry.method);
+        out.writeInt(entry.dosTime);
+        out.writeInt(entry.crc);
+        out.writeInt(zip64 ? ZIP64_LIMIT : entry.compressedSize);
+        out.writeInt(zip64 ? ZIP64_LIMIT : entry.size);
+        out.writeShort(name.length);
+        out.writeShort(zip64 ? 20 : 0);
+        out.write(name);
+        if (zip64) {
+            out.writeShort(0x0001);
+            out.writeShort(16);
+            out.writeLong(entry.size);
+            out.writeLong(entry.compressedSize);
+        }
+    }
+
+    private static void writeCentralDirectory(CountingOutputStream out, List<Entry> entries) throws IOException {
+        long start = out.getCount();
+        boolean zip64 = entries.size() >= ZIP64_ENTRIES_LIMIT;
+
+        for (Entry entry : entries) {
+            byte[] name = entry.name.getBytes("UTF-8");
+            boolean zip64Size = entry.size >= ZIP64_LIMIT || entry.compressedSize >= ZIP64_LIMIT;
+            boolean zip64Offset = entry.offset >= ZIP64_LIMIT;
+            int extra = (zip64Size ? 16 : 0) + (zip64Offset ? 8 : 0);
+            zip64 |= extra > 0;
+
+            out.writeInt(0x02014b50);
+            out.writeShort(extra > 0 ? 45 : 20);
+            out.writeShort(zip64Size ? 45 : 20);
+            out.writeShort(UTF8_FLAG);
+            out.writeShort(entry.method);
+            out.writeInt(entry.dosTime);
+            out.writeInt(entry.crc);
+            out.writeInt(zip64Size ? ZIP64_LIMIT : entry.compressedSize);
+            out.writeInt(zip64Size ? ZIP64_LIMIT : entry.size);
+            out.writeShort(name.length);
+            out.writeShort(extra > 0 ? extra + 4 : 0);
+            out.writeShort(0); // comment
+            out.writeShort(0); // disk number
+            out.writeShort(0); // internal attributes
+            out.writeInt(0); // external attributes
+            out.writeInt(zip64Offset ? ZIP64_LIMIT : entry.offset);
+            out.write(name);
+            if (extra > 0) {
+                out.writeShort(0x0001);
+                out.writeShort(extra);
+                if (zip64Size) {
+                    out.writeLong(entry.size);
+                    out.writeLong(entry.compressedSize);
+                }
+                if (zip64Offset) {
+                    out.writeLong(entry.offset);
+                }
+            }
+        }
+
+        long end = out.getCount();
+        long size = end - start;
+        zip64 |= start >= ZIP64_LIMIT || size >= ZIP64_LIMIT;
+        if (zip64) {
+            // zip64 end of central directory record
+            out.writeInt(0x06064b50);
+            out.writeLong(44);
+            out.writeShort(45);
+            out.writeShort(45);
+            out.writeInt(0);
+            out.writeInt(0);
+            out.writeLong(entries.size());
+            out.writeLong(entries.size());
+            out.writeLong(size);
+            out.writeLong(start);
+            // zip64 end of central directory locator
+            out.writeInt(0x07064b50);
+            out.writeInt(0);
+            out.writeLong(end);
+            out.writeInt(1);
+        }
+        int count = Math.min(entries.size(), ZIP64_ENTRIES_LIMIT);
+        out.writeInt(0x06054b50);
+        out.writeShort(0);
+        out.writeShort(0);
+        out.writeShort(count);
+        out.writeShort(count);
+        out.writeInt(Math.min(size, ZIP64_LIMIT));
+        out.writeInt(Math.min(start, ZIP64_LIMIT));
+        out.writeShort(0); // comment
+    }
+
+    /**
+     * Converts a time in ms to the MS-DOS date and time used by zip.
+     */
+    static long dosTime(long time) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (long) (year - 1980) << 25 | (calendar.get(Calendar.MONTH) + 1) << 21
+                | calendar.get(Calendar.DAY_OF_MONTH) << 16 | calendar.get(Calendar.HOUR_OF_DAY) << 11
+                | calendar.get(Calendar.MINUTE) << 5 | calendar.get(Calendar.SECOND) >> 1;
+    }
+
+    private static class Entry {
+        final String name;
+        final File source;
+        final long dosTime;
+        int method;
+        long crc;
+        long size;
+        long compressedSize;
+        long offset;
+        long compressionTime;
+        /** the deflated data, in as many files as blocks, empty if the entry is stored */
+        final List<File> data = new ArrayList<File>();
+
+        Entry(String name, File source) {
+            this.name = name;
+            this.source = source;
+            this.dosTime = dosTime(source.lastModified());
+        }
+    }
+
+    private static class Block {
+        long crc;
+        int size;
+        long compressionTime;
+        File data;
+    }
+
+    /**
+     * Writes little endian values and keeps track of the current offset.
+     */
+    private static class CountingOutputStream extends OutputStream {
+        private final OutputStream out;
+        private long count = 0;
+
+        CountingOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        long getCount() {
+            return count;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        void writeShort(int v) throws IOException {
+            write(v & 0xFF);
+            write((v >>> 8) & 0xFF);
+        }
+
+        void writeInt(long v) throws IOException {
+            writeShort((int) (v & 0xFFFF));
+            writeShort((int) ((v >>> 16) & 0xFFFF));
+        }
+
+        void writeLong(long v) throws IOException {
+            writeInt(v & 0xFFFFFFFFL);
+            writeInt(v >>> 32);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
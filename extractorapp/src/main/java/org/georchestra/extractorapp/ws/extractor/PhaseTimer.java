@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2009-2018 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.georchestra.extractorapp.ws.extractor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Records how long each phase of a layer extraction takes. A timer is bound
+ * to the thread extracting the layer for one attempt, and the extractors
+ * record their phases into it with {@link #start()} and
+ * {@link #stop(String, long)}; nothing is recorded when no timer is bound.
+ * <p>
+ * Work done by other threads, like the WCS tile downloads, is timed as a
+ * whole by the layer thread waiting for it.
+ * </p>
+ */
+public class PhaseTimer {
+
+    public static final String PERMISSION = "permission";
+    public static final String CACHE = "cache";
+    public static final String WFS_CONNECT = "wfs_connect";
+    /** the features are downloaded, reprojected and written as a stream */
+    public static final String WFS_DOWNLOAD = "wfs_download";
+    public static final String BBOX = "bbox";
+    public static final String WCS_DOWNLOAD = "wcs_download";
+    public static final String REPROJECT = "reproject";
+    public static final String GDAL = "gdal";
+    public static final String METADATA = "metadata";
+    public static final String ARCHIVE = "archive";
+
+    private static final ThreadLocal<PhaseTimer> current = new ThreadLocal<PhaseTimer>();
+
+    private final String layer;
+    private final String host;
+    private final String format;
+    private final int attempt;
+    private final Long layerLogId;
+    private final List<Span> spans = new ArrayList<Span>();
+
+    /**
+     * @param request the extracted layer, null for the phases of the whole
+     *            extraction
+     * @param attempt the extraction attempt, 0 when the layer is not
+     *            extracted
+     */
+    public PhaseTimer(ExtractorLayerRequest request, int attempt) {
+        if (request != null) {
+            this.layer = request._layerName;
+            this.host = request._url.getHost();
+            this.format = request._format;
+            this.layerLogId = request.getDbLogId();
+        } else {
+            this.layer = null;
+            this.host = null;
+            this.format = null;
+            this.layerLogId = null;
+        }
+        this.attempt = attempt;
+    }
+
+    /**
+     * Binds this timer to the current thread, until {@link #unbind()} is
+     * called.
+     */
+    public void bind() {
+        current.set(this);
+    }
+
+    public static void unbind() {
+        current.remove();
+    }
+
+    /**
+     * @return the start time of a phase, to pass to {@link #stop(String, long)}
+     */
+    public static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the phase started at the given time into the timer bound to
+     * the current thread, if any.
+     */
+    public static void stop(String phase, long start) {
+        PhaseTimer timer = current.get();
+        if (timer != null) {
+            timer.record(phase, start);
+        }
+    }
+
+    public synchronized void record(String phase, long start) {
+        long end = System.nanoTime();
+        spans.add(new Span(phase, layer, host, format, attempt, layerLogId,
+                System.currentTimeMillis() - (end - start) / 1000000, (end - start) / 1000000));
+    }
+
+    public synchronized List<Span> getSpans() {
+        return Collections.unmodifiableList(new ArrayList<Span>(spans));
+    }
+
+    /**
+     * A phase of an extraction, with its duration in milliseconds.
+     */
+    public static final class Span {
+        public final String phase;
+        /** the layer name, host and format are null for the phases of the whole extraction */
+        public final String layer;
+        public final String host;
+        public final String format;
+        public final int attempt;
+        /** id of the extractor_layer_log row of the layer, if any */
+        public final Long layerLogId;
+        public final long startTime;
+        public final long duration;
+
+        public Span(String phase, String layer, String host, String format, int attempt, Long layerLogId,
+                long startTime, long duration) {
+            this.phase = phase;
+            this.layer = layer;
+            this.host = host;
+            this.format = format;
+            this.attempt = attempt;
+            this.layerLogId = layerLogId;
+            this.startTime = startTime;
+            this.duration = duration;
+        }
+    }
+}
@@ -31,6 +31,8 @@ final class TaskDescriptor {
     public static final String REQUEST_TS_KEY =  "request_ts";
     public static final String BEGIN_TS_KEY = "begin_ts";
     public static final String END_TS_KEY = "end_ts";
+    /** durations of the extraction phases, only in the getTaskQueue response */
+    public static final String PHASES_KEY = "phases";
 
 	private final String id;
 	private final ExecutionPriority priority;
@@ -15,6 +15,7 @@ import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.georchestra.extractorapp.ws.extractor.wcs.WcsCoverageReader;
+import org.georchestra.extractorapp.ws.extractor.wcs.WcsTiling;
 import org.georchestra.extractorapp.ws.extractor.wcs.WcsFormat;
 import org.georchestra.extractorapp.ws.extractor.wcs.WcsReaderRequest;
 import org.georchestra.extractorapp.ws.extractor.wcs.WcsReaderRequestFactory;
@@ -36,12 +37,20 @@ public class WcsExtractor {
     private final File      _basedir;
     private final WcsFormat _format;
     private RequestConfiguration requestConfig;
+    private WcsTiling _tiling;
 
     public WcsExtractor(File requestBaseDir, RequestConfiguration requestConfig){
         this._basedir = requestBaseDir;
         this._format = new WcsFormat(requestConfig.maxCoverageExtractionSize);
         this.requestConfig = requestConfig;
     }
+
+    /**
+     * @param tiling extracts the coverages larger than the maximum size as tiles
+     */
+    public void setTiling(WcsTiling tiling) {
+        this._tiling = tiling;
+    }
     protected static final Log LOG = LogFactory.getLog(WcsExtractor.class.getPackage().getName());
 
 	public void checkPermission(ExtractorLayerRequest request, String secureHost, String username, String roles)
@@ -73,7 +82,9 @@ public class WcsExtractor {
         }
 
         final CloseableHttpClient httpclient = httpClientBuilder.build();
-        String capabilities = FileUtils.asString(httpclient.execute(httpHost, get, localContext).getEntity().getContent());
+        // the layers of an extraction are usually served by the same server
+        String key = OwsDocumentCache.key(capabilitiesURL.toExternalForm(), "permissions", username, roles, null);
+        String capabilities = WfsExtractor.getCapabilities(key, httpclient, httpHost, get, localContext);
 
 
         String queriedLayer = request._layerName;
@@ -120,6 +131,7 @@ public class WcsExtractor {
         }
 
         WcsCoverageReader reader = _format.getReader(request._url);
+        reader.setTiling(_tiling);
 
         File basedir = request.createContainingDir(_basedir);
         if (!basedir.mkdirs() && !basedir.exists()) {
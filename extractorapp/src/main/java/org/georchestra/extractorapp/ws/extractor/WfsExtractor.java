@@ -12,7 +12,9 @@ import javax.xml.namespace.QName;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.http.Header;
 import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.AuthCache;
@@ -24,11 +26,13 @@ import org.apache.http.impl.client.BasicAuthCache;
 import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.util.EntityUtils;
 import org.geotools.data.DataStore;
 import org.geotools.data.DataStoreFinder;
 import org.geotools.data.Query;
 import org.geotools.data.Transaction;
 import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureSource;
 import org.geotools.data.store.ContentDataStore;
 import org.geotools.data.store.ContentFeatureSource;
 import org.geotools.data.wfs.impl.WFSContentDataStore;
@@ -124,6 +128,8 @@ public class WfsExtractor {
     private final String _adminPassword;
     private final String _secureHost;
     private String userAgent;
+    private WfsPaging _paging;
+    private File _checkpointDir;
 
     /**
      *
@@ -150,6 +156,19 @@ public class WfsExtractor {
         this.userAgent = userAgent;
     }
 
+    /**
+     * Enables the paged extraction of the layers with more than
+     * paging.getPageSize() features.
+     *
+     * @param paging page size and number of pages downloaded at once from a host
+     * @param checkpointDir where the downloaded pages are kept between two
+     *            attempts, the same directory must be given when retrying
+     */
+    public void setPaging(WfsPaging paging, File checkpointDir) {
+        this._paging = paging;
+        this._checkpointDir = checkpointDir;
+    }
+
     public void checkPermission(ExtractorLayerRequest request, String secureHost, String username, String roles) throws IOException {
         URL capabilitiesURL = request.capabilitiesURL("WFS", "1.0.0");
 
@@ -175,7 +194,8 @@ public class WfsExtractor {
         }
 
         final CloseableHttpClient httpclient = httpClientBuilder.build();
-        String capabilities = FileUtils.asString(httpclient.execute(httpHost, get, localContext).getEntity().getContent());
+        String key = OwsDocumentCache.key(capabilitiesURL.toExternalForm(), "permissions", username, roles, null);
+        String capabilities = getCapabilities(key, httpclient, httpHost, get, localContext);
         Pattern regex = Pattern.compile("(?m)<FeatureType[^>]*>(\\\\n|\\s)*<Name>\\s*(\\w*:)?"+Pattern.quote(request._layerName)+"\\s*</Name>");
         boolean permitted = regex.matcher(capabilities).find();
 
@@ -184,6 +204,39 @@ public class WfsExtractor {
         }
     }
 
+    /**
+     * Executes the GetCapabilities request, or reuses the document cached for
+     * the same key, revalidated once expired.
+     *
+     * @param key identifies the URL and the user the capabilities are requested for
+     */
+    public static String getCapabilities(String key, final CloseableHttpClient httpclient, final HttpHost httpHost,
+            final HttpGet get, final HttpClientContext localContext) throws IOException {
+        return OwsDocumentCache.getInstance().get(key, new OwsDocumentCache.Fetcher<String>() {
+            @Override
+            public OwsDocumentCache.Response<String> fetch(String etag, String lastModified) throws IOException {
+                if (etag != null) get.setHeader("If-None-Match", etag);
+                if (lastModified != null) get.setHeader("If-Modified-Since", lastModified);
+                HttpResponse response = httpclient.execute(httpHost, get, localContext);
+                int status = response.getStatusLine().getStatusCode();
+                if (status == 304) {
+                    EntityUtils.consumeQuietly(response.getEntity());
+                    return OwsDocumentCache.Response.notModified();
+                }
+                String capabilities = FileUtils.asString(response.getEntity().getContent());
+                if (status != 200) {
+                    // an error page must not be served to the next requests
+                    return OwsDocumentCache.Response.uncached(capabilities);
+                }
+                Header etagHeader = response.getFirstHeader("ETag");
+                Header lastModifiedHeader = response.getFirstHeader("Last-Modified");
+                return new OwsDocumentCache.Response<String>(capabilities,
+                        etagHeader == null ? null : etagHeader.getValue(),
+                        lastModifiedHeader == null ? null : lastModifiedHeader.getValue());
+            }
+        });
+    }
+
     public static void addImpersonateUserHeaders(String username, String roles, HttpGet get) {
         get.addHeader("imp-username", username);
         if(roles != null) get.addHeader("imp-roles", roles);
@@ -236,6 +289,7 @@ public class WfsExtractor {
         	LOG.debug("WfsExtractor.extract - Non Secured Server");
         }
 
+        long start = PhaseTimer.start();
         DataStore sourceDs = DataStoreFinder.getDataStore(params);
         // WFS-ng: we need to convert the schema name
 
@@ -269,7 +323,15 @@ public class WfsExtractor {
         }
 
         Query query = createQuery(request, sourceSchema);
-        SimpleFeatureCollection features = sourceDs.getFeatureSource(typeName).getFeatures(query);
+        SimpleFeatureSource source = sourceDs.getFeatureSource(typeName);
+        SimpleFeatureCollection features = source.getFeatures(query);
+        if (_paging != null) {
+            features = new PagedFeatureCollection(source, query, features.getSchema(), nativeBBox(request, sourceSchema),
+                    request._url.getHost(), _paging, _checkpointDir);
+        } else {
+            LOG.debug("Number of features returned : " + features.size());
+        }
+        PhaseTimer.stop(PhaseTimer.WFS_CONNECT, start);
 
         ProgressListener progressListener = new NullProgressListener () {
             @Override
@@ -283,7 +345,6 @@ public class WfsExtractor {
 
         FeatureWriterStrategy featuresWriter;
         BBoxWriter bboxWriter;
-        LOG.debug("Number of features returned : " + features.size());
         if ("shp".equalsIgnoreCase(request._format)) {
             featuresWriter = new ShpFeatureWriter(progressListener, sourceSchema, basedir, features);
             bboxWriter = new BBoxWriter(request._bbox, basedir, OGRFeatureWriter.FileFormat.shp, request._projection, progressListener );
@@ -301,24 +362,43 @@ public class WfsExtractor {
             throw new IllegalArgumentException(request._format + " is not a recognized vector format");
         }
         //generates the feature files and bbox file
-        featuresWriter.generateFiles();
+        start = PhaseTimer.start();
+        try {
+            featuresWriter.generateFiles();
+        } finally {
+            if (features instanceof PagedFeatureCollection) {
+                // stops the downloads when writing failed, the complete pages are kept for the next attempt
+                ((PagedFeatureCollection) features).cancel();
+            }
+            PhaseTimer.stop(PhaseTimer.WFS_DOWNLOAD, start);
+        }
 
+        start = PhaseTimer.start();
         bboxWriter.generateFiles();
+        PhaseTimer.stop(PhaseTimer.BBOX, start);
 
         return basedir;
     }
 
+    /**
+     * bbox may not be in the same projection as the data so it sometimes necessary to reproject the request BBOX
+     */
+    private ReferencedEnvelope nativeBBox (ExtractorLayerRequest request, FeatureType schema) throws TransformException,
+            FactoryException {
+        ReferencedEnvelope bbox = request._bbox;
+        if (schema.getCoordinateReferenceSystem () != null) {
+            bbox = request._bbox.transform (schema.getCoordinateReferenceSystem (), true, 10);
+        }
+        return bbox;
+    }
+
 	/* This method is default for testing purposes */
     Query createQuery (ExtractorLayerRequest request, FeatureType schema) throws IOException, TransformException,
             FactoryException {
         switch (request._owsType) {
         case WFS:
 
-            // bbox may not be in the same projection as the data so it sometimes necessary to reproject the request BBOX
-            ReferencedEnvelope bbox = request._bbox;
-            if (schema.getCoordinateReferenceSystem () != null) {
-                bbox = request._bbox.transform (schema.getCoordinateReferenceSystem (), true, 10);
-            }
+            ReferencedEnvelope bbox = nativeBBox (request, schema);
 
             FilterFactory2 filterFactory = CommonFactoryFinder.getFilterFactory2 (GeoTools.getDefaultHints ());
             String propertyName = schema.getGeometryDescriptor ().getLocalName ();
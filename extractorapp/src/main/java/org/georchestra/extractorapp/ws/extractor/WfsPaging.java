@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2009-2018 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.georchestra.extractorapp.ws.extractor;
+
+/**
+ * Settings of the paged WFS extractions, and the number of pages which are
+ * downloaded at once from each remote host.
+ * <p>
+ * A layer with more than pageSize features is downloaded as several
+ * GetFeature requests, see {@link PagedFeatureCollection}. The per-host limit
+ * is shared by all the layers and tasks using this instance.
+ * </p>
+ */
+public class WfsPaging {
+
+    private final int pageSize;
+    private final HostPermits hosts;
+
+    /**
+     * @param pageSize maximum number of features requested at once
+     * @param maxPagesPerHost maximum number of pages downloaded at once from a remote host
+     */
+    public WfsPaging(int pageSize, int maxPagesPerHost) {
+        if (pageSize < 1 || maxPagesPerHost < 1) {
+            throw new IllegalArgumentException("WFS page size and pages per host must be positive");
+        }
+        this.pageSize = pageSize;
+        this.hosts = new HostPermits(maxPagesPerHost);
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public int getMaxPagesPerHost() {
+        return hosts.getPermitsPerHost();
+    }
+
+    /**
+     * Waits until a page can be downloaded from the host.
+     */
+    public void acquire(String host) throws InterruptedException {
+        hosts.acquire(host);
+    }
+
+    /**
+     * Must be called once the page acquired from the host is downloaded.
+     */
+    public void release(String host) {
+        hosts.release(host);
+    }
+}
@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
@@ -12,10 +13,9 @@ import java.util.Set;
 import org.georchestra.extractorapp.ws.extractor.WfsExtractor.GeomType;
 import org.geotools.data.DataStore;
 import org.geotools.data.DefaultTransaction;
-import org.geotools.data.FeatureStore;
+import org.geotools.data.FeatureWriter;
 import org.geotools.data.Transaction;
 import org.geotools.feature.AttributeTypeBuilder;
-import org.geotools.feature.DefaultFeatureCollection;
 import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
 import org.opengis.feature.Feature;
@@ -39,18 +39,25 @@ import org.opengis.referencing.crs.CoordinateReferenceSystem;
  * the same file.  So in this example the two attributes will be modified so the featuretype will have 'attribute' and
  * 'ATTRIBUTE2' as attributes instead.
  * 
+ * Features are buffered per geometry type and written by batches of BATCH_SIZE through the append writer of the
+ * datastore. The batches are flushed before each commit, every MAX_TRANSACTION_FEATURES features, and on close.
+ * 
  * @author jeichar
  */
 public class WriteFeatures implements FeatureVisitor {
 
     private static final int                                                    MAX_TRANSACTION_FEATURES = 200000;
+    private static final int                                                    BATCH_SIZE = 1000;
     private final SimpleFeatureType                                             _type;
-    private final Map<GeomType, FeatureStore<SimpleFeatureType, SimpleFeature>> _dsFiles;
+    private final Map<GeomType, Target>                                         _dsFiles;
+    /** targets by geometry class, to avoid looking up the geometry type of each feature */
+    private final Map<Class<?>, Target>                                         _targets = new HashMap<Class<?>, Target>();
     private final File                                                          _baseDir;
     private final ArrayList<File>                                               _files          = new ArrayList<File>();
     private final Map<String, String>                                           _attNameMapping = new HashMap<String, String>();
     private final DatastoreFactory                                              _dsFactory;
     private final Transaction                                                   _transaction;
+    private final int                                                           _maxTransactionFeatures;
     private int                                                                 _featuresInTransaction = 0;
 
     /**
@@ -60,7 +67,16 @@ public class WriteFeatures implements FeatureVisitor {
      */
     public WriteFeatures (SimpleFeatureType type, File baseDir, 
             CoordinateReferenceSystem outputProjection, DatastoreFactory dsFactory) {
+        this (type, baseDir, outputProjection, dsFactory, MAX_TRANSACTION_FEATURES);
+    }
+
+    /**
+     * @param maxTransactionFeatures the number of features written between two commits
+     */
+    WriteFeatures (SimpleFeatureType type, File baseDir, 
+            CoordinateReferenceSystem outputProjection, DatastoreFactory dsFactory, int maxTransactionFeatures) {
         _dsFactory = dsFactory;
+        _maxTransactionFeatures = maxTransactionFeatures;
         _transaction = new DefaultTransaction();
         SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder ();
         builder.setName (type.getName ());
@@ -71,7 +87,7 @@ public class WriteFeatures implements FeatureVisitor {
         addNonGeomAttributes(type, builder, usedAttNames, dsFactory);
         
         _type = builder.buildFeatureType ();
-        _dsFiles = new HashMap<GeomType, FeatureStore<SimpleFeatureType, SimpleFeature>>();
+        _dsFiles = new HashMap<GeomType, Target>();
         _baseDir = baseDir;
     }
 
@@ -124,25 +140,45 @@ public class WriteFeatures implements FeatureVisitor {
             SimpleFeature simpleFeature = (SimpleFeature)feature;
             Object defaultGeometry = simpleFeature.getDefaultGeometry ();
 
-            GeomType geomType = WfsExtractor.GeomType.lookup (defaultGeometry.getClass ());
-            
-            FeatureStore<SimpleFeatureType, SimpleFeature> dsFile = getDatastore (geomType, simpleFeature.getFeatureType ().getTypeName ());
-
-            SimpleFeature copy = copyFeature (simpleFeature, dsFile.getSchema ());
+            Target target = _targets.get (defaultGeometry.getClass ());
+            if (target == null) {
+                GeomType geomType = WfsExtractor.GeomType.lookup (defaultGeometry.getClass ());
+                target = getDatastore (geomType, simpleFeature.getFeatureType ().getTypeName ());
+                _targets.put (defaultGeometry.getClass (), target);
+            }
 
-            DefaultFeatureCollection collection = new DefaultFeatureCollection(null, null);
+            if (_featuresInTransaction > _maxTransactionFeatures) {
+                flush ();
+                _featuresInTransaction = 0;
+                _transaction.commit ();
+            }
+            _featuresInTransaction += 1;
 
-            collection.add(copy);
-            
-            dsFile.addFeatures (collection);
+            target.batch.add (copyFeature (simpleFeature, target));
+            if (target.batch.size () >= BATCH_SIZE) {
+                target.flush (_transaction);
+            }
         } catch (IOException e) {
             throw new RuntimeException (e);
         }
     }
     
     public void close() throws IOException {
-        _transaction.commit();
-        _transaction.close();
+        try {
+            flush ();
+            _transaction.commit();
+        } finally {
+            _transaction.close();
+        }
+    }
+
+    /**
+     * Writes the features buffered for all the geometry types
+     */
+    private void flush () throws IOException {
+        for (Target target : _dsFiles.values ()) {
+            target.flush (_transaction);
+        }
     }
     
     /**
@@ -158,25 +194,23 @@ public class WriteFeatures implements FeatureVisitor {
     /* -------------------  Private Methods  -------------------------------*/
     
     /* -------------------  Support methods for visit  -------------------------------*/
-    private SimpleFeature copyFeature (SimpleFeature simpleFeature, SimpleFeatureType baseType) throws IOException {
-        if(_featuresInTransaction>MAX_TRANSACTION_FEATURES){
-            _featuresInTransaction = 0;
-            _transaction.commit();
-        }
-        _featuresInTransaction  += 1;
+    private SimpleFeature copyFeature (SimpleFeature simpleFeature, Target target) {
         String id = simpleFeature.getIdentifier ().getID ();
-        SimpleFeatureBuilder builder = new SimpleFeatureBuilder (baseType);
-        Set<Entry<String, String>> entries = _attNameMapping.entrySet ();
-        for (Entry<String, String> entry : entries) {
-            Object value = simpleFeature.getAttribute (entry.getKey ());
-            builder.set (entry.getValue (),value);
+        // the builder is reset by buildFeature
+        SimpleFeatureBuilder builder = target.builder;
+        for (int i = 0; i < target.sourceNames.length; i++) {
+            Object value = simpleFeature.getAttribute (target.sourceNames[i]);
+            if (target.indexes[i] >= 0) {
+                builder.set (target.indexes[i], value);
+            } else {
+                builder.set (target.targetNames[i], value);
+            }
         }
-        SimpleFeature copy = builder.buildFeature (id);
-        return copy;
+        return builder.buildFeature (id);
     }
 
-    private FeatureStore<SimpleFeatureType, SimpleFeature> getDatastore (GeomType geomType, String baseName) throws IOException {
-        FeatureStore<SimpleFeatureType, SimpleFeature> fs = _dsFiles.get (geomType);
+    private Target getDatastore (GeomType geomType, String baseName) throws IOException {
+        Target fs = _dsFiles.get (geomType);
         if (fs == null) {
             String newName = _type.getTypeName();
             newName = FileUtils.toSafeFileName(baseName + "_" + geomType);
@@ -188,8 +222,7 @@ public class WriteFeatures implements FeatureVisitor {
             SimpleFeatureType updatedFeatureType = updateFeatureTypeGeom (newName, geomType);
 
             DataStore ds = _dsFactory.create(file, updatedFeatureType);
-            fs = (FeatureStore<SimpleFeatureType, SimpleFeature>) ds.getFeatureSource(newName);
-            fs.setTransaction(_transaction);
+            fs = new Target(ds, newName, ds.getSchema(newName), _attNameMapping);
             _dsFiles.put (geomType, fs);
             _files.add (file);
         }
@@ -241,4 +274,54 @@ public class WriteFeatures implements FeatureVisitor {
         return false;
     }
 
+    /**
+     * A file written for a geometry type, with the features waiting to be written to it
+     */
+    private static class Target {
+        final DataStore                 dataStore;
+        final String                    typeName;
+        final SimpleFeatureBuilder      builder;
+        final String[]                  sourceNames;
+        final String[]                  targetNames;
+        /** index in the target schema of each target name, -1 if not found */
+        final int[]                     indexes;
+        final List<SimpleFeature>       batch = new ArrayList<SimpleFeature> (BATCH_SIZE);
+
+        Target (DataStore dataStore, String typeName, SimpleFeatureType schema, Map<String, String> attNameMapping) {
+            this.dataStore = dataStore;
+            this.typeName = typeName;
+            this.builder = new SimpleFeatureBuilder (schema);
+            this.sourceNames = new String[attNameMapping.size ()];
+            this.targetNames = new String[attNameMapping.size ()];
+            this.indexes = new int[attNameMapping.size ()];
+            int i = 0;
+            for (Entry<String, String> entry : attNameMapping.entrySet ()) {
+                sourceNames[i] = entry.getKey ();
+                targetNames[i] = entry.getValue ();
+                indexes[i] = schema.indexOf (entry.getValue ());
+                i++;
+            }
+        }
+
+        /**
+         * Appends the buffered features to the file, within the transaction
+         */
+        void flush (Transaction transaction) throws IOException {
+            if (batch.isEmpty ()) {
+                return;
+            }
+            FeatureWriter<SimpleFeatureType, SimpleFeature> writer = dataStore.getFeatureWriterAppend (typeName, transaction);
+            try {
+                for (SimpleFeature feature : batch) {
+                    SimpleFeature next = writer.next ();
+                    next.setAttributes (feature.getAttributes ());
+                    writer.write ();
+                }
+            } finally {
+                writer.close ();
+            }
+            batch.clear ();
+        }
+    }
+
 }
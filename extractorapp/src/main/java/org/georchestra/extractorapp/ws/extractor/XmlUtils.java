@@ -7,14 +7,19 @@ import java.net.ProtocolException;
 import java.util.Iterator;
 
 import javax.xml.namespace.NamespaceContext;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
 
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
 
 public final class XmlUtils {
     private XmlUtils() {
@@ -38,6 +43,34 @@ public final class XmlUtils {
             throw new RuntimeException(xpathExpression + " is not a legal xpath", e);
         }
     }
+    /**
+     * Same as {@link #select(String, String, OgcNamespaceContext)} on a document parsed once with {@link #parse(String)}
+     */
+    public static NodeList select(String xpathExpression, Node node, OgcNamespaceContext nsContext) {
+        try {
+            XPath xPath = XPathFactory.newInstance().newXPath();
+            xPath.setNamespaceContext(nsContext);
+            XPathExpression expression = xPath.compile(xpathExpression);
+            return (NodeList) expression.evaluate(node, XPathConstants.NODESET);
+        } catch (XPathExpressionException e) {
+            throw new RuntimeException(xpathExpression + " is not a legal xpath", e);
+        }
+    }
+
+    /**
+     * Parses the document, namespace aware, so that it can be queried several times
+     */
+    public static Document parse(String data) throws IOException {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            return factory.newDocumentBuilder().parse(new InputSource(new StringReader(data)));
+        } catch (ParserConfigurationException e) {
+            throw new RuntimeException(e);
+        } catch (SAXException e) {
+            throw new IOException("Unable to parse the document: " + e.getMessage(), e);
+        }
+    }
     public static NodeList selectWFSCabalitilies(String xpathExpression, String data) throws ProtocolException, MalformedURLException,
     IOException,
     AssertionError {
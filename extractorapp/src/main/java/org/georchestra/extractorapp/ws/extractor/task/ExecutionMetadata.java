@@ -19,10 +19,15 @@
 
 package org.georchestra.extractorapp.ws.extractor.task;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.Future;
 
+import org.georchestra.extractorapp.ws.extractor.PhaseTimer;
+
 public class ExecutionMetadata {
 
 	// mutable attributes
@@ -31,6 +36,13 @@ public class ExecutionMetadata {
 	private Date beginTime = null;
     private Date endTime = null;
     private ExecutionPriority priority = ExecutionPriority.MEDIUM;
+    // archive statistics, set once the extraction is archived
+    private long archiveInputSize = 0;
+    private long archiveSize = 0;
+    private long archiveCompressionTime = 0;
+    private long archiveFinishTime = 0;
+    // phases of the extraction, over all the layers and attempts
+    private List<PhaseTimer.Span> phaseSpans = new ArrayList<PhaseTimer.Span>();
 
     // this values are immutables
     private final String requestor;
@@ -59,6 +71,11 @@ public class ExecutionMetadata {
         this.future = toCopy.future;
         this.uuid = toCopy.uuid;
         this.requests = toCopy.requests;
+        this.archiveInputSize = toCopy.archiveInputSize;
+        this.archiveSize = toCopy.archiveSize;
+        this.archiveCompressionTime = toCopy.archiveCompressionTime;
+        this.archiveFinishTime = toCopy.archiveFinishTime;
+        this.phaseSpans = new ArrayList<PhaseTimer.Span>(toCopy.getPhaseSpans());
     }
 
     public String getUuid() {
@@ -153,4 +170,51 @@ public class ExecutionMetadata {
 	public synchronized boolean isPaused() {
 		return ExecutionState.PAUSED == state;
 	}
+
+	/**
+	 * @param inputSize number of bytes archived, before compression
+	 * @param archiveSize size of the archive in bytes
+	 * @param compressionTime time spent compressing in ms, added over all the threads
+	 * @param finishTime time the task waited for the archive in ms, once all the layers were extracted
+	 */
+	public synchronized void setArchiveStatistics(long inputSize, long archiveSize, long compressionTime,
+			long finishTime) {
+		this.archiveInputSize = inputSize;
+		this.archiveSize = archiveSize;
+		this.archiveCompressionTime = compressionTime;
+		this.archiveFinishTime = finishTime;
+	}
+
+	public synchronized long getArchiveInputSize() {
+		return archiveInputSize;
+	}
+
+	public synchronized long getArchiveSize() {
+		return archiveSize;
+	}
+
+	public synchronized long getArchiveFinishTime() {
+		return archiveFinishTime;
+	}
+
+	/**
+	 * @return number of bytes compressed per second and per thread, 0 if the extraction is not archived yet
+	 */
+	public synchronized long getArchiveThroughput() {
+		if (archiveCompressionTime == 0) {
+			return 0;
+		}
+		return archiveInputSize * 1000 / archiveCompressionTime;
+	}
+
+	public synchronized void addPhaseSpans(List<PhaseTimer.Span> spans) {
+		phaseSpans.addAll(spans);
+	}
+
+	/**
+	 * @return the phases recorded so far, in the order they ended
+	 */
+	public synchronized List<PhaseTimer.Span> getPhaseSpans() {
+		return Collections.unmodifiableList(new ArrayList<PhaseTimer.Span>(phaseSpans));
+	}
 }
\ No newline at end of file
@@ -20,49 +20,94 @@
 package org.georchestra.extractorapp.ws.extractor.task;
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Queue;
-import java.util.TreeSet;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.georchestra.commons.configuration.GeorchestraConfiguration;
+import org.georchestra.extractorapp.ws.extractor.ExtractionResultCache;
+import org.georchestra.extractorapp.ws.extractor.FileUtils;
+import org.georchestra.extractorapp.ws.extractor.WfsPaging;
+import org.georchestra.extractorapp.ws.extractor.wcs.WcsTiling;
 import org.springframework.beans.factory.annotation.Autowired;
 
 
+/**
+ * Runs the extraction tasks.
+ * <p>
+ * The waiting tasks are ordered by a {@link TaskScheduler}, which ages them
+ * and shares the threads between the users. At most minThreads tasks run at
+ * once: the next waiting task is only handed to the executor when a running
+ * one finishes, so that changing the priority of a waiting task, pausing or
+ * removing it never has to take it back from the executor.
+ * </p>
+ * <p>
+ * Every change of the tasks republishes an immutable list of them, which
+ * {@link #getTaskQueue()} reads without locking.
+ * </p>
+ */
 public class ExtractionManager {
 	
     private static final Log LOG = LogFactory.getLog(ExtractionManager.class.getPackage().getName());
     
-    private PriorityThreadPoolExecutor executor;
+    private ThreadPoolExecutor executor;
     private int maxExtractions;
     private int minThreads;
+    private int maxLayersPerTask = 4;
+    private int maxLayersPerHost = 4;
+    private int archiveThreads = Runtime.getRuntime().availableProcessors();
+    /** WFS layers with more features are downloaded by pages, 0 disables paging */
+    private int wfsPageSize = 10000;
+    private int maxPagesPerHost = 2;
+    /** shared by all the tasks, so that the per-host page limit holds across extractions */
+    private WfsPaging wfsPaging;
+    /** oversized coverages are downloaded as tiles, 0 disables tiling */
+    private int wcsTilesPerHost = 2;
+    private int wcsMaxTiles = 256;
+    /** decimation factors of the overviews added to tiled geotiffs, like "2,4,8" */
+    private String wcsOverviews = "";
+    /** shared by all the tasks, so that the per-host tile limit holds across extractions */
+    private WcsTiling wcsTiling;
+    /** shared by all the tasks, so that the per-host limit holds across extractions */
+    private LayerExtractionLimits layerLimits;
+    /** compresses the extracted files of all the tasks */
+    private ExecutorService archiveExecutor;
+    /** size in MB of the extracted layers kept for identical requests, 0 disables the cache */
+    private long resultCacheQuota = 1024;
+    /** time in minutes during which a cached layer is used */
+    private long resultCacheTtl = 180;
+    /** shared by all the tasks, evicted by the ExpiredArchiveDaemon */
+    private ExtractionResultCache resultCache;
+    /** durations of the extraction phases, over all the tasks */
+    private final PhaseHistograms phaseHistograms = new PhaseHistograms();
+    /** time in ms worth one priority level for a waiting task */
+    private long priorityAging = 10 * 60 * 1000;
+    /** delay in ms given to the waiting tasks of a user for each of its running tasks */
+    private long fairSharePenalty = 5 * 60 * 1000;
 
-    // ThreadPoolExecutor API says that the internal queue should not be
-    // accessed except for debugging so this
-    // queue is here so that the non-running tasks can be accessed
-    
-    /** maintains the tasks ready to execute */
-    /** comparison by priorities */
+    /** maintains the waiting tasks, by priority */
+    private TaskScheduler<ExtractionTask> scheduler = new TaskScheduler<ExtractionTask>(priorityAging, fairSharePenalty);
+
+    /** the running and completed tasks */
+    private List<ExtractionTask> startedTasks = new ArrayList<ExtractionTask>();
+
+    private List<ExtractionTask> cancelledTasks = new ArrayList<ExtractionTask>();
 
-    private final static int INITIAL_CAPACITY = 20;
-    private Queue<ExtractionTask> readyTaskQueue = new PriorityBlockingQueue<ExtractionTask>(INITIAL_CAPACITY); 
-    
-    private Collection<ExtractionTask> cancelledTaskQueue = new PriorityBlockingQueue<ExtractionTask>();
-    
     /** maintains the paused tasks. They can be selected by the user in random way */
-    private Map<String, ExtractionTask> pausedTasks = Collections.synchronizedMap(new HashMap<String, ExtractionTask>());
+    private Map<String, ExtractionTask> pausedTasks = new LinkedHashMap<String, ExtractionTask>();
+
+    /** all the tasks, republished on each change */
+    private volatile List<ExtractionTask> taskSnapshot = Collections.emptyList();
     
     @Autowired
     private GeorchestraConfiguration georConfig ;
@@ -71,9 +116,58 @@ public class ExtractionManager {
         if ((georConfig != null) && (georConfig.activated())) {
             maxExtractions = Integer.parseInt(georConfig.getProperty("maxExtractions"));
             minThreads = Integer.parseInt(georConfig.getProperty("minThreads"));
+            if (georConfig.getProperty("maxLayersPerTask") != null) {
+                maxLayersPerTask = Integer.parseInt(georConfig.getProperty("maxLayersPerTask"));
+            }
+            if (georConfig.getProperty("maxLayersPerHost") != null) {
+                maxLayersPerHost = Integer.parseInt(georConfig.getProperty("maxLayersPerHost"));
+            }
+            if (georConfig.getProperty("archiveThreads") != null) {
+                archiveThreads = Integer.parseInt(georConfig.getProperty("archiveThreads"));
+            }
+            if (georConfig.getProperty("wfsPageSize") != null) {
+                wfsPageSize = Integer.parseInt(georConfig.getProperty("wfsPageSize"));
+            }
+            if (georConfig.getProperty("maxPagesPerHost") != null) {
+                maxPagesPerHost = Integer.parseInt(georConfig.getProperty("maxPagesPerHost"));
+            }
+            if (georConfig.getProperty("wcsTilesPerHost") != null) {
+                wcsTilesPerHost = Integer.parseInt(georConfig.getProperty("wcsTilesPerHost"));
+            }
+            if (georConfig.getProperty("wcsMaxTiles") != null) {
+                wcsMaxTiles = Integer.parseInt(georConfig.getProperty("wcsMaxTiles"));
+            }
+            if (georConfig.getProperty("wcsOverviews") != null) {
+                wcsOverviews = georConfig.getProperty("wcsOverviews");
+            }
+            if (georConfig.getProperty("resultCacheQuota") != null) {
+                resultCacheQuota = Long.parseLong(georConfig.getProperty("resultCacheQuota"));
+            }
+            if (georConfig.getProperty("resultCacheTtl") != null) {
+                resultCacheTtl = Long.parseLong(georConfig.getProperty("resultCacheTtl"));
+            }
+            if (georConfig.getProperty("priorityAging") != null) {
+                priorityAging = Long.parseLong(georConfig.getProperty("priorityAging"));
+            }
+            if (georConfig.getProperty("fairSharePenalty") != null) {
+                fairSharePenalty = Long.parseLong(georConfig.getProperty("fairSharePenalty"));
+            }
+        }
+        layerLimits = new LayerExtractionLimits(maxLayersPerTask, maxLayersPerHost);
+        if (wfsPageSize > 0) {
+            wfsPaging = new WfsPaging(wfsPageSize, maxPagesPerHost);
+        }
+        if (wcsTilesPerHost > 0) {
+            wcsTiling = new WcsTiling(wcsTilesPerHost, wcsMaxTiles, WcsTiling.DEFAULT_MAX_TILE_SIDE,
+                    WcsTiling.parseOverviews(wcsOverviews));
         }
 
-        BlockingQueue<Runnable> workQueue = new PriorityBlockingQueue<Runnable>();
+        if (resultCacheQuota > 0) {
+            resultCache = new ExtractionResultCache(FileUtils.storageFile("cache"), resultCacheQuota * 1024 * 1024,
+                    resultCacheTtl * 60 * 1000);
+        }
+        scheduler = new TaskScheduler<ExtractionTask>(priorityAging, fairSharePenalty);
+
         ThreadFactory threadFactory = new ThreadFactory() {
             @Override
             public Thread newThread(Runnable r) {
@@ -84,8 +178,18 @@ public class ExtractionManager {
                 return thread;
             }
         };
-        executor = new PriorityThreadPoolExecutor(minThreads, maxExtractions, 5,
-                TimeUnit.SECONDS, workQueue, threadFactory);
+        executor = new ThreadPoolExecutor(minThreads, maxExtractions, 5,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), threadFactory);
+        archiveExecutor = Executors.newFixedThreadPool(archiveThreads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r);
+                thread.setName("Extractorapp-archive-thread"
+                        + System.currentTimeMillis());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
     }
 
     public void setMaxExtractions(int maxExtractions) {
@@ -96,6 +200,65 @@ public class ExtractionManager {
         this.minThreads = minThreads;
     }
 
+    public void setMaxLayersPerTask(int maxLayersPerTask) {
+        this.maxLayersPerTask = maxLayersPerTask;
+    }
+
+    public void setMaxLayersPerHost(int maxLayersPerHost) {
+        this.maxLayersPerHost = maxLayersPerHost;
+    }
+
+    public void setArchiveThreads(int archiveThreads) {
+        this.archiveThreads = archiveThreads;
+    }
+
+    public void setWfsPageSize(int wfsPageSize) {
+        this.wfsPageSize = wfsPageSize;
+    }
+
+    public void setMaxPagesPerHost(int maxPagesPerHost) {
+        this.maxPagesPerHost = maxPagesPerHost;
+    }
+
+    public void setWcsTilesPerHost(int wcsTilesPerHost) {
+        this.wcsTilesPerHost = wcsTilesPerHost;
+    }
+
+    public void setWcsMaxTiles(int wcsMaxTiles) {
+        this.wcsMaxTiles = wcsMaxTiles;
+    }
+
+    public void setWcsOverviews(String wcsOverviews) {
+        this.wcsOverviews = wcsOverviews;
+    }
+
+    public void setResultCacheQuota(long resultCacheQuota) {
+        this.resultCacheQuota = resultCacheQuota;
+    }
+
+    public void setResultCacheTtl(long resultCacheTtl) {
+        this.resultCacheTtl = resultCacheTtl;
+    }
+
+    /**
+     * @return the cache of the extracted layers, null if disabled
+     */
+    public ExtractionResultCache getResultCache() {
+        return resultCache;
+    }
+
+    public PhaseHistograms getPhaseHistograms() {
+        return phaseHistograms;
+    }
+
+    public void setPriorityAging(long priorityAging) {
+        this.priorityAging = priorityAging;
+    }
+
+    public void setFairSharePenalty(long fairSharePenalty) {
+        this.fairSharePenalty = fairSharePenalty;
+    }
+
     /**
      * Submits the task taking into account the task priorities.
      * 
@@ -104,13 +267,68 @@ public class ExtractionManager {
      */
 	public synchronized void submit(ExtractionTask extractor) {
 
-		// creates the waiting task queue ordered by priority task
-		this.readyTaskQueue.offer(extractor);
+		extractor.setLayerLimits(this.layerLimits);
+		extractor.setArchiveExecutor(this.archiveExecutor);
+		extractor.setWfsPaging(this.wfsPaging);
+		extractor.setWcsTiling(this.wcsTiling);
+		extractor.setResultCache(this.resultCache);
+		extractor.setPhaseHistograms(this.phaseHistograms);
 
-		Future<?> future = executor.submit(extractor);
-		extractor.executionMetadata.setFuture(future);
+		schedule(extractor);
+		dispatch();
 	}
 
+    /**
+     * Adds the task to the waiting tasks. Its age is counted from the request
+     * time, so a resumed task does not lose its place.
+     */
+    private void schedule(ExtractionTask task) {
+        ExecutionMetadata metadata = task.executionMetadata;
+        this.scheduler.offer(metadata.getUuid(), metadata.getRequestor(), metadata.getPriority(), task,
+                metadata.getRequestTime().getTime());
+    }
+
+    /**
+     * Hands the next waiting tasks to the executor while less than minThreads
+     * tasks are running.
+     */
+    private synchronized void dispatch() {
+        while (this.scheduler.running() < Math.max(1, this.minThreads)) {
+            final ExtractionTask task = this.scheduler.poll();
+            if (task == null) {
+                break;
+            }
+            this.startedTasks.add(task);
+            Future<?> future = this.executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        finished(task);
+                    }
+                }
+            });
+            task.executionMetadata.setFuture(future);
+        }
+        publish();
+    }
+
+    private synchronized void finished(ExtractionTask task) {
+        this.scheduler.done(task);
+        dispatch();
+    }
+
+    /**
+     * Republishes the list of the tasks read by {@link #getTaskQueue()}.
+     */
+    private void publish() {
+        List<ExtractionTask> tasks = new ArrayList<ExtractionTask>(this.startedTasks);
+        tasks.addAll(this.scheduler.waitingTasks());
+        tasks.addAll(this.pausedTasks.values());
+        tasks.addAll(this.cancelledTasks);
+        this.taskSnapshot = Collections.unmodifiableList(tasks);
+    }
 
     /**
      * Updates the priority if the task is in waiting status.
@@ -119,52 +337,21 @@ public class ExtractionManager {
      * @param newPriority
      */
     public synchronized void updatePriority(final String id, final ExecutionPriority newPriority) {
-    	
-        // search in the waiting tasks and updates the priority of the task
-        ExtractionTask foundTask = null;
-		for (ExtractionTask task : this.readyTaskQueue) {
-			if(task.executionMetadata.getState().equals(ExecutionState.WAITING) ){
-				Future<?> future = task.executionMetadata.getFuture();
-				if(!future.isCancelled() && !future.isDone()){					
-		            if (task.equalId(id)) {
-		            	foundTask = task;
-		            	break;
-		            }
-				}
-			}
-        }
-		if(foundTask != null){
-            // sets the new priority and reinsert the task
-//			this.readyTaskQueue.remove(foundTask);
-//
-//			foundTask.executionMetadata.setPriority(newPriority);
-//			
-//			this.readyTaskQueue.offer(foundTask);
-			
-// XXX the commented lines where replaced by de following, looks like the ClassCastException was solved. Requires more test.
-// the following code throws a ClassCastException: java.util.concurrent.FutureTask cannot be cast to java.lang.Comparable			
-			foundTask.executionMetadata.setPriority(newPriority);
-			ExtractionTask taskCloned = new ExtractionTask(foundTask);
-		
-			foundTask.executionMetadata.getFuture().cancel(true);
-			this.executor.remove(foundTask);
-			this.executor.purge();
-			this.readyTaskQueue.remove(foundTask);
-			
-			submit(taskCloned);
-			
-			
+
+        ExtractionTask foundTask = this.scheduler.get(id);
+        if (foundTask != null) {
+            foundTask.executionMetadata.setPriority(newPriority);
+            this.scheduler.updatePriority(id, newPriority);
+            publish();
         } else {
-        	// searches if the task is in the paused queue
-        	ExtractionTask pausedTask = this.pausedTasks.get(id);
-        	if(pausedTask != null){
-            	pausedTask.executionMetadata.setPriority(newPriority);
-        	}
+            // searches if the task is in the paused queue
+            ExtractionTask pausedTask = this.pausedTasks.get(id);
+            if (pausedTask != null) {
+                pausedTask.executionMetadata.setPriority(newPriority);
+            }
         }
     }
 
-    
-
 	/**
      * Will set priorities of all tasks to MEDIUM and re-add all waiting tasks back to the queue in the order of the uuids in newOrder.  
      * If a uuid is not the newOrder it will be deleted from the queue. 
@@ -172,50 +359,32 @@ public class ExtractionManager {
      * @param newOrder a list of the task's uuids
      */
     public synchronized void updateAllPriorities(final List<String> newOrder) {
-        executor.purge();
-        Collection<ExtractionTask> newWaitingTasks = new TreeSet<ExtractionTask>(new Comparator<ExtractionTask>(){
-
-            @Override
-            public int compare(ExtractionTask task1, ExtractionTask task2) {
-                return newOrder.indexOf(task1.executionMetadata.getUuid()) - newOrder.indexOf(task2.executionMetadata.getUuid());
-            }
-            
-        });
-        for (ExtractionTask task : this.readyTaskQueue) {
-            if(task.executionMetadata.isWaiting()) {
-                readyTaskQueue.remove(task);
-                if(newOrder.contains(task.executionMetadata.getUuid())) {
-                    newWaitingTasks.add(task);
-                } else {
-                    task.executionMetadata.cancel();
-                    cancelledTaskQueue.add(task);
-                }
-            }
+        List<ExtractionTask> removed = this.scheduler.reorder(newOrder, ExecutionPriority.MEDIUM,
+                System.currentTimeMillis());
+        for (ExtractionTask task : removed) {
+            task.executionMetadata.cancel();
+            this.cancelledTasks.add(task);
         }
-        
-        for (ExtractionTask task : newWaitingTasks) {
-            task.executionMetadata.setPriority(ExecutionPriority.MEDIUM);
-            submit(task);
+        for (String uuid : newOrder) {
+            ExtractionTask task = this.scheduler.get(uuid);
+            if (task != null) {
+                task.executionMetadata.setPriority(ExecutionPriority.MEDIUM);
+            }
         }
+        publish();
     }
-    
+
     /**
      * Remove the task if it has got the waiting status
      * @param uuid
      */
     public synchronized void removeTask(String uuid) {
-    	
-        for (ExtractionTask task : this.readyTaskQueue) {
-        	if(task.executionMetadata.getPriority().equals(ExecutionState.WAITING) ){
-                if (task.equalId(uuid)) {
-                    task.executionMetadata.cancel();
-                    this.executor.remove(task);
-                    // move from ready to canceled list
-                    readyTaskQueue.remove(task);
-                    this.cancelledTaskQueue.add(task);
-                    break;
-                }
-        	}
+
+        ExtractionTask task = this.scheduler.remove(uuid);
+        if (task != null) {
+            task.executionMetadata.cancel();
+            this.cancelledTasks.add(task);
+            publish();
         }
     }
 
@@ -223,15 +392,10 @@ public class ExtractionManager {
      * Gets a deep copy of task queue metadata. The metadata objects are only copies 
      * (defensive copy) so no changes will be reflected on the actual tasks
      */
-    public synchronized List<ExecutionMetadata> getTaskQueue() {
-        List<ExecutionMetadata> queue = new ArrayList<ExecutionMetadata>();
-        for (ExtractionTask task : this.readyTaskQueue) {
-            queue.add(new ExecutionMetadata(task.executionMetadata));
-        }
-        for (ExtractionTask task : this.pausedTasks.values()) {
-            queue.add(new ExecutionMetadata(task.executionMetadata));
-        }
-        for (ExtractionTask task : this.cancelledTaskQueue) {
+    public List<ExecutionMetadata> getTaskQueue() {
+        List<ExtractionTask> tasks = this.taskSnapshot;
+        List<ExecutionMetadata> queue = new ArrayList<ExecutionMetadata>(tasks.size());
+        for (ExtractionTask task : tasks) {
             queue.add(new ExecutionMetadata(task.executionMetadata));
         }
         return queue;
@@ -245,34 +409,14 @@ public class ExtractionManager {
      * @return the {@link ExtractionTask} it exists, null in other case.
      */
     public synchronized ExtractionTask findTask(final String uuid) {
-    	
-    	List<ExtractionTask> tasks = queryRunableTask();
-        for (ExtractionTask task: tasks) {
-            if (task.equalId(uuid)) {
-            	return task;
-            }
+
+        ExtractionTask task = this.scheduler.get(uuid);
+        if (task != null) {
+            return task;
         }
         return this.pausedTasks.get(uuid);
     }
-    
-    /**
-     * @return Returns the waiting, paused tasks. That is all runnable tasks.
-     */
-    private List<ExtractionTask> queryRunableTask(){
-    	
-        List<ExtractionTask> queue = new LinkedList<ExtractionTask>();
-        for (ExtractionTask task : this.readyTaskQueue) {
-        	ExecutionState st = task.executionMetadata.getState();
-        	if(st.equals(ExecutionState.WAITING)){
-                queue.add(task);
-        	}
-        }
-        for (ExtractionTask pausedTask : this.pausedTasks.values()) {
-            queue.add(pausedTask);
-        }
-        return queue;
 
-    }
     /**
      * Changes the task's status
      * 
@@ -304,113 +448,67 @@ public class ExtractionManager {
 	 * @param id task's identifier
 	 */
     private void cancelTask(final String id) {
-    	
-    	ExtractionTask foundTask = findTask(id);
-
-		if(foundTask == null){
-			return;
-		}
-		
-		if (foundTask.executionMetadata.isWaiting() ){
 
-		    this.readyTaskQueue.remove(foundTask);
-		    this.cancelledTaskQueue.add(foundTask);
-		    cancelProcess(foundTask);
-			
-		} else if( foundTask.executionMetadata.isPaused() ) {
-
-        	this.pausedTasks.remove(id);
-        	this.cancelledTaskQueue.add(foundTask);
-			cancelProcess(foundTask);
-		}
-	}
-    
-    /**
-     * Cancel the process 
-     * @param task
-     */
-    private synchronized boolean cancelProcess(final ExtractionTask task) {
-    	
-    	task.executionMetadata.cancel();
-    	boolean wasCanceled = task.executionMetadata.getFuture().cancel(true);
-    	this.executor.remove(task); // purge cancelled task
-    	return wasCanceled;
+        ExtractionTask foundTask = this.scheduler.remove(id);
+        if (foundTask == null) {
+            foundTask = this.pausedTasks.remove(id);
+        }
+        if (foundTask == null) {
+            return;
+        }
+        foundTask.executionMetadata.cancel();
+        this.cancelledTasks.add(foundTask);
+        publish();
     }
-    
-    
+
 	/**
      * Moves the task to the paused queue if it is in waiting status.
      * @param id task's identifier
      */
     private synchronized void pauseTask(final String id){
 
-    	ExtractionTask foundTask = null;
-        for (ExtractionTask task: this.readyTaskQueue) {
-        	if(task.executionMetadata.getState().equals(ExecutionState.WAITING)){
-        		if(!task.executionMetadata.getFuture().isCancelled() && !task.executionMetadata.getFuture().isDone()){
-                    if (task.equalId(id)) {
-                    	foundTask = task;
-                    	break;
-                    }
-        		}
-        	}
+        ExtractionTask foundTask = this.scheduler.remove(id);
+        if (foundTask == null) {
+            return;
         }
-		if(foundTask == null){
-			return;
-		}
-		// moves the found task to the paused task queue
-//		foundTask.executionMetadata.getFuture().cancel(true);
-//		this.executor.remove(foundTask);
-//        this.readyTaskQueue.remove(foundTask);
-//        
-//        foundTask.executionMetadata.setPaused();
-//        this.pausedTasks.put(id, foundTask);
-//        
-//XXX Replaced by the following sentences:        
         foundTask.executionMetadata.setPaused();
-		ExtractionTask taskCloned = new ExtractionTask(foundTask);
-	
-		foundTask.executionMetadata.getFuture().cancel(true);
-		this.executor.remove(foundTask);
-		this.executor.purge();
-		this.readyTaskQueue.remove(foundTask);
-		
-        this.pausedTasks.put(id, taskCloned);
-        
+        this.pausedTasks.put(id, foundTask);
+        publish();
     }
-    
+
     /**
      * Moves a paused task to the ready task queue
      * @param id
      */
     private synchronized void resumeTask(final String id){
 
-    	ExtractionTask foundTask = this.pausedTasks.get(id);
+    	ExtractionTask foundTask = this.pausedTasks.remove(id);
     	if( foundTask != null){
-    		this.pausedTasks.remove(id);
     		foundTask.executionMetadata.setWaiting();
-    		
-    		submit(foundTask);
+
+    		schedule(foundTask);
+    		dispatch();
     	}
     }
 	
     public synchronized void cleanExpiredTasks(long expiry) {
         ArrayList<ExtractionTask> toRemove = new ArrayList<ExtractionTask>();
-        for (ExtractionTask task : readyTaskQueue) {
+        for (ExtractionTask task : startedTasks) {
             ExecutionMetadata metadata = task.executionMetadata;
             if (metadata.isCompleted() && (metadata.getStateChangeTime().getTime() + expiry) > System.currentTimeMillis()) {
                 toRemove.add(task);
             }
         }
-        readyTaskQueue.removeAll(toRemove);
+        startedTasks.removeAll(toRemove);
         toRemove.clear();
-        for (ExtractionTask task : cancelledTaskQueue) {
+        for (ExtractionTask task : cancelledTasks) {
             ExecutionMetadata metadata = task.executionMetadata;
             if ((metadata.getStateChangeTime().getTime() + expiry) > System.currentTimeMillis()) {
                 toRemove.add(task);
             }
         }
-        cancelledTaskQueue.removeAll(toRemove);
+        cancelledTasks.removeAll(toRemove);
+        publish();
     }
 
 
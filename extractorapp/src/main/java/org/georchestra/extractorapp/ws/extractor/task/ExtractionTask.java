@@ -31,21 +31,34 @@ import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import com.mchange.v2.c3p0.ComboPooledDataSource;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.georchestra.extractorapp.ws.extractor.ExtractionResultCache;
 import org.georchestra.extractorapp.ws.extractor.ExtractorController;
 import org.georchestra.extractorapp.ws.extractor.ExtractorLayerRequest;
 import org.georchestra.extractorapp.ws.extractor.FileUtils;
 import org.georchestra.extractorapp.ws.extractor.OversizedCoverageRequestException;
+import org.georchestra.extractorapp.ws.extractor.ParallelZipArchiver;
+import org.georchestra.extractorapp.ws.extractor.PhaseTimer;
 import org.georchestra.extractorapp.ws.extractor.RequestConfiguration;
 import org.georchestra.extractorapp.ws.extractor.WcsExtractor;
 import org.georchestra.extractorapp.ws.extractor.WfsExtractor;
+import org.georchestra.extractorapp.ws.extractor.WfsPaging;
+import org.georchestra.extractorapp.ws.extractor.wcs.WcsTiling;
 import org.georchestra.extractorapp.ws.extractor.csw.CSWExtractor;
 import org.geotools.referencing.CRS;
 import org.json.JSONException;
@@ -58,6 +71,36 @@ import org.opengis.referencing.operation.TransformException;
 /**
  * Thread responsible for downloading all the data for a single request and
  * emailing the link for obtaining the data.
+ * <p>
+ * The layers of the request are extracted concurrently, within the limits
+ * given by the {@link LayerExtractionLimits}: at most maxLayersPerTask at once
+ * for this task, and at most maxLayersPerHost at once from a given server over
+ * all the tasks. The task itself still takes a single slot in the
+ * {@link ExtractionManager}, so the priorities between tasks are kept.
+ * </p>
+ * <p>
+ * Each layer is compressed into the archive as soon as it is extracted, by
+ * the archive executor shared by all the tasks.
+ * </p>
+ * <p>
+ * Large WFS layers are downloaded by pages when {@link WfsPaging} is set. The
+ * complete pages are kept until the layer is done, so that a retry only
+ * downloads the missing ones.
+ * </p>
+ * <p>
+ * Coverages larger than the maximum extraction size are downloaded as tiles
+ * when {@link WcsTiling} is set.
+ * </p>
+ * <p>
+ * When an {@link ExtractionResultCache} is set, a layer already extracted
+ * with the same parameters is copied from the cache, once the permission of
+ * the user has been checked.
+ * </p>
+ * <p>
+ * The phases of each layer attempt are timed by a {@link PhaseTimer}. They
+ * are kept in the {@link ExecutionMetadata}, added to the
+ * {@link PhaseHistograms} and logged in the extractor_phase_log table.
+ * </p>
  *
  * @author jeichar
  */
@@ -67,10 +110,18 @@ public class ExtractionTask implements Runnable, Comparable<ExtractionTask> {
 	private final ComboPooledDataSource datasource;
 
 	private static final int EXTRACTION_ATTEMPTS = 3;
+	/** delay before the first retry of a layer, doubled on each attempt */
+	private static final long RETRY_DELAY = 2000;
 	public final ExecutionMetadata executionMetadata;
 
 	private RequestConfiguration requestConfig;
 	private Long logId;
+	private LayerExtractionLimits layerLimits;
+	private ExecutorService archiveExecutor;
+	private WfsPaging wfsPaging;
+	private WcsTiling wcsTiling;
+	private ExtractionResultCache resultCache;
+	private PhaseHistograms phaseHistograms;
 
 	public ExtractionTask(RequestConfiguration requestConfig, ComboPooledDataSource datasource)
 			throws NoSuchAuthorityCodeException, MalformedURLException, JSONException, FactoryException {
@@ -87,6 +138,60 @@ public class ExtractionTask implements Runnable, Comparable<ExtractionTask> {
 		this.requestConfig = toCopy.requestConfig;
 		this.datasource = toCopy.datasource;
 		this.executionMetadata = toCopy.executionMetadata;
+		this.layerLimits = toCopy.layerLimits;
+		this.archiveExecutor = toCopy.archiveExecutor;
+		this.wfsPaging = toCopy.wfsPaging;
+		this.wcsTiling = toCopy.wcsTiling;
+		this.resultCache = toCopy.resultCache;
+		this.phaseHistograms = toCopy.phaseHistograms;
+	}
+
+	/**
+	 * @param layerLimits the limits shared by all the tasks, layers are
+	 *            extracted one at a time if not set
+	 */
+	public void setLayerLimits(LayerExtractionLimits layerLimits) {
+		this.layerLimits = layerLimits;
+	}
+
+	/**
+	 * @param archiveExecutor compresses the extracted files, files are
+	 *            compressed by the layer threads if not set
+	 */
+	public void setArchiveExecutor(ExecutorService archiveExecutor) {
+		this.archiveExecutor = archiveExecutor;
+	}
+
+	/**
+	 * @param wfsPaging the WFS paging settings shared by all the tasks, WFS
+	 *            layers are downloaded at once if not set
+	 */
+	public void setWfsPaging(WfsPaging wfsPaging) {
+		this.wfsPaging = wfsPaging;
+	}
+
+	/**
+	 * @param wcsTiling the WCS tiling settings shared by all the tasks,
+	 *            oversized coverages are refused if not set
+	 */
+	public void setWcsTiling(WcsTiling wcsTiling) {
+		this.wcsTiling = wcsTiling;
+	}
+
+	/**
+	 * @param resultCache the extracted layers shared by all the tasks, the
+	 *            layers are always extracted if not set
+	 */
+	public void setResultCache(ExtractionResultCache resultCache) {
+		this.resultCache = resultCache;
+	}
+
+	/**
+	 * @param phaseHistograms the histograms of the phase durations shared by
+	 *            all the tasks
+	 */
+	public void setPhaseHistograms(PhaseHistograms phaseHistograms) {
+		this.phaseHistograms = phaseHistograms;
 	}
 
 
@@ -106,79 +211,19 @@ public class ExtractionTask implements Runnable, Comparable<ExtractionTask> {
 
 			final File failureFile = new File(tmpExtractionBundle,
 					"failures.txt");
-			final List<String> successes = new ArrayList<String>();
-			final List<String> failures = new ArrayList<String>();
-			final List<String> oversized = new ArrayList<String>();
-			for (ExtractorLayerRequest request : requestConfig.requests) {
-
-				int tries = 0;
-				while (tries < EXTRACTION_ATTEMPTS) {
+			final List<String> successes = Collections.synchronizedList(new ArrayList<String>());
+			final List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+			final List<String> oversized = Collections.synchronizedList(new ArrayList<String>());
 
-					tries++;
-					String name = String.format("%s__%s",
-							request._url.getHost(), request._layerName);
-					File layerTmpDir = mkDirTmpExtractionBundle(tmpDir, name);
-					LOG.info("Attempt " + tries + " for extracting layer: "
-							+ request._url + " -- " + request._layerName);
+			final ParallelZipArchiver archiver = createArchiver(tmpExtractionBundle);
 
-					try {
-						// extracts the layer in the temporal directory
-						File newDir;
-						switch (request._owsType) {
-						case WCS:
-							newDir = extractWcsLayer(request, layerTmpDir);
-							break;
-						case WFS:
-							newDir = extractWfsLayer(request, layerTmpDir);
-							break;
-						default:
-							throw new IllegalArgumentException(request._owsType
-									+ " not supported");
-						}
-						// extracts the metadata into the temporal directory
-						if(request._isoMetadataURL != null && !"".equals(request._isoMetadataURL) ){
-							extractMetadata(request, newDir);
-						}
-
-						for (File from : layerTmpDir.listFiles()) {
-							File to = new File(tmpExtractionBundle,
-									from.getName());
-							FileUtils.moveFile(from, to);
-						}
-						FileUtils.delete(layerTmpDir);
-						LOG.info("Finished extracting layer: " + request._url
-								+ " -- " + request._layerName);
-						tries = EXTRACTION_ATTEMPTS + 1;
-						successes.add(name);
-					} catch (OversizedCoverageRequestException e) {
-						tries = EXTRACTION_ATTEMPTS + 1; // don't re-try
-						oversized.add(name);
-						handleExtractionException(request, e, failureFile);
-					} catch (SecurityException e) {
-						tries = EXTRACTION_ATTEMPTS + 1; // don't re-try
-
-						try {
-							FileUtils.delete(layerTmpDir);
-						} catch (Throwable t) { /* ignore */
-						}
-
-						failures.add(name);
-						handleExtractionException(request, e, failureFile);
-					} catch (Throwable e) {
-						try {
-							FileUtils.delete(layerTmpDir);
-						} catch (Throwable t) { /* ignore */
-						}
-
-						if (tries >= EXTRACTION_ATTEMPTS) {
-							failures.add(name);
-							handleExtractionException(request, e, failureFile);
-						}
-					}
-				}
-			}
+			extractLayers(tmpDir, tmpExtractionBundle, failureFile, archiver, successes, failures, oversized);
 
-			File archive = archiveExtraction(tmpExtractionBundle);
+			PhaseTimer archiveTimer = new PhaseTimer(null, 0);
+			long archiveStart = PhaseTimer.start();
+			File archive = archiveExtraction(archiver, failureFile);
+			archiveTimer.record(PhaseTimer.ARCHIVE, archiveStart);
+			recordPhases(archiveTimer);
 			long fileSize = archive.length();
 			long end = System.currentTimeMillis();
 
@@ -204,6 +249,261 @@ public class ExtractionTask implements Runnable, Comparable<ExtractionTask> {
 		}
 	}
 
+	/**
+	 * Extracts all the layers of the request, several at a time, and waits
+	 * until they are all done.
+	 */
+	private void extractLayers(final File tmpDir, final File tmpExtractionBundle, final File failureFile,
+			final ParallelZipArchiver archiver, final List<String> successes, final List<String> failures,
+			final List<String> oversized) {
+
+		final LayerExtractionLimits limits = this.layerLimits != null ? this.layerLimits
+				: new LayerExtractionLimits(1, 1);
+		int threads = Math.max(1, Math.min(limits.getMaxLayersPerTask(), requestConfig.requests.size()));
+		final String threadName = "Extractorapp-layer-" + requestConfig.requestUuid + "-";
+		// threads are created from this one, so they inherit the request configuration
+		ExecutorService layerExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private int count = 0;
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r);
+				thread.setName(threadName + (count++));
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (int i = 0; i < requestConfig.requests.size(); i++) {
+				final ExtractorLayerRequest request = requestConfig.requests.get(i);
+				final int index = i;
+				futures.add(layerExecutor.submit(new Runnable() {
+					@Override
+					public void run() {
+						extractLayer(request, index, limits, tmpDir, tmpExtractionBundle, failureFile, archiver, successes,
+								failures, oversized);
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			LOG.info("Extraction interrupted: " + requestConfig.requestUuid);
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			handleException(e.getCause());
+		} finally {
+			layerExecutor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Extracts a layer into the extraction bundle, retrying on failure, and
+	 * schedules its compression. Called concurrently for the layers of the
+	 * request.
+	 */
+	private void extractLayer(ExtractorLayerRequest request, int index, LayerExtractionLimits limits, File tmpDir,
+			File tmpExtractionBundle, File failureFile, ParallelZipArchiver archiver, List<String> successes,
+			List<String> failures, List<String> oversized) {
+
+		requestConfig.setThreadLocal();
+		String host = request._url.getHost();
+		String name = String.format("%s__%s", host, request._layerName);
+		// a request may list the same layer twice, hence the index in the directory names
+		String layerDirName = name + "_" + index;
+		// the downloaded WFS pages are kept between the attempts
+		File checkpointDir = new File(tmpDir, FileUtils.toSafeFileName(name) + "_pages_" + index);
+
+		String cacheKey = null;
+		if (resultCache != null) {
+			cacheKey = ExtractionResultCache.key(request);
+			PhaseTimer timer = new PhaseTimer(request, 0);
+			timer.bind();
+			try {
+				if (extractCachedLayer(request, cacheKey, tmpDir, layerDirName, tmpExtractionBundle, archiver)) {
+					successes.add(name);
+					return;
+				}
+			} finally {
+				PhaseTimer.unbind();
+				recordPhases(timer);
+			}
+		}
+
+		int tries = 0;
+		while (tries < EXTRACTION_ATTEMPTS) {
+
+			tries++;
+			File layerTmpDir = mkDirTmpExtractionBundle(tmpDir, layerDirName);
+			LOG.info("Attempt " + tries + " for extracting layer: "
+					+ request._url + " -- " + request._layerName);
+
+			PhaseTimer timer = new PhaseTimer(request, tries);
+			timer.bind();
+			try {
+				// extracts the layer in the temporal directory
+				File newDir;
+				limits.acquire(host);
+				try {
+					switch (request._owsType) {
+					case WCS:
+						newDir = extractWcsLayer(request, layerTmpDir);
+						break;
+					case WFS:
+						newDir = extractWfsLayer(request, layerTmpDir, checkpointDir);
+						break;
+					default:
+						throw new IllegalArgumentException(request._owsType
+								+ " not supported");
+					}
+				} finally {
+					limits.release(host);
+				}
+				// extracts the metadata into the temporal directory
+				if(request._isoMetadataURL != null && !"".equals(request._isoMetadataURL) ){
+					long start = PhaseTimer.start();
+					extractMetadata(request, newDir);
+					PhaseTimer.stop(PhaseTimer.METADATA, start);
+				}
+
+				if (cacheKey != null) {
+					try {
+						resultCache.store(cacheKey, layerTmpDir);
+					} catch (IOException e) {
+						LOG.warn("Unable to cache the extraction of layer " + request._layerName, e);
+					}
+				}
+				moveToBundle(layerTmpDir, tmpExtractionBundle, archiver);
+				deleteQuietly(checkpointDir);
+				LOG.info("Finished extracting layer: " + request._url
+						+ " -- " + request._layerName);
+				successes.add(name);
+				return;
+			} catch (OversizedCoverageRequestException e) {
+				// don't re-try
+				deleteQuietly(checkpointDir);
+				oversized.add(name);
+				handleExtractionException(request, e, failureFile);
+				return;
+			} catch (SecurityException e) {
+				// don't re-try
+				deleteQuietly(layerTmpDir);
+				deleteQuietly(checkpointDir);
+				failures.add(name);
+				handleExtractionException(request, e, failureFile);
+				return;
+			} catch (InterruptedException e) {
+				deleteQuietly(layerTmpDir);
+				failures.add(name);
+				Thread.currentThread().interrupt();
+				return;
+			} catch (Throwable e) {
+				deleteQuietly(layerTmpDir);
+
+				if (tries >= EXTRACTION_ATTEMPTS) {
+					deleteQuietly(checkpointDir);
+					failures.add(name);
+					handleExtractionException(request, e, failureFile);
+					return;
+				}
+				LOG.info("Extraction of layer " + request._layerName + " failed, retrying", e);
+			} finally {
+				PhaseTimer.unbind();
+				recordPhases(timer);
+			}
+
+			try {
+				Thread.sleep(RETRY_DELAY << (tries - 1));
+			} catch (InterruptedException e) {
+				failures.add(name);
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Copies the layer from the result cache into the bundle if it is
+	 * there and the user can access it.
+	 *
+	 * @return false if the layer must be extracted
+	 */
+	private boolean extractCachedLayer(ExtractorLayerRequest request, String cacheKey, File tmpDir, String dirName,
+			File tmpExtractionBundle, ParallelZipArchiver archiver) {
+		File layerTmpDir = mkDirTmpExtractionBundle(tmpDir, dirName);
+		try {
+			long start = PhaseTimer.start();
+			checkPermission(request, layerTmpDir);
+			PhaseTimer.stop(PhaseTimer.PERMISSION, start);
+			start = PhaseTimer.start();
+			if (!resultCache.fetch(cacheKey, layerTmpDir)) {
+				return false;
+			}
+			moveToBundle(layerTmpDir, tmpExtractionBundle, archiver);
+			PhaseTimer.stop(PhaseTimer.CACHE, start);
+			LOG.info("Copied layer from the extraction cache: " + request._url + " -- " + request._layerName);
+			return true;
+		} catch (Exception e) {
+			// the permission is checked again, and reported, by the extraction
+			LOG.debug("Extracting layer " + request._layerName + " instead of using the cache", e);
+			return false;
+		} finally {
+			deleteQuietly(layerTmpDir);
+		}
+	}
+
+	private void checkPermission(ExtractorLayerRequest request, File requestBaseDir) throws IOException {
+		switch (request._owsType) {
+		case WCS:
+			new WcsExtractor(requestBaseDir, requestConfig).checkPermission(request, requestConfig.secureHost,
+					requestConfig.username, requestConfig.roles);
+			break;
+		case WFS:
+			new WfsExtractor(requestBaseDir, requestConfig.adminCredentials.getUserName(),
+					requestConfig.adminCredentials.getPassword(), requestConfig.secureHost, requestConfig.userAgent)
+					.checkPermission(request, requestConfig.secureHost, requestConfig.username, requestConfig.roles);
+			break;
+		default:
+			throw new IllegalArgumentException(request._owsType + " not supported");
+		}
+	}
+
+	/**
+	 * Moves the extracted files of a layer into the bundle and schedules
+	 * their compression.
+	 */
+	private void moveToBundle(File layerTmpDir, File tmpExtractionBundle, ParallelZipArchiver archiver)
+			throws IOException {
+		List<File> moved = new ArrayList<File>();
+		for (File from : layerTmpDir.listFiles()) {
+			File to = new File(tmpExtractionBundle, from.getName());
+			FileUtils.moveFile(from, to);
+			moved.add(to);
+		}
+		FileUtils.delete(layerTmpDir);
+		for (File file : moved) {
+			archiver.add(file);
+		}
+	}
+
+	private void recordPhases(PhaseTimer timer) {
+		List<PhaseTimer.Span> spans = timer.getSpans();
+		executionMetadata.addPhaseSpans(spans);
+		if (phaseHistograms != null) {
+			phaseHistograms.record(spans);
+		}
+	}
+
+	private void deleteQuietly(File dir) {
+		try {
+			FileUtils.delete(dir);
+		} catch (Throwable t) { /* ignore */
+		}
+	}
+
 	private String time(long start, long end) {
 		long seconds = (end - start) / 1000;
 		if (seconds > 60) {
@@ -238,24 +538,41 @@ public class ExtractionTask implements Runnable, Comparable<ExtractionTask> {
 	/**
 	 * Protected to allow unit test to override
 	 *
-	 * @return
+	 * @return the archiver of the extraction bundle
 	 */
-	protected File archiveExtraction(File tmpExtractionBundle) {
+	protected ParallelZipArchiver createArchiver(File tmpExtractionBundle) {
 		String filename = requestConfig.requestUuid.toString()
 				+ ExtractorController.EXTRACTION_ZIP_EXT;
 		File storageFile = FileUtils.storageFile(filename);
 		if (!storageFile.getParentFile().exists()) {
 			storageFile.getParentFile().mkdirs();
 		}
+		return new ParallelZipArchiver(tmpExtractionBundle, storageFile, archiveExecutor);
+	}
+
+	/**
+	 * Protected to allow unit test to override
+	 *
+	 * @return the archive
+	 */
+	protected File archiveExtraction(ParallelZipArchiver archiver, File failureFile) {
 		try {
-			FileUtils.archiveToZip(tmpExtractionBundle, storageFile);
+			if (failureFile.exists()) {
+				archiver.add(failureFile);
+			}
+			archiver.finish();
+			executionMetadata.setArchiveStatistics(archiver.getInputSize(), archiver.getArchiveSize(),
+					archiver.getCompressionTime(), archiver.getFinishTime());
+			LOG.info(String.format("Archived %s bytes into %s bytes at %s bytes/s per thread, waited %s ms",
+					archiver.getInputSize(), archiver.getArchiveSize(),
+					executionMetadata.getArchiveThroughput(), archiver.getFinishTime()));
 		} catch (IOException e1) {
 			handleException(e1);
 		}
-		return storageFile;
+		return archiver.getStorageFile();
 	}
 
-	private void handleExtractionException(ExtractorLayerRequest request,
+	private synchronized void handleExtractionException(ExtractorLayerRequest request,
 			Throwable e, File failureFile) {
 
 		this.statSetError(request);
@@ -334,8 +651,11 @@ public class ExtractionTask implements Runnable, Comparable<ExtractionTask> {
 			throws IOException, TransformException, FactoryException {
 
 		WcsExtractor extractor = new WcsExtractor(requestBaseDir, requestConfig);
+		extractor.setTiling(wcsTiling);
 
+		long start = PhaseTimer.start();
 		extractor.checkPermission(request, requestConfig.secureHost, requestConfig.username, requestConfig.roles);
+		PhaseTimer.stop(PhaseTimer.PERMISSION, start);
 
 		return extractor.extract(request);
 	}
@@ -344,6 +664,7 @@ public class ExtractionTask implements Runnable, Comparable<ExtractionTask> {
 	 * Creates a directory which contains the extracted layers
 	 * @param request
 	 * @param requestBaseDir
+	 * @param checkpointDir where the downloaded pages are kept between attempts
 	 *
 	 * @return the directory that contain the layers
 	 *
@@ -351,7 +672,7 @@ public class ExtractionTask implements Runnable, Comparable<ExtractionTask> {
 	 * @throws TransformException
 	 * @throws FactoryException
 	 */
-	private File extractWfsLayer(ExtractorLayerRequest request, File requestBaseDir)
+	private File extractWfsLayer(ExtractorLayerRequest request, File requestBaseDir, File checkpointDir)
 			throws IOException, TransformException, FactoryException {
 
 		WfsExtractor extractor = new WfsExtractor(requestBaseDir,
@@ -359,8 +680,13 @@ public class ExtractionTask implements Runnable, Comparable<ExtractionTask> {
 				requestConfig.adminCredentials.getPassword(),
 				requestConfig.secureHost,
 				requestConfig.userAgent);
+		if (wfsPaging != null) {
+			extractor.setPaging(wfsPaging, checkpointDir);
+		}
 
+		long start = PhaseTimer.start();
 		extractor.checkPermission(request, requestConfig.secureHost, requestConfig.username, requestConfig.roles);
+		PhaseTimer.stop(PhaseTimer.PERMISSION, start);
 
 		return extractor.extract(request);
 	}
@@ -498,6 +824,31 @@ public class ExtractionTask implements Runnable, Comparable<ExtractionTask> {
 
 			pst.setLong(1, this.logId);
 			pst.executeUpdate();
+			pst.close();
+
+			pst = c.prepareStatement("INSERT INTO extractorapp.extractor_phase_log " +
+					"(extractor_log_id, " +        // 1
+					"extractor_layer_log_id, " +   // 2
+					"phase, " +                    // 3
+					"attempt, " +                  // 4
+					"start_date, " +               // 5
+					"duration) " +                 // 6
+					"VALUES (?, ?, ?, ?, ?, ? * INTERVAL '1 millisecond')");
+
+			for (PhaseTimer.Span span : this.executionMetadata.getPhaseSpans()) {
+				pst.setLong(1, this.logId);
+				if (span.layerLogId != null) {
+					pst.setLong(2, span.layerLogId);
+				} else {
+					pst.setNull(2, Types.INTEGER);
+				}
+				pst.setString(3, span.phase);
+				pst.setInt(4, span.attempt);
+				pst.setTimestamp(5, new Timestamp(span.startTime));
+				pst.setLong(6, span.duration);
+				pst.addBatch();
+			}
+			pst.executeBatch();
 
 		} catch (SQLException e) {
 			LOG.error("Error occured when trying to set the extraction status to 'completed'", e);
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2009-2018 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.georchestra.extractorapp.ws.extractor.task;
+
+import org.georchestra.extractorapp.ws.extractor.HostPermits;
+
+/**
+ * Bounds the number of layers extracted at the same time, by a single task
+ * and against a single remote host.
+ * <p>
+ * The per-host limit is shared by all the tasks, so that running several
+ * extractions in parallel does not flood a given WFS or WCS server. Permits
+ * are given in arrival order.
+ * </p>
+ */
+public class LayerExtractionLimits {
+
+	private final int maxLayersPerTask;
+	private final HostPermits hosts;
+
+	/**
+	 * @param maxLayersPerTask maximum number of layers extracted at once by a task
+	 * @param maxLayersPerHost maximum number of layers extracted at once from a remote host, over all tasks
+	 */
+	public LayerExtractionLimits(int maxLayersPerTask, int maxLayersPerHost) {
+		if (maxLayersPerTask < 1 || maxLayersPerHost < 1) {
+			throw new IllegalArgumentException("Layer extraction limits must be positive");
+		}
+		this.maxLayersPerTask = maxLayersPerTask;
+		this.hosts = new HostPermits(maxLayersPerHost);
+	}
+
+	public int getMaxLayersPerTask() {
+		return maxLayersPerTask;
+	}
+
+	public int getMaxLayersPerHost() {
+		return hosts.getPermitsPerHost();
+	}
+
+	/**
+	 * Waits until a layer can be extracted from the host.
+	 */
+	public void acquire(String host) throws InterruptedException {
+		hosts.acquire(host);
+	}
+
+	/**
+	 * Must be called once the layer acquired from the host is extracted.
+	 */
+	public void release(String host) {
+		hosts.release(host);
+	}
+
+	/**
+	 * @return number of layers which can still be extracted at once from the host
+	 */
+	public int availablePermits(String host) {
+		return hosts.availablePermits(host);
+	}
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2009-2018 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.georchestra.extractorapp.ws.extractor.task;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.georchestra.extractorapp.ws.extractor.PhaseTimer;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Histograms of the phase durations of all the extractions since the start
+ * of the application, by phase, host and format. The layer names are left
+ * out so that the number of histograms stays bounded.
+ * <p>
+ * The buckets are cumulative: each one counts the spans which took at most
+ * its bound, in milliseconds.
+ * </p>
+ */
+public class PhaseHistograms {
+
+    /** upper bounds of the buckets in milliseconds, the last bucket is unbounded */
+    static final long[] BOUNDS = { 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000, 120000, 300000,
+            600000, 1800000 };
+
+    private final Map<String, Histogram> histograms = new TreeMap<String, Histogram>();
+
+    public void record(List<PhaseTimer.Span> spans) {
+        for (PhaseTimer.Span span : spans) {
+            record(span);
+        }
+    }
+
+    public void record(PhaseTimer.Span span) {
+        String key = span.phase + "|" + span.host + "|" + span.format;
+        Histogram histogram;
+        synchronized (histograms) {
+            histogram = histograms.get(key);
+            if (histogram == null) {
+                histogram = new Histogram(span.phase, span.host, span.format);
+                histograms.put(key, histogram);
+            }
+        }
+        histogram.add(span.duration);
+    }
+
+    /**
+     * <pre>
+     * {"histograms":[{"phase":"wfs_download","host":"...","format":"shp","count":3,"sum":5230,
+     *                 "buckets":[{"le":100,"count":0},...,{"le":"+Inf","count":3}]}, ...]}
+     * </pre>
+     */
+    public JSONObject toJSON() throws JSONException {
+        List<Histogram> all;
+        synchronized (histograms) {
+            all = new ArrayList<Histogram>(histograms.values());
+        }
+        JSONArray array = new JSONArray();
+        for (Histogram histogram : all) {
+            array.put(histogram.toJSON());
+        }
+        return new JSONObject().put("histograms", array);
+    }
+
+    static final class Histogram {
+        final String phase;
+        final String host;
+        final String format;
+        /** counts[i] is the number of durations in ]BOUNDS[i-1], BOUNDS[i]] */
+        private final long[] counts = new long[BOUNDS.length + 1];
+        private long count;
+        private long sum;
+
+        Histogram(String phase, String host, String format) {
+            this.phase = phase;
+            this.host = host;
+            this.format = format;
+        }
+
+        synchronized void add(long duration) {
+            int i = 0;
+            while (i < BOUNDS.length && duration > BOUNDS[i]) {
+                i++;
+            }
+            counts[i]++;
+            count++;
+            sum += duration;
+        }
+
+        synchronized long getCount() {
+            return count;
+        }
+
+        synchronized long getSum() {
+            return sum;
+        }
+
+        /**
+         * @return the number of durations of at most BOUNDS[bucket], or all
+         *         of them for the last bucket
+         */
+        synchronized long getCumulativeCount(int bucket) {
+            long total = 0;
+            for (int i = 0; i <= bucket; i++) {
+                total += counts[i];
+            }
+            return total;
+        }
+
+        synchronized JSONObject toJSON() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("phase", phase);
+            json.put("host", host == null ? JSONObject.NULL : host);
+            json.put("format", format == null ? JSONObject.NULL : format);
+            json.put("count", count);
+            json.put("sum", sum);
+            JSONArray buckets = new JSONArray();
+            for (int i = 0; i <= BOUNDS.length; i++) {
+                JSONObject bucket = new JSONObject();
+                bucket.put("le", i < BOUNDS.length ? (Object) BOUNDS[i] : "+Inf");
+                bucket.put("count", getCumulativeCount(i));
+                buckets.put(bucket);
+            }
+            json.put("buckets", buckets);
+            return json;
+        }
+    }
+
+    /**
+     * @return the histogram of the phase, host and format, null if no such
+     *         span was recorded
+     */
+    Histogram get(String phase, String host, String format) {
+        synchronized (histograms) {
+            return histograms.get(phase + "|" + host + "|" + format);
+        }
+    }
+}
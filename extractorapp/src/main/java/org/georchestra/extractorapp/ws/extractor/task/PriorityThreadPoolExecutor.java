@@ -1,85 +0,0 @@
-/*
- * Copyright (C) 2009-2018 by the geOrchestra PSC
- *
- * This file is part of geOrchestra.
- *
- * geOrchestra is free software: you can redistribute it and/or modify it under
- * the terms of the GNU General Public License as published by the Free
- * Software Foundation, either version 3 of the License, or (at your option)
- * any later version.
- *
- * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
- * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
- * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
- * more details.
- *
- * You should have received a copy of the GNU General Public License along with
- * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
- */
-
-package org.georchestra.extractorapp.ws.extractor.task;
-
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.Callable;
-import java.util.concurrent.FutureTask;
-import java.util.concurrent.RejectedExecutionHandler;
-import java.util.concurrent.RunnableFuture;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
-
-public class PriorityThreadPoolExecutor extends ThreadPoolExecutor {
-	  
-	public PriorityThreadPoolExecutor (int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit, BlockingQueue<Runnable> workQueue) {
-	    super (corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue);
-	  }
-
-	public PriorityThreadPoolExecutor(int corePoolSize, int maximumPoolSize,
-			long keepAliveTime, TimeUnit unit,
-			BlockingQueue<Runnable> workQueue, RejectedExecutionHandler handler) {
-		super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, handler);
-	}
-
-	public PriorityThreadPoolExecutor(int corePoolSize, int maximumPoolSize,
-			long keepAliveTime, TimeUnit unit,
-			BlockingQueue<Runnable> workQueue, ThreadFactory threadFactory,
-			RejectedExecutionHandler handler) {
-		super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue,
-				threadFactory, handler);
-	}
-
-	public PriorityThreadPoolExecutor(int corePoolSize, int maximumPoolSize,
-			long keepAliveTime, TimeUnit unit,
-			BlockingQueue<Runnable> workQueue, ThreadFactory threadFactory) {
-		super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue,
-				threadFactory);
-	}
-
-	protected <T> RunnableFuture<T> newTaskFor (Runnable runnable, T value) {
-	    return new ComparableFutureTask<T> (runnable, value);
-	  }
-
-	  protected <T> RunnableFuture<T> newTaskFor (Callable<T> callable) {
-	    return new ComparableFutureTask<T> (callable);
-	  }
-
-	  static class ComparableFutureTask<V> extends FutureTask<V> implements Comparable<ComparableFutureTask<V>> {
-	    Comparable comparable;
-
-	    ComparableFutureTask (Callable<V> callable) {
-	      super (callable);
-	      comparable = (Comparable) callable;
-	    }
-
-	    ComparableFutureTask (Runnable runnable, V result) {
-	      super (runnable, result);
-	      comparable = (Comparable) runnable;
-	    }
-
-	    @SuppressWarnings("unchecked")
-	    public int compareTo (ComparableFutureTask<V> ftask) {
-	      return comparable.compareTo (ftask.comparable);
-	    }
-	  }
-	}
-
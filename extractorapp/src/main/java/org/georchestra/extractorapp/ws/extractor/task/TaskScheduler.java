@@ -0,0 +1,342 @@
+/*
+ * Copyright (C) 2009-2018 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.georchestra.extractorapp.ws.extractor.task;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Orders the waiting tasks, indexed by uuid so that a task can be removed or
+ * reprioritized in O(log n).
+ * <p>
+ * Each task has a key, its submission time minus one aging interval per
+ * priority level: a HIGH task goes before the MEDIUM tasks submitted less
+ * than one interval before it, and a waiting task ends up before any task
+ * submitted long enough after it, whatever their priorities.
+ * </p>
+ * <p>
+ * The tasks are kept in one heap per user. The next task is the head of the
+ * user heap with the lowest key, once each key is increased by the fair share
+ * penalty times the number of tasks of the user already running. A user
+ * submitting many extractions does not hold all the threads while others wait.
+ * </p>
+ * <p>
+ * This class is not thread safe, the {@link ExtractionManager} synchronizes
+ * its use.
+ * </p>
+ *
+ * @param <T> the task
+ */
+final class TaskScheduler<T> {
+
+    private static final class Entry<T> {
+        final String uuid;
+        final String user;
+        final T task;
+        final long time;
+        final long sequence;
+        long key;
+        /** position in the heap of the user */
+        int index;
+
+        Entry(String uuid, String user, T task, long time, long sequence) {
+            this.uuid = uuid;
+            this.user = user;
+            this.task = task;
+            this.time = time;
+            this.sequence = sequence;
+        }
+
+        boolean before(Entry<T> other) {
+            return key < other.key || (key == other.key && sequence < other.sequence);
+        }
+    }
+
+    private static final class UserQueue<T> {
+        final List<Entry<T>> heap = new ArrayList<Entry<T>>();
+        int running;
+    }
+
+    private final long agingInterval;
+    private final long fairSharePenalty;
+
+    private final Map<String, Entry<T>> entries = new HashMap<String, Entry<T>>();
+    private final Map<String, UserQueue<T>> users = new HashMap<String, UserQueue<T>>();
+    private final Map<T, String> runningUsers = new HashMap<T, String>();
+    private long sequence = 0;
+
+    /**
+     * @param agingInterval time in ms worth one priority level
+     * @param fairSharePenalty time in ms added to the keys of a user for each of its running tasks
+     */
+    TaskScheduler(long agingInterval, long fairSharePenalty) {
+        if (agingInterval < 0 || fairSharePenalty < 0) {
+            throw new IllegalArgumentException("The aging interval and the fair share penalty must not be negative");
+        }
+        this.agingInterval = agingInterval;
+        this.fairSharePenalty = fairSharePenalty;
+    }
+
+    /**
+     * Adds a waiting task.
+     *
+     * @param time submission time, in ms
+     */
+    void offer(String uuid, String user, ExecutionPriority priority, T task, long time) {
+        if (entries.containsKey(uuid)) {
+            throw new IllegalArgumentException("Task already scheduled: " + uuid);
+        }
+        Entry<T> entry = new Entry<T>(uuid, user == null ? "" : user, task, time, sequence++);
+        entry.key = key(time, priority);
+        entries.put(uuid, entry);
+
+        UserQueue<T> queue = userQueue(entry.user);
+        entry.index = queue.heap.size();
+        queue.heap.add(entry);
+        siftUp(queue.heap, entry.index);
+    }
+
+    /**
+     * @return the waiting task or null
+     */
+    T get(String uuid) {
+        Entry<T> entry = entries.get(uuid);
+        return entry == null ? null : entry.task;
+    }
+
+    /**
+     * Removes a waiting task.
+     *
+     * @return the task or null if it is not waiting
+     */
+    T remove(String uuid) {
+        Entry<T> entry = entries.remove(uuid);
+        if (entry == null) {
+            return null;
+        }
+        UserQueue<T> queue = users.get(entry.user);
+        removeAt(queue.heap, entry.index);
+        releaseUserQueue(entry.user, queue);
+        return entry.task;
+    }
+
+    /**
+     * Moves a waiting task according to its new priority, its submission time
+     * is kept.
+     *
+     * @return false if the task is not waiting
+     */
+    boolean updatePriority(String uuid, ExecutionPriority priority) {
+        Entry<T> entry = entries.get(uuid);
+        if (entry == null) {
+            return false;
+        }
+        entry.key = key(entry.time, priority);
+        List<Entry<T>> heap = users.get(entry.user).heap;
+        siftUp(heap, entry.index);
+        siftDown(heap, entry.index);
+        return true;
+    }
+
+    /**
+     * Gives the waiting tasks the same priority and the keys following the
+     * given order, as if they had just been submitted in that order. The
+     * waiting tasks which are not in the order are removed.
+     *
+     * @return the removed tasks
+     */
+    List<T> reorder(List<String> uuids, ExecutionPriority priority, long time) {
+        List<T> removed = new ArrayList<T>();
+        Set<String> kept = new HashSet<String>(uuids);
+        for (Iterator<Entry<T>> it = entries.values().iterator(); it.hasNext();) {
+            Entry<T> entry = it.next();
+            if (!kept.contains(entry.uuid)) {
+                it.remove();
+                removed.add(entry.task);
+            }
+        }
+        int position = 0;
+        for (String uuid : uuids) {
+            Entry<T> entry = entries.get(uuid);
+            if (entry != null) {
+                entry.key = key(time, priority) + position++;
+            }
+        }
+        // rebuilds the heaps, the keys have all changed
+        for (Iterator<Map.Entry<String, UserQueue<T>>> it = users.entrySet().iterator(); it.hasNext();) {
+            UserQueue<T> queue = it.next().getValue();
+            queue.heap.clear();
+            if (queue.running == 0) {
+                it.remove();
+            }
+        }
+        for (Entry<T> entry : entries.values()) {
+            UserQueue<T> queue = userQueue(entry.user);
+            entry.index = queue.heap.size();
+            queue.heap.add(entry);
+            siftUp(queue.heap, entry.index);
+        }
+        return removed;
+    }
+
+    /**
+     * Takes the next task, which then counts as running for its user until
+     * {@link #done(Object)} is called.
+     *
+     * @return the next task or null if none is waiting
+     */
+    T poll() {
+        UserQueue<T> next = null;
+        long nextKey = 0;
+        for (UserQueue<T> queue : users.values()) {
+            if (queue.heap.isEmpty()) {
+                continue;
+            }
+            Entry<T> head = queue.heap.get(0);
+            long key = head.key + queue.running * fairSharePenalty;
+            if (next == null || key < nextKey || (key == nextKey && head.sequence < next.heap.get(0).sequence)) {
+                next = queue;
+                nextKey = key;
+            }
+        }
+        if (next == null) {
+            return null;
+        }
+        Entry<T> entry = next.heap.get(0);
+        removeAt(next.heap, 0);
+        entries.remove(entry.uuid);
+        next.running++;
+        runningUsers.put(entry.task, entry.user);
+        return entry.task;
+    }
+
+    /**
+     * Releases the running slot of a task returned by {@link #poll()}.
+     */
+    void done(T task) {
+        String user = runningUsers.remove(task);
+        if (user != null) {
+            UserQueue<T> queue = users.get(user);
+            queue.running--;
+            releaseUserQueue(user, queue);
+        }
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    int running() {
+        return runningUsers.size();
+    }
+
+    /**
+     * @return the waiting tasks, by key
+     */
+    List<T> waitingTasks() {
+        List<Entry<T>> sorted = new ArrayList<Entry<T>>(entries.values());
+        Collections.sort(sorted, new Comparator<Entry<T>>() {
+            @Override
+            public int compare(Entry<T> e1, Entry<T> e2) {
+                return e1.before(e2) ? -1 : (e2.before(e1) ? 1 : 0);
+            }
+        });
+        List<T> tasks = new ArrayList<T>(sorted.size());
+        for (Entry<T> entry : sorted) {
+            tasks.add(entry.task);
+        }
+        return tasks;
+    }
+
+    private long key(long time, ExecutionPriority priority) {
+        return time - priority.ordinal() * agingInterval;
+    }
+
+    private UserQueue<T> userQueue(String user) {
+        UserQueue<T> queue = users.get(user);
+        if (queue == null) {
+            queue = new UserQueue<T>();
+            users.put(user, queue);
+        }
+        return queue;
+    }
+
+    private void releaseUserQueue(String user, UserQueue<T> queue) {
+        if (queue.heap.isEmpty() && queue.running == 0) {
+            users.remove(user);
+        }
+    }
+
+    private static <T> void removeAt(List<Entry<T>> heap, int index) {
+        Entry<T> last = heap.remove(heap.size() - 1);
+        if (index < heap.size()) {
+            heap.set(index, last);
+            last.index = index;
+            siftUp(heap, index);
+            siftDown(heap, last.index);
+        }
+    }
+
+    private static <T> void siftUp(List<Entry<T>> heap, int index) {
+        Entry<T> entry = heap.get(index);
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            Entry<T> parentEntry = heap.get(parent);
+            if (!entry.before(parentEntry)) {
+                break;
+            }
+            heap.set(index, parentEntry);
+            parentEntry.index = index;
+            index = parent;
+        }
+        heap.set(index, entry);
+        entry.index = index;
+    }
+
+    private static <T> void siftDown(List<Entry<T>> heap, int index) {
+        Entry<T> entry = heap.get(index);
+        int size = heap.size();
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && heap.get(child + 1).before(heap.get(child))) {
+                child++;
+            }
+            Entry<T> childEntry = heap.get(child);
+            if (!childEntry.before(entry)) {
+                break;
+            }
+            heap.set(index, childEntry);
+            childEntry.index = index;
+            index = child;
+        }
+        heap.set(index, entry);
+        entry.index = index;
+    }
+}
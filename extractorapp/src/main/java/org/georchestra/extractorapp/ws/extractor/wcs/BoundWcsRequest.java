@@ -36,6 +36,7 @@ import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.http.Header;
 import org.apache.http.HeaderElement;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpHost;
@@ -62,13 +63,12 @@ import org.apache.http.protocol.BasicHttpContext;
 import org.georchestra.extractorapp.ws.ExtractorException;
 import org.georchestra.extractorapp.ws.extractor.FileUtils;
 import org.georchestra.extractorapp.ws.extractor.OversizedCoverageRequestException;
-import org.georchestra.extractorapp.ws.extractor.XmlUtils;
+import org.georchestra.extractorapp.ws.extractor.OwsDocumentCache;
+import org.georchestra.extractorapp.ws.extractor.OwsDocumentCache.Response;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.referencing.CRS;
 import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.crs.CoordinateReferenceSystem;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
 
 
@@ -77,6 +77,10 @@ import org.w3c.dom.NodeList;
  * lazily download and cache different requests like describeCoverage and
  * getCapabilities
  *
+ * The documents are shared through the {@link OwsDocumentCache}, by all the
+ * requests made against the same server with the same credentials, and the
+ * DescribeCoverage is only parsed once.
+ *
  * @author jeichar
  */
 class BoundWcsRequest extends WcsReaderRequest {
@@ -87,7 +91,6 @@ class BoundWcsRequest extends WcsReaderRequest {
 
     private static final Log       LOG = LogFactory.getLog(BoundWcsRequest.class.getPackage().getName());
     private static final String XML_ERROR_TYPE = "application/vnd.ogc.se_xml";
-    private int bands = -1;
 
     static {
         HashMap<String, Set<String>> tmp = new HashMap<String, Set<String>> ();
@@ -103,24 +106,27 @@ class BoundWcsRequest extends WcsReaderRequest {
     }
 
     private final URL                        _wcsUrl;
-    private String                           _describeCoverage;
+    private CoverageDescription              _describeCoverage;
     private String                           _capabilities;
-    private Set<String>                      formats;
-    private Set<String>                      responseCrss, requestCrss, nativeCRSs;
 
     private HttpClient httpClient = new DefaultHttpClient();
+    private OwsDocumentCache documentCache = OwsDocumentCache.getInstance();
 
     public void setHttpClient(HttpClient c) {
     	this.httpClient = c;
     }
 
+    void setDocumentCache(OwsDocumentCache documentCache) {
+        this.documentCache = documentCache;
+    }
+
     BoundWcsRequest (URL wcsUrl, WcsReaderRequest request) {
         super (request);
         _wcsUrl = wcsUrl;
     }
 
     private BoundWcsRequest (String version, String coverage, ReferencedEnvelope bbox, CoordinateReferenceSystem responseCRS, double resx,
-            String format, boolean usePost, boolean remoteReproject, boolean useCommandLineGDAL, String username, String password, URL wcsUrl, String capabilities, String describeCoverage) {
+            String format, boolean usePost, boolean remoteReproject, boolean useCommandLineGDAL, String username, String password, URL wcsUrl, String capabilities, CoverageDescription describeCoverage) {
         super(version, coverage, bbox, responseCRS, resx, format, usePost, remoteReproject, useCommandLineGDAL, username, password);
         this._wcsUrl = wcsUrl;
         this._describeCoverage = describeCoverage;
@@ -148,15 +154,7 @@ class BoundWcsRequest extends WcsReaderRequest {
      * uppercase
      */
     public Set<String> getSupportedResponseCRSs () throws IOException {
-        if (responseCrss == null) {
-            NodeList nodes = select ("//wcs:requestResponseCRSs/text()|//wcs:responseCRSs/text()|//wcs:nativeCRSs/text()", getDescribeCoverage());
-            responseCrss = new HashSet<String> ();
-            for (int i = 0; i < nodes.getLength (); i++) {
-                responseCrss.add ("" + nodes.item (i).getNodeValue ().trim ().toUpperCase ());
-            }
-        }
-
-        return responseCrss;
+        return getCoverageDescription ().getResponseCRSs ();
     }
 
     /**
@@ -164,12 +162,7 @@ class BoundWcsRequest extends WcsReaderRequest {
      * uppercase
      */
     public int numBands () throws IOException {
-        if (bands < 0) {
-            NodeList nodes = select ("//wcs:AxisDescription", getDescribeCoverage());
-            bands = nodes.getLength();
-        }
-
-        return bands;
+        return getCoverageDescription ().getBands ();
     }
 
     /**
@@ -177,16 +170,7 @@ class BoundWcsRequest extends WcsReaderRequest {
      * uppercase
      */
     public Set<String> getSupportedRequestCRSs () throws IOException {
-        if (requestCrss == null) {
-            NodeList nodes = select ("//wcs:requestResponseCRSs/text()|//wcs:requestCRSs/text()|//wcs:nativeCRSs/text()", getDescribeCoverage());
-            requestCrss = new HashSet<String> ();
-            for (int i = 0; i < nodes.getLength (); i++) {
-                Node item = nodes.item (i);
-				requestCrss.add ("" + item.getNodeValue ().trim ().toUpperCase ());
-            }
-        }
-
-        return requestCrss;
+        return getCoverageDescription ().getRequestCRSs ();
     }
 
     /**
@@ -194,34 +178,35 @@ class BoundWcsRequest extends WcsReaderRequest {
      * uppercase
      */
     public Set<String> getNativeCRSs () throws IOException {
-        if (nativeCRSs == null) {
-            NodeList nodes = select ("//wcs:nativeCRSs/text()", getDescribeCoverage());
-            nativeCRSs = new HashSet<String> ();
-            for (int i = 0; i < nodes.getLength (); i++) {
-                nativeCRSs.add (nodes.item (i).getNodeValue ().trim ().toUpperCase ());
-            }
-
-            nodes = select ("//wcs:spatialDomain/*/@srsName", getDescribeCoverage());
-            for (int i = 0; i < nodes.getLength (); i++) {
-                nativeCRSs.add (nodes.item (i).getNodeValue ().trim ().toUpperCase ());
-            }
-
-        }
-
-        return nativeCRSs;
+        return getCoverageDescription ().getNativeCRSs ();
     }
 
     /**
      * Download describeCoverage document and return it in string form.
      *
-     * Downloading only occurs once and is cached so a new instance will be
-     * required to redownload
+     * Downloading only occurs once per server, coverage and credentials, until
+     * the cached document expires
      */
     public String getDescribeCoverage () throws ProtocolException, MalformedURLException, IOException {
-        if (_describeCoverage == null) {
-            InputStream stream = makeRequest (DESCRIBE_COVERAGE, _wcsUrl, false, 3000);
+        return getCoverageDescription ().getDocument ();
+    }
 
-            _describeCoverage = toString (stream);
+    private CoverageDescription getCoverageDescription () throws IOException {
+        if (_describeCoverage == null) {
+            String key = OwsDocumentCache.key (_wcsUrl.toExternalForm (), DESCRIBE_COVERAGE + "&VERSION=" + version
+                    + "&COVERAGE=" + coverage, username, null, password);
+            _describeCoverage = documentCache.get (key, new OwsDocumentCache.Fetcher<CoverageDescription> () {
+                @Override
+                public Response<CoverageDescription> fetch (String etag, String lastModified) throws IOException {
+                    HttpResponse response = execute (DESCRIBE_COVERAGE, _wcsUrl, false, 3000, etag, lastModified);
+                    if (isNotModified (response)) {
+                        return Response.notModified ();
+                    }
+                    CoverageDescription description = new CoverageDescription (BoundWcsRequest.this.toString (content (response)));
+                    return new Response<CoverageDescription> (description, header (response, "ETag"),
+                            header (response, "Last-Modified"));
+                }
+            });
         }
 
         return _describeCoverage;
@@ -230,14 +215,24 @@ class BoundWcsRequest extends WcsReaderRequest {
     /**
      * Download getCapabilities document and return it in string form.
      *
-     * Downloading only occurs once and is cached so a new instance will be
-     * required to redownload
+     * Downloading only occurs once per server and credentials, until the
+     * cached document expires
      */
     public String getCapabilities () throws ProtocolException, MalformedURLException, IOException {
         if (_capabilities == null) {
-            InputStream stream = makeRequest (GET_CAPABILITIES, _wcsUrl, false, 3000);
-
-            _capabilities = toString (stream);
+            String key = OwsDocumentCache.key (_wcsUrl.toExternalForm (), GET_CAPABILITIES + "&VERSION=" + version,
+                    username, null, password);
+            _capabilities = documentCache.get (key, new OwsDocumentCache.Fetcher<String> () {
+                @Override
+                public Response<String> fetch (String etag, String lastModified) throws IOException {
+                    HttpResponse response = execute (GET_CAPABILITIES, _wcsUrl, false, 3000, etag, lastModified);
+                    if (isNotModified (response)) {
+                        return Response.notModified ();
+                    }
+                    return new Response<String> (BoundWcsRequest.this.toString (content (response)),
+                            header (response, "ETag"), header (response, "Last-Modified"));
+                }
+            });
         }
 
         return _capabilities;
@@ -270,20 +265,7 @@ class BoundWcsRequest extends WcsReaderRequest {
     /* ------------------------- Support methods -----------------------------------*/
 
     private Set<String> getUnaliasedFormats () throws IOException {
-        if (formats == null) {
-        	// NOTE: seems only available in v1.0.0 of WCS
-            NodeList nodes = select ("//wcs:formats/text()", getDescribeCoverage());
-            formats = new HashSet<String> ();
-            for (int i = 0; i < nodes.getLength (); i++) {
-                Node curNode = nodes.item(i);
-                String format = curNode.getNodeValue();
-
-                formats.add (format.trim().toLowerCase());
-            }
-            formats = Collections.unmodifiableSet (formats);
-        }
-
-        return formats;
+        return getCoverageDescription ().getFormats ();
     }
 
     private String toString (InputStream stream) throws IOException {
@@ -311,6 +293,15 @@ class BoundWcsRequest extends WcsReaderRequest {
 	 */
     private InputStream makeRequest (String request, URL wcsUrl, boolean resolveFormat, int timeout) throws IOException, ProtocolException,
             MalformedURLException {
+        return content (execute (request, wcsUrl, resolveFormat, timeout, null, null));
+    }
+
+    /**
+     * Sends the request, conditional if etag or lastModified is given, and
+     * checks the status of the response
+     */
+    private HttpResponse execute (String request, URL wcsUrl, boolean resolveFormat, int timeout, String etag,
+            String lastModified) throws IOException {
         httpClient.getParams().setParameter("http.socket.timeout", new Integer(timeout));
         httpClient.getParams().setBooleanParameter(ClientPNames.HANDLE_REDIRECTS, true);
 
@@ -338,6 +329,12 @@ class BoundWcsRequest extends WcsReaderRequest {
             LOG.info("making GET request to "+spec);
             httpRequest = new HttpGet(spec);
         }
+        if (etag != null) {
+            httpRequest.addHeader("If-None-Match", etag);
+        }
+        if (lastModified != null) {
+            httpRequest.addHeader("If-Modified-Since", lastModified);
+        }
 
 
 
@@ -368,6 +365,9 @@ class BoundWcsRequest extends WcsReaderRequest {
         // check for an error response from the server
 		int statusCode = response.getStatusLine().getStatusCode();
 		LOG.debug("WCS response status : " + statusCode);
+		if (statusCode == 304 && (etag != null || lastModified != null)) {
+			return response;
+		}
 		if( statusCode != 200) {
             throw new ExtractorException("Error from server while fetching coverage: Response Satus Code not valid -> "+statusCode);
 		}
@@ -375,10 +375,23 @@ class BoundWcsRequest extends WcsReaderRequest {
             String error = FileUtils.asString(response.getEntity().getContent());
             throw new ExtractorException("Error from server while fetching coverage:"+error);
         } else {
-            return response.getEntity().getContent();
+            return response;
         }
     }
 
+    private static InputStream content (HttpResponse response) throws IOException {
+        return response.getEntity().getContent();
+    }
+
+    private static boolean isNotModified (HttpResponse response) {
+        return response.getStatusLine().getStatusCode() == 304;
+    }
+
+    private static String header (HttpResponse response, String name) {
+        Header header = response.getFirstHeader(name);
+        return header == null ? null : header.getValue();
+    }
+
     private boolean hasContentType(HttpResponse response, String contentType) {
     	HeaderElement[] types = response.getEntity().getContentType().getElements();
     	for (HeaderElement headerElement : types) {
@@ -447,27 +460,31 @@ class BoundWcsRequest extends WcsReaderRequest {
         return requestBbox.getMinX () + "," + requestBbox.getMinY () + "," + requestBbox.getMaxX () + "," + requestBbox.getMaxY ();
     }
 
-    private NodeList select (String xpathExpression, String data) throws ProtocolException, MalformedURLException, IOException,
-            AssertionError {
-        return XmlUtils.select(xpathExpression, data, XmlUtils.WCS_NAMESPACE_CONTEXT);
-    }
-
 
     public BoundWcsRequest withRequestBBox(ReferencedEnvelope newBBox) {
         return new BoundWcsRequest(version, coverage, newBBox, responseCRS, groundResolutionX, format, usePost, remoteReproject, useCommandLineGDAL, username, password, _wcsUrl, _capabilities, _describeCoverage);
     }
 
+    /**
+     * @return the number of values (pixels times bands) of the requested coverage
+     */
+    public double estimatedSize() throws IOException {
+        double xSize = requestBbox.getWidth() / groundResolutionX;
+        double ySize = requestBbox.getHeight() / groundResolutionX;
+        double size = xSize * ySize * numBands();
+
+        LOG.debug("Raster to extract => xSize : " + xSize + " - ySize : " + ySize + " - nbBands : "
+                + (double) numBands() + " - SIZE : " + size);
+        return size;
+    }
+
+    public boolean isOversized(long maxSize) throws IOException {
+        return estimatedSize() > maxSize;
+    }
+
     public void assertLegalSize(long maxSize) throws IOException {
-        double xmin = requestBbox.getMinX();
-        double xmax = requestBbox.getMaxX();
-        double ymin = requestBbox.getMinY();
-        double ymax = requestBbox.getMaxY();
-        double size = ((xmax - xmin) / groundResolutionX) * ((ymax - ymin) / groundResolutionX) * numBands();
-
-        LOG.debug("Raster to extract => xSize : " + (xmax - xmin) / groundResolutionX +
-        	" - ySize : " + (ymax - ymin) / groundResolutionX + " - nbBands : " + (double)numBands() +
-        	" - SIZE : " + size + " (size max set to " + maxSize + ")");
-        if(size>maxSize) {
+        if (isOversized(maxSize)) {
+            LOG.debug("Raster larger than " + maxSize);
             throw new OversizedCoverageRequestException(coverage);
         }
     }
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2009-2018 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.georchestra.extractorapp.ws.extractor.wcs;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.georchestra.extractorapp.ws.extractor.XmlUtils;
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+
+/**
+ * The parts of a DescribeCoverage response used to negotiate a GetCoverage
+ * request, read once when the document is downloaded. Immutable, so a single
+ * instance is shared through the {@link org.georchestra.extractorapp.ws.extractor.OwsDocumentCache}.
+ */
+final class CoverageDescription {
+
+    private final String document;
+    private final Set<String> formats;
+    private final Set<String> responseCRSs;
+    private final Set<String> requestCRSs;
+    private final Set<String> nativeCRSs;
+    private final int bands;
+
+    CoverageDescription(String document) throws IOException {
+        this.document = document;
+        Document dom = XmlUtils.parse(document);
+        // NOTE: seems only available in v1.0.0 of WCS
+        this.formats = values(dom, "//wcs:formats/text()", false);
+        this.responseCRSs = values(dom, "//wcs:requestResponseCRSs/text()|//wcs:responseCRSs/text()|//wcs:nativeCRSs/text()", true);
+        this.requestCRSs = values(dom, "//wcs:requestResponseCRSs/text()|//wcs:requestCRSs/text()|//wcs:nativeCRSs/text()", true);
+        this.nativeCRSs = values(dom, "//wcs:nativeCRSs/text()|//wcs:spatialDomain/*/@srsName", true);
+        this.bands = XmlUtils.select("//wcs:AxisDescription", dom, XmlUtils.WCS_NAMESPACE_CONTEXT).getLength();
+    }
+
+    private static Set<String> values(Document dom, String xpathExpression, boolean upperCase) {
+        NodeList nodes = XmlUtils.select(xpathExpression, dom, XmlUtils.WCS_NAMESPACE_CONTEXT);
+        Set<String> values = new HashSet<String>();
+        for (int i = 0; i < nodes.getLength(); i++) {
+            String value = nodes.item(i).getNodeValue().trim();
+            values.add(upperCase ? value.toUpperCase() : value.toLowerCase());
+        }
+        return Collections.unmodifiableSet(values);
+    }
+
+    String getDocument() {
+        return document;
+    }
+
+    /** lower case */
+    Set<String> getFormats() {
+        return formats;
+    }
+
+    /** upper case */
+    Set<String> getResponseCRSs() {
+        return responseCRSs;
+    }
+
+    /** upper case */
+    Set<String> getRequestCRSs() {
+        return requestCRSs;
+    }
+
+    /** upper case */
+    Set<String> getNativeCRSs() {
+        return nativeCRSs;
+    }
+
+    int getBands() {
+        return bands;
+    }
+}
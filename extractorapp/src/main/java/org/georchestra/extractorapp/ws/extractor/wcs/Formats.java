@@ -19,6 +19,7 @@
 
 package org.georchestra.extractorapp.ws.extractor.wcs;
 
+import java.awt.RenderingHints;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -26,13 +27,20 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
+import javax.media.jai.ImageLayout;
+import javax.media.jai.JAI;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.geotools.coverage.grid.io.AbstractGridFormat;
+import org.geotools.coverage.grid.io.imageio.GeoToolsWriteParams;
 import org.geotools.coverageio.gdal.ecw.ECWFormat;
 import org.geotools.coverageio.gdal.jp2ecw.JP2ECWFormat;
 import org.geotools.gce.geotiff.GeoTiffFormat;
+import org.geotools.gce.geotiff.GeoTiffWriteParams;
 import org.geotools.gce.image.WorldImageFormat;
+import org.opengis.parameter.GeneralParameterValue;
+import org.opengis.parameter.ParameterValue;
 
 class Formats {
     // If the requested format is not available on the server. Then these
@@ -44,6 +52,8 @@ class Formats {
     public static final Set<String> preferredFormats;
     // formats that contain the CRS information and do not need
     public static final Set<String> embeddedCrsFormats;
+    /** side of the tiles of the computed images and of the written GeoTIFFs */
+    static final int TILE_SIDE = 512;
     protected static final Log LOG = LogFactory.getLog(Formats.class.getPackage().getName());
 
     static {
@@ -81,4 +91,29 @@ class Formats {
         return format.equalsIgnoreCase("geotiff") || format.equalsIgnoreCase("gtiff") || format.equalsIgnoreCase("geotif")
                 || format.equalsIgnoreCase("gtif");
     }
+
+    /**
+     * @return the hints making JAI operations compute their image by tiles
+     *         of {@link #TILE_SIDE}
+     */
+    static RenderingHints tiledLayoutHints() {
+        ImageLayout layout = new ImageLayout();
+        layout.setTileWidth(TILE_SIDE);
+        layout.setTileHeight(TILE_SIDE);
+        return new RenderingHints(JAI.KEY_IMAGE_LAYOUT, layout);
+    }
+
+    /**
+     * @return the parameters of a GeoTiffWriter writing tiles of
+     *         {@link #TILE_SIDE}, so that the coverage is written as its
+     *         tiles are computed
+     */
+    static GeneralParameterValue[] tiledGeotiffParams() {
+        GeoTiffWriteParams writeParams = new GeoTiffWriteParams();
+        writeParams.setTilingMode(GeoToolsWriteParams.MODE_EXPLICIT);
+        writeParams.setTiling(TILE_SIDE, TILE_SIDE);
+        ParameterValue<GeoToolsWriteParams> writeParamsValue = AbstractGridFormat.GEOTOOLS_WRITE_PARAMS.createValue();
+        writeParamsValue.setValue(writeParams);
+        return new GeneralParameterValue[] { writeParamsValue };
+    }
 }
@@ -31,66 +31,115 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.georchestra.extractorapp.ws.ExtractorException;
 import org.georchestra.extractorapp.ws.extractor.FileUtils;
+import org.georchestra.extractorapp.ws.extractor.PhaseTimer;
 
 
 class GDALCommandLine {
     private static final Log LOG = LogFactory.getLog(GDALCommandLine.class.getPackage().getName());
     private static final String SEP = File.separator;
 
-    static void gdalTransformation(File sourceFile, File file, WcsReaderRequest executedRequest, WcsReaderRequest targetRequest)
-            throws IOException {
+    /** memory in MB gdalwarp may use for the tiles it is warping */
+    private static final int WARP_MEMORY = 128;
+
+    /**
+     * Reprojects and/or converts the coverage in a single pass: GDAL reads,
+     * warps and writes it block by block, warping the blocks on all the
+     * CPUs. GeoTIFFs are written straight by gdalwarp. The other formats,
+     * like JPEG2000 or ECW, can only be written by copy: gdalwarp then only
+     * describes the warp in a virtual raster (VRT), which gdal_translate
+     * computes as it writes the target file.
+     *
+     * @param reproject false if only the format changes
+     */
+    static void gdalTransformation(File sourceFile, File file, WcsReaderRequest executedRequest,
+            WcsReaderRequest targetRequest, boolean reproject) throws IOException {
         LOG.info("using GDAL command line to tranform the coverage");
 
+        if (!reproject && Formats.isGeotiff(executedRequest.format) && Formats.isGeotiff(targetRequest.format)) {
+            if (!sourceFile.equals(file)) {
+                FileUtils.moveFile(sourceFile, file);
+            }
+            return;
+        }
+
+        // the source may be the target file, so the result is written aside
         File tmpDir = FileUtils.createTempDirectory();
         try {
-            File outFile = new File(tmpDir, sourceFile.getName());
+            File outFile = new File(tmpDir, file.getName());
 
-            reproject(sourceFile, executedRequest, targetRequest, outFile);
-            transformFormat(outFile, executedRequest, targetRequest, file);
+            if (!reproject) {
+                translate(sourceFile, targetRequest, outFile);
+            } else if (Formats.isGeotiff(targetRequest.format)) {
+                List<String> command = warpCommand(executedRequest, targetRequest);
+                addGeotiffOutputFormat(command);
+                command.add(sourceFile.getAbsolutePath());
+                command.add(outFile.getAbsolutePath());
+                executeCommand(command);
+            } else {
+                File vrt = new File(tmpDir, "warp.vrt");
+                List<String> command = warpCommand(executedRequest, targetRequest);
+                command.add("-of");
+                command.add("VRT");
+                command.add(sourceFile.getAbsolutePath());
+                command.add(vrt.getAbsolutePath());
+                executeCommand(command);
 
+                translate(vrt, targetRequest, outFile);
+                FileUtils.delete(vrt);
+            }
+
+            for (File f : tmpDir.listFiles()) {
+                File dest = new File(file.getParentFile(), f.getName());
+                FileUtils.moveFile(f, dest);
+            }
         } finally {
             FileUtils.delete(tmpDir);
         }
     }
 
-    private static void transformFormat(File sourceFile, WcsReaderRequest executedRequest, WcsReaderRequest targetRequest, File outFile) throws IOException {
-        if(Formats.isGeotiff(executedRequest.format) && Formats.isGeotiff(targetRequest.format)) {
-            for (File f : sourceFile.getParentFile().listFiles()) {
-                File dest = new File(outFile.getParentFile(), f.getName());
-                FileUtils.moveFile(f, dest);
-            }
-        } else {
-            List<String> command = new ArrayList<String>();
-            command.add(findTranslateBinary());
-
-            addOutputFormat(targetRequest, command);
-            addQuietParam(command);
-            
-            command.add(sourceFile.getAbsolutePath());
-            command.add(outFile.getAbsolutePath());
-            
-            executeCommand(command);
+    /**
+     * Adds internal overviews to a GeoTIFF, averaging the pixels.
+     *
+     * @param levels decimation factors of the overviews
+     */
+    static void addOverviews(File geotiff, int[] levels) throws IOException {
+        List<String> command = new ArrayList<String>();
+        command.add(findGdalBinary("gdaladdo"));
+        command.add("-r");
+        command.add("average");
+        addQuietParam(command);
+        command.add(geotiff.getAbsolutePath());
+        for (int level : levels) {
+            command.add(String.valueOf(level));
         }
-        
+
+        executeCommand(command);
+    }
+
+    private static void translate(File sourceFile, WcsReaderRequest targetRequest, File outFile) throws IOException {
+        List<String> command = new ArrayList<String>();
+        command.add(findTranslateBinary());
+
+        addOutputFormat(targetRequest, command);
+        addQuietParam(command);
+
+        command.add(sourceFile.getAbsolutePath());
+        command.add(outFile.getAbsolutePath());
+
+        executeCommand(command);
     }
 
-    private static void reproject(File sourceFile, WcsReaderRequest executedRequest, WcsReaderRequest targetRequest, File outFile)
-            throws IOException {
+    private static List<String> warpCommand(WcsReaderRequest executedRequest, WcsReaderRequest targetRequest) {
         List<String> command = new ArrayList<String>();
         command.add(findWarpBinary());
 
         addInputProjection(executedRequest, command);
-
-        addGeotiffOutputFormat(command, true);
         addOutputProjection(targetRequest, command);
 
         addWarpParameters(command);
 
         addQuietParam(command);
-        command.add(sourceFile.getAbsolutePath());
-        command.add(outFile.getAbsolutePath());
-
-        executeCommand(command);
+        return command;
     }
 
     private static void addQuietParam(List<String> command) {
@@ -102,6 +151,11 @@ class GDALCommandLine {
     private static void addWarpParameters(List<String> command) {
         command.add("-r");
         command.add("cubic");
+        command.add("-multi");
+        command.add("-wo");
+        command.add("NUM_THREADS=ALL_CPUS");
+        command.add("-wm");
+        command.add(String.valueOf(WARP_MEMORY));
     }
 
     private static void addInputProjection(WcsReaderRequest executedRequest, List<String> command) {
@@ -116,6 +170,7 @@ class GDALCommandLine {
 
     private static void executeCommand(List<String> command) throws IOException {
         LOG.info("Executing : " + command.toString());
+        long start = PhaseTimer.start();
         ProcessBuilder builder = new ProcessBuilder();
         builder.command(command);
         builder.redirectErrorStream(true);
@@ -136,6 +191,8 @@ class GDALCommandLine {
             }
         } catch (InterruptedException e) {
             throw new RuntimeException(e);
+        } finally {
+            PhaseTimer.stop(PhaseTimer.GDAL, start);
         }
     }
 
@@ -166,7 +223,7 @@ class GDALCommandLine {
 
     private static void addOutputFormat(WcsReaderRequest requiredRequest, List<String> command) {
         if (Formats.isGeotiff(requiredRequest.format)) {
-            addGeotiffOutputFormat(command, false);
+            addGeotiffOutputFormat(command);
         } else if (Formats.isJPEG2000(requiredRequest.format)) {
             command.add("-of");
             command.add("JPEG2000");
@@ -181,15 +238,14 @@ class GDALCommandLine {
         }
     }
 
-    private static void addGeotiffOutputFormat(List<String> command, boolean simple) {
+    private static void addGeotiffOutputFormat(List<String> command) {
         command.add("-of");
         command.add("GTiff");
         command.add("-co");
-        command.add("BIGTIFF=NO");
-        if(!simple) {
-            command.add("-co");
-            command.add("TILED=YES");
-        }
+        // tiled extractions can be larger than 4 GB once assembled
+        command.add("BIGTIFF=IF_SAFER");
+        command.add("-co");
+        command.add("TILED=YES");
     }
 
     private static String findWarpBinary() {
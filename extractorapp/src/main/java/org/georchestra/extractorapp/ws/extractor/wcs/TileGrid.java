@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2009-2018 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.georchestra.extractorapp.ws.extractor.wcs;
+
+import java.awt.Rectangle;
+
+/**
+ * Splits a raster of width x height pixels into square tiles, row by row
+ * from the upper left corner. The tiles of the last column and row may be
+ * smaller.
+ */
+final class TileGrid {
+
+    final int width;
+    final int height;
+    final int tileSide;
+    final int columns;
+    final int rows;
+
+    TileGrid(int width, int height, int tileSide) {
+        if (width < 1 || height < 1 || tileSide < 1) {
+            throw new IllegalArgumentException("Empty tile grid: " + width + "x" + height + " by " + tileSide);
+        }
+        this.width = width;
+        this.height = height;
+        this.tileSide = tileSide;
+        this.columns = (width + tileSide - 1) / tileSide;
+        this.rows = (height + tileSide - 1) / tileSide;
+    }
+
+    /**
+     * @param maxSize maximum number of values (pixels times bands) of a tile
+     * @param bands number of bands of the coverage
+     * @param maxTileSide upper bound of the result
+     * @return the side of the largest square tile within maxSize
+     */
+    static int tileSide(long maxSize, int bands, int maxTileSide) {
+        long side = (long) Math.floor(Math.sqrt((double) maxSize / Math.max(1, bands)));
+        return (int) Math.max(1, Math.min(side, maxTileSide));
+    }
+
+    int count() {
+        return columns * rows;
+    }
+
+    /**
+     * @return the pixels of the tile, in the raster grid
+     */
+    Rectangle tile(int index) {
+        int x = (index % columns) * tileSide;
+        int y = (index / columns) * tileSide;
+        return new Rectangle(x, y, Math.min(tileSide, width - x), Math.min(tileSide, height - y));
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2009-2018 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.georchestra.extractorapp.ws.extractor.wcs;
+
+import java.awt.RenderingHints;
+import java.awt.Rectangle;
+import java.awt.image.RenderedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.media.jai.ImageLayout;
+import javax.media.jai.JAI;
+import javax.media.jai.RenderedOp;
+import javax.media.jai.operator.MosaicDescriptor;
+import javax.media.jai.operator.TranslateDescriptor;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.georchestra.extractorapp.ws.ExtractorException;
+import org.georchestra.extractorapp.ws.extractor.HostPermits;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.GridCoverageFactory;
+import org.geotools.gce.geotiff.GeoTiffReader;
+import org.geotools.gce.geotiff.GeoTiffWriter;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+/**
+ * Extracts a coverage larger than the maximum extraction size as a grid of
+ * tiles, each one within the size limit.
+ * <p>
+ * The tiles are requested in the native CRS of the coverage, so that they
+ * share the pixel grid of the whole coverage, and are downloaded several at
+ * a time within the per-host limit of the {@link WcsTiling}. They are then
+ * assembled into a tiled GeoTIFF: the mosaic is computed and written tile by
+ * tile, reading the downloaded tiles from disk, so the whole raster is never
+ * held in memory.
+ * </p>
+ */
+final class TiledCoverageExtraction {
+
+    private static final Log LOG = LogFactory.getLog(TiledCoverageExtraction.class.getPackage().getName());
+
+    private final BoundWcsRequest request;
+    private final WcsTiling tiling;
+    private final String host;
+    private final ReferencedEnvelope envelope;
+    private final double resolution;
+    private final TileGrid grid;
+
+    /**
+     * @param request the GetCoverage request in the native CRS, in GeoTIFF
+     * @param tiling the tiling settings
+     * @param maxSize maximum size of a tile, as in {@link BoundWcsRequest#assertLegalSize(long)}
+     * @param host the host the tiles are downloaded from
+     */
+    TiledCoverageExtraction(BoundWcsRequest request, WcsTiling tiling, long maxSize, String host) throws IOException {
+        this.request = request;
+        this.tiling = tiling;
+        this.host = host;
+        try {
+            this.envelope = request.requestBbox.transform(request.responseCRS, true, 10);
+        } catch (Exception e) {
+            throw new ExtractorException(e);
+        }
+        this.resolution = request.crsResolution();
+        int width = Math.max(1, (int) Math.ceil(envelope.getWidth() / resolution));
+        int height = Math.max(1, (int) Math.ceil(envelope.getHeight() / resolution));
+        int tileSide = TileGrid.tileSide(maxSize, request.numBands(), tiling.getMaxTileSide());
+        this.grid = new TileGrid(width, height, tileSide);
+    }
+
+    /**
+     * @return false if the coverage needs more tiles than allowed
+     */
+    boolean isPossible() {
+        return grid.count() <= tiling.getMaxTiles();
+    }
+
+    int getTileCount() {
+        return grid.count();
+    }
+
+    /**
+     * @return the envelope of the tile, in the native CRS
+     */
+    ReferencedEnvelope tileEnvelope(Rectangle tile) {
+        CoordinateReferenceSystem crs = envelope.getCoordinateReferenceSystem();
+        double minX = envelope.getMinX() + tile.x * resolution;
+        double maxY = envelope.getMaxY() - tile.y * resolution;
+        return new ReferencedEnvelope(minX, minX + tile.width * resolution, maxY - tile.height * resolution, maxY, crs);
+    }
+
+    /**
+     * Downloads the tiles into the directory and assembles them.
+     *
+     * @return the GeoTIFF of the whole coverage, in the directory
+     */
+    File extract(File directory) throws IOException {
+        LOG.info(String.format("Extracting %s as %d tiles of %d pixels (%dx%d pixels)", request.coverage,
+                grid.count(), grid.tileSide, grid.width, grid.height));
+        List<File> tiles = download(directory);
+        File mosaic = new File(directory, "mosaic.tif");
+        write(tiles, mosaic);
+        for (File tile : tiles) {
+            tile.delete();
+        }
+        return mosaic;
+    }
+
+    private List<File> download(final File directory) throws IOException {
+        final HostPermits permits = tiling.getHostPermits();
+        final String threadName = "Extractorapp-tile-" + request.coverage + "-";
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(permits.getPermitsPerHost(), grid.count()),
+                new ThreadFactory() {
+                    private int count = 0;
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r);
+                        thread.setName(threadName + (count++));
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        try {
+            List<Future<File>> downloads = new ArrayList<Future<File>>();
+            for (int i = 0; i < grid.count(); i++) {
+                final int index = i;
+                downloads.add(executor.submit(new Callable<File>() {
+                    @Override
+                    public File call() throws Exception {
+                        BoundWcsRequest tileRequest = request.withRequestBBox(tileEnvelope(grid.tile(index)));
+                        File file = new File(directory, String.format("tile-%05d.tif", index));
+                        permits.acquire(host);
+                        InputStream input = null;
+                        try {
+                            input = tileRequest.getCoverage();
+                            WcsCoverageReader.writeToFile(file, input);
+                        } finally {
+                            IOUtils.closeQuietly(input);
+                            permits.release(host);
+                        }
+                        LOG.debug("Downloaded tile " + (index + 1) + "/" + grid.count() + " of " + request.coverage);
+                        return file;
+                    }
+                }));
+            }
+            List<File> files = new ArrayList<File>();
+            for (Future<File> download : downloads) {
+                files.add(download.get());
+            }
+            return files;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while downloading the tiles of " + request.coverage, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new ExtractorException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void write(List<File> tiles, File file) throws IOException {
+        List<GeoTiffReader> readers = new ArrayList<GeoTiffReader>();
+        RenderedOp mosaic = null;
+        try {
+            RenderedImage[] sources = new RenderedImage[tiles.size()];
+            for (int i = 0; i < sources.length; i++) {
+                GeoTiffReader reader = new GeoTiffReader(tiles.get(i));
+                readers.add(reader);
+                // the image is read from the file as its tiles are requested
+                RenderedImage image = reader.read(null).getRenderedImage();
+                Rectangle tile = grid.tile(i);
+                sources[i] = TranslateDescriptor.create(image, (float) (tile.x - image.getMinX()),
+                        (float) (tile.y - image.getMinY()), null, null);
+            }
+            ImageLayout layout = new ImageLayout(0, 0, grid.width, grid.height);
+            layout.setTileWidth(Formats.TILE_SIDE);
+            layout.setTileHeight(Formats.TILE_SIDE);
+            RenderingHints hints = new RenderingHints(JAI.KEY_IMAGE_LAYOUT, layout);
+            mosaic = MosaicDescriptor.create(sources, MosaicDescriptor.MOSAIC_TYPE_OVERLAY, null, null, null, null,
+                    hints);
+
+            ReferencedEnvelope gridEnvelope = tileEnvelope(new Rectangle(0, 0, grid.width, grid.height));
+            GridCoverage2D coverage = new GridCoverageFactory().create(request.coverage, mosaic, gridEnvelope);
+
+            GeoTiffWriter writer = new GeoTiffWriter(file);
+            try {
+                writer.write(coverage, Formats.tiledGeotiffParams());
+            } finally {
+                writer.dispose();
+            }
+        } finally {
+            if (mosaic != null) {
+                mosaic.dispose();
+            }
+            for (GeoTiffReader reader : readers) {
+                reader.dispose();
+            }
+        }
+    }
+}
@@ -23,7 +23,6 @@ import static org.georchestra.extractorapp.ws.extractor.wcs.WcsParameters.FORMAT
 
 import java.awt.Rectangle;
 import java.awt.geom.AffineTransform;
-import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
@@ -45,12 +44,16 @@ import java.util.Set;
 import javax.imageio.ImageIO;
 import javax.imageio.ImageReader;
 import javax.imageio.stream.ImageInputStream;
+import javax.media.jai.JAI;
+import javax.media.jai.ParameterBlockJAI;
+import javax.media.jai.RenderedOp;
 
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.georchestra.extractorapp.ws.ExtractorException;
 import org.georchestra.extractorapp.ws.extractor.FileUtils;
+import org.georchestra.extractorapp.ws.extractor.PhaseTimer;
 import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.coverage.grid.io.AbstractGridCoverage2DReader;
 import org.geotools.coverage.grid.io.AbstractGridFormat;
@@ -112,6 +115,7 @@ public class WcsCoverageReader extends AbstractGridCoverage2DReader {
 
     private final URL _wcsUrl;
     private final long _maxCoverageExtractionSize;
+    private WcsTiling _tiling;
 
     /**
      * @param url
@@ -123,6 +127,14 @@ public class WcsCoverageReader extends AbstractGridCoverage2DReader {
         _maxCoverageExtractionSize = maxSize;
     }
 
+    /**
+     * Extracts the coverages larger than the maximum size as tiles instead of
+     * refusing them.
+     */
+    public void setTiling(WcsTiling tiling) {
+        _tiling = tiling;
+    }
+
     @Override
     public WcsFormat getFormat() {
         return new WcsFormat(_maxCoverageExtractionSize);
@@ -228,9 +240,19 @@ public class WcsCoverageReader extends AbstractGridCoverage2DReader {
                     .bind(_wcsUrl));
             BoundWcsRequest requestNegotiatedFormatCrs = negotiateRequestCRS(requestNegotiatedFormat);
             BoundWcsRequest requestNegotiatedFormatCrs2 = negotiateResponseCRS(requestNegotiatedFormatCrs);
+            if (requestNegotiatedFormatCrs2.isOversized(_maxCoverageExtractionSize)) {
+                // the tiles are fetched in the native CRS and reprojected locally
+                BoundWcsRequest geotiffRequest = request.bind(_wcsUrl).withFormat("geotiff");
+                File file = tiledExtraction(request, geotiffRequest.withCRS(geotiffRequest.getNativeCRSs().iterator().next()),
+                        containingDirectory, baseFilename);
+                if (file != null) {
+                    return file;
+                }
+            }
             requestNegotiatedFormatCrs2
                     .assertLegalSize(_maxCoverageExtractionSize);
 
+            long start = PhaseTimer.start();
             input = requestNegotiatedFormatCrs2.getCoverage();
 
             // file = new File (new File("/tmp/"),
@@ -243,6 +265,7 @@ public class WcsCoverageReader extends AbstractGridCoverage2DReader {
 
             convertFormat(baseFilename, input, file, request,
                     requestNegotiatedFormatCrs2);
+            PhaseTimer.stop(PhaseTimer.WCS_DOWNLOAD, start);
 
             transformCoverage(file, file, request, requestNegotiatedFormatCrs2,false);
 
@@ -261,8 +284,15 @@ public class WcsCoverageReader extends AbstractGridCoverage2DReader {
         try {
             BoundWcsRequest geotiffRequest = request.bind(_wcsUrl).withFormat("geotiff");
             BoundWcsRequest requestNativeFormat = geotiffRequest.withCRS(geotiffRequest.getNativeCRSs().iterator().next());
+            if (requestNativeFormat.isOversized(_maxCoverageExtractionSize)) {
+                File file = tiledExtraction(request, requestNativeFormat, containingDirectory, baseFilename);
+                if (file != null) {
+                    return file;
+                }
+            }
             requestNativeFormat.assertLegalSize(_maxCoverageExtractionSize);
 
+            long start = PhaseTimer.start();
             input = requestNativeFormat.getCoverage();
 
             File file = null;
@@ -271,6 +301,7 @@ public class WcsCoverageReader extends AbstractGridCoverage2DReader {
 
             tmpFile = File.createTempFile(baseFilename, ".tif");
             writeToFile(tmpFile, input);
+            PhaseTimer.stop(PhaseTimer.WCS_DOWNLOAD, start);
 
             transformCoverage(tmpFile, file, request, requestNativeFormat, true);
             return file;
@@ -283,13 +314,60 @@ public class WcsCoverageReader extends AbstractGridCoverage2DReader {
         }
     }
 
+    /**
+     * Extracts an oversized coverage as tiles, see {@link TiledCoverageExtraction}.
+     *
+     * @param nativeRequest the request of the coverage in its native CRS, in geotiff
+     * @return the coverage file or null if it cannot be extracted as tiles
+     */
+    private File tiledExtraction(WcsReaderRequest request, BoundWcsRequest nativeRequest,
+            File containingDirectory, String baseFilename) throws IOException {
+        if (_tiling == null) {
+            return null;
+        }
+        boolean geotiff = Formats.isGeotiff(request.format);
+        if (!geotiff && !request.useCommandLineGDAL) {
+            LOG.info("Only geotiff coverages can be extracted as tiles without GDAL");
+            return null;
+        }
+        TiledCoverageExtraction extraction = new TiledCoverageExtraction(nativeRequest, _tiling,
+                _maxCoverageExtractionSize, _wcsUrl.getHost());
+        if (!extraction.isPossible()) {
+            LOG.info(request.coverage + " would need " + extraction.getTileCount() + " tiles, more than "
+                    + _tiling.getMaxTiles());
+            return null;
+        }
+
+        File tmpDir = FileUtils.createTempDirectory();
+        try {
+            long start = PhaseTimer.start();
+            File mosaic = extraction.extract(tmpDir);
+            PhaseTimer.stop(PhaseTimer.WCS_DOWNLOAD, start);
+            File file = new File(containingDirectory, baseFilename + "." + request.fileExtension());
+            transformCoverage(mosaic, file, request, nativeRequest, !geotiff);
+
+            int[] overviews = _tiling.getOverviews();
+            if (geotiff && overviews.length > 0) {
+                if (request.useCommandLineGDAL) {
+                    GDALCommandLine.addOverviews(file, overviews);
+                } else {
+                    LOG.warn("Overviews of " + request.coverage + " are only built with the GDAL command line");
+                }
+            }
+            return file;
+        } finally {
+            FileUtils.delete(tmpDir);
+        }
+    }
+
     void transformCoverage(final File sourceFile, final File file,
             final WcsReaderRequest targetRequest,
             final WcsReaderRequest executedRequest, final boolean handleFormatTranform) throws IOException {
         final CoordinateReferenceSystem original = targetRequest.responseCRS;
         CoordinateReferenceSystem actual = executedRequest.responseCRS;
 
-        if (!CRS.equalsIgnoreMetadata(original, actual)) {
+        boolean reproject = !CRS.equalsIgnoreMetadata(original, actual);
+        if (reproject) {
             try {
                 LOG.info("Need to reproject coverage from "
                         + CRS.lookupIdentifier(actual, false) + " to "
@@ -299,7 +377,7 @@ public class WcsCoverageReader extends AbstractGridCoverage2DReader {
                         + " to " + original.getName());
             }
             if (targetRequest.useCommandLineGDAL) {
-                GDALCommandLine.gdalTransformation(sourceFile, file, executedRequest, targetRequest);
+                GDALCommandLine.gdalTransformation(sourceFile, file, executedRequest, targetRequest, reproject);
             } else {
                 geotoolsTranformation(sourceFile, file, targetRequest, original);
             }
@@ -307,7 +385,7 @@ public class WcsCoverageReader extends AbstractGridCoverage2DReader {
             LOG.info("Coverage reprojection/transformation complete");
         } else if (handleFormatTranform) {
             if (targetRequest.useCommandLineGDAL) {
-                GDALCommandLine.gdalTransformation(sourceFile, file, executedRequest, targetRequest);
+                GDALCommandLine.gdalTransformation(sourceFile, file, executedRequest, targetRequest, reproject);
             } else {
                 // we need to re-implement convertFormat so it can handle non-world+image outputformats
                 throw new UnsupportedOperationException("We do not convert format from geotiff to another format yet in localReproject mode.  Should be pretty easy to implement though");
@@ -336,7 +414,8 @@ public class WcsCoverageReader extends AbstractGridCoverage2DReader {
                 Hints hints = new Hints(GeoTools.getDefaultHints());
                 hints.put(Hints.LENIENT_DATUM_SHIFT, Boolean.TRUE);
                 GeoTools.init(hints);
-                Coverage transformed = Operations.DEFAULT.resample(coverage,
+                // the resampled image is computed tile by tile, as the writer requests them
+                Coverage transformed = new Operations(Formats.tiledLayoutHints()).resample(coverage,
                         original);
 
                 AbstractGridFormat format = Formats.getFormat(request.format);
@@ -351,10 +430,7 @@ public class WcsCoverageReader extends AbstractGridCoverage2DReader {
 
                     file.delete();
 
-                    ParameterValue<String> formatParam = FORMAT.createValue ();
-                    formatParam.setValue (request.format);
-
-                    writer.write((GridCoverage) transformed, new GeneralParameterValue[] {formatParam});
+                    writer.write((GridCoverage) transformed, writeParams(request.format));
                     // There may be several files created if dest format is
                     // world+image
                     // so move all files in the tmpDir
@@ -367,7 +443,7 @@ public class WcsCoverageReader extends AbstractGridCoverage2DReader {
                     }
                 } else {
                     GridCoverageWriter writer = format.getWriter(file);
-                    writer.write((GridCoverage) transformed, null);
+                    writer.write((GridCoverage) transformed, writeParams(request.format));
                 }
 
                 LOG.debug("Finished reprojecting output");
@@ -375,7 +451,21 @@ public class WcsCoverageReader extends AbstractGridCoverage2DReader {
             }
         };
 
+        long start = PhaseTimer.start();
         CoverageTransformation.perform(sourceFile, transformation);
+        PhaseTimer.stop(PhaseTimer.REPROJECT, start);
+    }
+
+    /**
+     * @return the parameters of the writer of the format, GeoTIFFs are tiled
+     */
+    private static GeneralParameterValue[] writeParams(String format) {
+        if (Formats.isGeotiff(format)) {
+            return Formats.tiledGeotiffParams();
+        }
+        ParameterValue<String> formatParam = FORMAT.createValue ();
+        formatParam.setValue (format);
+        return new GeneralParameterValue[] {formatParam};
     }
 
     private void convertFormat(String baseFilename, InputStream in, File file,
@@ -395,9 +485,7 @@ public class WcsCoverageReader extends AbstractGridCoverage2DReader {
                     FileUtils.delete(tmpDir);
                 }
             } else {
-                BufferedImage image = ImageIO.read(in);
-                ImageIO.write(image, request.format, file);
-
+                convertImage(in, request.format, file);
                 writeWorldImageExt(request, file);
             }
         } else {
@@ -418,9 +506,11 @@ public class WcsCoverageReader extends AbstractGridCoverage2DReader {
             @Override
             public Object transform(GridCoverage coverage) throws IOException {
                 GeoTiffWriter writer = new GeoTiffWriter(file);
-
-                GeneralParameterValue[] params = new GeneralParameterValue[0];
-                writer.write(coverage, params);
+                try {
+                    writer.write(coverage, Formats.tiledGeotiffParams());
+                } finally {
+                    writer.dispose();
+                }
                 return null;
             }
         };
@@ -428,6 +518,32 @@ public class WcsCoverageReader extends AbstractGridCoverage2DReader {
         CoverageTransformation.perform(tmpFile, transformation);
     }
 
+    /**
+     * Converts the image to the format as the writer requests its rows,
+     * reading it from the stream cache of ImageIO. Formats with tiles, like
+     * TIFF, are never decoded as a whole.
+     */
+    private static void convertImage(InputStream in, String format, File file) throws IOException {
+        ImageInputStream input = ImageIO.createImageInputStream(in);
+        if (input == null) {
+            throw new ExtractorException("Unable to read the coverage returned by the server");
+        }
+        RenderedOp image = null;
+        try {
+            ParameterBlockJAI pb = new ParameterBlockJAI("ImageRead");
+            pb.setParameter("Input", input);
+            image = JAI.create("ImageRead", pb, Formats.tiledLayoutHints());
+            if (!ImageIO.write(image, format, file)) {
+                throw new ExtractorException("No writer found for the format " + format);
+            }
+        } finally {
+            if (image != null) {
+                image.dispose();
+            }
+            input.close();
+        }
+    }
+
     /**
      * Write an image file from an inputstream.
      * Used when we want to write image from the wcs get coverage server response stream
@@ -435,7 +551,7 @@ public class WcsCoverageReader extends AbstractGridCoverage2DReader {
      * @param in
      * @throws IOException
      */
-    private void writeToFile(File file, InputStream in) throws IOException {
+    static void writeToFile(File file, InputStream in) throws IOException {
         FileOutputStream fout = new FileOutputStream(file);
         try {
             ReadableByteChannel channel = Channels.newChannel(in);
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2009-2018 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.georchestra.extractorapp.ws.extractor.wcs;
+
+import org.georchestra.extractorapp.ws.extractor.HostPermits;
+
+/**
+ * Settings of the tiled extraction of the coverages larger than the maximum
+ * coverage extraction size, see {@link TiledCoverageExtraction}.
+ * <p>
+ * The size limit then applies to each tile. The number of tiles downloaded at
+ * once from a host is shared by all the layers and tasks using this instance.
+ * </p>
+ */
+public class WcsTiling {
+
+    /** side of the tiles, in pixels, even if the size limit allows larger ones */
+    public static final int DEFAULT_MAX_TILE_SIDE = 4096;
+
+    private final HostPermits hosts;
+    private final int maxTiles;
+    private final int maxTileSide;
+    private final int[] overviews;
+
+    /**
+     * @param maxTilesPerHost maximum number of tiles downloaded at once from a host
+     * @param maxTiles coverages needing more tiles are still refused as oversized
+     * @param maxTileSide maximum width and height of a tile, in pixels
+     * @param overviews decimation factors of the overviews to build, none if empty
+     */
+    public WcsTiling(int maxTilesPerHost, int maxTiles, int maxTileSide, int[] overviews) {
+        if (maxTiles < 1 || maxTileSide < 1) {
+            throw new IllegalArgumentException("The number and the side of the tiles must be positive");
+        }
+        this.hosts = new HostPermits(maxTilesPerHost);
+        this.maxTiles = maxTiles;
+        this.maxTileSide = maxTileSide;
+        this.overviews = overviews.clone();
+    }
+
+    /**
+     * @param overviews decimation factors separated by commas, like "2,4,8,16", may be empty
+     */
+    public static int[] parseOverviews(String overviews) {
+        if (overviews == null || overviews.trim().isEmpty()) {
+            return new int[0];
+        }
+        String[] factors = overviews.split(",");
+        int[] result = new int[factors.length];
+        for (int i = 0; i < factors.length; i++) {
+            result[i] = Integer.parseInt(factors[i].trim());
+            if (result[i] < 2) {
+                throw new IllegalArgumentException("Overview factors must be greater than 1: " + overviews);
+            }
+        }
+        return result;
+    }
+
+    public int getMaxTilesPerHost() {
+        return hosts.getPermitsPerHost();
+    }
+
+    public int getMaxTiles() {
+        return maxTiles;
+    }
+
+    public int getMaxTileSide() {
+        return maxTileSide;
+    }
+
+    public int[] getOverviews() {
+        return overviews.clone();
+    }
+
+    HostPermits getHostPermits() {
+        return hosts;
+    }
+}
@@ -0,0 +1,132 @@
+package org.georchestra.extractorapp.ws.extractor;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+
+import org.georchestra.extractorapp.ws.extractor.ArchiveDownload.Range;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+public class ArchiveDownloadTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private File archive;
+
+    @Before
+    public void setUp() throws Exception {
+        archive = tempFolder.newFile("archive.zip");
+        byte[] content = new byte[100];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        org.apache.commons.io.FileUtils.writeByteArrayToFile(archive, content);
+    }
+
+    @Test
+    public void testParseRanges() {
+        assertNull(ArchiveDownload.parseRanges(null, 100));
+        assertNull(ArchiveDownload.parseRanges("items=0-10", 100));
+        assertNull(ArchiveDownload.parseRanges("bytes=a-10", 100));
+        assertNull(ArchiveDownload.parseRanges("bytes=20-10", 100));
+
+        List<Range> ranges = ArchiveDownload.parseRanges("bytes=0-9, 90-, -5, 95-200", 100);
+        assertEquals(Arrays.asList(new Range(0, 9), new Range(90, 99), new Range(95, 99), new Range(95, 99)), ranges);
+
+        // not satisfiable
+        assertTrue(ArchiveDownload.parseRanges("bytes=100-", 100).isEmpty());
+    }
+
+    @Test
+    public void testWholeArchive() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/extractor/package");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        ArchiveDownload.send(archive, "extraction.zip", request, response);
+
+        assertEquals(200, response.getStatus());
+        assertEquals("100", response.getHeader("Content-Length"));
+        assertEquals("bytes", response.getHeader("Accept-Ranges"));
+        assertEquals(ArchiveDownload.etag(archive), response.getHeader("ETag"));
+        assertEquals(100, response.getContentAsByteArray().length);
+    }
+
+    @Test
+    public void testSingleRange() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/extractor/package");
+        request.addHeader("Range", "bytes=10-19");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        ArchiveDownload.send(archive, "extraction.zip", request, response);
+
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes 10-19/100", response.getHeader("Content-Range"));
+        assertArrayEquals(new byte[] { 10, 11, 12, 13, 14, 15, 16, 17, 18, 19 }, response.getContentAsByteArray());
+    }
+
+    @Test
+    public void testMultipleRanges() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/extractor/package");
+        request.addHeader("Range", "bytes=0-1,-2");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        ArchiveDownload.send(archive, "extraction.zip", request, response);
+
+        assertEquals(206, response.getStatus());
+        assertTrue(response.getContentType().startsWith("multipart/byteranges; boundary="));
+        String body = new String(response.getContentAsByteArray(), "ISO-8859-1");
+        assertTrue(body.contains("Content-Range: bytes 0-1/100\r\n\r\n\u0000\u0001\r\n"));
+        assertTrue(body.contains("Content-Range: bytes 98-99/100\r\n\r\nbc\r\n"));
+        assertEquals(String.valueOf(response.getContentAsByteArray().length), response.getHeader("Content-Length"));
+    }
+
+    @Test
+    public void testConditionalRequests() throws Exception {
+        String etag = ArchiveDownload.etag(archive);
+
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/extractor/package");
+        request.addHeader("If-None-Match", etag);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        ArchiveDownload.send(archive, "extraction.zip", request, response);
+        assertEquals(304, response.getStatus());
+
+        // the archive changed, the whole of it is sent
+        request = new MockHttpServletRequest("GET", "/extractor/package");
+        request.addHeader("Range", "bytes=10-19");
+        request.addHeader("If-Range", "\"other\"");
+        response = new MockHttpServletResponse();
+        ArchiveDownload.send(archive, "extraction.zip", request, response);
+        assertEquals(200, response.getStatus());
+        assertEquals(100, response.getContentAsByteArray().length);
+
+        request = new MockHttpServletRequest("GET", "/extractor/package");
+        request.addHeader("Range", "bytes=100-");
+        response = new MockHttpServletResponse();
+        ArchiveDownload.send(archive, "extraction.zip", request, response);
+        assertEquals(416, response.getStatus());
+        assertEquals("bytes */100", response.getHeader("Content-Range"));
+    }
+
+    @Test
+    public void testSendfile() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/extractor/package");
+        request.setAttribute("org.apache.tomcat.sendfile.support", Boolean.TRUE);
+        request.addHeader("Range", "bytes=50-");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        ArchiveDownload.send(archive, "extraction.zip", request, response);
+
+        assertEquals(206, response.getStatus());
+        assertEquals(archive.getCanonicalPath(), request.getAttribute("org.apache.tomcat.sendfile.filename"));
+        assertEquals(Long.valueOf(50), request.getAttribute("org.apache.tomcat.sendfile.start"));
+        assertEquals(Long.valueOf(100), request.getAttribute("org.apache.tomcat.sendfile.end"));
+        assertEquals(0, response.getContentAsByteArray().length);
+    }
+}
@@ -0,0 +1,101 @@
+package org.georchestra.extractorapp.ws.extractor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ExtractionResultCacheTest {
+
+    private static final long HOUR = 60 * 60 * 1000;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private File layer(String name, int size) throws IOException {
+        File dir = tempFolder.newFolder(name);
+        File subdir = new File(dir, "host_layer");
+        subdir.mkdirs();
+        org.apache.commons.io.FileUtils.writeByteArrayToFile(new File(subdir, "layer.shp"), new byte[size]);
+        return dir;
+    }
+
+    @Test
+    public void testStoreAndFetch() throws Exception {
+        ExtractionResultCache cache = new ExtractionResultCache(tempFolder.newFolder("cache"), 1000, HOUR);
+        File target = tempFolder.newFolder("target");
+        assertFalse(cache.fetch("key", target));
+
+        cache.store("key", layer("layer", 100));
+        assertTrue(cache.fetch("key", target));
+        assertEquals(100, new File(target, "host_layer/layer.shp").length());
+        // the marker of the entry is not copied
+        assertEquals(1, target.list().length);
+    }
+
+    @Test
+    public void testExpiration() throws Exception {
+        File directory = tempFolder.newFolder("cache");
+        ExtractionResultCache cache = new ExtractionResultCache(directory, 1000, HOUR);
+        cache.store("key", layer("layer", 100));
+        new File(directory, "key/.entry").setLastModified(System.currentTimeMillis() - 2 * HOUR);
+
+        assertFalse(cache.fetch("key", tempFolder.newFolder("target")));
+        assertFalse(new File(directory, "key").exists());
+    }
+
+    @Test
+    public void testFetchedFilesOutliveEntry() throws Exception {
+        File directory = tempFolder.newFolder("cache");
+        ExtractionResultCache cache = new ExtractionResultCache(directory, 1000, HOUR);
+        cache.store("key", layer("layer", 100));
+        File target = tempFolder.newFolder("target");
+        assertTrue(cache.fetch("key", target));
+
+        new File(directory, "key/.entry").setLastModified(System.currentTimeMillis() - 2 * HOUR);
+        cache.evict();
+        assertEquals(0, directory.list().length);
+        assertEquals(100, new File(target, "host_layer/layer.shp").length());
+    }
+
+    @Test
+    public void testInterruptedDeletion() throws Exception {
+        File directory = tempFolder.newFolder("cache");
+        ExtractionResultCache cache = new ExtractionResultCache(directory, 1000, HOUR);
+        cache.store("key", layer("layer", 100));
+        assertTrue(new File(directory, "key").renameTo(new File(directory, "key.1.deleted")));
+
+        assertFalse(cache.fetch("key", tempFolder.newFolder("target")));
+        cache.evict();
+        assertEquals(0, directory.list().length);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() throws Exception {
+        File directory = tempFolder.newFolder("cache");
+        ExtractionResultCache cache = new ExtractionResultCache(directory, 250, HOUR);
+        cache.store("a", layer("a", 100));
+        cache.store("b", layer("b", 100));
+        new File(directory, "a").setLastModified(System.currentTimeMillis() - 20000);
+        new File(directory, "b").setLastModified(System.currentTimeMillis() - 10000);
+        // a becomes the most recently used
+        assertTrue(cache.fetch("a", tempFolder.newFolder("target")));
+
+        cache.store("c", layer("c", 100));
+        // larger than the quota
+        cache.store("d", layer("d", 300));
+        assertFalse(new File(directory, "d").exists());
+
+        cache.evict();
+        assertTrue(new File(directory, "a").exists());
+        assertFalse(new File(directory, "b").exists());
+        assertTrue(new File(directory, "c").exists());
+        assertEquals(200, cache.getSize());
+    }
+}
@@ -0,0 +1,120 @@
+package org.georchestra.extractorapp.ws.extractor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+
+import org.georchestra.extractorapp.ws.extractor.OwsDocumentCache.Fetcher;
+import org.georchestra.extractorapp.ws.extractor.OwsDocumentCache.Response;
+import org.junit.Test;
+
+public class OwsDocumentCacheTest {
+
+    private static class CountingFetcher implements Fetcher<String> {
+        int fetches;
+        String lastEtag;
+        boolean modified = true;
+
+        @Override
+        public Response<String> fetch(String etag, String lastModified) throws IOException {
+            fetches++;
+            lastEtag = etag;
+            if (!modified) {
+                return Response.notModified();
+            }
+            return new Response<String>("document " + fetches, "\"v" + fetches + "\"", null);
+        }
+    }
+
+    @Test
+    public void testCached() throws Exception {
+        OwsDocumentCache cache = new OwsDocumentCache(60000, 10);
+        CountingFetcher fetcher = new CountingFetcher();
+        String key = OwsDocumentCache.key("http://localhost/wcs", "GetCapabilities", "user", null, "password");
+
+        assertEquals("document 1", cache.get(key, fetcher));
+        assertEquals("document 1", cache.get(key, fetcher));
+        assertEquals(1, fetcher.fetches);
+        assertNull(fetcher.lastEtag);
+
+        // other credentials
+        String otherKey = OwsDocumentCache.key("http://localhost/wcs", "GetCapabilities", "user", null, "other");
+        assertFalse(key.equals(otherKey));
+        assertFalse(key.contains("password"));
+        assertEquals("document 2", cache.get(otherKey, fetcher));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testRevalidation() throws Exception {
+        OwsDocumentCache cache = new OwsDocumentCache(0, 10);
+        CountingFetcher fetcher = new CountingFetcher();
+
+        assertEquals("document 1", cache.get("key", fetcher));
+        fetcher.modified = false;
+        assertEquals("document 1", cache.get("key", fetcher));
+        assertEquals("\"v1\"", fetcher.lastEtag);
+
+        fetcher.modified = true;
+        assertEquals("document 3", cache.get("key", fetcher));
+        assertEquals(3, fetcher.fetches);
+    }
+
+    @Test
+    public void testFailureNotCached() throws Exception {
+        OwsDocumentCache cache = new OwsDocumentCache(60000, 10);
+        try {
+            cache.get("key", new Fetcher<String>() {
+                @Override
+                public Response<String> fetch(String etag, String lastModified) throws IOException {
+                    throw new IOException("unreachable");
+                }
+            });
+        } catch (IOException e) {
+            // expected
+        }
+        CountingFetcher fetcher = new CountingFetcher();
+        assertEquals("document 1", cache.get("key", fetcher));
+    }
+
+    @Test
+    public void testKeyParts() throws Exception {
+        // no value can be mistaken for another, whatever its characters
+        assertFalse(OwsDocumentCache.key("http://localhost/wfs", "permissions", "a|b", null, null)
+                .equals(OwsDocumentCache.key("http://localhost/wfs", "permissions", "a", "b", null)));
+        assertFalse(OwsDocumentCache.key("http://localhost/wfs", "permissions", "user", "ROLE_A", null)
+                .equals(OwsDocumentCache.key("http://localhost/wfs", "permissions", "user", "ROLE_B", null)));
+        assertFalse(OwsDocumentCache.key("http://localhost/wfs", "permissions", null, null, null)
+                .equals(OwsDocumentCache.key("http://localhost/wfs", "permissions", "", "", null)));
+    }
+
+    @Test
+    public void testUncachedResponse() throws Exception {
+        OwsDocumentCache cache = new OwsDocumentCache(60000, 10);
+        Fetcher<String> failing = new Fetcher<String>() {
+            @Override
+            public Response<String> fetch(String etag, String lastModified) throws IOException {
+                return Response.uncached("error");
+            }
+        };
+        assertEquals("error", cache.get("key", failing));
+        assertEquals(0, cache.size());
+
+        CountingFetcher fetcher = new CountingFetcher();
+        assertEquals("document 1", cache.get("key", fetcher));
+        assertEquals("document 1", cache.get("key", fetcher));
+        assertEquals(1, fetcher.fetches);
+    }
+
+    @Test
+    public void testMaxEntries() throws Exception {
+        OwsDocumentCache cache = new OwsDocumentCache(60000, 2);
+        CountingFetcher fetcher = new CountingFetcher();
+        cache.get("a", fetcher);
+        cache.get("b", fetcher);
+        cache.get("c", fetcher);
+        assertEquals(1, cache.size());
+    }
+}
@@ -0,0 +1,190 @@
+package org.georchestra.extractorapp.ws.extractor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.geotools.data.DataUtilities;
+import org.geotools.data.Query;
+import org.geotools.data.memory.MemoryDataStore;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.io.WKTReader;
+
+public class PagedFeatureCollectionTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private SimpleFeatureSource source;
+    private ReferencedEnvelope bbox;
+
+    @Before
+    public void setUp() throws Exception {
+        SimpleFeatureType type = DataUtilities.createType("points", "geom:Point:srid=4326,name:String");
+        GeometryFactory geometryFactory = new GeometryFactory();
+        MemoryDataStore store = new MemoryDataStore();
+        store.createSchema(type);
+        // 5 x 5 points, some of them on the edges of the tiles
+        for (int x = 0; x < 5; x++) {
+            for (int y = 0; y < 5; y++) {
+                SimpleFeature feature = SimpleFeatureBuilder.build(type,
+                        new Object[] { geometryFactory.createPoint(new Coordinate(x, y)), x + "_" + y }, "points." + x + "_" + y);
+                store.addFeature(feature);
+            }
+        }
+        source = store.getFeatureSource("points");
+        bbox = new ReferencedEnvelope(0, 4, 0, 4, DefaultGeographicCRS.WGS84);
+    }
+
+    private static String typeName(PagedFeatureCollection features) {
+        return features.getSchema().getTypeName();
+    }
+
+    /**
+     * @return the source, unable to count its features
+     */
+    private static SimpleFeatureSource uncounted(final SimpleFeatureSource counted) {
+        return (SimpleFeatureSource) Proxy.newProxyInstance(PagedFeatureCollectionTest.class.getClassLoader(),
+                new Class<?>[] { SimpleFeatureSource.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if ("getCount".equals(method.getName())) {
+                            return -1;
+                        }
+                        try {
+                            return method.invoke(counted, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+    }
+
+    private Set<String> readAll(PagedFeatureCollection features) {
+        Set<String> ids = new HashSet<String>();
+        int count = 0;
+        SimpleFeatureIterator iterator = features.features();
+        try {
+            while (iterator.hasNext()) {
+                SimpleFeature feature = iterator.next();
+                ids.add(feature.getID());
+                assertEquals(feature.getID(), typeName(features) + "." + feature.getAttribute("name"));
+                count++;
+            }
+        } finally {
+            iterator.close();
+        }
+        assertEquals("features read more than once", ids.size(), count);
+        return ids;
+    }
+
+    @Test
+    public void testTiles() throws Exception {
+        File checkpoints = tempFolder.newFolder("pages");
+        Query query = new Query("points", Filter.INCLUDE);
+        PagedFeatureCollection features = new PagedFeatureCollection(source, query, source.getSchema(), bbox,
+                "localhost", new WfsPaging(10, 2), checkpoints);
+
+        assertEquals(PagedFeatureCollection.Mode.TILES, features.getMode());
+        assertEquals(25, readAll(features).size());
+    }
+
+    @Test
+    public void testUnknownCount() throws Exception {
+        Query query = new Query("points", Filter.INCLUDE);
+        PagedFeatureCollection features = new PagedFeatureCollection(uncounted(source), query, source.getSchema(), bbox,
+                "localhost", new WfsPaging(4, 2), tempFolder.newFolder("pages"));
+
+        // the quarters hold 9 points, edges included, their own quarters 4
+        assertEquals(PagedFeatureCollection.Mode.TILES, features.getMode());
+        assertEquals(16, features.getPageCount());
+        assertEquals(25, readAll(features).size());
+    }
+
+    /**
+     * The lower corner of the envelope of the lines lies in the first tile,
+     * which the lines do not cross.
+     */
+    @Test
+    public void testTilesCrossedByLines() throws Exception {
+        SimpleFeatureType type = DataUtilities.createType("lines", "geom:LineString:srid=4326,name:String");
+        WKTReader wkt = new WKTReader();
+        MemoryDataStore store = new MemoryDataStore();
+        store.createSchema(type);
+        store.addFeature(SimpleFeatureBuilder.build(type,
+                new Object[] { wkt.read("LINESTRING(1 3.9, 3.9 1)"), "diagonal" }, "lines.diagonal"));
+        store.addFeature(SimpleFeatureBuilder.build(type,
+                new Object[] { wkt.read("LINESTRING(1 3, 3 3, 3 1)"), "corner" }, "lines.corner"));
+        store.addFeature(SimpleFeatureBuilder.build(type,
+                new Object[] { wkt.read("LINESTRING(0.5 0.5, 3.5 3.5)"), "across" }, "lines.across"));
+        SimpleFeatureSource lines = store.getFeatureSource("lines");
+        Query query = new Query("lines", Filter.INCLUDE);
+
+        // 2 x 2 tiles
+        PagedFeatureCollection features = new PagedFeatureCollection(lines, query, lines.getSchema(), bbox,
+                "localhost", new WfsPaging(1, 2), tempFolder.newFolder("grid"));
+        assertEquals(PagedFeatureCollection.Mode.TILES, features.getMode());
+        assertEquals(4, features.getPageCount());
+        assertEquals(3, readAll(features).size());
+
+        // quarters, split again until they hold a single line
+        features = new PagedFeatureCollection(uncounted(lines), query, lines.getSchema(), bbox, "localhost",
+                new WfsPaging(1, 2), tempFolder.newFolder("quarters"));
+        assertEquals(PagedFeatureCollection.Mode.TILES, features.getMode());
+        assertEquals(3, readAll(features).size());
+    }
+
+    @Test
+    public void testSinglePage() throws Exception {
+        Query query = new Query("points", Filter.INCLUDE);
+        PagedFeatureCollection features = new PagedFeatureCollection(source, query, source.getSchema(), bbox,
+                "localhost", new WfsPaging(100, 2), tempFolder.newFolder("pages"));
+
+        assertEquals(PagedFeatureCollection.Mode.SINGLE, features.getMode());
+        assertEquals(1, features.getPageCount());
+        assertEquals(25, readAll(features).size());
+    }
+
+    @Test
+    public void testResume() throws Exception {
+        File checkpoints = tempFolder.newFolder("pages");
+        Query query = new Query("points", Filter.INCLUDE);
+        WfsPaging paging = new WfsPaging(10, 2);
+        PagedFeatureCollection features = new PagedFeatureCollection(source, query, source.getSchema(), bbox,
+                "localhost", paging, checkpoints);
+        readAll(features);
+
+        // a previous attempt stopped before the last page
+        File lastPage = features.pageFile(features.getPageCount() - 1);
+        assertTrue(lastPage.delete());
+        long firstPageModified = features.pageFile(0).lastModified();
+
+        PagedFeatureCollection resumed = new PagedFeatureCollection(source, query, source.getSchema(), bbox,
+                "localhost", paging, checkpoints);
+        assertEquals(features.getPageCount(), resumed.getPageCount());
+        assertEquals(25, readAll(resumed).size());
+        assertTrue(lastPage.exists());
+        assertEquals(firstPageModified, features.pageFile(0).lastModified());
+    }
+}
@@ -0,0 +1,174 @@
+package org.georchestra.extractorapp.ws.extractor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ParallelZipArchiverTest {
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testArchive() throws Exception {
+        File bundle = tempFolder.newFolder("bundle");
+        File layer = new File(bundle, "layer");
+        layer.mkdirs();
+        StringBuilder gml = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            gml.append("<feature id=\"").append(i).append("\"/>\n");
+        }
+        write(new File(layer, "layer.gml"), gml.toString().getBytes("UTF-8"));
+        byte[] png = new byte[10000];
+        new Random(1).nextBytes(png);
+        write(new File(layer, "layer.png"), png);
+        write(new File(bundle, "failures.txt"), new byte[0]);
+
+        File storageFile = new File(tempFolder.getRoot(), "archive.zip");
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            ParallelZipArchiver archiver = new ParallelZipArchiver(bundle, storageFile, executor);
+            archiver.add(layer);
+            archiver.add(new File(bundle, "failures.txt"));
+            archiver.finish();
+            assertEquals(gml.length() + png.length, archiver.getInputSize());
+            assertEquals(storageFile.length(), archiver.getArchiveSize());
+        } finally {
+            executor.shutdown();
+        }
+
+        ZipFile zip = new ZipFile(storageFile);
+        try {
+            assertEquals(3, zip.size());
+            ZipEntry gmlEntry = zip.getEntry("bundle/layer/layer.gml");
+            assertEquals(ZipEntry.DEFLATED, gmlEntry.getMethod());
+            assertEquals(gml.toString(), FileUtils.asString(zip.getInputStream(gmlEntry)));
+            ZipEntry pngEntry = zip.getEntry("bundle/layer/layer.png");
+            assertEquals(ZipEntry.STORED, pngEntry.getMethod());
+            assertEquals(png.length, pngEntry.getSize());
+            assertEquals(0, zip.getEntry("bundle/failures.txt").getSize());
+        } finally {
+            zip.close();
+        }
+        // only the archive is left, the compressed entries are removed
+        String[] files = tempFolder.getRoot().list();
+        Arrays.sort(files);
+        assertEquals(Arrays.asList("archive.zip", "bundle"), Arrays.asList(files));
+    }
+
+    @Test
+    public void testArchiveBlocks() throws Exception {
+        File bundle = tempFolder.newFolder("bundle");
+        StringBuilder gml = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            gml.append("<feature id=\"").append(i).append("\"/>\n");
+        }
+        write(new File(bundle, "layer.gml"), gml.toString().getBytes("UTF-8"));
+
+        File storageFile = new File(tempFolder.getRoot(), "archive.zip");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            ParallelZipArchiver archiver = new ParallelZipArchiver(bundle, storageFile, executor, 32 * 1024);
+            archiver.add(bundle);
+            archiver.finish();
+            assertEquals(gml.length(), archiver.getInputSize());
+        } finally {
+            executor.shutdown();
+        }
+
+        ZipFile zip = new ZipFile(storageFile);
+        try {
+            ZipEntry gmlEntry = zip.getEntry("bundle/layer.gml");
+            assertEquals(ZipEntry.DEFLATED, gmlEntry.getMethod());
+            assertTrue(gmlEntry.getCompressedSize() < gml.length() / 4);
+            // the CRC is checked while reading
+            assertEquals(gml.toString(), FileUtils.asString(zip.getInputStream(gmlEntry)));
+        } finally {
+            zip.close();
+        }
+        String[] files = tempFolder.getRoot().list();
+        Arrays.sort(files);
+        assertEquals(Arrays.asList("archive.zip", "bundle"), Arrays.asList(files));
+    }
+
+    @Test
+    public void testCrc32Combine() throws Exception {
+        byte[] data = "the quick brown fox jumps over the lazy dog".getBytes("UTF-8");
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        CRC32 crc1 = new CRC32();
+        crc1.update(data, 0, 10);
+        CRC32 crc2 = new CRC32();
+        crc2.update(data, 10, data.length - 10);
+
+        assertEquals(crc.getValue(), ParallelZipArchiver.crc32Combine(crc1.getValue(), crc2.getValue(), data.length - 10));
+        assertEquals(crc.getValue(), ParallelZipArchiver.crc32Combine(0, crc.getValue(), data.length));
+        assertEquals(crc.getValue(), ParallelZipArchiver.crc32Combine(crc.getValue(), 0, 0));
+    }
+
+    @Test
+    public void testArchiveToZip() throws Exception {
+        File bundle = tempFolder.newFolder("bundle");
+        write(new File(bundle, "a.txt"), "a".getBytes("UTF-8"));
+        File storageFile = new File(tempFolder.getRoot(), "archive.zip");
+
+        FileUtils.archiveToZip(bundle, storageFile);
+
+        assertEquals(Arrays.asList("bundle/a.txt"), FileUtils.listZip(storageFile));
+    }
+
+    @Test
+    public void testCompressedTiff() throws Exception {
+        File raw = tempFolder.newFile("raw.tif");
+        write(raw, tiff(1));
+        File deflate = tempFolder.newFile("deflate.tif");
+        write(deflate, tiff(8));
+
+        assertFalse(ParallelZipArchiver.isCompressed(raw));
+        assertTrue(ParallelZipArchiver.isCompressed(deflate));
+        assertTrue(ParallelZipArchiver.isCompressed(new File("image.JPG")));
+        assertFalse(ParallelZipArchiver.isCompressed(new File("layer.shp")));
+    }
+
+    /**
+     * @return a little endian TIFF header, with a single compression tag
+     */
+    private static byte[] tiff(int compression) {
+        byte[] tiff = new byte[64];
+        tiff[0] = 'I';
+        tiff[1] = 'I';
+        tiff[2] = 42;
+        tiff[4] = 8;
+        tiff[8] = 1;
+        tiff[10] = (byte) (259 & 0xFF);
+        tiff[11] = (byte) (259 >> 8);
+        tiff[12] = 3;
+        tiff[14] = 1;
+        tiff[18] = (byte) compression;
+        return tiff;
+    }
+
+    private static void write(File file, byte[] data) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+}
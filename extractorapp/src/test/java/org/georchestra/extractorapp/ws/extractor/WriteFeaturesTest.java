@@ -0,0 +1,110 @@
+package org.georchestra.extractorapp.ws.extractor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.geotools.data.DataUtilities;
+import org.geotools.data.shapefile.ShapefileDataStore;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.MultiPoint;
+import com.vividsolutions.jts.geom.MultiPolygon;
+
+public class WriteFeaturesTest {
+
+    /** more than the batch size of each geometry type */
+    private static final int FEATURES_PER_TYPE = 1200;
+    /** commits twice while features are still buffered */
+    private static final int MAX_TRANSACTION_FEATURES = 1500;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private final GeometryFactory geometryFactory = new GeometryFactory();
+
+    private Geometry geometry(int type, int i) {
+        double x = i % 100;
+        double y = i / 100;
+        switch (type) {
+        case 0:
+            return geometryFactory.createPoint(new Coordinate(x, y));
+        case 1:
+            return geometryFactory.createLineString(new Coordinate[] { new Coordinate(x, y),
+                    new Coordinate(x + 0.5, y + 0.5) });
+        default:
+            return geometryFactory.createPolygon(geometryFactory.createLinearRing(new Coordinate[] {
+                    new Coordinate(x, y), new Coordinate(x + 0.5, y), new Coordinate(x + 0.5, y + 0.5),
+                    new Coordinate(x, y) }), null);
+        }
+    }
+
+    @Test
+    public void testMixedGeometries() throws Exception {
+        // "NAME" clashes with "name" in a shapefile and is written as "NAME2"
+        SimpleFeatureType type = DataUtilities.createType("mixed",
+                "geom:Geometry:srid=4326,name:String,NAME:String,rank:Integer");
+        File dir = tempFolder.newFolder("shp");
+        WriteFeatures writer = new WriteFeatures(type, dir, DefaultGeographicCRS.WGS84, new ShpDatastoreFactory(),
+                MAX_TRANSACTION_FEATURES);
+        // the geometry types are interleaved, each type is written to its own file
+        for (int i = 0; i < 3 * FEATURES_PER_TYPE; i++) {
+            writer.visit(SimpleFeatureBuilder.build(type,
+                    new Object[] { geometry(i % 3, i), "n" + i, "N" + i, i }, "mixed." + i));
+        }
+        writer.close();
+
+        Map<Class<?>, String> files = new HashMap<Class<?>, String>();
+        files.put(MultiPoint.class, "mixed_POINT.shp");
+        files.put(MultiLineString.class, "mixed_LINE.shp");
+        files.put(MultiPolygon.class, "mixed_POLYGON.shp");
+        assertEquals(3, writer.getShapeFiles().length);
+        for (File file : writer.getShapeFiles()) {
+            assertTrue(file.getName(), files.containsValue(file.getName()));
+        }
+
+        // the features of a file keep the order in which they were visited
+        int first = 0;
+        for (Class<?> binding : new Class<?>[] { MultiPoint.class, MultiLineString.class, MultiPolygon.class }) {
+            ShapefileDataStore ds = new ShapefileDataStore(new File(dir, files.get(binding)).toURI().toURL());
+            try {
+                SimpleFeatureSource source = ds.getFeatureSource();
+                assertEquals(binding, source.getSchema().getGeometryDescriptor().getType().getBinding());
+                SimpleFeatureIterator it = source.getFeatures().features();
+                int count = 0;
+                try {
+                    while (it.hasNext()) {
+                        SimpleFeature feature = it.next();
+                        int rank = first + 3 * count;
+                        assertEquals(rank, ((Number) feature.getAttribute("rank")).intValue());
+                        assertEquals("n" + rank, feature.getAttribute("name"));
+                        assertEquals("N" + rank, feature.getAttribute("NAME2"));
+                        assertTrue(binding.isInstance(feature.getDefaultGeometry()));
+                        count++;
+                    }
+                } finally {
+                    it.close();
+                }
+                assertEquals(FEATURES_PER_TYPE, count);
+            } finally {
+                ds.dispose();
+            }
+            first++;
+        }
+    }
+}
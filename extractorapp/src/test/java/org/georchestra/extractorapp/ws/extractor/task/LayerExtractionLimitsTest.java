@@ -0,0 +1,27 @@
+package org.georchestra.extractorapp.ws.extractor.task;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class LayerExtractionLimitsTest {
+
+    @Test
+    public void testPermitsPerHost() throws Exception {
+        LayerExtractionLimits limits = new LayerExtractionLimits(4, 2);
+
+        limits.acquire("wfs.example.org");
+        limits.acquire("wfs.example.org");
+        limits.acquire("wcs.example.org");
+        assertEquals(0, limits.availablePermits("wfs.example.org"));
+        assertEquals(1, limits.availablePermits("wcs.example.org"));
+
+        limits.release("wfs.example.org");
+        assertEquals(1, limits.availablePermits("wfs.example.org"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidLimits() {
+        new LayerExtractionLimits(0, 2);
+    }
+}
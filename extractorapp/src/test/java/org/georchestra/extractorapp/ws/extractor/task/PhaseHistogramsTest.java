@@ -0,0 +1,68 @@
+package org.georchestra.extractorapp.ws.extractor.task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+
+import org.georchestra.extractorapp.ws.extractor.PhaseTimer;
+import org.junit.Test;
+
+public class PhaseHistogramsTest {
+
+    private static PhaseTimer.Span span(String phase, String layer, String host, long duration) {
+        return new PhaseTimer.Span(phase, layer, host, "shp", 1, null, 0, duration);
+    }
+
+    @Test
+    public void testBuckets() {
+        PhaseHistograms histograms = new PhaseHistograms();
+        histograms.record(Arrays.asList(span(PhaseTimer.WFS_DOWNLOAD, "a", "host1", 50),
+                span(PhaseTimer.WFS_DOWNLOAD, "b", "host1", 100),
+                span(PhaseTimer.WFS_DOWNLOAD, "a", "host1", 101),
+                span(PhaseTimer.WFS_DOWNLOAD, "a", "host1", 3600000)));
+
+        // the layers share the histogram of their host and format
+        PhaseHistograms.Histogram histogram = histograms.get(PhaseTimer.WFS_DOWNLOAD, "host1", "shp");
+        assertEquals(4, histogram.getCount());
+        assertEquals(3600251, histogram.getSum());
+        assertEquals(2, histogram.getCumulativeCount(0));
+        assertEquals(3, histogram.getCumulativeCount(1));
+        assertEquals(3, histogram.getCumulativeCount(PhaseHistograms.BOUNDS.length - 1));
+        assertEquals(4, histogram.getCumulativeCount(PhaseHistograms.BOUNDS.length));
+    }
+
+    @Test
+    public void testTags() {
+        PhaseHistograms histograms = new PhaseHistograms();
+        histograms.record(span(PhaseTimer.WFS_DOWNLOAD, "a", "host1", 10));
+        histograms.record(span(PhaseTimer.WFS_DOWNLOAD, "a", "host2", 10));
+        histograms.record(span(PhaseTimer.BBOX, "a", "host1", 10));
+        histograms.record(new PhaseTimer.Span(PhaseTimer.ARCHIVE, null, null, null, 0, null, 0, 10));
+
+        assertEquals(1, histograms.get(PhaseTimer.WFS_DOWNLOAD, "host1", "shp").getCount());
+        assertEquals(1, histograms.get(PhaseTimer.WFS_DOWNLOAD, "host2", "shp").getCount());
+        assertEquals(1, histograms.get(PhaseTimer.BBOX, "host1", "shp").getCount());
+        assertEquals(1, histograms.get(PhaseTimer.ARCHIVE, null, null).getCount());
+        assertNull(histograms.get(PhaseTimer.BBOX, "host2", "shp"));
+    }
+
+    @Test
+    public void testTimerRecordsOnlyWhenBound() {
+        PhaseTimer timer = new PhaseTimer(null, 2);
+        PhaseTimer.stop(PhaseTimer.GDAL, PhaseTimer.start());
+        assertEquals(0, timer.getSpans().size());
+
+        timer.bind();
+        try {
+            PhaseTimer.stop(PhaseTimer.GDAL, PhaseTimer.start());
+        } finally {
+            PhaseTimer.unbind();
+        }
+        PhaseTimer.stop(PhaseTimer.GDAL, PhaseTimer.start());
+
+        assertEquals(1, timer.getSpans().size());
+        assertEquals(PhaseTimer.GDAL, timer.getSpans().get(0).phase);
+        assertEquals(2, timer.getSpans().get(0).attempt);
+    }
+}
@@ -0,0 +1,110 @@
+package org.georchestra.extractorapp.ws.extractor.task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TaskSchedulerTest {
+
+    private static final long MINUTE = 60 * 1000;
+
+    @Test
+    public void testPriorities() {
+        TaskScheduler<String> scheduler = new TaskScheduler<String>(10 * MINUTE, 0);
+        scheduler.offer("a", "user", ExecutionPriority.MEDIUM, "a", 0);
+        scheduler.offer("b", "user", ExecutionPriority.HIGH, "b", MINUTE);
+        scheduler.offer("c", "user", ExecutionPriority.LOW, "c", 2 * MINUTE);
+        scheduler.offer("d", "user", ExecutionPriority.MEDIUM, "d", 3 * MINUTE);
+
+        assertEquals(Arrays.asList("b", "a", "d", "c"), scheduler.waitingTasks());
+        assertEquals("b", scheduler.poll());
+        assertEquals("a", scheduler.poll());
+        assertEquals("d", scheduler.poll());
+        assertEquals("c", scheduler.poll());
+        assertNull(scheduler.poll());
+    }
+
+    @Test
+    public void testAging() {
+        TaskScheduler<String> scheduler = new TaskScheduler<String>(10 * MINUTE, 0);
+        scheduler.offer("old", "user", ExecutionPriority.LOW, "old", 0);
+        scheduler.offer("new", "user", ExecutionPriority.HIGH, "new", 30 * MINUTE);
+
+        assertEquals("old", scheduler.poll());
+    }
+
+    @Test
+    public void testUpdatePriorityAndRemove() {
+        TaskScheduler<String> scheduler = new TaskScheduler<String>(10 * MINUTE, 0);
+        for (int i = 0; i < 10; i++) {
+            scheduler.offer("t" + i, "user" + (i % 3), ExecutionPriority.MEDIUM, "t" + i, i * MINUTE);
+        }
+        // t7 was submitted at 7 minutes, it now counts as submitted 3 minutes before t0
+        assertEquals(true, scheduler.updatePriority("t7", ExecutionPriority.HIGH));
+        scheduler.updatePriority("t8", ExecutionPriority.LOW);
+        assertFalse(scheduler.updatePriority("unknown", ExecutionPriority.HIGH));
+        assertEquals("t4", scheduler.remove("t4"));
+        assertNull(scheduler.remove("t4"));
+        assertEquals(9, scheduler.size());
+
+        assertEquals("t7", scheduler.poll());
+        assertEquals("t0", scheduler.poll());
+        assertEquals("t1", scheduler.poll());
+        assertEquals("t2", scheduler.poll());
+        assertEquals("t3", scheduler.poll());
+        assertEquals("t5", scheduler.poll());
+        assertEquals("t6", scheduler.poll());
+        assertEquals("t9", scheduler.poll());
+        assertEquals("t8", scheduler.poll());
+    }
+
+    @Test
+    public void testFairShare() {
+        TaskScheduler<String> scheduler = new TaskScheduler<String>(10 * MINUTE, 5 * MINUTE);
+        for (int i = 0; i < 5; i++) {
+            scheduler.offer("big" + i, "big", ExecutionPriority.MEDIUM, "big" + i, i * MINUTE);
+        }
+        scheduler.offer("small", "small", ExecutionPriority.MEDIUM, "small", 10 * MINUTE);
+
+        // each running task of big delays its next ones by 5 minutes
+        assertEquals("big0", scheduler.poll());
+        assertEquals("big1", scheduler.poll());
+        assertEquals("small", scheduler.poll());
+        assertEquals("big2", scheduler.poll());
+        assertEquals(4, scheduler.running());
+
+        scheduler.done("big0");
+        scheduler.done("big1");
+        scheduler.done("big2");
+        scheduler.done("small");
+        assertEquals(0, scheduler.running());
+        assertEquals("big3", scheduler.poll());
+    }
+
+    @Test
+    public void testReorder() {
+        TaskScheduler<String> scheduler = new TaskScheduler<String>(10 * MINUTE, 0);
+        scheduler.offer("a", "user1", ExecutionPriority.HIGH, "a", 0);
+        scheduler.offer("b", "user2", ExecutionPriority.MEDIUM, "b", MINUTE);
+        scheduler.offer("c", "user1", ExecutionPriority.LOW, "c", 2 * MINUTE);
+
+        List<String> removed = scheduler.reorder(Arrays.asList("c", "a"), ExecutionPriority.MEDIUM, 3 * MINUTE);
+        assertEquals(Arrays.asList("b"), removed);
+        assertEquals(Arrays.asList("c", "a"), scheduler.waitingTasks());
+        assertEquals("c", scheduler.poll());
+        assertEquals("a", scheduler.poll());
+        assertNull(scheduler.poll());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicate() {
+        TaskScheduler<String> scheduler = new TaskScheduler<String>(MINUTE, MINUTE);
+        scheduler.offer("a", "user", ExecutionPriority.MEDIUM, "a", 0);
+        scheduler.offer("a", "user", ExecutionPriority.MEDIUM, "a", 0);
+    }
+}
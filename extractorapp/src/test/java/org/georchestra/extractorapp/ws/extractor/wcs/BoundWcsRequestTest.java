@@ -22,6 +22,7 @@ import org.apache.http.conn.ClientConnectionManager;
 import org.apache.http.impl.conn.SchemeRegistryFactory;
 import org.apache.http.params.HttpParams;
 import org.apache.http.protocol.HttpContext;
+import org.georchestra.extractorapp.ws.extractor.OwsDocumentCache;
 import org.geotools.referencing.CRS;
 import org.junit.After;
 import org.junit.Before;
@@ -147,4 +148,27 @@ public class BoundWcsRequestTest {
 		assertTrue(bwr.getCapabilities() instanceof String);
 	}
 
+	@Test
+	public void testDescribeCoverageShared() throws Throwable {
+		WcsReaderRequest rq = new WcsReaderRequestFactory().create("1.0", "myCov", 0, 0, 1, 1, CRS.decode("EPSG:4326"),
+				CRS.decode("EPSG:2154"), 1, "GeoTiff", true, true, true, "scott", "tiger");
+		OwsDocumentCache cache = new OwsDocumentCache(60000, 10);
+		HttpClient mockClient = getMockHttpClient();
+		setOutputDocument(describeCoverageSample);
+
+		BoundWcsRequest first = new BoundWcsRequest(new URL("http://localhost/"), rq);
+		first.setHttpClient(mockClient);
+		first.setDocumentCache(cache);
+		assertEquals(1, first.numBands());
+
+		// another layer request against the same server
+		BoundWcsRequest second = new BoundWcsRequest(new URL("http://localhost/"), rq).withFormat("png");
+		second.setHttpClient(mockClient);
+		second.setDocumentCache(cache);
+		assertEquals(first.getSupportedFormats(), second.getSupportedFormats());
+		assertEquals(first.getNativeCRSs(), second.getNativeCRSs());
+
+		Mockito.verify(mockClient, Mockito.times(1)).execute(Mockito.any(HttpUriRequest.class), Mockito.any(HttpContext.class));
+	}
+
 }
@@ -10,6 +10,7 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -32,7 +33,7 @@ public class GDALCommandLineTest {
 		// This should fail
 		boolean npeCaught = false;
 		try {
-			GDALCommandLine.gdalTransformation(new File(sampletif.getFile()), tmpFile, null, null);
+			GDALCommandLine.gdalTransformation(new File(sampletif.getFile()), tmpFile, null, null, true);
 		}catch (NullPointerException e) {
 			npeCaught = true;
 		} catch (Throwable e) {
@@ -47,7 +48,37 @@ public class GDALCommandLineTest {
 				-180, -90, 180, 90, CRS.decode("EPSG:4326"),
 				CRS.decode("EPSG:2154"), 1, "geotiff", true,
 				true, true, "dummy", "dummy");
-		GDALCommandLine.gdalTransformation(new File(sampletif.getFile()), tmpFile, executedReq, executedReq);
+		GDALCommandLine.gdalTransformation(new File(sampletif.getFile()), tmpFile, executedReq, executedReq, true);
+	}
+
+	@Test
+	public final void testGdalTransformationThroughVrt() throws Exception {
+        try {
+            final Process exec = Runtime.getRuntime().exec("gdalwarp --help-general");
+            exec.destroy();
+        } catch (IOException e) {
+            Assume.assumeNoException("Test aborted because gdalwarp is not on PATH", e);
+        }
+		File dir = folder.newFolder("vrt");
+		File target = new File(dir, "latlong.png");
+
+		@SuppressWarnings("static-access")
+		WcsReaderRequest executedReq = new WcsReaderRequestFactory().create(WcsReaderRequest.DEFAULT_VERSION, "latlong.tif",
+				-180, -90, 180, 90, CRS.decode("EPSG:4326"),
+				CRS.decode("EPSG:4326"), 1, "geotiff", true,
+				true, true, "dummy", "dummy");
+		@SuppressWarnings("static-access")
+		WcsReaderRequest targetReq = new WcsReaderRequestFactory().create(WcsReaderRequest.DEFAULT_VERSION, "latlong.tif",
+				-180, -90, 180, 90, CRS.decode("EPSG:4326"),
+				CRS.decode("EPSG:3857"), 1, "png", true,
+				true, true, "dummy", "dummy");
+		GDALCommandLine.gdalTransformation(new File(sampletif.getFile()), target, executedReq, targetReq, true);
+
+		// the warp is only described by a VRT, which is not kept
+		assertTrue(target.exists());
+		for (File f : dir.listFiles()) {
+			assertFalse(f.getName().endsWith(".vrt"));
+		}
 	}
 
 }
@@ -0,0 +1,50 @@
+package org.georchestra.extractorapp.ws.extractor.wcs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.awt.Rectangle;
+
+import org.junit.Test;
+
+public class TileGridTest {
+
+    @Test
+    public void testTiles() {
+        TileGrid grid = new TileGrid(250, 120, 100);
+        assertEquals(3, grid.columns);
+        assertEquals(2, grid.rows);
+        assertEquals(6, grid.count());
+
+        assertEquals(new Rectangle(0, 0, 100, 100), grid.tile(0));
+        assertEquals(new Rectangle(200, 0, 50, 100), grid.tile(2));
+        assertEquals(new Rectangle(100, 100, 100, 20), grid.tile(4));
+        assertEquals(new Rectangle(200, 100, 50, 20), grid.tile(5));
+
+        long pixels = 0;
+        for (int i = 0; i < grid.count(); i++) {
+            Rectangle tile = grid.tile(i);
+            pixels += tile.width * tile.height;
+        }
+        assertEquals(250 * 120, pixels);
+    }
+
+    @Test
+    public void testTileSide() {
+        assertEquals(100, TileGrid.tileSide(30000, 3, 4096));
+        assertEquals(4096, TileGrid.tileSide(100000000, 1, 4096));
+        assertEquals(1, TileGrid.tileSide(1, 4, 4096));
+    }
+
+    @Test
+    public void testParseOverviews() {
+        assertArrayEquals(new int[] { 2, 4, 8 }, WcsTiling.parseOverviews(" 2, 4,8"));
+        assertArrayEquals(new int[0], WcsTiling.parseOverviews(""));
+        assertArrayEquals(new int[0], WcsTiling.parseOverviews(null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidOverview() {
+        WcsTiling.parseOverviews("1,2");
+    }
+}
@@ -94,6 +94,25 @@ public abstract class A_DocService {
 		this.pgPool = pgPool;
 	}
 
+    /**
+     * Compiled schemas (shared between services), the schemas are compiled for each validation if not set.
+     */
+    protected SchemaCache schemaCache;
+
+    public void setSchemaCache(SchemaCache schemaCache) {
+        this.schemaCache = schemaCache;
+    }
+
+    /**
+     * Content of the recently loaded documents (shared between services), the documents are read from the database
+     * for each load if not set.
+     */
+    protected GeodocCache geodocCache;
+
+    public void setGeodocCache(GeodocCache geodocCache) {
+        this.geodocCache = geodocCache;
+    }
+
 	/**
      * MIME type.
      */
@@ -223,6 +242,26 @@ public abstract class A_DocService {
      * @throws DocServiceException
      */
     public void loadFile(final String fileName) throws DocServiceException {
+        if (geodocCache != null && isStoredInDb(fileName)) {
+            String hash = fileName.substring(DOC_PREFIX.length(), DOC_PREFIX.length() + 32);
+            // documents are immutable: a cached content is always up to date
+            String content = geodocCache.get(hash);
+            if (content == null) {
+                content = selectContent(hash);
+                if (content == null) {
+                    throw new DocServiceException("Requested file does not exist.", HttpServletResponse.SC_NOT_FOUND);
+                }
+                geodocCache.put(hash, content);
+            }
+            // last_access and access_count are updated later, by batches
+            geodocCache.recordAccess(hash);
+
+            _name = fileName;
+            _content = content;
+            postLoad();
+            return;
+        }
+
         // check first if data exists somewhere (db / file)
         try {
             if (!isFileExist(fileName)) {
@@ -325,6 +364,9 @@ public abstract class A_DocService {
             if(st.executeUpdate() != 1) {
                 throw new SQLException("Unable to find record with file_hash : " + filename + " and username : " + username);
             }
+            if (geodocCache != null) {
+                geodocCache.invalidate(filename);
+            }
         } finally {
             if (st != null) try { st.close(); } catch (SQLException e) {LOG.error(e);}
             if (connection != null) try { connection.close(); } catch (SQLException e) {LOG.error(e);}
@@ -393,6 +435,11 @@ public abstract class A_DocService {
 
             InputStream dataToValid = new ByteArrayInputStream(getContent().getBytes("UTF-8"));
 
+            if (schemaCache != null) {
+                schemaCache.validate(schemaURL, new StreamSource(dataToValid));
+                return true;
+            }
+
             // lookup a factory for the W3C XML Schema language
             SchemaFactory factory = SchemaFactory.newInstance("http://www.w3.org/2001/XMLSchema");
 
@@ -458,6 +505,38 @@ public abstract class A_DocService {
         return hashString.toString();
     }
 
+    /**
+     * @param fileName eg geodoc1694e3cc580768d5125816b574915e97.wmc
+     * @return true if the file is stored in the database, false if it is an old file
+     */
+    private boolean isStoredInDb(final String fileName) {
+        return fileName.length() == 4+32+DOC_PREFIX.length();
+    }
+
+    /**
+     * Reads the content of a document stored in db, without updating its access count.
+     * @param hash file hash
+     * @return the file content, null if there is no document with this hash
+     */
+    private String selectContent(final String hash) {
+        ResultSet rs = null;
+        PreparedStatement st = null;
+        Connection connection = null;
+        try {
+            connection = pgPool.getConnection();
+            st = connection.prepareStatement("SELECT raw_file_content from mapfishapp.geodocs WHERE file_hash = ?;");
+            st.setString(1, hash);
+            rs = st.executeQuery();
+            return rs.next() ? rs.getString(1) : null;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (rs != null) try { rs.close(); } catch (SQLException e) {LOG.error(e);}
+            if (st != null) try { st.close(); } catch (SQLException e) {LOG.error(e);}
+            if (connection != null) try { connection.close(); } catch (SQLException e) {LOG.error(e);}
+        }
+    }
+
     /**
      * Check that data exists in db under provided hash
      * @param fileName eg geodoc1694e3cc580768d5125816b574915e97.wmc or geodoc\d{19}.wmc
@@ -35,6 +35,7 @@ import javax.servlet.http.HttpServletResponse;
 import org.apache.commons.httpclient.UsernamePasswordCredentials;
 import org.georchestra.commons.configuration.GeorchestraConfiguration;
 import org.georchestra.mapfishapp.model.ConnectionPool;
+import org.georchestra.mapfishapp.ws.classif.ClassificationCache;
 import org.georchestra.mapfishapp.ws.classif.ClassifierCommand;
 import org.georchestra.mapfishapp.ws.classif.SLDClassifier;
 import org.geotools.data.wfs.impl.WFSDataStoreFactory;
@@ -86,6 +87,18 @@ public class DocController {
     @Autowired
     private ConnectionPool connectionPool;
 
+    /** the compiled schemas used by the document services to validate the documents */
+    @Autowired(required = false)
+    private SchemaCache schemaCache;
+
+    /** the content of the recently loaded documents, shared by the document services */
+    @Autowired(required = false)
+    private GeodocCache geodocCache;
+
+    /** the recent classifications of the WFS layers */
+    @Autowired(required = false)
+    private ClassificationCache classificationCache;
+
     /**
      * variable name that has to be used on client side
      */
@@ -158,6 +171,18 @@ public class DocController {
 	    connectionPool = cp;
     }
 
+	public void setSchemaCache(SchemaCache schemaCache) {
+	    this.schemaCache = schemaCache;
+	}
+
+	public void setGeodocCache(GeodocCache geodocCache) {
+	    this.geodocCache = geodocCache;
+	}
+
+	public void setClassificationCache(ClassificationCache classificationCache) {
+	    this.classificationCache = classificationCache;
+	}
+
 	private WFSDataStoreFactory factory = new WFSDataStoreFactory();
 	public void setWFSDataStoreFactory(WFSDataStoreFactory fac) { factory = fac; }
 
@@ -362,7 +387,8 @@ public class DocController {
     private void doClassification(HttpServletRequest request, HttpServletResponse response) {
         try {
             // classification based on client request in json
-            SLDClassifier c = new SLDClassifier(credentials, new ClassifierCommand(getBodyFromRequest(request)), factory);
+            SLDClassifier c = new SLDClassifier(credentials, new ClassifierCommand(getBodyFromRequest(request)), factory,
+                    classificationCache);
 
             // save SLD content under a file
             SLDDocService service = new SLDDocService(this.docTempDir, this.connectionPool);
@@ -390,6 +416,7 @@ public class DocController {
      */
     @SuppressWarnings("unchecked")
     private void storeFile(A_DocService docService, String docUrl, HttpServletRequest request, HttpServletResponse response) {
+        docService.setSchemaCache(schemaCache);
         try {
 
             String fileContent;
@@ -456,6 +483,7 @@ public class DocController {
      * @param response contains the file content
      */
     private void getFile(A_DocService docService, HttpServletRequest request, HttpServletResponse response) {
+        docService.setGeodocCache(geodocCache);
         try {
 
             // extract file name from the request URI
@@ -516,6 +544,7 @@ public class DocController {
      * @param response {"success" : true} if successfully deleted
      */
     private void deleteFile(A_DocService docService, HttpServletRequest request, HttpServletResponse response) {
+        docService.setGeodocCache(geodocCache);
         String fileName = getFileNameFromURI(request.getRequestURI());
         if(fileName == null) {
             sendErrorToClient(response, HttpServletResponse.SC_BAD_REQUEST, "Could not find the file name in the URL");
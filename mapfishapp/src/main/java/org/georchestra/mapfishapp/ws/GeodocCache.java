@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2009-2018 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.georchestra.mapfishapp.ws;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.georchestra.mapfishapp.model.ConnectionPool;
+import org.springframework.beans.factory.annotation.Autowired;
+
+/**
+ * Keeps the content of the most recently loaded geodocs in memory, shared by
+ * all the document services.
+ * <p>
+ * A geodoc is never modified once written, so its content can be kept until
+ * it is deleted, or evicted when the cache is full. The size of the cache is
+ * bounded by the total size of the documents it holds, the least recently
+ * used ones being evicted first.
+ * </p>
+ * <p>
+ * The accesses to the documents are counted in memory, and written to the
+ * <code>last_access</code> and <code>access_count</code> columns of
+ * <code>mapfishapp.geodocs</code> by a single batch every
+ * <code>flushInterval</code> seconds, and when the application is stopped.
+ * </p>
+ */
+public class GeodocCache {
+
+    private static final Log LOG = LogFactory.getLog(GeodocCache.class.getPackage().getName());
+
+    @Autowired
+    private ConnectionPool connectionPool;
+
+    /** maximum size of the cached documents, in bytes */
+    private long maxBytes = 64L * 1024 * 1024;
+    /** delay between two updates of the access counts, in seconds */
+    private long flushInterval = 60;
+
+    /** the documents by file hash, in access order */
+    private final LinkedHashMap<String, String> documents = new LinkedHashMap<String, String>(16, 0.75f, true);
+    private long bytes;
+
+    /**
+     * the accesses not written yet. Counting an access takes the read lock,
+     * the flush swaps the map under the write lock so that no access is lost.
+     */
+    private ConcurrentMap<String, Access> accesses = new ConcurrentHashMap<String, Access>();
+    private final ReadWriteLock accessesLock = new ReentrantReadWriteLock();
+
+    private ScheduledExecutorService executor;
+
+    public void init() {
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "geodoc-access-flush");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, flushInterval, flushInterval, TimeUnit.SECONDS);
+    }
+
+    public void destroy() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+        flush();
+    }
+
+    /**
+     * @return the content of the document, null if not cached
+     */
+    public synchronized String get(String hash) {
+        return documents.get(hash);
+    }
+
+    /**
+     * Caches the content of the document, evicting the least recently used
+     * documents if needed. A document bigger than the whole cache is not
+     * kept.
+     */
+    public synchronized void put(String hash, String content) {
+        long size = sizeOf(content);
+        if (size > maxBytes) {
+            return;
+        }
+        String previous = documents.put(hash, content);
+        if (previous != null) {
+            bytes -= sizeOf(previous);
+        }
+        bytes += size;
+
+        Iterator<Map.Entry<String, String>> it = documents.entrySet().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, String> eldest = it.next();
+            bytes -= sizeOf(eldest.getValue());
+            it.remove();
+        }
+    }
+
+    /**
+     * Removes a deleted document from the cache, along with its pending
+     * accesses.
+     */
+    public void invalidate(String hash) {
+        synchronized (this) {
+            String previous = documents.remove(hash);
+            if (previous != null) {
+                bytes -= sizeOf(previous);
+            }
+        }
+        accessesLock.readLock().lock();
+        try {
+            accesses.remove(hash);
+        } finally {
+            accessesLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Counts an access to the document, written by the next flush.
+     */
+    public void recordAccess(String hash) {
+        addAccesses(hash, 1, System.currentTimeMillis());
+    }
+
+    private void addAccesses(String hash, int count, long last) {
+        accessesLock.readLock().lock();
+        try {
+            Access access = accesses.get(hash);
+            if (access == null) {
+                Access created = new Access();
+                access = accesses.putIfAbsent(hash, created);
+                if (access == null) {
+                    access = created;
+                }
+            }
+            access.count.addAndGet(count);
+            access.last = Math.max(access.last, last);
+        } finally {
+            accessesLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the pending accesses to the database, in a single batch. They
+     * are kept for the next flush if the update fails.
+     */
+    public void flush() {
+        Map<String, Access> pending;
+        accessesLock.writeLock().lock();
+        try {
+            if (accesses.isEmpty()) {
+                return;
+            }
+            pending = accesses;
+            accesses = new ConcurrentHashMap<String, Access>();
+        } finally {
+            accessesLock.writeLock().unlock();
+        }
+
+        Connection connection = null;
+        PreparedStatement st = null;
+        try {
+            connection = connectionPool.getConnection();
+            st = connection.prepareStatement("UPDATE mapfishapp.geodocs SET last_access = greatest(last_access, ?), "
+                    + "access_count = access_count + ? WHERE file_hash = ?;");
+            for (Map.Entry<String, Access> entry : pending.entrySet()) {
+                st.setTimestamp(1, new Timestamp(entry.getValue().last));
+                st.setInt(2, entry.getValue().count.get());
+                st.setString(3, entry.getKey());
+                st.addBatch();
+            }
+            st.executeBatch();
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Updated the access counts of " + pending.size() + " geodocs");
+            }
+        } catch (SQLException e) {
+            LOG.error("Unable to update the access counts of the geodocs, will retry", e);
+            for (Map.Entry<String, Access> entry : pending.entrySet()) {
+                addAccesses(entry.getKey(), entry.getValue().count.get(), entry.getValue().last);
+            }
+        } finally {
+            if (st != null) try { st.close(); } catch (SQLException e) {LOG.error(e);}
+            if (connection != null) try { connection.close(); } catch (SQLException e) {LOG.error(e);}
+        }
+    }
+
+    /**
+     * @return the size of the cached documents, in bytes
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return the number of cached documents
+     */
+    public synchronized int getSize() {
+        return documents.size();
+    }
+
+    public void setConnectionPool(ConnectionPool connectionPool) {
+        this.connectionPool = connectionPool;
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public void setFlushInterval(long flushInterval) {
+        this.flushInterval = flushInterval;
+    }
+
+    /** java strings take two bytes per character */
+    private static long sizeOf(String content) {
+        return 2L * content.length();
+    }
+
+    private static class Access {
+        final AtomicInteger count = new AtomicInteger();
+        volatile long last;
+    }
+}
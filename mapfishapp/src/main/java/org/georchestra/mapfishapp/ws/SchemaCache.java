@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2009-2018 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.georchestra.mapfishapp.ws;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.Validator;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.georchestra.commons.configuration.GeorchestraConfiguration;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.xml.sax.SAXException;
+
+/**
+ * Keeps the XML schemas used to validate the documents once compiled, shared
+ * by all the requests.
+ * <p>
+ * The schemas and their imports are read through a {@link SchemaCatalog}, the
+ * one bundled with mapfishapp unless the <code>schemaCatalog</code> property
+ * of the datadir gives the path of another catalog. The schemas which are not
+ * in the catalog are downloaded, once.
+ * </p>
+ * <p>
+ * The configured schemas are compiled in the background at startup. A
+ * schema is compiled once even if several requests need it at the same time,
+ * and again on the next request if its compilation failed. The validators of
+ * each schema are pooled, since they are not thread safe.
+ * </p>
+ */
+public class SchemaCache {
+
+    private static final Log LOG = LogFactory.getLog(SchemaCache.class.getPackage().getName());
+
+    /** the catalog bundled with mapfishapp, on the classpath */
+    public static final String DEFAULT_CATALOG = "/org/georchestra/mapfishapp/ws/schemas/catalog.xml";
+
+    @Autowired(required = false)
+    private GeorchestraConfiguration georchestraConfiguration;
+
+    /** path of the catalog, the bundled one if not set */
+    private String catalogPath;
+    /** schemas compiled at startup */
+    private List<String> schemaURLs = Collections.emptyList();
+    /** maximum number of idle validators kept for each schema */
+    private int validatorsPerSchema = 8;
+
+    private SchemaCatalog catalog;
+    private final ConcurrentMap<String, FutureTask<CompiledSchema>> schemas = new ConcurrentHashMap<String, FutureTask<CompiledSchema>>();
+
+    public void init() throws IOException {
+        if (georchestraConfiguration != null && georchestraConfiguration.activated()
+                && georchestraConfiguration.getProperty("schemaCatalog") != null) {
+            catalogPath = georchestraConfiguration.getProperty("schemaCatalog");
+        }
+        URL location = catalogPath != null ? new File(catalogPath).toURI().toURL()
+                : SchemaCache.class.getResource(DEFAULT_CATALOG);
+        LOG.info("Reading the XML schemas through the catalog " + location);
+        catalog = SchemaCatalog.load(location);
+
+        if (!schemaURLs.isEmpty()) {
+            Thread warmup = new Thread("schema-cache-warmup") {
+                @Override
+                public void run() {
+                    for (String url : schemaURLs) {
+                        try {
+                            get(url);
+                        } catch (Exception e) {
+                            LOG.warn("Unable to compile the schema " + url + ", it will be compiled on first use", e);
+                        }
+                    }
+                }
+            };
+            warmup.setDaemon(true);
+            warmup.start();
+        }
+    }
+
+    /**
+     * Validates the document against the schema.
+     *
+     * @throws SAXException if the document is not valid, or the schema cannot
+     *             be compiled
+     */
+    public void validate(String schemaURL, Source document) throws SAXException, IOException {
+        CompiledSchema schema = get(schemaURL);
+        Validator validator = schema.borrow();
+        try {
+            validator.validate(document);
+        } finally {
+            schema.release(validator);
+        }
+    }
+
+    /**
+     * @return the compiled schema, waiting for its compilation if needed
+     */
+    Schema getSchema(String schemaURL) throws SAXException, IOException {
+        return get(schemaURL).schema;
+    }
+
+    private CompiledSchema get(final String schemaURL) throws SAXException, IOException {
+        FutureTask<CompiledSchema> task = schemas.get(schemaURL);
+        if (task == null) {
+            FutureTask<CompiledSchema> created = new FutureTask<CompiledSchema>(new Callable<CompiledSchema>() {
+                @Override
+                public CompiledSchema call() throws Exception {
+                    return compile(schemaURL);
+                }
+            });
+            task = schemas.putIfAbsent(schemaURL, created);
+            if (task == null) {
+                task = created;
+                task.run();
+            }
+        }
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compiling " + schemaURL, e);
+        } catch (ExecutionException e) {
+            // compiled again on the next request
+            schemas.remove(schemaURL, task);
+            Throwable cause = e.getCause();
+            if (cause instanceof SAXException) {
+                throw (SAXException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private CompiledSchema compile(String schemaURL) throws SAXException, IOException {
+        long start = System.currentTimeMillis();
+        // the factories are not thread safe
+        SchemaFactory factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+        factory.setResourceResolver(catalog);
+
+        Schema schema;
+        InputStream in = catalog.open(schemaURL);
+        try {
+            schema = factory.newSchema(in != null ? new StreamSource(in, schemaURL) : new StreamSource(schemaURL));
+        } finally {
+            if (in != null) {
+                in.close();
+            }
+        }
+        LOG.info("Compiled the schema " + schemaURL + " in " + (System.currentTimeMillis() - start) + " ms");
+        return new CompiledSchema(schema, validatorsPerSchema);
+    }
+
+    public void setCatalogPath(String catalogPath) {
+        this.catalogPath = catalogPath;
+    }
+
+    public void setSchemaURLs(List<String> schemaURLs) {
+        this.schemaURLs = new ArrayList<String>(schemaURLs);
+    }
+
+    public void setValidatorsPerSchema(int validatorsPerSchema) {
+        this.validatorsPerSchema = validatorsPerSchema;
+    }
+
+    private static final class CompiledSchema {
+        final Schema schema;
+        private final int maxIdle;
+        private final ConcurrentLinkedQueue<Validator> idle = new ConcurrentLinkedQueue<Validator>();
+        private final AtomicInteger idleCount = new AtomicInteger();
+
+        CompiledSchema(Schema schema, int maxIdle) {
+            this.schema = schema;
+            this.maxIdle = maxIdle;
+        }
+
+        Validator borrow() {
+            Validator validator = idle.poll();
+            if (validator == null) {
+                return schema.newValidator();
+            }
+            idleCount.decrementAndGet();
+            return validator;
+        }
+
+        void release(Validator validator) {
+            if (idleCount.incrementAndGet() > maxIdle) {
+                idleCount.decrementAndGet();
+                return;
+            }
+            validator.reset();
+            idle.offer(validator);
+        }
+    }
+}
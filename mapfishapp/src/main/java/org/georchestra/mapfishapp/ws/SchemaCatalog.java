@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2009-2018 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.georchestra.mapfishapp.ws;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.w3c.dom.ls.LSInput;
+import org.w3c.dom.ls.LSResourceResolver;
+import org.xml.sax.SAXException;
+
+/**
+ * Resolves the schemas imported or included by a schema through an OASIS XML
+ * catalog, so that they are read from local copies instead of being downloaded.
+ * <p>
+ * Only the <code>system</code>, <code>uri</code>, <code>rewriteSystem</code>
+ * and <code>rewriteURI</code> entries are supported. The relative locations of
+ * the entries are resolved against the location of the catalog. A schema
+ * which is not in the catalog, or whose local copy is missing, is left to the
+ * default resolution, which downloads it.
+ * </p>
+ * <p>
+ * The resolved schemas keep their original system id, so that their own
+ * relative imports go through the catalog again.
+ * </p>
+ */
+final class SchemaCatalog implements LSResourceResolver {
+
+    private static final Log LOG = LogFactory.getLog(SchemaCatalog.class.getPackage().getName());
+
+    static final String CATALOG_NS = "urn:oasis:names:tc:entity:xmlns:xml:catalog";
+
+    /** exact system ids */
+    private final Map<String, URL> entries = new HashMap<String, URL>();
+    /** system id prefixes, the longest first */
+    private final List<String> prefixes = new ArrayList<String>();
+    private final Map<String, URL> rewrites = new HashMap<String, URL>();
+
+    private SchemaCatalog() {
+    }
+
+    /**
+     * Reads the catalog at the given location.
+     */
+    static SchemaCatalog load(URL catalog) throws IOException {
+        SchemaCatalog result = new SchemaCatalog();
+        Document document;
+        InputStream in = catalog.openStream();
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            factory.setExpandEntityReferences(false);
+            DocumentBuilder builder = factory.newDocumentBuilder();
+            document = builder.parse(in, catalog.toString());
+        } catch (ParserConfigurationException e) {
+            throw new IOException("Unable to read the schema catalog " + catalog, e);
+        } catch (SAXException e) {
+            throw new IOException("Unable to read the schema catalog " + catalog, e);
+        } finally {
+            in.close();
+        }
+
+        for (String name : new String[] { "system", "uri" }) {
+            NodeList nodes = document.getElementsByTagNameNS(CATALOG_NS, name);
+            for (int i = 0; i < nodes.getLength(); i++) {
+                Element entry = (Element) nodes.item(i);
+                String id = "system".equals(name) ? entry.getAttribute("systemId") : entry.getAttribute("name");
+                result.entries.put(id, new URL(catalog, entry.getAttribute("uri")));
+            }
+        }
+        for (String name : new String[] { "rewriteSystem", "rewriteURI" }) {
+            NodeList nodes = document.getElementsByTagNameNS(CATALOG_NS, name);
+            for (int i = 0; i < nodes.getLength(); i++) {
+                Element entry = (Element) nodes.item(i);
+                String prefix = "rewriteSystem".equals(name) ? entry.getAttribute("systemIdStartString")
+                        : entry.getAttribute("uriStartString");
+                if (!result.rewrites.containsKey(prefix)) {
+                    result.prefixes.add(prefix);
+                }
+                result.rewrites.put(prefix, new URL(catalog, entry.getAttribute("rewritePrefix")));
+            }
+        }
+        Collections.sort(result.prefixes, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                return b.length() - a.length();
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @return the location of the local copy of the schema, or null if the
+     *         catalog does not know it
+     */
+    URL lookup(String systemId) throws IOException {
+        URL entry = entries.get(systemId);
+        if (entry != null) {
+            return entry;
+        }
+        for (String prefix : prefixes) {
+            if (systemId.startsWith(prefix)) {
+                return new URL(rewrites.get(prefix), systemId.substring(prefix.length()));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Opens the local copy of the schema.
+     *
+     * @return null if the schema must be downloaded
+     */
+    InputStream open(String systemId) {
+        try {
+            URL local = lookup(systemId);
+            if (local == null) {
+                LOG.debug(systemId + " is not in the schema catalog");
+                return null;
+            }
+            return local.openStream();
+        } catch (IOException e) {
+            LOG.warn("The local copy of " + systemId + " cannot be read, downloading it: " + e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public LSInput resolveResource(String type, String namespaceURI, String publicId, String systemId,
+            String baseURI) {
+        if (systemId == null) {
+            return null;
+        }
+        String absolute = systemId;
+        if (baseURI != null) {
+            try {
+                absolute = new URI(baseURI).resolve(new URI(systemId)).toString();
+            } catch (URISyntaxException e) {
+                return null;
+            }
+        }
+        InputStream in = open(absolute);
+        if (in == null) {
+            return null;
+        }
+        return new Input(publicId, absolute, baseURI, in);
+    }
+
+    private static final class Input implements LSInput {
+        private String publicId;
+        private String systemId;
+        private String baseURI;
+        private InputStream byteStream;
+
+        Input(String publicId, String systemId, String baseURI, InputStream byteStream) {
+            this.publicId = publicId;
+            this.systemId = systemId;
+            this.baseURI = baseURI;
+            this.byteStream = byteStream;
+        }
+
+        public Reader getCharacterStream() {
+            return null;
+        }
+
+        public void setCharacterStream(Reader characterStream) {
+        }
+
+        public InputStream getByteStream() {
+            return byteStream;
+        }
+
+        public void setByteStream(InputStream byteStream) {
+            this.byteStream = byteStream;
+        }
+
+        public String getStringData() {
+            return null;
+        }
+
+        public void setStringData(String stringData) {
+        }
+
+        public String getSystemId() {
+            return systemId;
+        }
+
+        public void setSystemId(String systemId) {
+            this.systemId = systemId;
+        }
+
+        public String getPublicId() {
+            return publicId;
+        }
+
+        public void setPublicId(String publicId) {
+            this.publicId = publicId;
+        }
+
+        public String getBaseURI() {
+            return baseURI;
+        }
+
+        public void setBaseURI(String baseURI) {
+            this.baseURI = baseURI;
+        }
+
+        public String getEncoding() {
+            return null;
+        }
+
+        public void setEncoding(String encoding) {
+        }
+
+        public boolean getCertifiedText() {
+            return false;
+        }
+
+        public void setCertifiedText(boolean certifiedText) {
+        }
+    }
+}
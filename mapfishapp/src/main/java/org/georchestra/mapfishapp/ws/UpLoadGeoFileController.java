@@ -19,15 +19,19 @@
 
 package org.georchestra.mapfishapp.ws;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
-import java.io.StringWriter;
+import java.io.Writer;
 import java.lang.management.ManagementFactory;
 import java.lang.management.MemoryMXBean;
 import java.net.URL;
 import java.util.Iterator;
 import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
 import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
 
@@ -111,6 +115,13 @@ public final class UpLoadGeoFileController implements HandlerExceptionResolver {
 
     private static final int MEGABYTE = 1048576;
 
+    /**
+     * size of the buffer of the GeoJSON response: nothing is sent before it
+     * is full, so that an error raised while reading the first features can
+     * still be reported.
+     */
+    private static final int RESPONSE_BUFFER_SIZE = 65536;
+
     @Autowired
     private GeorchestraConfiguration georConfig;
 
@@ -324,7 +335,9 @@ public final class UpLoadGeoFileController implements HandlerExceptionResolver {
      * @param request
      *            The expected parameters are geofile (or url) and srs. In case
      *            a url is provided, the file can be fetched remotely and
-     *            analyzed as if it was posted.
+     *            analyzed as if it was posted. The optional precision
+     *            parameter gives the number of decimals of the coordinates,
+     *            they are not rounded otherwise.
      *
      * @param response
      * @throws IOException
@@ -512,8 +525,21 @@ public final class UpLoadGeoFileController implements HandlerExceptionResolver {
                 throw new IOException(e);
             }
 
+            int decimals = UpLoadFileManagement.MAX_DECIMALS;
+            final String precisionParam = request.getParameter("precision");
+            if (StringUtils.isNotBlank(precisionParam)) {
+                try {
+                    decimals = Integer.parseInt(precisionParam.trim());
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid precision: " + precisionParam);
+                }
+                if (decimals < 0) {
+                    throw new IllegalArgumentException("Invalid precision: " + precisionParam);
+                }
+            }
+
             // retrieves the feature collection and write the response
-            writeOKResponse(response, fileManagement, crs);
+            writeOKResponse(request, response, fileManagement, crs, decimals);
 
         } catch (IOException e) {
             LOG.error(e);
@@ -536,53 +562,83 @@ public final class UpLoadGeoFileController implements HandlerExceptionResolver {
      *
      * "{\"success\": \"true\", \"geojson\":" + jsonFeatures+"}"
      * </p>
+     * <p>
+     * The features are written to the response as they are read from the
+     * file, gzipped if the client accepts it. An error can only be reported
+     * while the response is not committed, the response is truncated
+     * otherwise.
+     * </p>
      *
+     * @param request
      * @param response
      * @param fileManagement
      * @param crs
+     * @param decimals number of decimals of the coordinates
      *
      * @throws Exception
      */
-    private void writeOKResponse(final HttpServletResponse response,
+    private void writeOKResponse(final HttpServletRequest request,
+            final HttpServletResponse response,
             final UpLoadFileManagement fileManagement,
-            final CoordinateReferenceSystem crs) throws Exception {
-
-        StringWriter json_out = new StringWriter();
+            final CoordinateReferenceSystem crs, final int decimals) throws Exception {
 
         response.setCharacterEncoding(responseCharset);
         response.setContentType("text/html");
         response.setStatus(HttpServletResponse.SC_OK);
 
-        PrintWriter out = response.getWriter();
+        OutputStream stream = response.getOutputStream();
+        ResponseGZIPOutputStream gzip = null;
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            response.setHeader("Content-Encoding", "gzip");
+            gzip = new ResponseGZIPOutputStream(stream, RESPONSE_BUFFER_SIZE);
+            stream = gzip;
+        }
+        Writer out = new BufferedWriter(new OutputStreamWriter(stream, responseCharset), RESPONSE_BUFFER_SIZE);
         try {
-
-            fileManagement.writeFeatureCollectionAsJSON(json_out, crs);
-
             // builds the following response:
             // "{\"success\": \"true\", \"geojson\":" + jsonFeatures+"}");
-            out.print("{\"success\": \"true\", \"geojson\":");
-            out.print(json_out.toString());
-            out.println("}");
+            out.write("{\"success\": \"true\", \"geojson\":");
+            fileManagement.writeFeatureCollectionAsJSON(out, crs, decimals);
+            out.write("}\n");
 
-            out.flush();
+            // also writes the gzip trailer
+            out.close();
 
             if (LOG.isDebugEnabled()) {
                 LOG.debug("RESPONSE: OK");
             }
         } catch (OutOfMemoryError e) {
-            writeErrorResponse(response, Status.outOfMemoryError,
-                    buildOutOfMemoryErrorMessage(),
-                    HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+            // the GML reader, and the KML reader without OGR, load the whole
+            // collection before the first feature is written
+            if (response.isCommitted()) {
+                LOG.error("Not enough memory to write the features, the response is truncated", e);
+            } else {
+                writeErrorResponse(response, Status.outOfMemoryError,
+                        buildOutOfMemoryErrorMessage(),
+                        HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+            }
         } catch (IOException e) {
-            writeErrorResponse(response, Status.ioError, e.getMessage(),
-                    HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            if (response.isCommitted()) {
+                LOG.error("Unable to write the features, the response is truncated", e);
+            } else {
+                writeErrorResponse(response, Status.ioError, e.getMessage(),
+                        HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            }
         } catch (ProjectionException e) {
-            writeErrorResponse(response, Status.projectionError,
-                    e.getMessage(),
-                    HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            if (response.isCommitted()) {
+                LOG.error("Unable to reproject the features, the response is truncated", e);
+            } else {
+                writeErrorResponse(response, Status.projectionError,
+                        e.getMessage(),
+                        HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            }
         } finally {
-            if (out != null)
-                out.close();
+            // the stream is only closed once the features are written: on
+            // error, the deflater is released without writing the trailer
+            if (gzip != null) {
+                gzip.end();
+            }
         }
     }
 
@@ -828,4 +884,23 @@ public final class UpLoadGeoFileController implements HandlerExceptionResolver {
         return Status.ok;
     }
 
+    /**
+     * Gzip stream of the response, which can release its deflater without
+     * closing the response.
+     */
+    private static final class ResponseGZIPOutputStream extends GZIPOutputStream {
+
+        ResponseGZIPOutputStream(OutputStream out, int size) throws IOException {
+            super(out, size);
+        }
+
+        /**
+         * Releases the native memory of the deflater. Does nothing if the
+         * stream was already closed.
+         */
+        void end() {
+            def.end();
+        }
+    }
+
 }
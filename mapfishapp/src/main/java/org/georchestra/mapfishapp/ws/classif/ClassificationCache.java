@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2009-2018 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.georchestra.mapfishapp.ws.classif;
+
+import java.net.URL;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the recent classifications of the WFS layers for a while, so that the
+ * values of an attribute are not read again each time a user changes the
+ * colors or the symbols of a classification.
+ * <p>
+ * A classification is identified by the WFS, the feature type, the attribute
+ * and the number of classes. It is kept <code>timeToLive</code> seconds since
+ * it was computed, the data of the layer may have changed since. Beyond
+ * <code>maxEntries</code> classifications, the least recently used ones are
+ * evicted first.
+ * </p>
+ */
+public class ClassificationCache {
+
+    /** time a classification is kept, in seconds */
+    private long timeToLive = 600;
+    /** maximum number of classifications kept */
+    private int maxEntries = 100;
+
+    /** the classifications by key, in access order */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > maxEntries;
+        }
+    };
+
+    private static class Entry {
+        final I_FilterFactory filters;
+        final long expires;
+
+        Entry(I_FilterFactory filters, long expires) {
+            this.filters = filters;
+            this.expires = expires;
+        }
+    }
+
+    public void setTimeToLive(long timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Builds the key of a classification.
+     * @param wfsUrl URL of the WFS
+     * @param typeName feature type name
+     * @param propertyName classified attribute
+     * @param classCount number of classes, 0 for a classification on unique values
+     */
+    public static String key(URL wfsUrl, String typeName, String propertyName, int classCount) {
+        return wfsUrl + "|" + typeName + "|" + propertyName + "|" + classCount;
+    }
+
+    /**
+     * @return the filters of the classification, or null if it is not in the cache or has expired
+     */
+    public synchronized I_FilterFactory get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expires < currentTimeMillis()) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.filters;
+    }
+
+    /**
+     * Keeps the filters of a classification, they must not be modified
+     * afterwards as they are shared by the requests.
+     */
+    public synchronized void put(String key, I_FilterFactory filters) {
+        long now = currentTimeMillis();
+        // drop the expired classifications first, they are not worth evicting a valid one
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext();) {
+            if (it.next().expires < now) {
+                it.remove();
+            }
+        }
+        entries.put(key, new Entry(filters, now + timeToLive * 1000));
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * @return the current time in milliseconds, which the expiration dates are compared with
+     */
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+}
@@ -36,6 +36,7 @@ public class ContinuousFilterFactory implements I_FilterFactory {
 
     private ArrayList<Interval> _intervals = new ArrayList<Interval>();
     private String _propertyName;
+    private boolean _sharedBoundaries = false;
     
     /**
      * Trivial class to store an interval (one left and one right value)
@@ -87,16 +88,27 @@ public class ContinuousFilterFactory implements I_FilterFactory {
          * Gets next Filter object
          */
         public Filter next() {
-            // Considered by SLD specification as inclusive intervals
             Interval interval = _it.next();
             double lowerBoundary = interval.getLeft();
             double upperBoundary = interval.getRight();
             
             FilterFactory2 filterFactory = CommonFactoryFinder.getFilterFactory2(null);
-            org.opengis.filter.Filter _filter = filterFactory.between(
-                filterFactory.property(_propertyName), 
-                filterFactory.literal(lowerBoundary),
-                filterFactory.literal(upperBoundary));
+            org.opengis.filter.Filter _filter;
+            if (_sharedBoundaries && _it.hasNext()) {
+                // the upper boundary is the lower boundary of the next class, which
+                // includes it: a feature must not be drawn by both rules
+                _filter = filterFactory.and(
+                    filterFactory.greaterOrEqual(filterFactory.property(_propertyName),
+                        filterFactory.literal(lowerBoundary)),
+                    filterFactory.less(filterFactory.property(_propertyName),
+                        filterFactory.literal(upperBoundary)));
+            } else {
+                // Considered by SLD specification as inclusive intervals
+                _filter = filterFactory.between(
+                    filterFactory.property(_propertyName), 
+                    filterFactory.literal(lowerBoundary),
+                    filterFactory.literal(upperBoundary));
+            }
             Filter filter = new Filter(_filter, "entre " + lowerBoundary + " et " + upperBoundary);
             return filter;
         }
@@ -133,6 +145,39 @@ public class ContinuousFilterFactory implements I_FilterFactory {
         doQuantile(values, classCount);
     }
     
+    /**
+     * Classifies the values summarized by the sketch. While the sketch keeps all the values, the classification is
+     * the same as with {@link #ContinuousFilterFactory(ArrayList, int, String)}. Otherwise the boundaries of the
+     * classes are the approximate quantiles of the values, two successive classes sharing their boundary: each
+     * class but the last one excludes its upper boundary.
+     * @param sketch values to classify
+     * @param classCount number of classes
+     * @param propertyName property name corresponding to the WFS request
+     */
+    public ContinuousFilterFactory(final QuantileSketch sketch, final int classCount, final String propertyName) {
+
+        if(sketch == null) {
+            throw new IllegalArgumentException("values cannot be null");
+        }
+        if(sketch.getCount() == 0) {
+            throw new IllegalArgumentException("values cannot be empty");
+        }
+
+        _propertyName = propertyName;
+
+        // classify
+        if (sketch.isExact()) {
+            double[] sorted = sketch.getValues();
+            ArrayList<Double> values = new ArrayList<Double>(sorted.length);
+            for (double value : sorted) {
+                values.add(value);
+            }
+            doQuantile(values, classCount);
+        } else {
+            doApproximateQuantile(sketch, classCount);
+        }
+    }
+
     /**
      * Execute Quantile classification on the values. Store computed intervals for further use. <br />
      * Values that are the same MUST belong to the same class
@@ -179,6 +224,35 @@ public class ContinuousFilterFactory implements I_FilterFactory {
         }    
     }
 
+    /**
+     * Execute Quantile classification on the values summarized by the sketch. Store computed intervals for further
+     * use. <br />
+     * Values that are the same belong to the same class, there may be less classes than requested. The classes
+     * share their boundaries, which belong to the upper class.
+     * @param sketch values to classify
+     * @param classCount number of classes
+     */
+    private void doApproximateQuantile(QuantileSketch sketch, int classCount) {
+        _sharedBoundaries = true;
+        double[] ranks = new double[classCount - 1];
+        for (int i = 0; i < ranks.length; i++) {
+            ranks[i] = (double) (i + 1) / classCount;
+        }
+        double[] quantiles = sketch.getQuantiles(ranks);
+
+        double left = sketch.getMin();
+        for (double right : quantiles) {
+            if (right > left) {
+                _intervals.add(new Interval(left, right));
+                left = right;
+            }
+        }
+        // the last class ends with the greatest value
+        if (_intervals.isEmpty() || sketch.getMax() > left) {
+            _intervals.add(new Interval(left, sketch.getMax()));
+        }
+    }
+
     /**
      * Gives an iterator to access Filter objects
      */
@@ -86,6 +86,14 @@ public class DiscreteFilterFactory implements I_FilterFactory {
         _propertyName = propertyName;
     }
     
+    /**
+     * Gets the values, one filter is created for each
+     * @return values
+     */
+    public Set<String> getValues() {
+        return _values;
+    }
+
     /**
      * Provides an iterator to go through all created Filter objects
      */
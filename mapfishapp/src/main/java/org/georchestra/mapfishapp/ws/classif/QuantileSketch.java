@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2009-2018 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.georchestra.mapfishapp.ws.classif;
+
+import java.util.Arrays;
+
+/**
+ * Summarizes a stream of values in bounded memory to compute their quantiles.
+ * <p>
+ * The values are kept as they are until the first level is full, the
+ * quantiles are then exact. Beyond, each full level is sorted and every other
+ * value is moved to the next level, where it counts twice: the memory used
+ * grows with the logarithm of the number of values, and the rank of a
+ * quantile is off by about log2(count / capacity) / capacity of the count.
+ * </p>
+ * <p>
+ * Two sketches of the same capacity can be merged, eg. to summarize values
+ * read concurrently.
+ * </p>
+ * @see ContinuousFilterFactory
+ */
+public final class QuantileSketch {
+
+    /** default number of values kept at each level */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private final int _capacity;
+    /** values of each level, those of level h count for 2^h values */
+    private double[][] _levels = new double[1][];
+    private int[] _sizes = new int[1];
+    private long _count;
+    private double _min = Double.POSITIVE_INFINITY;
+    private double _max = Double.NEGATIVE_INFINITY;
+    /** alternates the values kept by compactions, so that they are not biased */
+    private boolean _odd;
+
+    public QuantileSketch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity number of values kept at each level, the values are summarized exactly up to this count
+     */
+    public QuantileSketch(int capacity) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("capacity must be at least 2");
+        }
+        _capacity = capacity;
+        _levels[0] = new double[capacity];
+    }
+
+    public void add(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        _count++;
+        _min = Math.min(_min, value);
+        _max = Math.max(_max, value);
+        append(0, value);
+    }
+
+    /**
+     * Adds the values summarized by another sketch of the same capacity.
+     */
+    public void merge(QuantileSketch other) {
+        if (other._capacity != _capacity) {
+            throw new IllegalArgumentException("Cannot merge sketches of different capacities");
+        }
+        _count += other._count;
+        _min = Math.min(_min, other._min);
+        _max = Math.max(_max, other._max);
+        for (int h = 0; h < other._levels.length; h++) {
+            for (int i = 0; i < other._sizes[h]; i++) {
+                append(h, other._levels[h][i]);
+            }
+        }
+    }
+
+    private void append(int level, double value) {
+        if (level == _levels.length) {
+            _levels = Arrays.copyOf(_levels, level + 1);
+            _sizes = Arrays.copyOf(_sizes, level + 1);
+            _levels[level] = new double[_capacity];
+        }
+        // a full level is only compacted when it overflows, so that exactly
+        // capacity values are still kept as they are
+        if (_sizes[level] == _capacity) {
+            compact(level);
+        }
+        _levels[level][_sizes[level]++] = value;
+    }
+
+    /**
+     * Moves every other value of the level, once sorted, to the next one.
+     */
+    private void compact(int level) {
+        double[] values = _levels[level];
+        int size = _sizes[level];
+        Arrays.sort(values, 0, size);
+        _sizes[level] = 0;
+        _odd = !_odd;
+        for (int i = _odd ? 1 : 0; i < size; i += 2) {
+            append(level + 1, values[i]);
+        }
+    }
+
+    /**
+     * @return number of values added
+     */
+    public long getCount() {
+        return _count;
+    }
+
+    public double getMin() {
+        return _min;
+    }
+
+    public double getMax() {
+        return _max;
+    }
+
+    /**
+     * @return true if all the values are kept, see {@link #getValues()}
+     */
+    public boolean isExact() {
+        return _levels.length == 1;
+    }
+
+    /**
+     * @return the values added, sorted. Only available while the sketch is exact.
+     */
+    public double[] getValues() {
+        if (!isExact()) {
+            throw new IllegalStateException("The values have been summarized");
+        }
+        double[] values = Arrays.copyOf(_levels[0], _sizes[0]);
+        Arrays.sort(values);
+        return values;
+    }
+
+    /**
+     * Computes the quantiles at the given ranks.
+     * @param ranks sorted ranks, between 0 and 1
+     * @return for each rank, the smallest value such that at least this fraction of the values are lower or equal
+     */
+    public double[] getQuantiles(double[] ranks) {
+        if (_count == 0) {
+            throw new IllegalStateException("No value");
+        }
+        double[][] sorted = new double[_levels.length][];
+        long weight = 0;
+        for (int h = 0; h < _levels.length; h++) {
+            sorted[h] = Arrays.copyOf(_levels[h], _sizes[h]);
+            Arrays.sort(sorted[h]);
+            weight += (long) _sizes[h] << h;
+        }
+
+        // reads the values of all the levels in order, along with their weight
+        int[] next = new int[_levels.length];
+        double[] quantiles = new double[ranks.length];
+        int q = 0;
+        long cumulated = 0;
+        while (q < ranks.length) {
+            int level = -1;
+            for (int h = 0; h < sorted.length; h++) {
+                if (next[h] < sorted[h].length
+                        && (level == -1 || sorted[h][next[h]] < sorted[level][next[level]])) {
+                    level = h;
+                }
+            }
+            if (level == -1) {
+                break;
+            }
+            double value = sorted[level][next[level]++];
+            cumulated += 1L << level;
+            while (q < ranks.length && cumulated >= ranks[q] * weight) {
+                quantiles[q++] = value;
+            }
+        }
+        while (q < ranks.length) {
+            quantiles[q++] = _max;
+        }
+        return quantiles;
+    }
+}
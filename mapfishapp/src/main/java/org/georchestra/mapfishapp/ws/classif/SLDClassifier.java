@@ -24,7 +24,6 @@ import java.net.InetAddress;
 import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.net.UnknownHostException;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -42,6 +41,7 @@ import org.georchestra.mapfishapp.ws.DocServiceException;
 import org.georchestra.mapfishapp.ws.classif.ClassifierCommand.E_ClassifType;
 import org.geotools.data.DataSourceException;
 import org.geotools.data.FeatureSource;
+import org.geotools.data.Query;
 import org.geotools.data.wfs.impl.WFSContentDataStore;
 import org.geotools.data.wfs.impl.WFSDataStoreFactory;
 import org.geotools.factory.CommonFactoryFinder;
@@ -71,13 +71,20 @@ import org.opengis.feature.simple.SimpleFeatureType;
  *
  */
 public class SLDClassifier {
-    
+
+    /**
+     * Maximum number of unique values to classify. There are not that many colors in a palette, beyond the layer
+     * is better classified on another attribute.
+     */
+    public static final int MAX_UNIQUE_VALUES = 1000;
+
     private ClassifierCommand _command = null;
     private String _wfsngTypeName = null;
     private StyledLayerDescriptor _sld = null;
     private Map<String, UsernamePasswordCredentials> _credentials;
     
     private WFSDataStoreFactory _factory = new WFSDataStoreFactory();
+    private ClassificationCache _cache;
     
     public void setWFSDataStoreFactory(WFSDataStoreFactory f) { _factory = f; } 
     
@@ -89,7 +96,18 @@ public class SLDClassifier {
      */
     public SLDClassifier(Map<String, UsernamePasswordCredentials> credentials, final ClassifierCommand command,
             WFSDataStoreFactory fac) throws DocServiceException {
+        this(credentials, command, fac, null);
+    }
+
+    /**
+     * Same as {@link #SLDClassifier(Map, ClassifierCommand, WFSDataStoreFactory)}, the values of the attribute are
+     * only read from the WFS if the classification is not already in the cache.
+     * @param cache classifications already computed, may be null
+     */
+    public SLDClassifier(Map<String, UsernamePasswordCredentials> credentials, final ClassifierCommand command,
+            WFSDataStoreFactory fac, ClassificationCache cache) throws DocServiceException {
         this._credentials = credentials;
+        this._cache = cache;
 
         // wfs-ng specific: If we do not have the prefix URL, then we need to
         // use a typename as string where the ":" has been replaced by an
@@ -132,124 +150,88 @@ public class SLDClassifier {
     }
 
     /**
-     * Upload all the features from the WFS and then prepare the factories to fulfill the different type of
+     * Reads the values of the attribute from the WFS and then prepare the factories to fulfill the different type of
      * classifications and displays
      * @throws DocServiceException
      */
     private void doClassification() throws DocServiceException {
         try {
-            
-            // connect to the remote WFS
-            WFSContentDataStore wfs = connectToWFS(_command.getWFSUrl());
-            
-            // check if property name exists
-            SimpleFeatureType ft = wfs.getSchema(_wfsngTypeName);
-            int index = ft.indexOf(_command.getPropertyName());
-            if(index == -1) {
-                throw new DocServiceException(_command.getPropertyName() + " is not an attribute of " + _command.getFeatureTypeName(),
+
+            boolean continuous = _command.getClassifType() == E_ClassifType.CHOROPLETHS ||
+                _command.getClassifType() == E_ClassifType.PROP_SYMBOLS;
+            if (!continuous && _command.getClassifType() != E_ClassifType.UNIQUE_VALUES) {
+                throw new DocServiceException("Unknown classification type: " + _command.getClassifType(),
                         HttpServletResponse.SC_BAD_REQUEST);
             }
-                       
-            // Load all the features
-            FeatureSource<SimpleFeatureType, SimpleFeature> source = wfs.getFeatureSource(_wfsngTypeName);
-            FeatureCollection<SimpleFeatureType, SimpleFeature> featuresCollection = source.getFeatures();
 
             // We need a display (Symbolizers) and a value (Filters) fatories to generate a SLD file
             I_SymbolizerFactory symbolizerFact = null; // create symbols
             I_FilterFactory filterFact = null; // create filters
-            
-            // execute different type of classification given the type requested by user
-            if (_command.getClassifType() == E_ClassifType.CHOROPLETHS ||
-                _command.getClassifType() == E_ClassifType.PROP_SYMBOLS) {
-                
-                // Classification on continuous values. Sorting is needed to classify: 
-                // Double values are mandatory (for now)
 
-                if (getDataType(wfs) == String.class) {
-                    // choropleths and prop symbols use quantile classification
-                    // therefore classify on string type has no purpose
-                    throw new DocServiceException("Classification on continous values (" + _command.getClassifType()+ ").\n" +
-                    		"Attribute " + _command.getPropertyName() + " is string type." +
-                    		" Therefore no classification on contiuous values can be done." +
-                    		" It needs be a meaningful comparable type (numerical, date...)." +
-                    		" Use unique values classification instead." , 
-                            HttpServletResponse.SC_BAD_REQUEST);
-                } else if ((getDataType(wfs) != Double.class) &&
-                        (getDataType(wfs) != Float.class) && 
-                        (getDataType(wfs) != Integer.class) && 
-                        (getDataType(wfs) != Long.class) && 
-                        (getDataType(wfs) != Short.class)) {
-                    // for now, only double, float, integer, and short types are supported
-                    // FIXME deal with others numerical types, dates...
-                    // they all must be comparable type as sorting is required for classification
-                    throw new DocServiceException("Classification on " + getDataType(wfs).getName() +
-                    		" type is not supported.",
-                            HttpServletResponse.SC_NOT_IMPLEMENTED);
-                }
-                    
-                // get values to classify
-                ArrayList<Double> values  = getDoubleValues(featuresCollection.features(), _command.getPropertyName());
-                filterFact = new ContinuousFilterFactory(values, _command.getClassCount(), _command.getPropertyName());        
-                
-                if (_command.getClassifType() == E_ClassifType.CHOROPLETHS) {
-                    switch (_command.getSymbolType()) {
-                        case POLYGON:
-                            symbolizerFact = new PolygonSymbolizerFactory(_command.getClassCount(), _command.getFirstColor(), _command.getLastColor());
-                            break;
-                        case LINE:
-                            symbolizerFact = new LineSymbolizerFactory(_command.getClassCount(), _command.getFirstColor(), _command.getLastColor());
-                            break;
-                        case POINT:
-                            symbolizerFact = new PointSymbolizerFactory(_command.getClassCount(), _command.getFirstColor(), _command.getLastColor());
-                            break;
-                        default:
-                            throw new DocServiceException("Choropleths classification on symbol type: " + _command.getSymbolType() +
-                                    " is not supported.", HttpServletResponse.SC_BAD_REQUEST);
-                    }
+            // the values only depend on the layer and attribute, whatever the colors or sizes requested
+            String cacheKey = ClassificationCache.key(_command.getWFSUrl(), _command.getFeatureTypeName(),
+                    _command.getPropertyName(), continuous ? _command.getClassCount() : 0);
+            if (_cache != null) {
+                filterFact = _cache.get(cacheKey);
+            }
+            if (filterFact == null) {
+                filterFact = classify(continuous);
+                if (_cache != null) {
+                    _cache.put(cacheKey, filterFact);
                 }
-                else if (_command.getClassifType() == E_ClassifType.PROP_SYMBOLS) {
-                    switch (_command.getSymbolType()) {
-                        case LINE:
-                            symbolizerFact = new LineSymbolizerFactory(_command.getClassCount(), _command.getMinSize(), _command.getMaxSize());
-                            // customizing is possible
-                            // symbolizerFact.setColor(Color.BLUE);
-                            break;
-                        case POINT:
-                            symbolizerFact = new PointSymbolizerFactory(_command.getClassCount(), _command.getMinSize(), _command.getMaxSize());
-                            // customizing is possible
-                            // symbolizerFact.setColor(Color.BLUE);
-                            // symbolizerFact.setSymbol(StyleBuilder.MARK_CROSS);
-                            break;
-                        default:
-                            throw new DocServiceException("Proportional symbols classification on symbol type: " + _command.getSymbolType() +
-                                    " is not supported.", HttpServletResponse.SC_BAD_REQUEST);
-                    }
-                }       
             }
-            else if (_command.getClassifType() == E_ClassifType.UNIQUE_VALUES ) {
-
-                // no needs to classify on Unique Values. They can be kept as Strings.
-                Set<String> values  = getUniqueStringValues(featuresCollection.features(), _command.getPropertyName());
-                filterFact = new DiscreteFilterFactory(values, _command.getPropertyName());
 
+            // execute different type of classification given the type requested by user
+            if (_command.getClassifType() == E_ClassifType.CHOROPLETHS) {
                 switch (_command.getSymbolType()) {
                     case POLYGON:
-                        symbolizerFact = new PolygonSymbolizerFactory(_command.getPaletteID(), values.size());
+                        symbolizerFact = new PolygonSymbolizerFactory(_command.getClassCount(), _command.getFirstColor(), _command.getLastColor());
                         break;
                     case LINE:
-                        symbolizerFact = new LineSymbolizerFactory(_command.getPaletteID(), values.size());
+                        symbolizerFact = new LineSymbolizerFactory(_command.getClassCount(), _command.getFirstColor(), _command.getLastColor());
                         break;
                     case POINT:
-                        symbolizerFact = new PointSymbolizerFactory(_command.getPaletteID(), values.size());
+                        symbolizerFact = new PointSymbolizerFactory(_command.getClassCount(), _command.getFirstColor(), _command.getLastColor());
                         break;
                     default:
-                        throw new DocServiceException("Unique values classification on symbol type: " + _command.getSymbolType() +
+                        throw new DocServiceException("Choropleths classification on symbol type: " + _command.getSymbolType() +
+                                " is not supported.", HttpServletResponse.SC_BAD_REQUEST);
+                }
+            }
+            else if (_command.getClassifType() == E_ClassifType.PROP_SYMBOLS) {
+                switch (_command.getSymbolType()) {
+                    case LINE:
+                        symbolizerFact = new LineSymbolizerFactory(_command.getClassCount(), _command.getMinSize(), _command.getMaxSize());
+                        // customizing is possible
+                        // symbolizerFact.setColor(Color.BLUE);
+                        break;
+                    case POINT:
+                        symbolizerFact = new PointSymbolizerFactory(_command.getClassCount(), _command.getMinSize(), _command.getMaxSize());
+                        // customizing is possible
+                        // symbolizerFact.setColor(Color.BLUE);
+                        // symbolizerFact.setSymbol(StyleBuilder.MARK_CROSS);
+                        break;
+                    default:
+                        throw new DocServiceException("Proportional symbols classification on symbol type: " + _command.getSymbolType() +
                                 " is not supported.", HttpServletResponse.SC_BAD_REQUEST);
                 }
             }
             else {
-                throw new DocServiceException("Unknown classification type: " + _command.getClassifType(),
-                        HttpServletResponse.SC_BAD_REQUEST);
+                int valueCount = ((DiscreteFilterFactory) filterFact).getValues().size();
+                switch (_command.getSymbolType()) {
+                    case POLYGON:
+                        symbolizerFact = new PolygonSymbolizerFactory(_command.getPaletteID(), valueCount);
+                        break;
+                    case LINE:
+                        symbolizerFact = new LineSymbolizerFactory(_command.getPaletteID(), valueCount);
+                        break;
+                    case POINT:
+                        symbolizerFact = new PointSymbolizerFactory(_command.getPaletteID(), valueCount);
+                        break;
+                    default:
+                        throw new DocServiceException("Unique values classification on symbol type: " + _command.getSymbolType() +
+                                " is not supported.", HttpServletResponse.SC_BAD_REQUEST);
+                }
             }
             
             assert(symbolizerFact != null);
@@ -265,6 +247,76 @@ public class SLDClassifier {
             e.printStackTrace(); // could happened when communicating with WFS
         }
     }
+
+    /**
+     * Reads the values of the attribute from the WFS and classifies them. Only the attribute is requested, and the
+     * values are summarized while they are read.
+     * @param continuous true to classify continuous values, false for unique values
+     * @return Filters Factory
+     * @throws DocServiceException When client request is not valid
+     * @throws IOException When communicating with the WFS
+     */
+    private I_FilterFactory classify(boolean continuous) throws DocServiceException, IOException {
+
+        // connect to the remote WFS
+        WFSContentDataStore wfs = connectToWFS(_command.getWFSUrl());
+
+        // check if property name exists
+        SimpleFeatureType ft = wfs.getSchema(_wfsngTypeName);
+        int index = ft.indexOf(_command.getPropertyName());
+        if(index == -1) {
+            throw new DocServiceException(_command.getPropertyName() + " is not an attribute of " + _command.getFeatureTypeName(),
+                    HttpServletResponse.SC_BAD_REQUEST);
+        }
+
+        if (continuous) {
+            // Classification on continuous values. Sorting is needed to classify: 
+            // Double values are mandatory (for now)
+            Class<?> dataType = ft.getType(_command.getPropertyName()).getBinding();
+            if (dataType == String.class) {
+                // choropleths and prop symbols use quantile classification
+                // therefore classify on string type has no purpose
+                throw new DocServiceException("Classification on continous values (" + _command.getClassifType()+ ").\n" +
+                		"Attribute " + _command.getPropertyName() + " is string type." +
+                		" Therefore no classification on contiuous values can be done." +
+                		" It needs be a meaningful comparable type (numerical, date...)." +
+                		" Use unique values classification instead." , 
+                        HttpServletResponse.SC_BAD_REQUEST);
+            } else if ((dataType != Double.class) &&
+                    (dataType != Float.class) && 
+                    (dataType != Integer.class) && 
+                    (dataType != Long.class) && 
+                    (dataType != Short.class)) {
+                // for now, only double, float, integer, and short types are supported
+                // FIXME deal with others numerical types, dates...
+                // they all must be comparable type as sorting is required for classification
+                throw new DocServiceException("Classification on " + dataType.getName() +
+                		" type is not supported.",
+                        HttpServletResponse.SC_NOT_IMPLEMENTED);
+            }
+        }
+
+        // Load the values of the attribute only, not the geometries
+        FeatureSource<SimpleFeatureType, SimpleFeature> source = wfs.getFeatureSource(_wfsngTypeName);
+        Query query = new Query(_wfsngTypeName, org.opengis.filter.Filter.INCLUDE,
+                new String[] { _command.getPropertyName() });
+        FeatureCollection<SimpleFeatureType, SimpleFeature> featuresCollection = source.getFeatures(query);
+
+        FeatureIterator<SimpleFeature> features = featuresCollection.features();
+        try {
+            if (continuous) {
+                // get values to classify
+                QuantileSketch values = getDoubleValues(features, _command.getPropertyName());
+                return new ContinuousFilterFactory(values, _command.getClassCount(), _command.getPropertyName());
+            } else {
+                // no needs to classify on Unique Values. They can be kept as Strings.
+                Set<String> values = getUniqueStringValues(features, _command.getPropertyName());
+                return new DiscreteFilterFactory(values, _command.getPropertyName());
+            }
+        } finally {
+            features.close();
+        }
+    }
     
     /**
      * Creates a FeatureTypeStyle (core part of a SLD file). It is composed by Rules (tag <sld:Rule>) and each Rule 
@@ -320,26 +372,6 @@ public class SLDClassifier {
         return fts; 
     }
 
-    /**
-     * Get the data type of the command attribute
-     * @param wfs datastore
-     * @return data type as Class
-     */
-    private Class<?> getDataType(WFSContentDataStore wfs) {
-        SimpleFeatureType schema;
-        Class<?> clazz = null;
-        try {
-            schema = wfs.getSchema(_wfsngTypeName); // get schema
-            clazz = schema.getType(_command.getPropertyName()).getBinding(); // get data type as Class
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        if (clazz == null) {
-            throw new RuntimeException("Should never happen, we need to know what type is the attribute of");
-        }
-        return clazz;
-    }
-    
     /**
      * Gives a connection to a remote WFS
      * @param wfsUrl URL of the WFS. Should be a GetCapabilities request
@@ -362,8 +394,8 @@ public class SLDClassifier {
             // TODO : .key necessary for those two ?
             m.put(WFSDataStoreFactory.TRY_GZIP, true); // try to optimize communication
             m.put(WFSDataStoreFactory.ENCODING, "UTF-8"); // try to force UTF-8
-            // TODO : configurable ?
-            m.put(WFSDataStoreFactory.MAXFEATURES.key, 2000);
+            // no MAXFEATURES: only the attribute is read, and the memory used to
+            // classify it does not grow with the number of features
             wfs = _factory.createDataStore(m);
         } 
         catch(SocketTimeoutException e) {
@@ -402,20 +434,25 @@ public class SLDClassifier {
 
     /**
      * Extract values as Double from the given features and property name. Executes the same job as
-     * {@link SLDClassifier#getStringValues(FeatureIterator, String)} provides comparable values: useful to sort.
+     * {@link SLDClassifier#getUniqueStringValues(FeatureIterator, String)} provides comparable values: useful to
+     * sort. The values are summarized as they are read, the memory used does not grow with the number of features.
      * @param features Iterator to access all the Features from the WFS request
      * @param propertyName Property Name. Property from which values has to be extracted
-     * @return List of Double values
+     * @return Sketch of the Double values
      */
-    private ArrayList<Double> getDoubleValues(final FeatureIterator<SimpleFeature> features, final String propertyName) {
-        ArrayList<Double> values = new ArrayList<Double>();
+    private QuantileSketch getDoubleValues(final FeatureIterator<SimpleFeature> features, final String propertyName) {
+        QuantileSketch values = new QuantileSketch();
         
         while(features.hasNext()) {
-            SimpleFeature feature = features.next();
-            if (feature.getProperty(_command.getPropertyName()).getValue() == null) {
+            Object value = features.next().getAttribute(propertyName);
+            if (value == null) {
             	continue;
             }
-            String val = feature.getProperty(_command.getPropertyName()).getValue().toString();
+            if (value instanceof Number) {
+                values.add(((Number) value).doubleValue());
+                continue;
+            }
+            String val = value.toString();
             if(! val.trim().isEmpty() ) { // don't take into account attributes that are empty, it would corrupt the sld file
                 values.add(Double.parseDouble(val));  
             }
@@ -431,20 +468,25 @@ public class SLDClassifier {
      * @param features Iterator to access all the Features from the WFS request
      * @param propertyName Property Name. Property from which values has to be extracted
      * @return List of String values
+     * @throws DocServiceException When there are more than {@link #MAX_UNIQUE_VALUES} values
      */
-    private Set<String> getUniqueStringValues(final FeatureIterator<SimpleFeature> features, final String propertyName) {
+    static Set<String> getUniqueStringValues(final FeatureIterator<SimpleFeature> features, final String propertyName)
+            throws DocServiceException {
         Set<String> values = new HashSet<String>();
 
         while(features.hasNext()) {
-            SimpleFeature feature = features.next();
-            String val;
-            if (feature.getProperty(_command.getPropertyName()).getValue() == null) {
+            Object value = features.next().getAttribute(propertyName);
+            if (value == null) {
             	continue;
-            } else {
-            	val = feature.getProperty(_command.getPropertyName()).getValue().toString();
             }
+            String val = value.toString();
             if (! val.trim().isEmpty() ) { // don't take into account attributes that are empty, it would corrupt the sld file
             	values.add(val);
+                if (values.size() > MAX_UNIQUE_VALUES) {
+                    throw new DocServiceException("Attribute " + propertyName + " has more than " + MAX_UNIQUE_VALUES +
+                            " unique values. Use a classification on continuous values instead.",
+                            HttpServletResponse.SC_BAD_REQUEST);
+                }
             }
         }
         return values;
@@ -45,11 +45,7 @@ import org.geotools.geojson.feature.FeatureTypeAttributeIO;
 import org.geotools.geojson.geom.GeometryJSON;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.referencing.CRS;
-import org.json.JSONException;
-import org.json.JSONObject;
-import org.json.JSONWriter;
 import org.json.simple.JSONArray;
-import org.json.simple.JSONAware;
 import org.json.simple.JSONStreamAware;
 import org.json.simple.parser.JSONParser;
 import org.opengis.feature.Feature;
@@ -81,6 +77,8 @@ final class FeatureJSON2 extends FeatureJSON {
     boolean encodeFeatureCRS = false;
     boolean encodeFeatureCollectionCRS = false;
     boolean encodeNullValues = false;
+    /** number of decimals of the coordinates, -1 if the geometries are written by gjson */
+    int decimals = -1;
 
     public FeatureJSON2() {
         this(new GeometryJSON());
@@ -91,6 +89,14 @@ final class FeatureJSON2 extends FeatureJSON {
         attio = new DefaultAttributeIO();
     }
 
+    /**
+     * Writes the geometries itself, with the given number of decimals.
+     */
+    public FeatureJSON2(int decimals) {
+        this(new GeometryJSON(decimals));
+        this.decimals = decimals;
+    }
+
     /**
      * Sets the target feature type for parsing.
      * <p>
@@ -214,7 +220,9 @@ final class FeatureJSON2 extends FeatureJSON {
      * @param output The output. See {@link GeoJSONUtil#toWriter(Object)} for details.
      */
     public void writeFeature(SimpleFeature feature, Object output) throws IOException {
-        GeoJSONUtil.encode(new FeatureEncoder(feature).toJSONString(), output);
+        Writer writer = GeoJSONUtil.toWriter(output);
+        new FeatureEncoder(feature.getType()).write(feature, new GeoJSONWriter(writer, decimals));
+        writer.flush();
     }
 
     /**
@@ -480,99 +488,146 @@ final class FeatureJSON2 extends FeatureJSON {
         return writer.toString();
    }
 
-    class FeatureEncoder implements JSONAware {
+    /**
+     * Writes the features of a type as GeoJSON. How each attribute is written
+     * is decided once for the feature type, the features are then written
+     * straight to the output, without building any intermediate object.
+     */
+    class FeatureEncoder {
+
+        static final int NUMBER = 0;
+        static final int STRING = 1;
+        static final int OTHER = 2;
+
+        final SimpleFeatureType featureType;
+        /** the attributes written in the properties, the default geometry excepted */
+        final int[] indexes;
+        /** the names of these attributes, quoted and followed by a colon */
+        final String[] keys;
+        /** how their values are written */
+        final int[] kinds;
+        /** the crs of the features, quoted, null if not encoded */
+        final String crs;
+
+        public FeatureEncoder(SimpleFeatureType featureType) throws IOException {
+            this.featureType = featureType;
+
+            int gindex = featureType.getGeometryDescriptor() != null ?
+                    featureType.indexOf(featureType.getGeometryDescriptor().getLocalName()) :
+                    -1;
+            int count = featureType.getAttributeCount() - (gindex >= 0 ? 1 : 0);
+            indexes = new int[count];
+            keys = new String[count];
+            kinds = new int[count];
+            int j = 0;
+            for (int i = 0; i < featureType.getAttributeCount(); i++) {
+                // skip the default geometry, it's encoded apart
+                if (i == gindex) {
+                    continue;
+                }
+                AttributeDescriptor ad = featureType.getDescriptor(i);
+                Class<?> binding = ad.getType().getBinding();
+                indexes[j] = i;
+                keys[j] = quote(ad.getLocalName()) + ":";
+                kinds[j] = Number.class.isAssignableFrom(binding) ? NUMBER
+                        : String.class.equals(binding) ? STRING : OTHER;
+                j++;
+            }
 
-        SimpleFeatureType featureType;
-        SimpleFeature feature;
+            CoordinateReferenceSystem featureCRS = featureType.getCoordinateReferenceSystem();
+            crs = encodeFeatureCRS && featureCRS != null ? quote(FeatureJSON2.this.toString(featureCRS)) : null;
+        }
 
-        public FeatureEncoder(SimpleFeature feature) {
-            this(feature.getType());
-            this.feature = feature;
+        private String quote(String s) throws IOException {
+            StringWriter w = new StringWriter();
+            new GeoJSONWriter(w, decimals).writeString(s);
+            return w.toString();
         }
 
-        public FeatureEncoder(SimpleFeatureType featureType) {
-            this.featureType = featureType;
+        /**
+         * @return true if the feature has the attributes of the feature type
+         */
+        boolean accepts(SimpleFeature feature) {
+            return feature.getAttributeCount() >= featureType.getAttributeCount();
         }
 
-        public String toJSONString(SimpleFeature feature) {
-            try {
-            JSONObject ret = new JSONObject();
-            ret.put("type", "Feature");
+        public void write(SimpleFeature feature, GeoJSONWriter out) throws IOException {
+            out.writeRaw("{\"type\":\"Feature\"");
             //crs
-            if (encodeFeatureCRS) {
-                CoordinateReferenceSystem crs =
-                    feature.getFeatureType().getCoordinateReferenceSystem();
-                if (crs != null) {
-                    try {
-                        ret.put("crs", FeatureJSON2.this.toString(crs));
-                    } catch (IOException e) {
-                        throw new RuntimeException(e);
-                    }
-                }
+            if (crs != null) {
+                out.writeRaw(",\"crs\":");
+                out.writeRaw(crs);
             }
             //bounding box
             if (encodeFeatureBounds) {
-                BoundingBox bbox = feature.getBounds();
-                ret.put("bbox", gjson.toString(bbox));
+                out.writeRaw(",\"bbox\":");
+                out.writeString(gjson.toString(feature.getBounds()));
             }
 
             //geometry
-            if (feature.getDefaultGeometry() != null) {
-                JSONObject geom = new JSONObject(gjson.toString((Geometry) feature.getDefaultGeometry()));
-                ret.put("geometry", geom);
+            Geometry geometry = (Geometry) feature.getDefaultGeometry();
+            if (geometry != null) {
+                out.writeRaw(",\"geometry\":");
+                if (decimals >= 0) {
+                    out.writeGeometry(geometry);
+                } else {
+                    out.writeRaw(gjson.toString(geometry));
+                }
             }
 
             //properties
-            int gindex = featureType.getGeometryDescriptor() != null ?
-                    featureType.indexOf(featureType.getGeometryDescriptor().getLocalName()) :
-                    -1;
-
-            JSONObject jsProp = new JSONObject();
-
-            boolean attributesWritten = false;
-            for (int i = 0; i < featureType.getAttributeCount(); i++) {
-                AttributeDescriptor ad = featureType.getDescriptor(i);
-
-                // skip the default geometry, it's already encoded
-                if (i == gindex) {
-                    continue;
-                }
-
-                Object value = feature.getAttribute(i);
+            out.writeRaw(",\"properties\":{");
+            boolean first = true;
+            for (int j = 0; j < indexes.length; j++) {
+                Object value = feature.getAttribute(indexes[j]);
 
                 if (!encodeNullValues && value == null) {
                     //skip
                     continue;
                 }
-
-                attributesWritten = true;
-
-                // handle special types separately, everything else as a string or literal
-                if (value instanceof Envelope) {
-                    jsProp.put(ad.getLocalName(), gjson.toString((Envelope)value));
-                } else if (value instanceof BoundingBox) {
-                    jsProp.put(ad.getLocalName(), gjson.toString((BoundingBox)value));
-                } else if (value instanceof Geometry) {
-                    jsProp.put(ad.getLocalName(), gjson.toString((Geometry) value));
+                if (!first) {
+                    out.write(',');
+                }
+                first = false;
+                out.writeRaw(keys[j]);
+
+                if (value == null) {
+                    out.writeRaw("null");
+                } else if (kinds[j] == NUMBER && value instanceof Number) {
+                    out.writeNumber((Number) value);
+                } else if (kinds[j] == STRING && value instanceof String) {
+                    out.writeString((String) value);
                 } else {
-                    jsProp.put(ad.getLocalName(), value);
+                    writeValue(value, out);
                 }
             }
+            out.write('}');
 
-            ret.put("properties", jsProp);
-
-            ret.put("id", feature.getID());
-
-            return ret.toString(4);
-
-            } catch (JSONException e) {
-                LOG.error("Unable to encode the feature into GeoJSON, returning an empty object.");
-                return "{}";
+            if (feature.getID() != null) {
+                out.writeRaw(",\"id\":");
+                out.writeString(feature.getID());
             }
+            out.write('}');
         }
 
-        public String toJSONString() {
-            return toJSONString(feature);
+        /**
+         * Writes a value which is not of the type expected: special types are
+         * written as GeoJSON strings, everything else as a string or literal.
+         */
+        private void writeValue(Object value, GeoJSONWriter out) throws IOException {
+            if (value instanceof Number) {
+                out.writeNumber((Number) value);
+            } else if (value instanceof Boolean) {
+                out.writeRaw(value.toString());
+            } else if (value instanceof Envelope) {
+                out.writeString(gjson.toString((Envelope) value));
+            } else if (value instanceof BoundingBox) {
+                out.writeString(gjson.toString((BoundingBox) value));
+            } else if (value instanceof Geometry) {
+                out.writeString(gjson.toString((Geometry) value));
+            } else {
+                out.writeString(value.toString());
+            }
         }
     }
 
@@ -589,37 +644,49 @@ final class FeatureJSON2 extends FeatureJSON {
         public void writeJSONString(Writer out) throws IOException {
             SimpleFeatureType ft = (SimpleFeatureType) features.getSchema();
             FeatureEncoder featureEncoder = new FeatureEncoder(ft);
-            JSONWriter jsRet = new JSONWriter(out);
+            GeoJSONWriter writer = new GeoJSONWriter(out, decimals);
+            writer.write('[');
+            FeatureIterator i = features.features();
+            boolean first = true;
+            boolean truncated = false;
             try {
-                jsRet.array();
-                FeatureIterator i = features.features();
-                try {
-                    if (i == null) {
-                        jsRet.endArray();
-                        return;
+                if (i == null) {
+                    return;
+                }
+                while (i.hasNext()) {
+                    Feature f = i.next();
+                    if (!(f instanceof SimpleFeature)) {
+                        continue;
                     }
-                    while (i.hasNext()) {
-                        Feature f = i.next();
-                        try {
-                            if (f instanceof SimpleFeature) {
-                                jsRet.value(new JSONObject(featureEncoder.toJSONString((SimpleFeature) f)));
-                            }
-                        } catch (NullPointerException e) {
-                            LOG.error("Unable to convert feature into JSON, skipping it. " + e.getMessage());
-                        }
+                    if (!featureEncoder.accepts((SimpleFeature) f)) {
+                        LOG.error("Unable to convert feature " + f.getIdentifier() + " into JSON, skipping it.");
+                        continue;
                     }
-                }  catch (Throwable e) {
-                    LOG.error("Unable to convert the featurecollection into JSON: " + e.getMessage());
-                    LOG.error("Ignoring ...");
-                }finally {
-                    if (i != null) {
-                        i.close();
+                    if (!first) {
+                        writer.write(',');
                     }
-                    jsRet.endArray();
+                    first = false;
+                    featureEncoder.write((SimpleFeature) f, writer);
+                }
+            } catch (IOException e) {
+                truncated = true;
+                throw e;
+            } catch (Throwable e) {
+                if (!first) {
+                    // features were already written, closing the array would
+                    // hide the missing ones
+                    truncated = true;
+                    throw new IOException("Unable to convert the featurecollection into JSON", e);
+                }
+                LOG.error("Unable to convert the featurecollection into JSON: " + e.getMessage());
+                LOG.error("Ignoring ...");
+            } finally {
+                if (i != null) {
+                    i.close();
+                }
+                if (!truncated) {
+                    writer.write(']');
                 }
-
-            } catch (JSONException e) {
-                LOG.error("Unable to generate JSON: " + e.getMessage());
             }
         }
     }
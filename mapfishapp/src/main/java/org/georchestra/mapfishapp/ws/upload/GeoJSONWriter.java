@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2009-2018 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.georchestra.mapfishapp.ws.upload;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryCollection;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.MultiLineString;
+import com.vividsolutions.jts.geom.MultiPoint;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Writes JSON values and GeoJSON geometries straight to a {@link Writer},
+ * without building any intermediate object.
+ * <p>
+ * Strings are escaped as by org.json, <code>&lt;/</code> included since the
+ * upload responses are read from an html page.
+ * </p>
+ */
+final class GeoJSONWriter {
+
+    /** above this number of decimals, coordinates are written as they are */
+    private static final int MAX_ROUNDED_DECIMALS = 15;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Writer out;
+    private final int decimals;
+    private final double scale;
+
+    /**
+     * @param out where the values are written
+     * @param decimals number of decimals of the coordinates
+     */
+    GeoJSONWriter(Writer out, int decimals) {
+        this.out = out;
+        this.decimals = decimals;
+        this.scale = Math.pow(10, decimals);
+    }
+
+    Writer getWriter() {
+        return out;
+    }
+
+    void write(char c) throws IOException {
+        out.write(c);
+    }
+
+    /**
+     * Writes raw JSON, eg. a key already quoted.
+     */
+    void writeRaw(String json) throws IOException {
+        out.write(json);
+    }
+
+    void writeString(String s) throws IOException {
+        out.write('"');
+        int length = s.length();
+        int start = 0;
+        char previous = 0;
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            String escaped = null;
+            switch (c) {
+            case '"':
+                escaped = "\\\"";
+                break;
+            case '\\':
+                escaped = "\\\\";
+                break;
+            case '/':
+                if (previous == '<') {
+                    escaped = "\\/";
+                }
+                break;
+            case '\b':
+                escaped = "\\b";
+                break;
+            case '\t':
+                escaped = "\\t";
+                break;
+            case '\n':
+                escaped = "\\n";
+                break;
+            case '\f':
+                escaped = "\\f";
+                break;
+            case '\r':
+                escaped = "\\r";
+                break;
+            default:
+                if (c < ' ' || (c >= '\u0080' && c < '\u00a0') || (c >= '\u2000' && c < '\u2100')) {
+                    escaped = new String(new char[] { '\\', 'u', HEX[(c >> 12) & 0xF], HEX[(c >> 8) & 0xF],
+                            HEX[(c >> 4) & 0xF], HEX[c & 0xF] });
+                }
+            }
+            if (escaped != null) {
+                out.write(s, start, i - start);
+                out.write(escaped);
+                start = i + 1;
+            }
+            previous = c;
+        }
+        out.write(s, start, length - start);
+        out.write('"');
+    }
+
+    /**
+     * Writes a number as org.json does: without trailing zeros, and null if
+     * it is not finite.
+     */
+    void writeNumber(Number n) throws IOException {
+        if (n instanceof Double) {
+            writeDouble(n.doubleValue());
+        } else if (n instanceof Float) {
+            writeFloat(n.floatValue());
+        } else if (n instanceof BigDecimal) {
+            writeDecimal(n.toString());
+        } else {
+            out.write(n.toString());
+        }
+    }
+
+    void writeDouble(double d) throws IOException {
+        if (Double.isNaN(d) || Double.isInfinite(d)) {
+            out.write("null");
+        } else if (d == (long) d && Math.abs(d) < 1e15) {
+            out.write(Long.toString((long) d));
+        } else {
+            writeDecimal(Double.toString(d));
+        }
+    }
+
+    /**
+     * Writes a float with the digits of {@link Float#toString(float)}, 1.1f
+     * would be written 1.100000023841858 once widened to a double.
+     */
+    void writeFloat(float f) throws IOException {
+        if (Float.isNaN(f) || Float.isInfinite(f)) {
+            out.write("null");
+        } else if (f == (long) f && Math.abs(f) < 1e15f) {
+            out.write(Long.toString((long) f));
+        } else {
+            writeDecimal(Float.toString(f));
+        }
+    }
+
+    private void writeDecimal(String s) throws IOException {
+        if (s.indexOf('.') > 0 && s.indexOf('e') < 0 && s.indexOf('E') < 0) {
+            int end = s.length();
+            while (s.charAt(end - 1) == '0') {
+                end--;
+            }
+            if (s.charAt(end - 1) == '.') {
+                end--;
+            }
+            out.write(s, 0, end);
+        } else {
+            out.write(s);
+        }
+    }
+
+    /**
+     * Writes a geometry as a GeoJSON geometry object.
+     */
+    void writeGeometry(Geometry geometry) throws IOException {
+        if (geometry instanceof Point) {
+            writeType("Point");
+            Point point = (Point) geometry;
+            if (point.isEmpty()) {
+                out.write("[]");
+            } else {
+                writeCoordinate(point.getCoordinateSequence(), 0);
+            }
+        } else if (geometry instanceof LineString) {
+            writeType("LineString");
+            writeCoordinates(((LineString) geometry).getCoordinateSequence());
+        } else if (geometry instanceof Polygon) {
+            writeType("Polygon");
+            writePolygon((Polygon) geometry);
+        } else if (geometry instanceof MultiPoint) {
+            writeType("MultiPoint");
+            out.write('[');
+            for (int i = 0; i < geometry.getNumGeometries(); i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                writeCoordinate(((Point) geometry.getGeometryN(i)).getCoordinateSequence(), 0);
+            }
+            out.write(']');
+        } else if (geometry instanceof MultiLineString) {
+            writeType("MultiLineString");
+            out.write('[');
+            for (int i = 0; i < geometry.getNumGeometries(); i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                writeCoordinates(((LineString) geometry.getGeometryN(i)).getCoordinateSequence());
+            }
+            out.write(']');
+        } else if (geometry instanceof MultiPolygon) {
+            writeType("MultiPolygon");
+            out.write('[');
+            for (int i = 0; i < geometry.getNumGeometries(); i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                writePolygon((Polygon) geometry.getGeometryN(i));
+            }
+            out.write(']');
+        } else if (geometry instanceof GeometryCollection) {
+            out.write("{\"type\":\"GeometryCollection\",\"geometries\":[");
+            for (int i = 0; i < geometry.getNumGeometries(); i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                writeGeometry(geometry.getGeometryN(i));
+            }
+            out.write("]}");
+            return;
+        } else {
+            throw new IllegalArgumentException("Unsupported geometry: " + geometry.getGeometryType());
+        }
+        out.write('}');
+    }
+
+    private void writeType(String type) throws IOException {
+        out.write("{\"type\":\"");
+        out.write(type);
+        out.write("\",\"coordinates\":");
+    }
+
+    private void writePolygon(Polygon polygon) throws IOException {
+        out.write('[');
+        if (!polygon.isEmpty()) {
+            writeCoordinates(polygon.getExteriorRing().getCoordinateSequence());
+            for (int i = 0; i < polygon.getNumInteriorRing(); i++) {
+                out.write(',');
+                writeCoordinates(polygon.getInteriorRingN(i).getCoordinateSequence());
+            }
+        }
+        out.write(']');
+    }
+
+    private void writeCoordinates(CoordinateSequence seq) throws IOException {
+        out.write('[');
+        for (int i = 0; i < seq.size(); i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            writeCoordinate(seq, i);
+        }
+        out.write(']');
+    }
+
+    private void writeCoordinate(CoordinateSequence seq, int i) throws IOException {
+        out.write('[');
+        writeOrdinate(seq.getOrdinate(i, CoordinateSequence.X));
+        out.write(',');
+        writeOrdinate(seq.getOrdinate(i, CoordinateSequence.Y));
+        if (seq.getDimension() > 2) {
+            double z = seq.getOrdinate(i, CoordinateSequence.Z);
+            if (!Double.isNaN(z)) {
+                out.write(',');
+                writeOrdinate(z);
+            }
+        }
+        out.write(']');
+    }
+
+    private void writeOrdinate(double value) throws IOException {
+        if (decimals >= 0 && decimals < MAX_ROUNDED_DECIMALS) {
+            value = Math.floor(value * scale + 0.5) / scale;
+        }
+        writeDouble(value);
+    }
+}
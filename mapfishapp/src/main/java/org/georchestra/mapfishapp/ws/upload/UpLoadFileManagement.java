@@ -37,7 +37,6 @@ import org.apache.commons.logging.LogFactory;
 import org.geotools.data.simple.SimpleFeatureCollection;
 import org.geotools.data.simple.SimpleFeatureIterator;
 import org.geotools.geojson.feature.FeatureJSON;
-import org.geotools.geojson.geom.GeometryJSON;
 import org.geotools.referencing.operation.projection.ProjectionException;
 import org.json.JSONArray;
 import org.opengis.feature.simple.SimpleFeatureType;
@@ -59,6 +58,9 @@ public class UpLoadFileManagement {
         geotools, ogr
     };
 
+    /** number of decimals of the coordinates written when none is requested, keeps their full precision */
+    public static final int MAX_DECIMALS = 18;
+
     private static List<String>          VALID_EXTENSIONS;
     static {
 
@@ -365,6 +367,22 @@ public class UpLoadFileManagement {
      * @throws IOException
      */
     public void writeFeatureCollectionAsJSON(Writer writer, final CoordinateReferenceSystem crs) throws Exception {
+        writeFeatureCollectionAsJSON(writer, crs, MAX_DECIMALS);
+    }
+
+    /**
+     * Writes the features as a GeoJSON feature collection, see
+     * {@link #writeFeatureCollectionAsJSON(Writer, CoordinateReferenceSystem)}.
+     * <p>
+     * The features are written one at a time as they are read from the file,
+     * the writer is flushed but not closed.
+     * </p>
+     *
+     * @param decimals number of decimals of the coordinates, at most
+     *            {@link #MAX_DECIMALS}
+     */
+    public void writeFeatureCollectionAsJSON(Writer writer, final CoordinateReferenceSystem crs, final int decimals)
+            throws Exception {
 
         if (LOG.isDebugEnabled()) {
             LOG.debug("CRS to reproject:" + crs);
@@ -383,7 +401,7 @@ public class UpLoadFileManagement {
                 return;
             }
             // TODO FeatureJSON2 is a workaround to solve the crs bug
-            FeatureJSON fjson = new FeatureJSON2(new GeometryJSON(18));
+            FeatureJSON fjson = new FeatureJSON2(Math.min(decimals, MAX_DECIMALS));
             SimpleFeatureType schema = featureCollection.getSchema();
 
             fjson.setFeatureType(schema);
@@ -288,6 +288,11 @@ GEOR.fileupload = (function() {
                         xtype: 'hidden',
                         name: 'srs',
                         value: srs
+                    }, {
+                        // coordinates rounded to about 1cm
+                        xtype: 'hidden',
+                        name: 'precision',
+                        value: GEOR.util.getPrecision(new OpenLayers.Projection(srs))
                     }],
                     listeners: {
                         "clientvalidation": function(fp, isValid) {
@@ -637,7 +637,8 @@ GEOR.mapinit = (function() {
                         url: GEOR.config.PATHNAME + "/ws/togeojson/",
                         params: {
                             "url": GEOR.config.CUSTOM_FILE,
-                            "srs": ls.map.getProjection()
+                            "srs": ls.map.getProjection(),
+                            "precision": GEOR.util.getPrecision(ls.map.getProjectionObject())
                         },
                         success: toGeoJSONSuccess,
                         failure: function(resp) {
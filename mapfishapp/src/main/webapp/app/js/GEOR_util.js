@@ -844,6 +844,22 @@ GEOR.util = (function() {
             return Math.round(input*p)/p;
         },
 
+        /**
+         * Method: getPrecision
+         * Number of decimals needed for coordinates to be accurate to about
+         * 1 cm in the given projection.
+         *
+         * Parameters:
+         * projection - {OpenLayers.Projection}
+         *
+         * Returns:
+         * {Integer} 2 for metric projections, 7 otherwise
+         */
+        getPrecision: function(projection) {
+            var units = projection.getUnits();
+            return (units == 'm' || units == 'meters') ? 2 : 7;
+        },
+
         /**
          * Method: isSuitableDCProtocol
          *
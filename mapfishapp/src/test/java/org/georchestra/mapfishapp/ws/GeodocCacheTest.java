@@ -0,0 +1,95 @@
+package org.georchestra.mapfishapp.ws;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.georchestra.mapfishapp.model.ConnectionPool;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class GeodocCacheTest {
+
+    private static final String UPDATE = "UPDATE mapfishapp.geodocs SET last_access = greatest(last_access, ?), "
+            + "access_count = access_count + ? WHERE file_hash = ?;";
+
+    @Test
+    public void testLeastRecentlyUsedEviction() {
+        GeodocCache cache = new GeodocCache();
+        // 2 bytes per character
+        cache.setMaxBytes(20);
+        cache.put("a", "aaaa");
+        cache.put("b", "bbbb");
+        // a becomes the most recently used
+        assertEquals("aaaa", cache.get("a"));
+
+        cache.put("c", "cccc");
+        assertNull(cache.get("b"));
+        assertEquals("aaaa", cache.get("a"));
+        assertEquals("cccc", cache.get("c"));
+        assertEquals(16, cache.getBytes());
+
+        // bigger than the whole cache
+        cache.put("d", "dddddddddddd");
+        assertNull(cache.get("d"));
+        assertEquals(2, cache.getSize());
+
+        cache.invalidate("a");
+        assertNull(cache.get("a"));
+        assertEquals(8, cache.getBytes());
+    }
+
+    @Test
+    public void testFlushInOneBatch() throws SQLException {
+        ConnectionPool pool = Mockito.mock(ConnectionPool.class);
+        Connection connection = Mockito.mock(Connection.class);
+        PreparedStatement st = Mockito.mock(PreparedStatement.class);
+        Mockito.when(pool.getConnection()).thenReturn(connection);
+        Mockito.when(connection.prepareStatement(UPDATE)).thenReturn(st);
+
+        GeodocCache cache = new GeodocCache();
+        cache.setConnectionPool(pool);
+        cache.recordAccess("a");
+        cache.recordAccess("a");
+        cache.recordAccess("a");
+        cache.recordAccess("b");
+        cache.flush();
+
+        Mockito.verify(st).setInt(2, 3);
+        Mockito.verify(st).setString(3, "a");
+        Mockito.verify(st).setInt(2, 1);
+        Mockito.verify(st).setString(3, "b");
+        Mockito.verify(st, Mockito.times(2)).addBatch();
+        Mockito.verify(st, Mockito.times(1)).executeBatch();
+
+        // nothing left to write
+        cache.flush();
+        Mockito.verify(pool, Mockito.times(1)).getConnection();
+    }
+
+    @Test
+    public void testFailedFlushIsRetried() throws SQLException {
+        ConnectionPool pool = Mockito.mock(ConnectionPool.class);
+        Connection connection = Mockito.mock(Connection.class);
+        PreparedStatement st = Mockito.mock(PreparedStatement.class);
+        Mockito.when(pool.getConnection()).thenReturn(connection);
+        Mockito.when(connection.prepareStatement(UPDATE)).thenReturn(st);
+        Mockito.when(st.executeBatch()).thenThrow(new SQLException("down")).thenReturn(new int[] { 1 });
+
+        GeodocCache cache = new GeodocCache();
+        cache.setConnectionPool(pool);
+        cache.recordAccess("a");
+        cache.recordAccess("a");
+        cache.flush();
+        cache.recordAccess("a");
+        cache.flush();
+
+        // the first two accesses are written with the third one
+        Mockito.verify(st, Mockito.times(1)).setInt(2, 2);
+        Mockito.verify(st, Mockito.times(1)).setInt(2, 3);
+        Mockito.verify(st, Mockito.times(2)).executeBatch();
+    }
+}
@@ -0,0 +1,151 @@
+package org.georchestra.mapfishapp.ws;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.xml.sax.SAXException;
+
+public class SchemaCacheTest {
+
+    // not resolvable, the schemas can only be read through the catalog
+    private static final String SCHEMA_URL = "http://schemas.example.invalid/doc/1.0/doc.xsd";
+
+    private static final String WMC = "<ViewContext xmlns=\"http://www.opengis.net/context\" version=\"1.1.0\" id=\"test\">"
+            + "<General><Window width=\"1233\" height=\"342\"/>"
+            + "<BoundingBox minx=\"-201405.7589\" miny=\"2245252.767\" maxx=\"598866.8058\" maxy=\"2467226.179\" SRS=\"EPSG:2154\"/>"
+            + "<Title>test</Title></General>"
+            + "<LayerList><Layer queryable=\"0\" hidden=\"0\"><Server service=\"OGC:WMS\" version=\"1.1.1\">"
+            + "<OnlineResource xmlns:xlink=\"http://www.w3.org/1999/xlink\" xlink:type=\"simple\" xlink:href=\"http://localhost/geoserver/wms\"/>"
+            + "</Server><Name>topp:communes</Name><Title>communes</Title>"
+            + "<FormatList><Format current=\"1\">image/png</Format></FormatList>"
+            + "<StyleList><Style current=\"1\"><Name/><Title>Default</Title></Style></StyleList>"
+            + "</Layer></LayerList></ViewContext>";
+
+    private static final String SLD = "<StyledLayerDescriptor version=\"1.1.0\" xmlns=\"http://www.opengis.net/sld\""
+            + " xmlns:ogc=\"http://www.opengis.net/ogc\" xmlns:se=\"http://www.opengis.net/se\" xmlns:gml=\"http://www.opengis.net/gml\">"
+            + "<NamedLayer><se:Name>topp:communes</se:Name><UserStyle><se:Name>test</se:Name>"
+            + "<se:FeatureTypeStyle><se:Rule><ogc:Filter><ogc:And><ogc:PropertyIsEqualTo><ogc:PropertyName>name</ogc:PropertyName>"
+            + "<ogc:Literal>Rennes</ogc:Literal></ogc:PropertyIsEqualTo>"
+            + "<ogc:BBOX><ogc:PropertyName>the_geom</ogc:PropertyName><gml:Envelope srsName=\"EPSG:2154\">"
+            + "<gml:lowerCorner>0 0</gml:lowerCorner><gml:upperCorner>10 10</gml:upperCorner></gml:Envelope></ogc:BBOX>"
+            + "</ogc:And></ogc:Filter>"
+            + "<se:PolygonSymbolizer><se:Geometry><ogc:PropertyName>the_geom</ogc:PropertyName></se:Geometry>"
+            + "<se:Fill><se:SvgParameter name=\"fill\">#96C3F5</se:SvgParameter></se:Fill>"
+            + "</se:PolygonSymbolizer></se:Rule></se:FeatureTypeStyle></UserStyle></NamedLayer></StyledLayerDescriptor>";
+
+    private SchemaCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        cache = new SchemaCache();
+        cache.setCatalogPath(new File(SchemaCacheTest.class.getResource("schemacache/catalog.xml").toURI())
+                .getAbsolutePath());
+        cache.init();
+    }
+
+    private static StreamSource document(String color) {
+        return new StreamSource(new StringReader("<Document xmlns=\"http://example.invalid/doc\">"
+                + "<Title>test</Title><Color>" + color + "</Color></Document>"));
+    }
+
+    @Test
+    public void testValidateOffline() throws Exception {
+        cache.validate(SCHEMA_URL, document("#00ff00"));
+        try {
+            // the imported type is checked
+            cache.validate(SCHEMA_URL, document("green"));
+            fail("The document should not be valid");
+        } catch (SAXException e) {
+            // expected
+        }
+        // the validator is reusable after a failure
+        cache.validate(SCHEMA_URL, document("#0000ff"));
+    }
+
+    @Test
+    public void testSchemaCompiledOnce() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Schema>> futures = new ArrayList<Future<Schema>>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(new Callable<Schema>() {
+                    public Schema call() throws Exception {
+                        cache.validate(SCHEMA_URL, document("#000000"));
+                        return cache.getSchema(SCHEMA_URL);
+                    }
+                }));
+            }
+            Schema schema = cache.getSchema(SCHEMA_URL);
+            for (Future<Schema> future : futures) {
+                assertSame(schema, future.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testBundledSchemasOffline() throws Exception {
+        // copied by the build, from the official archive
+        assumeTrue(SchemaCache.class.getResource("schemas/ogc/sld/1.1.0/StyledLayerDescriptor.xsd") != null);
+        String proxyHost = System.getProperty("http.proxyHost");
+        String proxyPort = System.getProperty("http.proxyPort");
+        // any download goes through a closed port and fails
+        System.setProperty("http.proxyHost", "127.0.0.1");
+        System.setProperty("http.proxyPort", "1");
+        try {
+            SchemaCache bundled = new SchemaCache();
+            bundled.init();
+            bundled.getSchema(WMCDocService.SCHEMA_URL);
+            bundled.getSchema(SLDDocService.SCHEMA_URL);
+
+            bundled.validate(WMCDocService.SCHEMA_URL, new StreamSource(new StringReader(WMC)));
+            bundled.validate(SLDDocService.SCHEMA_URL, new StreamSource(new StringReader(SLD)));
+            try {
+                // a point symbolizer has no fill
+                bundled.validate(SLDDocService.SCHEMA_URL,
+                        new StreamSource(new StringReader(SLD.replace("PolygonSymbolizer", "PointSymbolizer"))));
+                fail("The document should not be valid");
+            } catch (SAXException e) {
+                // expected
+            }
+        } finally {
+            restore("http.proxyHost", proxyHost);
+            restore("http.proxyPort", proxyPort);
+        }
+    }
+
+    private static void restore(String property, String value) {
+        if (value == null) {
+            System.clearProperty(property);
+        } else {
+            System.setProperty(property, value);
+        }
+    }
+
+    @Test
+    public void testWarmup() throws Exception {
+        SchemaCache warmed = new SchemaCache();
+        warmed.setCatalogPath(new File(SchemaCacheTest.class.getResource("schemacache/catalog.xml").toURI())
+                .getAbsolutePath());
+        warmed.setSchemaURLs(Collections.singletonList(SCHEMA_URL));
+        warmed.init();
+        warmed.validate(SCHEMA_URL, document("#ffffff"));
+    }
+}
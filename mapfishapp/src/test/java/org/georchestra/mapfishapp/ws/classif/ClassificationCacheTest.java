@@ -0,0 +1,107 @@
+package org.georchestra.mapfishapp.ws.classif;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.net.URL;
+import java.util.Collections;
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests ClassificationCache
+ */
+public class ClassificationCacheTest {
+
+    private long now;
+    private ClassificationCache cache;
+
+    @Before
+    public void setUp() {
+        now = 1000000;
+        cache = new ClassificationCache() {
+            @Override
+            long currentTimeMillis() {
+                return now;
+            }
+        };
+    }
+
+    private static I_FilterFactory filters() {
+        return new I_FilterFactory() {
+            public Iterator<Filter> iterator() {
+                return Collections.<Filter> emptyList().iterator();
+            }
+        };
+    }
+
+    @Test
+    public void testKey() throws Exception {
+        URL wfs = new URL("http://example.org/wfs");
+        assertEquals("http://example.org/wfs|topp:states|PERSONS|3",
+                ClassificationCache.key(wfs, "topp:states", "PERSONS", 3));
+    }
+
+    @Test
+    public void testTimeToLive() {
+        cache.setTimeToLive(60);
+        I_FilterFactory filters = filters();
+        cache.put("a", filters);
+
+        now += 60 * 1000;
+        assertSame(filters, cache.get("a"));
+        now += 1;
+        assertNull(cache.get("a"));
+        // an expired classification is dropped
+        now -= 1;
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    public void testMaxEntries() {
+        cache.setMaxEntries(2);
+        I_FilterFactory a = filters();
+        I_FilterFactory b = filters();
+        I_FilterFactory c = filters();
+        cache.put("a", a);
+        cache.put("b", b);
+        // "a" is now used more recently than "b"
+        assertSame(a, cache.get("a"));
+        cache.put("c", c);
+
+        assertNull(cache.get("b"));
+        assertSame(a, cache.get("a"));
+        assertSame(c, cache.get("c"));
+    }
+
+    @Test
+    public void testExpiredEntriesEvictedFirst() {
+        cache.setMaxEntries(2);
+        cache.setTimeToLive(60);
+        I_FilterFactory a = filters();
+        I_FilterFactory b = filters();
+        I_FilterFactory c = filters();
+        cache.put("a", a);
+        now += 30 * 1000;
+        cache.put("b", b);
+        now += 10 * 1000;
+        assertSame(a, cache.get("a"));
+
+        // "a" has expired, it is dropped rather than "b", the least recently used
+        now += 21 * 1000;
+        cache.put("c", c);
+        assertSame(b, cache.get("b"));
+        assertSame(c, cache.get("c"));
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    public void testClear() {
+        cache.put("a", filters());
+        cache.clear();
+        assertNull(cache.get("a"));
+    }
+}
@@ -1,6 +1,8 @@
 package org.georchestra.mapfishapp.ws.classif;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -12,6 +14,7 @@ import org.georchestra.mapfishapp.ws.classif.Filter;
 import org.georchestra.mapfishapp.ws.classif.ContinuousFilterFactory.Interval;
 import org.geotools.filter.visitor.DefaultFilterVisitor;
 import org.junit.Test;
+import org.opengis.filter.And;
 import org.opengis.filter.FilterVisitor;
 import org.opengis.filter.PropertyIsBetween;
 
@@ -98,7 +101,7 @@ public class ContinuousFilterFactoryTest {
     @Test(expected=IllegalArgumentException.class)
     public void testNullValues() {
         @SuppressWarnings("unused")
-        ContinuousFilterFactory cff = new ContinuousFilterFactory(null, 3, "foo");
+        ContinuousFilterFactory cff = new ContinuousFilterFactory((ArrayList<Double>) null, 3, "foo");
     }
     
     /**
@@ -165,4 +168,28 @@ public class ContinuousFilterFactoryTest {
         assertEquals(propertyName, (String) filter1.getGISFilter().accept(nameVisitor, null));
         assertEquals(propertyName, (String) filter2.getGISFilter().accept(nameVisitor, null));
     }
+
+    /**
+     * Classes sharing their boundaries exclude their upper boundary, but the last one
+     */
+    @Test
+    public void testSharedBoundaries() {
+        QuantileSketch sketch = new QuantileSketch(16);
+        for (int i = 0; i < 1000; i++) {
+            sketch.add(i % 100);
+        }
+        assertFalse(sketch.isExact());
+        ContinuousFilterFactory cff = new ContinuousFilterFactory(sketch, 4, "foo");
+        ArrayList<Interval> intervals = cff.getIntervals();
+        for (int i = 1; i < intervals.size(); i++) {
+            assertEquals(intervals.get(i - 1).getRight(), intervals.get(i).getLeft(), 0);
+        }
+
+        Iterator<Filter> filters = cff.iterator();
+        for (int i = 0; i < intervals.size() - 1; i++) {
+            assertTrue(filters.next().getGISFilter() instanceof And);
+        }
+        assertTrue(filters.next().getGISFilter() instanceof PropertyIsBetween);
+        assertFalse(filters.hasNext());
+    }
 }
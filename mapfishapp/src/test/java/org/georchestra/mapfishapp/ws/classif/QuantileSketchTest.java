@@ -0,0 +1,111 @@
+package org.georchestra.mapfishapp.ws.classif;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests QuantileSketch
+ */
+public class QuantileSketchTest {
+
+    /**
+     * Below its capacity, the sketch keeps all the values
+     */
+    @Test
+    public void testExact() {
+        QuantileSketch sketch = new QuantileSketch(16);
+        for (double value : new double[] { 2.0, 7.0, 6.0, Double.NaN, 6.0, 3.0, -2.0 }) {
+            sketch.add(value);
+        }
+        assertTrue(sketch.isExact());
+        assertEquals(6, sketch.getCount());
+        assertEquals(-2.0, sketch.getMin(), 0);
+        assertEquals(7.0, sketch.getMax(), 0);
+        assertArrayEquals(new double[] { -2.0, 2.0, 3.0, 6.0, 6.0, 7.0 }, sketch.getValues(), 0);
+        assertArrayEquals(new double[] { 2.0, 6.0 }, sketch.getQuantiles(new double[] { 1.0 / 3, 2.0 / 3 }), 0);
+    }
+
+    /**
+     * The sketch summarizes the values once there are more than its capacity
+     */
+    @Test
+    public void testCapacity() {
+        QuantileSketch sketch = new QuantileSketch(16);
+        for (int i = 0; i < 16; i++) {
+            sketch.add(i);
+        }
+        assertTrue(sketch.isExact());
+        assertEquals(16, sketch.getValues().length);
+        sketch.add(16);
+        assertFalse(sketch.isExact());
+        assertEquals(17, sketch.getCount());
+    }
+
+    /**
+     * Beyond its capacity, the ranks of the quantiles are approximate
+     */
+    @Test
+    public void testApproximate() {
+        int count = 1000000;
+        QuantileSketch sketch = new QuantileSketch();
+        for (int value : shuffled(count, 1)) {
+            sketch.add(value);
+        }
+        assertFalse(sketch.isExact());
+        assertEquals(count, sketch.getCount());
+        assertEquals(0.0, sketch.getMin(), 0);
+        assertEquals(count - 1, sketch.getMax(), 0);
+
+        double[] ranks = { 0.1, 0.25, 0.5, 0.75, 0.9 };
+        double[] quantiles = sketch.getQuantiles(ranks);
+        for (int i = 0; i < ranks.length; i++) {
+            assertEquals(ranks[i] * count, quantiles[i], 0.01 * count);
+        }
+    }
+
+    @Test
+    public void testMerge() {
+        int count = 100000;
+        QuantileSketch first = new QuantileSketch(1024);
+        QuantileSketch second = new QuantileSketch(1024);
+        int[] values = shuffled(count, 2);
+        for (int i = 0; i < values.length; i++) {
+            (i % 2 == 0 ? first : second).add(values[i]);
+        }
+        first.merge(second);
+        assertEquals(count, first.getCount());
+        assertEquals(0.0, first.getMin(), 0);
+        assertEquals(count - 1, first.getMax(), 0);
+        assertEquals(count / 2, first.getQuantiles(new double[] { 0.5 })[0], 0.02 * count);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testValuesOfSummary() {
+        QuantileSketch sketch = new QuantileSketch(4);
+        for (int i = 0; i < 10; i++) {
+            sketch.add(i);
+        }
+        sketch.getValues();
+    }
+
+    private static int[] shuffled(int count, long seed) {
+        int[] values = new int[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = i;
+        }
+        Random random = new Random(seed);
+        for (int i = count - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int value = values[i];
+            values[i] = values[j];
+            values[j] = value;
+        }
+        return values;
+    }
+}
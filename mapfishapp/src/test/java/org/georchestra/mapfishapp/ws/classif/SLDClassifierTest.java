@@ -1,19 +1,31 @@
 package org.georchestra.mapfishapp.ws.classif;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
+import javax.servlet.http.HttpServletResponse;
+
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 
 import org.apache.commons.httpclient.UsernamePasswordCredentials;
+import org.georchestra.mapfishapp.ws.DocServiceException;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
 import org.json.JSONObject;
 import org.junit.Ignore;
 import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
 import org.w3c.dom.Document;
 
 
@@ -122,6 +134,44 @@ public class SLDClassifierTest {
         assertEquals(true, doc.getElementsByTagName("sld:PolygonSymbolizer").getLength() != 0);
     }
 
+    /**
+     * @return an iterator on features having the given values, each of them twice
+     */
+    private SimpleFeatureIterator features(int count) throws Exception {
+        SimpleFeatureType type = DataUtilities.createType("values", "name:String");
+        List<SimpleFeature> features = new ArrayList<SimpleFeature>();
+        for (int i = 0; i < 2 * count; i++) {
+            features.add(SimpleFeatureBuilder.build(type, new Object[] { "v" + (i % count) }, "values." + i));
+        }
+        // empty values are not counted
+        features.add(SimpleFeatureBuilder.build(type, new Object[] { null }, "values.null"));
+        features.add(SimpleFeatureBuilder.build(type, new Object[] { " " }, "values.blank"));
+        return new ListFeatureCollection(type, features).features();
+    }
+
+    @Test
+    public void testMaxUniqueValues() throws Exception {
+        SimpleFeatureIterator features = features(SLDClassifier.MAX_UNIQUE_VALUES);
+        try {
+            assertEquals(SLDClassifier.MAX_UNIQUE_VALUES, SLDClassifier.getUniqueStringValues(features, "name").size());
+        } finally {
+            features.close();
+        }
+    }
+
+    @Test
+    public void testTooManyUniqueValues() throws Exception {
+        SimpleFeatureIterator features = features(SLDClassifier.MAX_UNIQUE_VALUES + 1);
+        try {
+            SLDClassifier.getUniqueStringValues(features, "name");
+            fail("a classification on more than " + SLDClassifier.MAX_UNIQUE_VALUES + " values is refused");
+        } catch (DocServiceException e) {
+            assertEquals(HttpServletResponse.SC_BAD_REQUEST, e.getErrorCode());
+        } finally {
+            features.close();
+        }
+    }
+
     private Document createDomDocument(final String content) throws Exception {
         // create xml doc
         final DocumentBuilderFactory lDocumentBuilderFactory = DocumentBuilderFactory.newInstance();
@@ -0,0 +1,149 @@
+package org.georchestra.mapfishapp.ws.upload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.geotools.data.DataUtilities;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+/**
+ * Unit Test for {@link FeatureJSON2}
+ */
+public class FeatureJSON2Test {
+
+    private static final String CRS = "{\"type\":\"name\",\"properties\":{\"name\":\"EPSG:4326\"}}";
+
+    private static final String FEATURE_1 = "{\"type\":\"Feature\","
+            + "\"geometry\":{\"type\":\"Point\",\"coordinates\":[1.23,5]},"
+            + "\"properties\":{\"name\":\"a \\\"b\\\"\",\"count\":1,\"ratio\":0.5,\"flag\":true},\"id\":\"t.1\"}";
+
+    private SimpleFeatureType type;
+    private SimpleFeature feature1;
+    private SimpleFeature feature2;
+
+    @Before
+    public void setUp() throws Exception {
+        type = DataUtilities.createType("t", "geom:Point:srid=4326,name:String,count:Integer,ratio:Double,flag:Boolean");
+        GeometryFactory geometryFactory = new GeometryFactory();
+        feature1 = SimpleFeatureBuilder.build(type, new Object[] {
+                geometryFactory.createPoint(new Coordinate(1.234, 5)), "a \"b\"", 1, 0.5, true }, "t.1");
+        feature2 = SimpleFeatureBuilder.build(type, new Object[] {
+                geometryFactory.createPoint(new Coordinate(2, 3)), null, 2, null, null }, "t.2");
+    }
+
+    @Test
+    public void testWriteFeatureCollection() throws Exception {
+        List<SimpleFeature> features = new ArrayList<SimpleFeature>();
+        features.add(feature1);
+        // without the attributes of the collection type, it is skipped
+        SimpleFeatureType shortType = DataUtilities.createType("short", "geom:Point:srid=4326,name:String");
+        features.add(SimpleFeatureBuilder.build(shortType, new Object[] {
+                new GeometryFactory().createPoint(new Coordinate(0, 0)), "short" }, "short.1"));
+        features.add(feature2);
+
+        FeatureJSON2 fjson = new FeatureJSON2(2);
+        fjson.setEncodeFeatureCollectionCRS(true);
+        assertEquals("{\"type\":\"FeatureCollection\",\"crs\":" + CRS + ",\"features\":[" + FEATURE_1 + ","
+                + "{\"type\":\"Feature\",\"geometry\":{\"type\":\"Point\",\"coordinates\":[2,3]},"
+                + "\"properties\":{\"count\":2},\"id\":\"t.2\"}]}",
+                fjson.toString(new ListFeatureCollection(type, features)));
+    }
+
+    @Test
+    public void testEncodeNullValues() throws Exception {
+        FeatureJSON2 fjson = new FeatureJSON2(2);
+        fjson.setEncodeNullValues(true);
+        assertEquals("{\"type\":\"Feature\",\"geometry\":{\"type\":\"Point\",\"coordinates\":[2,3]},"
+                + "\"properties\":{\"name\":null,\"count\":2,\"ratio\":null,\"flag\":null},\"id\":\"t.2\"}",
+                fjson.toString(feature2));
+    }
+
+    @Test
+    public void testEncodeFeatureCRS() throws Exception {
+        FeatureJSON2 fjson = new FeatureJSON2(2);
+        fjson.setEncodeFeatureCRS(true);
+        // the crs of a feature has always been written as a string
+        StringWriter crs = new StringWriter();
+        new GeoJSONWriter(crs, 2).writeString(CRS);
+        assertEquals(FEATURE_1.replace("{\"type\":\"Feature\",", "{\"type\":\"Feature\",\"crs\":" + crs + ","),
+                fjson.toString(feature1));
+    }
+
+    @Test
+    public void testErrorAfterFirstFeature() throws Exception {
+        List<SimpleFeature> features = new ArrayList<SimpleFeature>();
+        features.add(feature1);
+        features.add(feature2);
+        StringWriter out = new StringWriter();
+        BufferedWriter writer = new BufferedWriter(out);
+        try {
+            new FeatureJSON2(2).writeFeatureCollection(new FailingFeatureCollection(type, features, 1), writer);
+            fail("the features following the error are missing");
+        } catch (IOException e) {
+            writer.flush();
+        }
+        // the array is left open, the output is not valid JSON
+        assertEquals("{\"type\":\"FeatureCollection\",\"features\":[" + FEATURE_1, out.toString());
+    }
+
+    @Test
+    public void testErrorBeforeFirstFeature() throws Exception {
+        List<SimpleFeature> features = new ArrayList<SimpleFeature>();
+        features.add(feature1);
+        assertEquals("{\"type\":\"FeatureCollection\",\"features\":[]}",
+                new FeatureJSON2(2).toString(new FailingFeatureCollection(type, features, 0)));
+    }
+
+    /**
+     * Fails to read the feature following the given number of features
+     */
+    private static class FailingFeatureCollection extends ListFeatureCollection {
+
+        private final List<SimpleFeature> features;
+        private final int failAfter;
+
+        FailingFeatureCollection(SimpleFeatureType type, List<SimpleFeature> features, int failAfter) {
+            super(type, features);
+            this.features = features;
+            this.failAfter = failAfter;
+        }
+
+        @Override
+        public SimpleFeatureIterator features() {
+            final Iterator<SimpleFeature> it = features.iterator();
+            return new SimpleFeatureIterator() {
+                int read = 0;
+
+                public boolean hasNext() {
+                    return it.hasNext();
+                }
+
+                public SimpleFeature next() {
+                    if (read++ == failAfter) {
+                        throw new IllegalStateException("unreadable feature");
+                    }
+                    return it.next();
+                }
+
+                public void close() {
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package org.georchestra.mapfishapp.ws.upload;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringWriter;
+import java.math.BigDecimal;
+
+import org.junit.Test;
+
+import com.vividsolutions.jts.io.WKTReader;
+
+/**
+ * Unit Test for {@link GeoJSONWriter}
+ */
+public class GeoJSONWriterTest {
+
+    private static String geometry(String wkt, int decimals) throws Exception {
+        StringWriter out = new StringWriter();
+        new GeoJSONWriter(out, decimals).writeGeometry(new WKTReader().read(wkt));
+        return out.toString();
+    }
+
+    @Test
+    public void testWriteString() throws Exception {
+        StringWriter out = new StringWriter();
+        new GeoJSONWriter(out, 2).writeString("a \"b\"\\c\n</script>\u0001\u00e9");
+        assertEquals("\"a \\\"b\\\"\\\\c\\n<\\/script>\\u0001\u00e9\"", out.toString());
+    }
+
+    @Test
+    public void testWriteNumber() throws Exception {
+        StringWriter out = new StringWriter();
+        GeoJSONWriter writer = new GeoJSONWriter(out, 2);
+        writer.writeNumber(Integer.valueOf(12));
+        writer.write(',');
+        writer.writeNumber(Double.valueOf(1.0));
+        writer.write(',');
+        writer.writeNumber(Double.valueOf(0.25));
+        writer.write(',');
+        writer.writeNumber(new BigDecimal("1.500"));
+        writer.write(',');
+        writer.writeNumber(Double.valueOf(Double.NaN));
+        writer.write(',');
+        writer.writeNumber(Float.valueOf(1.1f));
+        writer.write(',');
+        writer.writeNumber(Float.valueOf(3f));
+        assertEquals("12,1,0.25,1.5,null,1.1,3", out.toString());
+    }
+
+    @Test
+    public void testWriteGeometries() throws Exception {
+        assertEquals("{\"type\":\"Point\",\"coordinates\":[1.23,-4.57]}", geometry("POINT(1.2345 -4.5678)", 2));
+        assertEquals("{\"type\":\"LineString\",\"coordinates\":[[1,2],[3,4]]}", geometry("LINESTRING(1 2, 3 4)", 2));
+        assertEquals("{\"type\":\"Polygon\",\"coordinates\":[[[0,0],[10,0],[10,10],[0,0]],[[1,1],[2,1],[2,2],[1,1]]]}",
+                geometry("POLYGON((0 0, 10 0, 10 10, 0 0), (1 1, 2 1, 2 2, 1 1))", 2));
+        assertEquals("{\"type\":\"MultiPoint\",\"coordinates\":[[1,2],[3,4]]}", geometry("MULTIPOINT(1 2, 3 4)", 2));
+        assertEquals("{\"type\":\"GeometryCollection\",\"geometries\":[{\"type\":\"Point\",\"coordinates\":[1,2]},"
+                + "{\"type\":\"LineString\",\"coordinates\":[[1,2],[3,4]]}]}",
+                geometry("GEOMETRYCOLLECTION(POINT(1 2), LINESTRING(1 2, 3 4))", 2));
+    }
+
+    @Test
+    public void testFullPrecision() throws Exception {
+        assertEquals("{\"type\":\"Point\",\"coordinates\":[6177255.152005254,-2.265330624649336]}",
+                geometry("POINT(6177255.152005254 -2.265330624649336)", UpLoadFileManagement.MAX_DECIMALS));
+    }
+}
@@ -99,6 +99,22 @@ public class UpLoadFileManagementGTImplTest {
         assertCoordinateContains(-2.265330624649336, 48.421434814828025, json);
     }
 
+    /**
+     * Tests the coordinates are rounded to the requested precision.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testSHPCoordinatesPrecision() throws Exception {
+
+        String fileName = "shp_4326_accidents.shp";
+        String fullName = makeFullName(fileName);
+
+        String json = getFeatureCollectionAsJSON(fullName, null, 3);
+
+        assertCoordinateContains(-2.265, 48.421, json);
+    }
+
     @Test
     public void testKML22AsJSON() throws Exception {
 
@@ -314,6 +330,11 @@ public class UpLoadFileManagementGTImplTest {
      */
     protected String getFeatureCollectionAsJSON(final String fileName,
             final String epsg) throws Exception {
+        return getFeatureCollectionAsJSON(fileName, epsg, UpLoadFileManagement.MAX_DECIMALS);
+    }
+
+    protected String getFeatureCollectionAsJSON(final String fileName,
+            final String epsg, final int decimals) throws Exception {
 
         FileDescriptor fd = new FileDescriptor(fileName);
         fd.listOfFiles.add(fileName);
@@ -326,9 +347,9 @@ public class UpLoadFileManagementGTImplTest {
 
         StringWriter out = new StringWriter();
         if (epsg != null) {
-            fm.writeFeatureCollectionAsJSON(out, CRS.decode(epsg));
+            fm.writeFeatureCollectionAsJSON(out, CRS.decode(epsg), decimals);
         } else {
-            fm.writeFeatureCollectionAsJSON(out, null);
+            fm.writeFeatureCollectionAsJSON(out, null, decimals);
         }
         return out.toString();
 	}
@@ -0,0 +1,23 @@
+-- Creates the table where extractorapp logs the duration of each phase of the
+-- extractions (download, reprojection, GDAL, metadata, archive...).
+
+BEGIN;
+
+CREATE TABLE extractorapp.extractor_phase_log(
+  id serial,
+  extractor_log_id integer NOT NULL,
+  extractor_layer_log_id integer,
+  phase character varying NOT NULL,
+  attempt integer NOT NULL,
+  start_date timestamp without time zone NOT NULL,
+  duration interval NOT NULL,
+  CONSTRAINT extractor_phase_log_pk PRIMARY KEY (id),
+  CONSTRAINT extractor_phase_log_fk FOREIGN KEY (extractor_log_id)
+    REFERENCES extractorapp.extractor_log (id),
+  CONSTRAINT extractor_phase_log_layer_fk FOREIGN KEY (extractor_layer_log_id)
+    REFERENCES extractorapp.extractor_layer_log (id)
+);
+CREATE INDEX extractor_phase_log_layer_idx ON extractorapp.extractor_phase_log(extractor_layer_log_id);
+
+
+COMMIT;
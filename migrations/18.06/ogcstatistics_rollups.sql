@@ -0,0 +1,86 @@
+-- Creates the hourly and daily rollups of the ogc services logs, read by analytics,
+-- and fills them from the existing logs. Inserts are blocked while the script runs.
+-- Requires PostgreSQL 9.5 or later (INSERT ... ON CONFLICT).
+
+BEGIN;
+
+SET search_path TO ogcstatistics,public,pg_catalog;
+
+LOCK TABLE ogc_services_log IN SHARE ROW EXCLUSIVE MODE;
+
+CREATE TABLE ogc_services_log_hourly(
+  date timestamp without time zone NOT NULL,
+  user_name character varying(255) NOT NULL,
+  org character varying(255) NOT NULL,
+  roles text[] NOT NULL,
+  service character varying(5) NOT NULL,
+  layer character varying(255) NOT NULL,
+  count bigint NOT NULL
+);
+CREATE UNIQUE INDEX ogc_services_log_hourly_key ON ogc_services_log_hourly(date, user_name, layer, org, roles, service);
+
+CREATE TABLE ogc_services_log_daily(
+  date timestamp without time zone NOT NULL,
+  user_name character varying(255) NOT NULL,
+  org character varying(255) NOT NULL,
+  roles text[] NOT NULL,
+  service character varying(5) NOT NULL,
+  layer character varying(255) NOT NULL,
+  count bigint NOT NULL
+);
+CREATE UNIQUE INDEX ogc_services_log_daily_key ON ogc_services_log_daily(date, user_name, layer, org, roles, service);
+
+-- Increments the hourly and daily counters matching the log entry
+CREATE OR REPLACE FUNCTION increment_rollups(entry ogcstatistics.ogc_services_log)
+RETURNS void AS $$
+DECLARE
+  entry_user character varying = coalesce(entry.user_name, '');
+  entry_org character varying = coalesce(entry.org, '');
+  entry_roles text[] = coalesce(entry.roles, '{}');
+  entry_service character varying = coalesce(entry.service, '');
+  entry_layer character varying = coalesce(entry.layer, '');
+BEGIN
+
+  INSERT INTO ogcstatistics.ogc_services_log_hourly AS rollup(date, user_name, org, roles, service, layer, count)
+    VALUES (date_trunc('hour', entry.date), entry_user, entry_org, entry_roles, entry_service, entry_layer, 1)
+    ON CONFLICT (date, user_name, layer, org, roles, service) DO UPDATE SET count = rollup.count + 1;
+
+  INSERT INTO ogcstatistics.ogc_services_log_daily AS rollup(date, user_name, org, roles, service, layer, count)
+    VALUES (date_trunc('day', entry.date), entry_user, entry_org, entry_roles, entry_service, entry_layer, 1)
+    ON CONFLICT (date, user_name, layer, org, roles, service) DO UPDATE SET count = rollup.count + 1;
+
+END;
+$$
+LANGUAGE plpgsql;
+
+CREATE OR REPLACE FUNCTION insert_stat_trigger_function()
+RETURNS TRIGGER AS $$
+DECLARE
+  table_name character varying;
+BEGIN
+
+  table_name := ogcstatistics.get_partition_table(NEW.date);
+
+  -- insert record in child table
+  EXECUTE 'INSERT INTO ' || table_name || ' VALUES ($1.*)' USING NEW;
+  -- and count it in the rollups
+  PERFORM ogcstatistics.increment_rollups(NEW);
+  -- do *not* insert record in master table
+  RETURN NULL;
+
+END;
+$$
+LANGUAGE plpgsql;
+
+INSERT INTO ogc_services_log_hourly(date, user_name, org, roles, service, layer, count)
+  SELECT date_trunc('hour', date), coalesce(user_name, ''), coalesce(org, ''), coalesce(roles, '{}'),
+         coalesce(service, ''), coalesce(layer, ''), COUNT(*)
+  FROM ogc_services_log
+  GROUP BY 1, 2, 3, 4, 5, 6;
+
+INSERT INTO ogc_services_log_daily(date, user_name, org, roles, service, layer, count)
+  SELECT date_trunc('day', date), user_name, org, roles, service, layer, SUM(count)
+  FROM ogc_services_log_hourly
+  GROUP BY 1, 2, 3, 4, 5, 6;
+
+COMMIT;
@@ -19,15 +19,19 @@
 
 package org.georchestra.ogcservstatistics.dataservices;
 
+import org.georchestra.ogcservstatistics.log4j.OGCServiceLog;
 import org.georchestra.ogcservstatistics.log4j.OGCServiceParser;
 
 import java.sql.Array;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 /**
- * Insert an ogc service log
+ * Insert ogc service logs, as a single JDBC batch
  * 
  * @author Mauricio Pazos
  *
@@ -43,12 +47,32 @@ public final class InsertCommand extends AbstractDataCommand {
 			"," + OGCServiceParser.SECROLE_COLUMN +
 			") VALUES (?, ?, ?, ?, ?, ?, string_to_array(?, ','))";
 	
-	private Map<String, Object> rowValues;
+	private List<OGCServiceLog> rows;
 	
 
 	public void setRowValues(final Map<String, Object> ogcServiceLog) {
 		
-		this.rowValues = ogcServiceLog;
+		this.rows = Collections.singletonList(OGCServiceLog.fromMap(ogcServiceLog));
+	}
+
+	/**
+	 * @param ogcServiceLogs the rows to insert in a single batch
+	 */
+	public void setRows(final List<Map<String, Object>> ogcServiceLogs) {
+
+		List<OGCServiceLog> logs = new ArrayList<OGCServiceLog>(ogcServiceLogs.size());
+		for (Map<String, Object> row : ogcServiceLogs) {
+			logs.add(OGCServiceLog.fromMap(row));
+		}
+		this.rows = logs;
+	}
+
+	/**
+	 * @param ogcServiceLogs the logs to insert in a single batch
+	 */
+	public void setLogs(final List<OGCServiceLog> ogcServiceLogs) {
+
+		this.rows = ogcServiceLogs;
 	}
 
 	private PreparedStatement prepareStatement() throws SQLException {
@@ -56,15 +80,18 @@ public final class InsertCommand extends AbstractDataCommand {
         assert this.connection != null: "database connection is null, use setConnection";
 
         PreparedStatement pStmt = this.connection.prepareStatement(SQL_INSERT);
-        pStmt.setString(1, (String)this.rowValues.get(OGCServiceParser.USER_COLUMN));
-
-		java.sql.Timestamp sqlDate = new java.sql.Timestamp(((java.util.Date) this.rowValues.get(OGCServiceParser.DATE_COLUMN)).getTime());
-		pStmt.setTimestamp(2, sqlDate);
-		pStmt.setString(3, ((String)this.rowValues.get(OGCServiceParser.SERVICE_COLUMN)).trim());
-        pStmt.setString(4, ((String)this.rowValues.get(OGCServiceParser.LAYER_COLUMN)).trim());
-        pStmt.setString(5, ((String)this.rowValues.get(OGCServiceParser.REQUEST_COLUMN)).trim());
-        pStmt.setString(6, ((String)this.rowValues.get(OGCServiceParser.ORG_COLUMN)).trim());
-        pStmt.setString(7, ((String)this.rowValues.get(OGCServiceParser.SECROLE_COLUMN)).trim());
+        for (OGCServiceLog log : this.rows) {
+            pStmt.setString(1, log.getUser());
+
+            java.sql.Timestamp sqlDate = new java.sql.Timestamp(log.getDate().getTime());
+            pStmt.setTimestamp(2, sqlDate);
+            pStmt.setString(3, log.getService().trim());
+            pStmt.setString(4, log.getLayer().trim());
+            pStmt.setString(5, log.getRequest().trim());
+            pStmt.setString(6, log.getOrg().trim());
+            pStmt.setString(7, log.getRoles().trim());
+            pStmt.addBatch();
+        }
         
 		return pStmt;
 	}
@@ -74,12 +101,16 @@ public final class InsertCommand extends AbstractDataCommand {
 		
         assert this.connection != null: "database connection is null, use setConnection";
 
-        // executes the sql statement and checks that the update operation will be inserted one row in the table
+        if (this.rows == null || this.rows.isEmpty()) {
+            return;
+        }
+
+        // executes the batch in a single transaction
         PreparedStatement pStmt=null;
         try {
         	this.connection.setAutoCommit(false);
             pStmt = prepareStatement();
-            pStmt.executeUpdate();
+            pStmt.executeBatch();
             this.connection.commit();
         } catch (SQLException e) {
         	if(this.connection != null){
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2009-2018 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.georchestra.ogcservstatistics.log4j;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * One row of the ogc services log, as produced by {@link OGCServiceParser}.
+ */
+public final class OGCServiceLog {
+
+	private final String user;
+	private final Date date;
+	private final String service;
+	private final String layer;
+	private final String request;
+	private final String org;
+	private final String roles;
+
+	public OGCServiceLog(final String user, final Date date, final String service, final String layer,
+			final String request, final String org, final String roles) {
+		this.user = user;
+		this.date = date;
+		this.service = service;
+		this.layer = layer;
+		this.request = request;
+		this.org = org;
+		this.roles = roles;
+	}
+
+	/**
+	 * Builds a log from a map using the {@link OGCServiceParser} column names as keys.
+	 * 
+	 * @param row
+	 * @return the ogc service log
+	 */
+	public static OGCServiceLog fromMap(final Map<String, Object> row) {
+		return new OGCServiceLog(
+				(String) row.get(OGCServiceParser.USER_COLUMN),
+				(Date) row.get(OGCServiceParser.DATE_COLUMN),
+				(String) row.get(OGCServiceParser.SERVICE_COLUMN),
+				(String) row.get(OGCServiceParser.LAYER_COLUMN),
+				(String) row.get(OGCServiceParser.REQUEST_COLUMN),
+				(String) row.get(OGCServiceParser.ORG_COLUMN),
+				(String) row.get(OGCServiceParser.SECROLE_COLUMN));
+	}
+
+	/**
+	 * @return this log as a map, using the {@link OGCServiceParser} column names as keys
+	 */
+	public Map<String, Object> toMap() {
+		Map<String, Object> row = new HashMap<String, Object>(8);
+		row.put(OGCServiceParser.USER_COLUMN, this.user);
+		row.put(OGCServiceParser.DATE_COLUMN, this.date);
+		row.put(OGCServiceParser.SERVICE_COLUMN, this.service);
+		row.put(OGCServiceParser.LAYER_COLUMN, this.layer);
+		row.put(OGCServiceParser.REQUEST_COLUMN, this.request);
+		row.put(OGCServiceParser.ORG_COLUMN, this.org);
+		row.put(OGCServiceParser.SECROLE_COLUMN, this.roles);
+		return row;
+	}
+
+	public String getUser() {
+		return user;
+	}
+
+	public Date getDate() {
+		return date;
+	}
+
+	public String getService() {
+		return service;
+	}
+
+	public String getLayer() {
+		return layer;
+	}
+
+	public String getRequest() {
+		return request;
+	}
+
+	public String getOrg() {
+		return org;
+	}
+
+	public String getRoles() {
+		return roles;
+	}
+
+	@Override
+	public String toString() {
+		return user + "|" + date + "|" + service + "|" + layer + "|" + request + "|" + org + "|" + roles;
+	}
+}
@@ -21,19 +21,26 @@ package org.georchestra.ogcservstatistics.log4j;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
-import java.text.DateFormat;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Arrays;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 /**
  * This parse recognizes an OGC service taking into account the syntax convention 
  * implemented by {@link OGCServiceMessageFormatter}.
+ * <p>
+ * The request is scanned once: at each <code>=</code> the preceding characters
+ * are compared, ignoring case, with the SERVICE, REQUEST and layer keys, and
+ * only the values of the recognized keys are decoded.
+ * </p>
  * 
  * @author Mauricio Pazos
  *
@@ -49,20 +56,12 @@ public final class OGCServiceParser {
 	public final static String ORG_COLUMN = "org";
 	public final static String SECROLE_COLUMN = "roles";
 
-	private static final String SERVICE_KEYWORD = "SERVICE=";
-	private static final String REQUEST_KEYWORD = "REQUEST=";
-			
 	// service types
 	private static final String WFS = "WFS";
 	private static final String WMS = "WMS";
 	private static final String WCS = "WCS";
 	private static final String WMTS = "WMTS";
-	private static final String[] SERVICE_TYPE_PATTERNS = {
-		SERVICE_KEYWORD + WFS,
-		SERVICE_KEYWORD + WCS,
-		SERVICE_KEYWORD + WMS,
-		SERVICE_KEYWORD + WMTS
-	};
+	private static final String[] SERVICE_TYPES = { WFS, WCS, WMS, WMTS };
 	
 	// request type
 	private static final String GETCAPABILITIES = "GETCAPABILITIES";
@@ -86,43 +85,49 @@ public final class OGCServiceParser {
 	private static final String CREATESTOREDQUERY = "CREATESTOREDQUERY";
 	private static final String DROPSTOREDQUERY = "DROPSTOREDQUERY";
 
-	private static final String[] OPERATION_NAME_PATTERNS = {
-		REQUEST_KEYWORD + GETCAPABILITIES,
-		REQUEST_KEYWORD + GETMAP,
-		REQUEST_KEYWORD + GETLEGENDGRAPHIC,
-		REQUEST_KEYWORD + GETFEATUREINFO,
-		REQUEST_KEYWORD + DESCRIBELAYER,
-		REQUEST_KEYWORD + GETFEATURE,
-		REQUEST_KEYWORD + DESCRIBEFEATURETYPE,
-		REQUEST_KEYWORD + GETCOVERAGE,
-		REQUEST_KEYWORD + DESCRIBECOVERAGE,
-		REQUEST_KEYWORD + GETTILE,
-		REQUEST_KEYWORD + GETSTYLES,
+	private static final String[] OPERATION_NAMES = {
+		GETCAPABILITIES,
+		GETMAP,
+		GETLEGENDGRAPHIC,
+		GETFEATUREINFO,
+		DESCRIBELAYER,
+		GETFEATURE,
+		DESCRIBEFEATURETYPE,
+		GETCOVERAGE,
+		DESCRIBECOVERAGE,
+		GETTILE,
+		GETSTYLES,
 		// WFS2
-		REQUEST_KEYWORD + GETPROPERTYVALUE,
-		REQUEST_KEYWORD + LOCKFEATURE,
-		REQUEST_KEYWORD + GETFEATUREWITHLOCK,
-		REQUEST_KEYWORD + LISTSTOREDQUERIES,
-		REQUEST_KEYWORD + DESCRIBESTOREDQUERIES,
-		REQUEST_KEYWORD + CREATESTOREDQUERY,
-		REQUEST_KEYWORD + DROPSTOREDQUERY
+		GETPROPERTYVALUE,
+		LOCKFEATURE,
+		GETFEATUREWITHLOCK,
+		LISTSTOREDQUERIES,
+		DESCRIBESTOREDQUERIES,
+		CREATESTOREDQUERY,
+		DROPSTOREDQUERY
 	};
-	
-	private static final String[] LAYER_KEYWORD = {
-		"LAYERS=", "LAYER=","TYPENAME=", "QUERY_LAYERS=", "COVERAGEID="
+
+	// the value stored in the request column for each operation
+	private static final String[] OPERATION_COLUMN_VALUES = new String[OPERATION_NAMES.length];
+
+	// keys searched in the request. The layer keys are sorted by ascending
+	// priority: when several of them are present the last one wins.
+	private static final String[] KEYS = {
+		"SERVICE", "REQUEST",
+		"LAYERS", "LAYER", "TYPENAME", "TYPENAMES", "QUERY_LAYERS", "COVERAGEID"
 	};
+	private static final int SERVICE_KEY = 0;
+	private static final int REQUEST_KEY = 1;
+	private static final int FIRST_LAYER_KEY = 2;
 
-	private static final String COMMA = ",";
 	private static final char QUOTE = '\"';
-	private static final char[]  DELIMITER = {'&', ' ',  '\r', '\t', '>' };
-	private static final String OGC_MSG_SPLITTER = "[" + OGCServiceMessageFormatter.SEPARATOR + "]";
-	private static final DateFormat DATE_FORMAT = new SimpleDateFormat(OGCServiceMessageFormatter.DATE_FORMAT);
-
-	private static final List<String> HAS_TO_CREATE_A_LOG_WITHOUT_LAYER = Arrays.asList(new String [] {""});
+	private static final char SEPARATOR = OGCServiceMessageFormatter.SEPARATOR.charAt(0);
+	private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern(OGCServiceMessageFormatter.DATE_FORMAT);
 
 	static {
-		// sorts the delimiters to allow binary search
-		Arrays.sort(DELIMITER);
+		for (int i = 0; i < OPERATION_NAMES.length; i++) {
+			OPERATION_COLUMN_VALUES[i] = OPERATION_NAMES[i].toLowerCase(Locale.ROOT);
+		}
 	}
 
 
@@ -134,165 +139,208 @@ public final class OGCServiceParser {
 	 * Parses the request string in order to extract service, layer, user, date
 	 * 
 	 * @param message
-	 * @return list of logs
+	 * @return list of logs, using the column names as keys
 	 * 
 	 * @throws ParseException
 	 * @throws UnsupportedEncodingException 
+	 * @see #parse(String)
 	 */
 	public static List<Map<String, Object>> parseLog(final String message) throws ParseException, UnsupportedEncodingException {
-		List<Map<String, Object>> logList = new LinkedList<Map<String,Object>>();
 
-		String[] splittedMessage = message.split(OGC_MSG_SPLITTER);
-		if(splittedMessage.length < 3){
+		List<OGCServiceLog> logs = parse(message);
+		List<Map<String, Object>> logList = new ArrayList<Map<String, Object>>(logs.size());
+		for (OGCServiceLog log : logs) {
+			logList.add(log.toMap());
+		}
+		return logList;
+	}
+
+	/**
+	 * Parses the request string in order to extract service, layer, user, date.
+	 * This method is thread-safe.
+	 * 
+	 * @param message a message built by {@link OGCServiceMessageFormatter}
+	 * @return one log per requested layer, an empty list if the request is not
+	 *         an OGC service
+	 * 
+	 * @throws ParseException
+	 */
+	public static List<OGCServiceLog> parse(final String message) throws ParseException {
+
+		// user|date|request[|org|roles], the request may itself contain the separator
+		int userEnd = message.indexOf(SEPARATOR);
+		int dateEnd = userEnd == -1 ? -1 : message.indexOf(SEPARATOR, userEnd + 1);
+		if (dateEnd == -1) {
 			throw new ParseException("the message has not be recognized. Use OGCServiceMessageFormatter.format(...) to build the message", 0);
 		}
+		int requestEnd = message.length();
+		String org = "";
+		String roles = "";
+		int rolesStart = message.lastIndexOf(SEPARATOR);
+		int orgStart = rolesStart > dateEnd ? message.lastIndexOf(SEPARATOR, rolesStart - 1) : -1;
+		if (orgStart > dateEnd) {
+			requestEnd = orgStart;
+			org = message.substring(orgStart + 1, rolesStart);
+			roles = message.substring(rolesStart + 1);
+		} else if (rolesStart > dateEnd) {
+			// missing org and roles
+			requestEnd = rolesStart;
+		}
 
-		// parses service and layer from request
-		String request = URLDecoder.decode(splittedMessage[2], "UTF-8").toUpperCase();
-		String service = parseService(request);
-		String ogcReq = parseOperationName(request).toLowerCase();
+		// parses service, operation and layers from the request
+		String[] values = scan(message, dateEnd + 1, requestEnd);
 
-		boolean undefinedService = "".equals(service);
-		if (undefinedService) return logList;
+		String service = values[SERVICE_KEY];
+		String ogcReq = values[REQUEST_KEY] == null ? "" : values[REQUEST_KEY];
+		if (service == null) {
+			// Particular case: the following does not contain the WMS service key
+			if (!GETLEGENDGRAPHIC.equalsIgnoreCase(ogcReq)) {
+				return Collections.emptyList();
+			}
+			service = WMS;
+		}
 
 		// extracts user 
-		String user=  splittedMessage[0];
-		
+		String user = message.substring(0, userEnd);
+
 		// extracts date
-		Date date = DATE_FORMAT.parse(splittedMessage[1]);
-		
-
-		// parses org (it is optional) and sec roles
-		String org;
-		String roles;
-		if(splittedMessage.length == 5){
-			org = splittedMessage[3];
-			roles = splittedMessage[4];
-		} else { // missing case
-			org = "";
-			roles = "";
-		}
-		
+		Date date = parseDate(message.substring(userEnd + 1, dateEnd), userEnd + 1);
 
 		// for each layer adds a log to the list
-		List<String> layerList = parseLayer(request);
-
-		for(String layer : layerList){
-			Map<String, Object>  log = new HashMap<String, Object>(6);
-
-			log.put(USER_COLUMN, user );
-			log.put(DATE_COLUMN, date);
-			log.put(SERVICE_COLUMN, service );
-			log.put(LAYER_COLUMN, layer.toLowerCase() );
-			log.put(REQUEST_COLUMN, ogcReq );
-			log.put(ORG_COLUMN, org);
-			log.put(SECROLE_COLUMN, roles);
-
-			logList.add(log);
+		String layers = null;
+		for (int i = values.length - 1; i >= FIRST_LAYER_KEY && layers == null; i--) {
+			layers = values[i];
+		}
+		if (layers == null) {
+			return Collections.singletonList(new OGCServiceLog(user, date, service, "", ogcReq, org, roles));
+		}
+		List<OGCServiceLog> logList = new ArrayList<OGCServiceLog>(4);
+		int start = 0;
+		while (start <= layers.length()) {
+			int end = layers.indexOf(',', start);
+			if (end == -1) {
+				end = layers.length();
+			}
+			String layer = removeQuoteAndTrim(layers.substring(start, end));
+			if (layer.length() > 0) {
+				logList.add(new OGCServiceLog(user, date, service, layer.toLowerCase(Locale.ROOT), ogcReq, org, roles));
+			}
+			start = end + 1;
+		}
+		if (logList.isEmpty()) {
+			logList.add(new OGCServiceLog(user, date, service, "", ogcReq, org, roles));
 		}
 		return logList;
 	}
 
 	/**
-	 * Parses the OGC service.
-	 *
-	 * @param message
-	 *
-	 * @return an OGC service symbol, "" in other case.
+	 * Looks for the keys in the request.
+	 * 
+	 * @return the values indexed as {@link #KEYS}: the service symbol, the
+	 *         operation column value and the decoded layer lists, null for
+	 *         the keys which were not found
 	 */
-	private static String parseService(final String message){
-		// checks if it is an ogc service
-		for (String pattern : SERVICE_TYPE_PATTERNS) {
-			if (message.contains(pattern)) {
+	private static String[] scan(final String message, final int begin, final int end) {
 
-				String service = pattern.substring(SERVICE_KEYWORD.length());
-				return removeQuoteAndTrim(service);
+		String[] values = new String[KEYS.length];
+		for (int eq = message.indexOf('=', begin); eq != -1 && eq < end; eq = message.indexOf('=', eq + 1)) {
+			int key = matchKey(message, begin, eq);
+			if (key == -1 || values[key] != null) {
+				continue;
+			}
+			String value = decode(message.substring(eq + 1, searchEndOfValue(message, eq + 1, end)));
+			switch (key) {
+			case SERVICE_KEY:
+				values[key] = lookup(SERVICE_TYPES, SERVICE_TYPES, removeQuoteAndTrim(value));
+				break;
+			case REQUEST_KEY:
+				values[key] = lookup(OPERATION_NAMES, OPERATION_COLUMN_VALUES, removeQuoteAndTrim(value));
+				break;
+			default:
+				// decoding may have revealed a delimiter
+				values[key] = value.substring(0, searchEndOfValue(value, 0, value.length()));
 			}
 		}
-		// Particular case: the following does not contain the WMS service key
-		if(message.contains(GETLEGENDGRAPHIC)){
-			return WMS;
-		}
-		return "";
+		return values;
 	}
 
-	private static String parseOperationName(final String message){
-		for (String pattern : OPERATION_NAME_PATTERNS) {
-			if (message.contains(pattern)) {
-
-				String request = pattern.substring(REQUEST_KEYWORD.length());
-				return removeQuoteAndTrim(request);
+	/**
+	 * @return the index of the key which ends at <code>eq</code>, ignoring
+	 *         case, -1 if there is none. The whole parameter name has to
+	 *         match: XSERVICE or SUBLAYER are not keys.
+	 */
+	private static int matchKey(final String message, final int begin, final int eq) {
+		for (int i = KEYS.length - 1; i >= 0; i--) {
+			int start = eq - KEYS[i].length();
+			if (start >= begin && (start == begin || !isNameChar(message.charAt(start - 1)))
+					&& message.regionMatches(true, start, KEYS[i], 0, KEYS[i].length())) {
+				return i;
 			}
 		}
-		return "";
+		return -1;
 	}
 
-	/**
-	 * Parses the layer name
-	 * 
-	 * @param request
-	 * 
-	 * @return a list of layer names
-	 */
-	private static List<String> parseLayer(final String request) {
-		List<String> layerList = HAS_TO_CREATE_A_LOG_WITHOUT_LAYER;
-		for (String layerKeyword : LAYER_KEYWORD) {
-			if (request.contains(layerKeyword)) {
-
-				int begin = request.indexOf(layerKeyword);
-				begin = begin + layerKeyword.length();
-				String layers = request.substring(begin);
-				int end = searchEndOfLayerValue(layers);
-				layers = layers.substring(0, end);
-				
-				layerList = buildLayerList(layers);
+	private static boolean isNameChar(final char c) {
+		return Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.' || c == ':';
+	}
+
+	private static String lookup(final String[] names, final String[] results, final String value) {
+		for (int i = 0; i < names.length; i++) {
+			if (names[i].equalsIgnoreCase(value)) {
+				return results[i];
 			}
 		}
-		return layerList;
+		return null;
 	}
 
 	/**
-	 * Index of the end of list of the layer names.
-	 * 
-	 * @param layer
-	 * @return index 
+	 * Index of the end of the value which starts at <code>begin</code>.
 	 */
-	private static int searchEndOfLayerValue(String layer) {
-
-		int end = -1;
-		// search the delimiter the layer element
-		for(int i = 0; i < layer.length(); i ++){
-			
-			char current = layer.charAt(i);
-			if(Arrays.binarySearch(DELIMITER, current) >= 0){
+	private static int searchEndOfValue(final String message, final int begin, final int end) {
+
+		for (int i = begin; i < end; i++) {
+			switch (message.charAt(i)) {
+			case '&':
+			case ' ':
+			case '\r':
+			case '\n':
+			case '\t':
+			case '>':
 				return i;
+			default:
 			}
 		}
-		if( end == -1){
-			end = layer.length();
-		}
 		return end;
 	}
 
-	/**
-	 * Extract the layer name from a list like
-	 * layer1, layer2, ...., layerN
-	 * 
-	 * @param strLayerList
-	 * 
-	 * @return List of layers
-	 */
-	private static List<String> buildLayerList(final String strLayerList) {
-		List<String> layers = new LinkedList<String>();
-		String[] layersToBeautify = strLayerList.split(COMMA);
-		for (String layerToBeautify : layersToBeautify) {
-			layers.add(removeQuoteAndTrim(layerToBeautify));
+	private static String decode(final String value) {
+		if (value.indexOf('%') == -1 && value.indexOf('+') == -1) {
+			return value;
+		}
+		try {
+			return URLDecoder.decode(value, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			return value;
+		} catch (IllegalArgumentException e) {
+			// malformed escape sequence, keeps the raw value
+			return value;
+		}
+	}
+
+	private static Date parseDate(final String date, final int offset) throws ParseException {
+		try {
+			LocalDateTime dateTime = LocalDateTime.parse(date, DATE_FORMAT);
+			return Date.from(dateTime.atZone(ZoneId.systemDefault()).toInstant());
+		} catch (DateTimeParseException e) {
+			throw new ParseException("Unparseable date: \"" + date + "\"", offset + e.getErrorIndex());
 		}
-		return layers;
 	}
 
 	private static String removeQuoteAndTrim(String string) {
-		return string.replace(QUOTE, ' ').trim();
+		if (string.indexOf(QUOTE) != -1) {
+			string = string.replace(QUOTE, ' ');
+		}
+		return string.trim();
 	}
 
 }
@@ -19,13 +19,14 @@
 
 package org.georchestra.ogcservstatistics.log4j;
 
+import java.io.File;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 import org.apache.log4j.AppenderSkeleton;
 import org.apache.log4j.spi.ErrorCode;
+import org.apache.log4j.spi.Filter;
 import org.apache.log4j.spi.LoggingEvent;
 import org.georchestra.ogcservstatistics.OGCServStatisticsException;
 import org.georchestra.ogcservstatistics.dataservices.DataServicesConfiguration;
@@ -54,6 +55,25 @@ import org.georchestra.ogcservstatistics.dataservices.InsertCommand;
  * <p>
  * Note: you could improve the performance increasing the <b>bufferSize</b> value.
  * </p>
+ * <p>
+ * By default the appender is <b>asynchronous</b>: the request threads only
+ * queue the log messages in a bounded buffer of <b>queueCapacity</b>
+ * messages, a background thread parses them and inserts the rows by JDBC
+ * batches of <b>bufferSize</b> rows, or every <b>flushInterval</b>
+ * milliseconds. When the buffer is full, the <b>overflowPolicy</b> tells what
+ * to do with new messages: <code>drop</code> them (default), <code>block</code>
+ * the request thread until there is room, or <code>spill</code> them to
+ * <b>spillFile</b>, replayed once the database catches up. Whatever the
+ * policy, a batch which cannot be inserted is tried once more, then spilled to
+ * <b>spillFile</b>:
+ * </p>
+ * <pre>
+ * log4j.appender.OGCSERVICES.asynchronous=true
+ * log4j.appender.OGCSERVICES.bufferSize=100
+ * log4j.appender.OGCSERVICES.flushInterval=1000
+ * log4j.appender.OGCSERVICES.queueCapacity=10000
+ * log4j.appender.OGCSERVICES.overflowPolicy=drop
+ * </pre>
  * 
  * <p>
  * To load the configuration you should include the following code:
@@ -102,7 +122,7 @@ public class OGCServicesAppender extends AppenderSkeleton {
 	/**
 	 * ArrayList holding the buffer of Logging Events.
 	 */
-	protected ArrayList<Map<String, Object>> buffer;
+	protected ArrayList<OGCServiceLog> buffer;
 
 	/**
 	 * Activated 
@@ -111,12 +131,40 @@ public class OGCServicesAppender extends AppenderSkeleton {
 	 */
 	protected boolean activated = false;
 
+	/**
+	 * true (default): the logs are written by a background thread
+	 * false: the logs are written by the logging thread
+	 */
+	protected boolean asynchronous = true;
+
+	/**
+	 * maximum delay in ms before the buffered logs are written, in asynchronous mode
+	 */
+	protected long flushInterval = 1000;
+
+	/**
+	 * number of log messages waiting to be written, in asynchronous mode
+	 */
+	protected int queueCapacity = 10000;
+
+	/**
+	 * what to do when the queue is full: drop, block or spill
+	 */
+	protected String overflowPolicy = "drop";
+
+	/**
+	 * where to spill the log messages when the queue is full, with the spill policy
+	 */
+	protected String spillFile = new File(System.getProperty("java.io.tmpdir"), "ogc-statistics-spill.log").getPath();
+
 	private DataServicesConfiguration dataServiceConfiguration = DataServicesConfiguration.getInstance();
 
+	private volatile OGCServicesWriter writer;
+
 
 	public OGCServicesAppender() {
 		super();
-		this.buffer = new ArrayList<Map<String, Object>>(this.bufferSize);
+		this.buffer = new ArrayList<OGCServiceLog>(this.bufferSize);
 	}
 
 	
@@ -190,6 +238,95 @@ public class OGCServicesAppender extends AppenderSkeleton {
 		this.activated = activated;
 	}
 
+	public boolean isAsynchronous() {
+		return asynchronous;
+	}
+
+	public void setAsynchronous(boolean asynchronous) {
+		this.asynchronous = asynchronous;
+	}
+
+	public long getFlushInterval() {
+		return flushInterval;
+	}
+
+	public void setFlushInterval(long flushInterval) {
+		this.flushInterval = flushInterval;
+	}
+
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	public void setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = queueCapacity;
+	}
+
+	public String getOverflowPolicy() {
+		return overflowPolicy;
+	}
+
+	public void setOverflowPolicy(String overflowPolicy) {
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	public String getSpillFile() {
+		return spillFile;
+	}
+
+	public void setSpillFile(String spillFile) {
+		this.spillFile = spillFile;
+	}
+
+	/**
+	 * @return the number of log messages waiting to be written
+	 */
+	public int getQueueDepth() {
+		return writer == null ? this.buffer.size() : writer.getQueueDepth();
+	}
+
+	/**
+	 * @return the number of log messages lost because the queue was full
+	 */
+	public long getDroppedEvents() {
+		return writer == null ? 0 : writer.getDroppedEvents();
+	}
+
+	/**
+	 * @return the number of log messages spilled to disk because the queue was full
+	 */
+	public long getSpilledEvents() {
+		return writer == null ? 0 : writer.getSpilledEvents();
+	}
+
+	/**
+	 * @return the number of rows lost because they could neither be inserted nor spilled
+	 */
+	public long getFailedRows() {
+		return writer == null ? 0 : writer.getFailedRows();
+	}
+
+	/**
+	 * @return the number of failed batch insertions, retries included
+	 */
+	public long getFailedInserts() {
+		return writer == null ? 0 : writer.getFailedInserts();
+	}
+
+	/**
+	 * @return the number of rows written by the background writer
+	 */
+	public long getWrittenRows() {
+		return writer == null ? 0 : writer.getWrittenRows();
+	}
+
+	/**
+	 * @return the age in ms of the oldest log message of the last written batch
+	 */
+	public long getLag() {
+		return writer == null ? 0 : writer.getLastFlushLag();
+	}
+
 	/**
 	 * This hook method called after set all appender properties.
 	 * In this case the configuration is set.
@@ -201,6 +338,52 @@ public class OGCServicesAppender extends AppenderSkeleton {
 		this.dataServiceConfiguration.setUser(getDatabaseUser());
 		this.dataServiceConfiguration.setPassword(getDatabasePassword());
 		this.dataServiceConfiguration.setJdbcURL(getJdbcURL());
+
+		if (this.writer != null) {
+			this.writer.stop();
+			this.writer = null;
+		}
+		if (this.activated && this.asynchronous) {
+			OGCServicesWriter.OverflowPolicy policy;
+			try {
+				policy = OGCServicesWriter.OverflowPolicy.valueOf(this.overflowPolicy.trim().toUpperCase());
+			} catch (IllegalArgumentException e) {
+				errorHandler.error("Unknown overflowPolicy " + this.overflowPolicy + ", using drop", e,
+						ErrorCode.GENERIC_FAILURE);
+				policy = OGCServicesWriter.OverflowPolicy.DROP;
+			}
+			File spill = this.spillFile == null || this.spillFile.trim().isEmpty() ? null : new File(this.spillFile);
+			this.writer = new OGCServicesWriter(this.queueCapacity, this.bufferSize, this.flushInterval, policy,
+					spill);
+			this.writer.start();
+		}
+	}
+
+	/**
+	 * In asynchronous mode, the log4j appender lock is not taken: the events
+	 * only go to the lock-free queue of the background writer.
+	 */
+	@Override
+	public void doAppend(LoggingEvent event) {
+		if (this.writer == null) {
+			super.doAppend(event);
+			return;
+		}
+		if (this.closed || !isAsSevereAsThreshold(event.getLevel())) {
+			return;
+		}
+		Filter f = this.headFilter;
+		FILTER_LOOP: while (f != null) {
+			switch (f.decide(event)) {
+			case Filter.DENY:
+				return;
+			case Filter.ACCEPT:
+				break FILTER_LOOP;
+			default:
+				f = f.getNext();
+			}
+		}
+		append(event);
 	}
 
 
@@ -216,12 +399,19 @@ public class OGCServicesAppender extends AppenderSkeleton {
 		if (!this.activated)
 			return;
 
+		OGCServicesWriter w = this.writer;
+		if (w != null) {
+			// the message is parsed by the background writer
+			w.enqueue(event.getRenderedMessage(), event.getTimeStamp());
+			return;
+		}
+
 		try {
 
 			String msg = event.getRenderedMessage();
-			List<Map<String, Object>> logList = OGCServiceParser.parseLog(msg);
+			List<OGCServiceLog> logList = OGCServiceParser.parse(msg);
 
-			for (Map<String, Object> log : logList) {
+			for (OGCServiceLog log : logList) {
 				this.buffer.add(log);
 				if (this.buffer.size() >= this.bufferSize) {
 					flushBuffer();
@@ -236,27 +426,19 @@ public class OGCServicesAppender extends AppenderSkeleton {
 
 
 	/**
-	 * Inserts in the database table the OGC Service logs maintained in the appender buffer 
+	 * Inserts in the database table the OGC Service logs maintained in the appender buffer,
+	 * as a single batch
 	 * @throws OGCServStatisticsException 
 	 */
 	private void flushBuffer() {
 		
-		ArrayList<Map<String, Object>> removed = new ArrayList<Map<String,Object>>(this.buffer.size());
-		for (Map<String,Object> log: this.buffer) {
-
-			insert(log);
-			removed.add(log);
+		if (this.buffer.isEmpty()) {
+			return;
 		}
-		this.buffer.removeAll(removed);
-	}
-
-
-	private void insert(Map<String, Object> ogcServiceRecord)  {
-
 		try {
 			InsertCommand cmd = new InsertCommand();
 			cmd.setConnection(this.dataServiceConfiguration .getConnection());
-			cmd.setRowValues( ogcServiceRecord);
+			cmd.setLogs(new ArrayList<OGCServiceLog>(this.buffer));
 			cmd.execute();
 
 		} catch (Exception e) {
@@ -264,7 +446,7 @@ public class OGCServicesAppender extends AppenderSkeleton {
 			errorHandler.error("Failed to insert the log", e,
 					ErrorCode.WRITE_FAILURE);
 		}
-		
+		this.buffer.clear();
 	}
 	
 	@Override
@@ -279,6 +461,11 @@ public class OGCServicesAppender extends AppenderSkeleton {
 	public void close() {
 		try {
 
+			if (this.writer != null) {
+				// writes the pending logs before leaving
+				this.writer.stop();
+				this.writer = null;
+			}
 			flushBuffer();
 			this.dataServiceConfiguration.closeConnection();
 			
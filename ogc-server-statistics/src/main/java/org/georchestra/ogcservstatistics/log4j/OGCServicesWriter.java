@@ -0,0 +1,428 @@
+/*
+ * Copyright (C) 2009-2018 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.georchestra.ogcservstatistics.log4j;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.helpers.LogLog;
+import org.georchestra.ogcservstatistics.dataservices.DataServicesConfiguration;
+import org.georchestra.ogcservstatistics.dataservices.InsertCommand;
+
+/**
+ * Background writer of the OGC service logs.
+ * <p>
+ * The request threads only put the raw log messages in a bounded lock-free
+ * {@link RingBuffer}. A single thread drains it, parses the messages and
+ * inserts the resulting rows as JDBC batches, whenever <code>batchSize</code>
+ * rows are pending or the oldest pending row is older than
+ * <code>flushInterval</code> milliseconds.
+ * </p>
+ * <p>
+ * When the buffer is full, the {@link OverflowPolicy} tells whether the
+ * message is dropped, whether the request thread waits for some room, or
+ * whether the message is spilled to a file, replayed later by the writer. The
+ * request threads never write the spill file themselves: the messages to spill
+ * go to a second bounded buffer, written to the file by the writer thread.
+ * </p>
+ * <p>
+ * A batch which cannot be inserted is tried once more, then spilled whatever
+ * the overflow policy, so that the rows are not lost while the database is
+ * unavailable. The rows are only lost when there is no spill file or when it
+ * cannot be written, they are then counted as failed.
+ * </p>
+ * 
+ * @see OGCServicesAppender
+ */
+class OGCServicesWriter implements Runnable {
+
+	enum OverflowPolicy {
+		DROP, BLOCK, SPILL
+	}
+
+	/**
+	 * Delay between two attempts to replay the spill file
+	 */
+	private static final long SPILL_REPLAY_INTERVAL = TimeUnit.SECONDS.toMillis(30);
+
+	/**
+	 * Delay before trying again to insert a batch
+	 */
+	private static final long RETRY_DELAY = TimeUnit.SECONDS.toMillis(1);
+
+	private final RingBuffer<PendingLog> queue;
+	/**
+	 * the messages to spill, written to the spill file by the writer thread
+	 */
+	private final RingBuffer<PendingLog> overflow;
+	private final int batchSize;
+	private final long flushInterval;
+	private final OverflowPolicy overflowPolicy;
+	private final File spillFile;
+
+	private volatile boolean running = true;
+	private volatile Thread thread;
+	private long lastSpillReplay = 0;
+
+	private final AtomicLong droppedEvents = new AtomicLong();
+	private final AtomicLong spilledEvents = new AtomicLong();
+	private final AtomicLong writtenRows = new AtomicLong();
+	private final AtomicLong failedRows = new AtomicLong();
+	private final AtomicLong failedInserts = new AtomicLong();
+	private volatile long lastFlushLag = 0;
+
+	OGCServicesWriter(int queueCapacity, int batchSize, long flushInterval, OverflowPolicy overflowPolicy,
+			File spillFile) {
+		this.queue = new RingBuffer<PendingLog>(queueCapacity);
+		this.overflow = new RingBuffer<PendingLog>(overflowPolicy == OverflowPolicy.SPILL ? queueCapacity : 2);
+		this.batchSize = Math.max(1, batchSize);
+		this.flushInterval = flushInterval;
+		this.overflowPolicy = overflowPolicy;
+		this.spillFile = spillFile;
+	}
+
+	void start() {
+		Thread t = new Thread(this, "ogc-statistics-writer");
+		t.setDaemon(true);
+		this.thread = t;
+		t.start();
+	}
+
+	/**
+	 * Stops the writer, once all the pending messages are written.
+	 */
+	void stop() {
+		this.running = false;
+		Thread t = this.thread;
+		if (t != null) {
+			LockSupport.unpark(t);
+			try {
+				t.join(TimeUnit.SECONDS.toMillis(30));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Queues a message, called from the request threads.
+	 */
+	void enqueue(String message, long timestamp) {
+		PendingLog log = new PendingLog(message, timestamp);
+		if (!queue.offer(log)) {
+			switch (overflowPolicy) {
+			case BLOCK:
+				while (!queue.offer(log)) {
+					if (!running) {
+						droppedEvents.incrementAndGet();
+						return;
+					}
+					wakeUp();
+					LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+				}
+				break;
+			case SPILL:
+				if (!overflow.offer(log)) {
+					droppedEvents.incrementAndGet();
+				}
+				wakeUp();
+				return;
+			default:
+				droppedEvents.incrementAndGet();
+				return;
+			}
+		}
+		if (queue.size() >= batchSize) {
+			wakeUp();
+		}
+	}
+
+	private void wakeUp() {
+		Thread t = this.thread;
+		if (t != null) {
+			LockSupport.unpark(t);
+		}
+	}
+
+	public void run() {
+		List<PendingLog> batch = new ArrayList<PendingLog>(batchSize);
+		while (running || !queue.isEmpty()) {
+			spillOverflow();
+			PendingLog log = queue.poll();
+			if (log != null) {
+				batch.add(log);
+				if (batch.size() >= batchSize) {
+					flush(batch);
+				}
+				continue;
+			}
+			long now = System.currentTimeMillis();
+			if (!batch.isEmpty()) {
+				long wait = batch.get(0).timestamp + flushInterval - now;
+				if (wait <= 0) {
+					flush(batch);
+					continue;
+				}
+				LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(wait));
+			} else {
+				if (now - lastSpillReplay >= SPILL_REPLAY_INTERVAL) {
+					lastSpillReplay = now;
+					replaySpill();
+				}
+				LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(Math.max(1, flushInterval)));
+			}
+		}
+		flush(batch);
+		spillOverflow();
+	}
+
+	/**
+	 * Writes the messages which did not fit in the queue to the spill file.
+	 */
+	void spillOverflow() {
+		if (overflow.isEmpty()) {
+			return;
+		}
+		List<String> messages = new ArrayList<String>();
+		PendingLog log;
+		while ((log = overflow.poll()) != null) {
+			messages.add(log.message);
+		}
+		if (!spill(messages)) {
+			droppedEvents.addAndGet(messages.size());
+		}
+	}
+
+	/**
+	 * Parses and inserts the batch, then clears it. A batch which fails twice
+	 * is spilled.
+	 */
+	private void flush(List<PendingLog> batch) {
+		if (batch.isEmpty()) {
+			return;
+		}
+		List<OGCServiceLog> rows = new ArrayList<OGCServiceLog>(batch.size());
+		for (PendingLog log : batch) {
+			try {
+				rows.addAll(OGCServiceParser.parse(log.message));
+			} catch (Exception e) {
+				LogLog.error("Failed to parse the ogc service log: " + log.message, e);
+			}
+		}
+		if (tryInsert(rows) || (running && pause(RETRY_DELAY) && tryInsert(rows))) {
+			writtenRows.addAndGet(rows.size());
+		} else {
+			List<String> messages = new ArrayList<String>(batch.size());
+			for (PendingLog log : batch) {
+				messages.add(log.message);
+			}
+			if (!spill(messages)) {
+				failedRows.addAndGet(rows.size());
+			}
+		}
+		this.lastFlushLag = System.currentTimeMillis() - batch.get(0).timestamp;
+		batch.clear();
+	}
+
+	private boolean tryInsert(List<OGCServiceLog> rows) {
+		try {
+			insert(rows);
+			return true;
+		} catch (Exception e) {
+			failedInserts.incrementAndGet();
+			LogLog.error("Failed to insert " + rows.size() + " ogc service logs", e);
+			return false;
+		}
+	}
+
+	private static boolean pause(long millis) {
+		try {
+			Thread.sleep(millis);
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	protected void insert(List<OGCServiceLog> rows) throws Exception {
+		if (rows.isEmpty()) {
+			return;
+		}
+		InsertCommand cmd = new InsertCommand();
+		cmd.setConnection(DataServicesConfiguration.getInstance().getConnection());
+		cmd.setLogs(rows);
+		cmd.execute();
+	}
+
+	/**
+	 * Appends the messages to the spill file, one per line. Only called from
+	 * the writer thread.
+	 * 
+	 * @return false if the messages could not be spilled, and are lost
+	 */
+	private boolean spill(List<String> messages) {
+		if (spillFile == null) {
+			return false;
+		}
+		Writer writer = null;
+		try {
+			writer = new OutputStreamWriter(new FileOutputStream(spillFile, true), "UTF-8");
+			for (String message : messages) {
+				writer.write(escape(message));
+				writer.write('\n');
+			}
+			writer.close();
+			writer = null;
+			spilledEvents.addAndGet(messages.size());
+			return true;
+		} catch (IOException e) {
+			LogLog.error("Failed to spill the ogc service logs to " + spillFile, e);
+			return false;
+		} finally {
+			if (writer != null) {
+				try {
+					writer.close();
+				} catch (IOException e) {
+					LogLog.error("Failed to close " + spillFile, e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the spilled messages to the database, by batches. The messages
+	 * which fail again are spilled again (to a new spill file).
+	 */
+	private void replaySpill() {
+		if (spillFile == null) {
+			return;
+		}
+		File replayFile = new File(spillFile.getPath() + ".replay");
+		if (!spillFile.exists() || !spillFile.renameTo(replayFile)) {
+			return;
+		}
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(replayFile), "UTF-8"));
+			List<PendingLog> batch = new ArrayList<PendingLog>(batchSize);
+			long now = System.currentTimeMillis();
+			String line;
+			while ((line = reader.readLine()) != null) {
+				batch.add(new PendingLog(unescape(line), now));
+				if (batch.size() >= batchSize) {
+					flush(batch);
+				}
+			}
+			flush(batch);
+		} catch (IOException e) {
+			LogLog.error("Failed to replay " + replayFile, e);
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (IOException e) {
+					LogLog.error("Failed to close " + replayFile, e);
+				}
+			}
+			replayFile.delete();
+		}
+	}
+
+	static String escape(String message) {
+		return message.replace("\\", "\\\\").replace("\r", "\\r").replace("\n", "\\n");
+	}
+
+	static String unescape(String line) {
+		StringBuilder sb = new StringBuilder(line.length());
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (c == '\\' && i + 1 < line.length()) {
+				char next = line.charAt(++i);
+				sb.append(next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+
+	int getQueueDepth() {
+		return queue.size();
+	}
+
+	int getQueueCapacity() {
+		return queue.capacity();
+	}
+
+	long getDroppedEvents() {
+		return droppedEvents.get();
+	}
+
+	long getSpilledEvents() {
+		return spilledEvents.get();
+	}
+
+	long getWrittenRows() {
+		return writtenRows.get();
+	}
+
+	/**
+	 * @return the number of rows which could neither be inserted nor spilled
+	 */
+	long getFailedRows() {
+		return failedRows.get();
+	}
+
+	/**
+	 * @return the number of failed batch insertions, retries included
+	 */
+	long getFailedInserts() {
+		return failedInserts.get();
+	}
+
+	/**
+	 * @return the age, in ms, of the oldest message of the last flushed batch
+	 */
+	long getLastFlushLag() {
+		return lastFlushLag;
+	}
+
+	private static final class PendingLog {
+		final String message;
+		final long timestamp;
+
+		PendingLog(String message, long timestamp) {
+			this.message = message;
+			this.timestamp = timestamp;
+		}
+	}
+}
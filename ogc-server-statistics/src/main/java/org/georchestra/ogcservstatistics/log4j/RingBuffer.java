@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2009-2018 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.georchestra.ogcservstatistics.log4j;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free queue, safe for several producers and consumers.
+ * <p>
+ * Each slot of the ring carries a sequence number telling whether it is free
+ * for the producer at a given position or filled for the consumer at that
+ * position, so that producers and consumers only contend through a CAS on
+ * their own position counter.
+ * </p>
+ * 
+ * @param <E> the type of the queued elements
+ */
+final class RingBuffer<E> {
+
+	private final AtomicReferenceArray<E> buffer;
+	private final AtomicLongArray sequences;
+	private final int mask;
+	private final AtomicLong enqueuePosition = new AtomicLong();
+	private final AtomicLong dequeuePosition = new AtomicLong();
+
+	/**
+	 * @param capacity the minimal capacity, rounded up to a power of two
+	 */
+	RingBuffer(int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+		this.buffer = new AtomicReferenceArray<E>(size);
+		this.sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			this.sequences.set(i, i);
+		}
+		this.mask = size - 1;
+	}
+
+	/**
+	 * @return false if the buffer is full
+	 */
+	boolean offer(E element) {
+		long position = enqueuePosition.get();
+		int index;
+		while (true) {
+			index = (int) (position & mask);
+			long diff = sequences.get(index) - position;
+			if (diff == 0) {
+				if (enqueuePosition.compareAndSet(position, position + 1)) {
+					break;
+				}
+				position = enqueuePosition.get();
+			} else if (diff < 0) {
+				return false;
+			} else {
+				position = enqueuePosition.get();
+			}
+		}
+		buffer.set(index, element);
+		sequences.set(index, position + 1);
+		return true;
+	}
+
+	/**
+	 * @return the head of the queue, null if the queue is empty
+	 */
+	E poll() {
+		long position = dequeuePosition.get();
+		int index;
+		while (true) {
+			index = (int) (position & mask);
+			long diff = sequences.get(index) - (position + 1);
+			if (diff == 0) {
+				if (dequeuePosition.compareAndSet(position, position + 1)) {
+					break;
+				}
+				position = dequeuePosition.get();
+			} else if (diff < 0) {
+				return null;
+			} else {
+				position = dequeuePosition.get();
+			}
+		}
+		E element = buffer.get(index);
+		buffer.set(index, null);
+		sequences.set(index, position + mask + 1);
+		return element;
+	}
+
+	/**
+	 * @return an estimation of the number of queued elements
+	 */
+	int size() {
+		long size = enqueuePosition.get() - dequeuePosition.get();
+		return (int) Math.max(0, Math.min(size, mask + 1));
+	}
+
+	boolean isEmpty() {
+		return size() == 0;
+	}
+
+	int capacity() {
+		return mask + 1;
+	}
+}
@@ -3,8 +3,14 @@ package org.georchestra.ogcservstatistics.log4j;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.Test;
 
@@ -69,4 +75,92 @@ public class OGCServiceParserTest {
 		assertEquals("", logEntries.get(0).get("layer"));
 	}
 
+	@Test
+	public void parseWholeKeysOnly() throws Exception {
+		String REQUEST = "user3|2013/12/18 13:57:00|http://localhost/geoserver/ows?XSERVICE=WFS&SERVICE=WMS&MYREQUEST=GetStyles&REQUEST=GetMap&SUBLAYERS=a,b&LAYERS=ign%3Acommune|psc|ROLE_USER";
+		List<OGCServiceLog> logEntries = OGCServiceParser.parse(REQUEST);
+		assertEquals(1, logEntries.size());
+		assertEquals("WMS", logEntries.get(0).getService());
+		assertEquals("getmap", logEntries.get(0).getRequest());
+		assertEquals("ign:commune", logEntries.get(0).getLayer());
+
+		String NO_SERVICE = "user3|2013/12/18 13:57:00|http://localhost/geoserver/ows?XSERVICE=WFS&REQUEST=GetFeature&TYPENAME=a|psc|ROLE_USER";
+		assertTrue(OGCServiceParser.parse(NO_SERVICE).isEmpty());
+	}
+
+	@Test
+	public void parseGetFeatureInfo() throws Exception {
+		String GET_FEATURE_INFO_REQUEST = "user3|2013/12/18 13:57:00|http://localhost/geoserver/ign/wms?SERVICE=WMS&VERSION=1.1.1&REQUEST=GetFeatureInfo&LAYERS=ign%3Acommune,ign%3Acanton&QUERY_LAYERS=ign%3Acommune&INFO_FORMAT=application%2Fvnd.ogc.gml|psc|ROLE_USER,ROLE_ADMIN";
+		List<OGCServiceLog> logEntries = OGCServiceParser.parse(GET_FEATURE_INFO_REQUEST);
+		assertEquals(1, logEntries.size());
+		OGCServiceLog log = logEntries.get(0);
+		assertEquals("user3", log.getUser());
+		assertEquals(new SimpleDateFormat(OGCServiceMessageFormatter.DATE_FORMAT).parse("2013/12/18 13:57:00"), log.getDate());
+		assertEquals("WMS", log.getService());
+		assertEquals("getfeatureinfo", log.getRequest());
+		assertEquals("ign:commune", log.getLayer());
+		assertEquals("psc", log.getOrg());
+		assertEquals("ROLE_USER,ROLE_ADMIN", log.getRoles());
+	}
+
+	@Test
+	public void parseGetLegendGraphicWithoutService() throws Exception {
+		String GET_LEGEND_REQUEST = "user7|2013/12/18 13:57:00|http://localhost/geoserver/wms?request=GetLegendGraphic&format=image%2Fpng&layer=paln_eau_federaux|psc|";
+		List<OGCServiceLog> logEntries = OGCServiceParser.parse(GET_LEGEND_REQUEST);
+		assertEquals(1, logEntries.size());
+		assertEquals("WMS", logEntries.get(0).getService());
+		assertEquals("paln_eau_federaux", logEntries.get(0).getLayer());
+		assertEquals("psc", logEntries.get(0).getOrg());
+		assertEquals("", logEntries.get(0).getRoles());
+	}
+
+	@Test
+	public void parsePostGetFeature() throws Exception {
+		String POST_REQUEST = "user10|2013/12/18 13:57:00|http://localhost/geoserver/wfs/WfsDispatcher?\n"
+				+ "<wfs:GetFeature xmlns:wfs=\"http://www.opengis.net/wfs\" service=\"WFS\" version=\"1.0.0\">\n"
+				+ "<wfs:Query typeName=\"ign:commune\" srsName=\"EPSG:2154\"></wfs:Query></wfs:GetFeature>";
+		List<OGCServiceLog> logEntries = OGCServiceParser.parse(POST_REQUEST);
+		assertEquals(1, logEntries.size());
+		assertEquals("WFS", logEntries.get(0).getService());
+		assertEquals("ign:commune", logEntries.get(0).getLayer());
+	}
+
+	@Test
+	public void parseTypeNameWithNamespace() throws Exception {
+		String GET_FEATURE_REQUEST = "user22|2013/12/18 13:57:00|http://www.someserver.com/wfs.cgi&SERVICE=WFS&VERSION=1.1.0&REQUEST=GetFeature&NAMESPACE=xmlns(myns=http://www.someserver.com),	xmlns(yourns=http://www.someotherserver.com)TYPENAME=myns:InWaterA_1M,your:BuiltUpA_1M";
+		List<OGCServiceLog> logEntries = OGCServiceParser.parse(GET_FEATURE_REQUEST);
+		assertEquals(2, logEntries.size());
+		assertEquals("getfeature", logEntries.get(0).getRequest());
+		assertEquals("myns:inwatera_1m", logEntries.get(0).getLayer());
+		assertEquals("your:builtupa_1m", logEntries.get(1).getLayer());
+	}
+
+	@Test
+	public void parseConcurrently() throws Exception {
+		final String GET_MAP_REQUEST = "user4|2013/12/18 13:57:00|http://localhost/geoserver/wms?SERVICE=WMS&LAYERS=fond_gip&TRANSPARENT=true&VERSION=1.1.1&FORMAT=image%2Fpng&REQUEST=GetMap&STYLES=&SRS=EPSG%3A2154";
+		final Object expectedDate = OGCServiceParser.parse(GET_MAP_REQUEST).get(0).getDate();
+
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+			for (int i = 0; i < 8; i++) {
+				results.add(executor.submit(new Callable<Boolean>() {
+					public Boolean call() throws Exception {
+						for (int j = 0; j < 1000; j++) {
+							if (!expectedDate.equals(OGCServiceParser.parse(GET_MAP_REQUEST).get(0).getDate())) {
+								return false;
+							}
+						}
+						return true;
+					}
+				}));
+			}
+			for (Future<Boolean> result : results) {
+				assertTrue(result.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
 }
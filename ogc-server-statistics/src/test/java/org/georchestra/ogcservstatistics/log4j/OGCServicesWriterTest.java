@@ -0,0 +1,143 @@
+package org.georchestra.ogcservstatistics.log4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class OGCServicesWriterTest {
+
+	private static final String LOG = "user|2013/12/18 12:18:00|http://localhost/geoserver/wms?SERVICE=WMS&REQUEST=GetMap&LAYERS=a,b|psc|ROLE_USER";
+
+	@Test
+	public void testRingBuffer() {
+		RingBuffer<Integer> ring = new RingBuffer<Integer>(3);
+		assertEquals(4, ring.capacity());
+		for (int i = 0; i < 4; i++) {
+			assertTrue(ring.offer(i));
+		}
+		assertFalse(ring.offer(4));
+		assertEquals(4, ring.size());
+		assertEquals(Integer.valueOf(0), ring.poll());
+		assertTrue(ring.offer(4));
+		for (int i = 1; i < 5; i++) {
+			assertEquals(Integer.valueOf(i), ring.poll());
+		}
+		assertNull(ring.poll());
+		assertTrue(ring.isEmpty());
+	}
+
+	@Test
+	public void testBatchesAndFlushOnStop() throws Exception {
+		final List<OGCServiceLog> inserted = Collections.synchronizedList(new ArrayList<OGCServiceLog>());
+		final List<Integer> batches = Collections.synchronizedList(new ArrayList<Integer>());
+		OGCServicesWriter writer = new OGCServicesWriter(1000, 10, 60000, OGCServicesWriter.OverflowPolicy.DROP, null) {
+			@Override
+			protected void insert(List<OGCServiceLog> rows) {
+				batches.add(rows.size());
+				inserted.addAll(rows);
+			}
+		};
+		writer.start();
+		for (int i = 0; i < 7; i++) {
+			writer.enqueue(LOG, System.currentTimeMillis());
+		}
+		writer.stop();
+
+		// 7 messages of 2 layers each, written at stop as they never reached the batch size
+		assertEquals(14, inserted.size());
+		assertEquals(0, writer.getQueueDepth());
+		assertEquals(14, writer.getWrittenRows());
+	}
+
+	@Test
+	public void testDropWhenFull() throws Exception {
+		OGCServicesWriter writer = new OGCServicesWriter(2, 10, 60000, OGCServicesWriter.OverflowPolicy.DROP, null);
+		// writer not started: nothing drains the queue
+		for (int i = 0; i < 5; i++) {
+			writer.enqueue(LOG, System.currentTimeMillis());
+		}
+		assertEquals(2, writer.getQueueDepth());
+		assertEquals(3, writer.getDroppedEvents());
+	}
+
+	@Test
+	public void testSpillWhenFull() throws Exception {
+		File spill = File.createTempFile("ogc-statistics", ".spill");
+		spill.delete();
+		try {
+			OGCServicesWriter writer = new OGCServicesWriter(4, 10, 60000, OGCServicesWriter.OverflowPolicy.SPILL, spill);
+			for (int i = 0; i < 7; i++) {
+				writer.enqueue(LOG + "\nwith a new line", System.currentTimeMillis());
+			}
+			// the request threads do not write the spill file
+			assertEquals(0, writer.getSpilledEvents());
+			assertFalse(spill.exists());
+			writer.spillOverflow();
+			assertEquals(3, writer.getSpilledEvents());
+			assertEquals(0, writer.getDroppedEvents());
+			assertTrue(spill.length() > 0);
+		} finally {
+			spill.delete();
+		}
+	}
+
+	@Test
+	public void testSpillFailedBatch() throws Exception {
+		File spill = File.createTempFile("ogc-statistics", ".spill");
+		spill.delete();
+		try {
+			OGCServicesWriter writer = new OGCServicesWriter(1000, 10, 60000, OGCServicesWriter.OverflowPolicy.DROP, spill) {
+				@Override
+				protected void insert(List<OGCServiceLog> rows) throws Exception {
+					throw new Exception("database unavailable");
+				}
+			};
+			writer.start();
+			for (int i = 0; i < 3; i++) {
+				writer.enqueue(LOG, System.currentTimeMillis());
+			}
+			writer.stop();
+
+			assertEquals(3, writer.getSpilledEvents());
+			assertEquals(0, writer.getFailedRows());
+			assertTrue(writer.getFailedInserts() > 0);
+			assertTrue(spill.length() > 0);
+		} finally {
+			spill.delete();
+		}
+	}
+
+	@Test
+	public void testFailedRowsWithoutSpillFile() throws Exception {
+		OGCServicesWriter writer = new OGCServicesWriter(1000, 10, 60000, OGCServicesWriter.OverflowPolicy.DROP, null) {
+			@Override
+			protected void insert(List<OGCServiceLog> rows) throws Exception {
+				throw new Exception("database unavailable");
+			}
+		};
+		writer.start();
+		for (int i = 0; i < 3; i++) {
+			writer.enqueue(LOG, System.currentTimeMillis());
+		}
+		writer.stop();
+
+		// 3 messages of 2 layers each
+		assertEquals(6, writer.getFailedRows());
+		assertEquals(0, writer.getWrittenRows());
+	}
+
+	@Test
+	public void testEscape() {
+		String message = "a\\nb\nc\r\nd\\";
+		assertFalse(OGCServicesWriter.escape(message).contains("\n"));
+		assertEquals(message, OGCServicesWriter.unescape(OGCServicesWriter.escape(message)));
+	}
+}
@@ -19,6 +19,32 @@ CREATE TABLE ogc_services_log(
   roles text[]
 );
 
+-- Pre-aggregated counters, by hour and by day (UTC), read by analytics instead of
+-- the raw logs. Empty org and roles are stored as '' and '{}' so that the rows can
+-- be matched by equality. There is a single row per key, concurrent inserts of the
+-- same key increment it through ON CONFLICT.
+CREATE TABLE ogc_services_log_hourly(
+  date timestamp without time zone NOT NULL,
+  user_name character varying(255) NOT NULL,
+  org character varying(255) NOT NULL,
+  roles text[] NOT NULL,
+  service character varying(5) NOT NULL,
+  layer character varying(255) NOT NULL,
+  count bigint NOT NULL
+);
+CREATE UNIQUE INDEX ogc_services_log_hourly_key ON ogc_services_log_hourly(date, user_name, layer, org, roles, service);
+
+CREATE TABLE ogc_services_log_daily(
+  date timestamp without time zone NOT NULL,
+  user_name character varying(255) NOT NULL,
+  org character varying(255) NOT NULL,
+  roles text[] NOT NULL,
+  service character varying(5) NOT NULL,
+  layer character varying(255) NOT NULL,
+  count bigint NOT NULL
+);
+CREATE UNIQUE INDEX ogc_services_log_daily_key ON ogc_services_log_daily(date, user_name, layer, org, roles, service);
+
 -- Return name of table that correspond to specified date, also create table if it does
 -- not exists and indexes on table of previous month
 CREATE OR REPLACE FUNCTION get_partition_table(my_date timestamp without time zone)
@@ -116,6 +142,29 @@ $BODY$
 COMMENT ON FUNCTION get_partition_table(timestamp without time zone) IS 'Return name of table that correspond to specified date, also create table if it does not exists and indexes on table of previous month';
 
 
+-- Increments the hourly and daily counters matching the log entry
+CREATE OR REPLACE FUNCTION increment_rollups(entry ogcstatistics.ogc_services_log)
+RETURNS void AS $$
+DECLARE
+  entry_user character varying = coalesce(entry.user_name, '');
+  entry_org character varying = coalesce(entry.org, '');
+  entry_roles text[] = coalesce(entry.roles, '{}');
+  entry_service character varying = coalesce(entry.service, '');
+  entry_layer character varying = coalesce(entry.layer, '');
+BEGIN
+
+  INSERT INTO ogcstatistics.ogc_services_log_hourly AS rollup(date, user_name, org, roles, service, layer, count)
+    VALUES (date_trunc('hour', entry.date), entry_user, entry_org, entry_roles, entry_service, entry_layer, 1)
+    ON CONFLICT (date, user_name, layer, org, roles, service) DO UPDATE SET count = rollup.count + 1;
+
+  INSERT INTO ogcstatistics.ogc_services_log_daily AS rollup(date, user_name, org, roles, service, layer, count)
+    VALUES (date_trunc('day', entry.date), entry_user, entry_org, entry_roles, entry_service, entry_layer, 1)
+    ON CONFLICT (date, user_name, layer, org, roles, service) DO UPDATE SET count = rollup.count + 1;
+
+END;
+$$
+LANGUAGE plpgsql;
+
 
 CREATE OR REPLACE FUNCTION insert_stat_trigger_function()
 RETURNS TRIGGER AS $$
@@ -127,6 +176,8 @@ BEGIN
 
   -- insert record in child table
   EXECUTE 'INSERT INTO ' || table_name || ' VALUES ($1.*)' USING NEW;
+  -- and count it in the rollups
+  PERFORM ogcstatistics.increment_rollups(NEW);
   -- do *not* insert record in master table
   RETURN NULL;
 
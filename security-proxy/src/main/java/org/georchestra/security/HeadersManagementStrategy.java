@@ -36,9 +36,11 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Enumeration;
-import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -55,9 +57,18 @@ import org.georchestra.commons.configuration.GeorchestraConfiguration;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.util.StringUtils;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
 /**
  * A strategy for copying headers from the request to the proxied request and
  * the same for the response headers.
+ * <p>
+ * The strategy is shared by all the proxied requests and holds no lock: the
+ * header filters and providers are compiled into immutable chains whenever
+ * they are configured, and all the per-request state lives on the stack of
+ * the calling thread.
+ * </p>
  *
  * @author jeichar
  */
@@ -68,21 +79,36 @@ public class HeadersManagementStrategy {
      * If true (default is false) AcceptEncoding headers are removed from request headers
      */
     private boolean noAcceptEncoding = false;
-    private List<HeaderProvider> headerProviders = Collections.emptyList();
-    private List<HeaderFilter> filters = new ArrayList<HeaderFilter>(1);
-    private String referer = null;
+    private volatile List<HeaderProvider> headerProviders = Collections.emptyList();
+    private volatile List<HeaderFilter> filters = Collections.emptyList();
+    /**
+     * The providers which still apply on requests coming from a trusted proxy
+     * ("pre-auth" requests)
+     */
+    private volatile List<HeaderProvider> preAuthHeaderProviders = Collections.emptyList();
+    private volatile String referer = null;
+
+    /**
+     * Lower-cased names of the request headers which are never copied to the
+     * proxied request
+     */
+    private static final Set<String> IGNORED_REQUEST_HEADERS = ImmutableSet.of(CONTENT_LENGTH.toLowerCase(Locale.ROOT),
+            COOKIE_ID.toLowerCase(Locale.ROOT), TRANSFER_ENCODING.toLowerCase(Locale.ROOT),
+            HOST.toLowerCase(Locale.ROOT), BASIC_AUTH_HEADER.toLowerCase(Locale.ROOT));
 
     @Autowired
     private GeorchestraConfiguration georchestraConfiguration;
 
     public HeadersManagementStrategy() {
-        filters.add(new SecurityRequestHeaderFilter());
+        setFilters(Collections.<HeaderFilter>singletonList(new SecurityRequestHeaderFilter()));
     }
 
     public void init() {
         if ((georchestraConfiguration != null) && (georchestraConfiguration.activated())) {
             referer = georchestraConfiguration.getProperty("public.host");
         }
+        setHeaderProviders(headerProviders);
+        setFilters(filters);
     }
 
     /**
@@ -90,49 +116,48 @@ public class HeadersManagementStrategy {
      * headers slightly
      */
     @SuppressWarnings("unchecked")
-    public synchronized void configureRequestHeaders(HttpServletRequest originalRequest, HttpRequestBase proxyRequest,
+    public void configureRequestHeaders(HttpServletRequest originalRequest, HttpRequestBase proxyRequest,
                                                      boolean localProxy) {
+        // read the configuration once, so that the whole request sees a
+        // consistent chain
+        final String referer = this.referer;
+        final List<HeaderFilter> filters = this.filters;
+
         Enumeration<String> headerNames = originalRequest.getHeaderNames();
         String headerName = null;
 
         HttpSession session = originalRequest.getSession();
-
-        StringBuilder headersLog = new StringBuilder("Request Headers:\n");
-        headersLog
-                .append("==========================================================\n");
+        final boolean preAuth = session.getAttribute("pre-auth") != null;
+
+        // only pay for the headers dump when it is actually logged
+        StringBuilder headersLog = null;
+        if (logger.isTraceEnabled()) {
+            headersLog = new StringBuilder("Request Headers:\n");
+            headersLog
+                    .append("==========================================================\n");
+        }
 
         if (!localProxy && referer != null) {
-            addHeaderToRequestAndLog(proxyRequest, headersLog, REFERER_HEADER_NAME, this.referer);
+            addHeaderToRequestAndLog(proxyRequest, headersLog, REFERER_HEADER_NAME, referer);
         }
 
-        if(session.getAttribute("pre-auth") == null) {
+        if(!preAuth) {
             while (headerNames.hasMoreElements()) {
                 headerName = headerNames.nextElement();
-                if (headerName.compareToIgnoreCase(CONTENT_LENGTH) == 0) {
+                String lowerCaseName = headerName.toLowerCase(Locale.ROOT);
+                // Content-Length, Cookie, Host and basic auth are never forwarded,
+                // Transfer-Encoding is the HttpClient's lib duty.
+                if (IGNORED_REQUEST_HEADERS.contains(lowerCaseName)) {
                     continue;
                 }
-                if (headerName.equalsIgnoreCase(COOKIE_ID)) {
-                    continue;
-                }
-                if (filter(originalRequest, headerName, proxyRequest)) {
+                if (filter(filters, originalRequest, headerName, proxyRequest)) {
                     continue;
                 }
                 if (noAcceptEncoding && headerName.equalsIgnoreCase(ACCEPT_ENCODING)) {
                     continue;
                 }
-                // It is the HttpClient's lib duty to add this header accordingly.
-                if (headerName.equalsIgnoreCase(TRANSFER_ENCODING)) {
-                    continue;
-                }
-                if (headerName.equalsIgnoreCase(HOST)) {
-                    continue;
-                }
-                // Don't forward basic auth
-                if (headerName.equalsIgnoreCase(BASIC_AUTH_HEADER)) {
-                    continue;
-                }
                 // Don't forward 'sec-*' headers, those headers must be managed by security-proxy
-                if (headerName.toLowerCase().startsWith(PROTECTED_HEADER_PREFIX)) {
+                if (lowerCaseName.startsWith(PROTECTED_HEADER_PREFIX)) {
                     continue;
                 }
                 if (!localProxy && referer != null && headerName.equalsIgnoreCase(REFERER_HEADER_NAME)) {
@@ -148,28 +173,25 @@ public class HeadersManagementStrategy {
 
         if(localProxy){
             handleRequestCookies(originalRequest, proxyRequest, headersLog);
-            for (HeaderProvider provider : headerProviders) {
-
-                // Don't include headers from security framework for request coming from trusted proxy
-                if(session.getAttribute("pre-auth") != null && (! (provider instanceof TrustedProxyRequestHeaderProvider))){
-                    logger.debug("Bypassing header provider : " + provider.getClass().toString());
-                    continue;
-                }
+            // Don't include headers from security framework for request coming from trusted proxy
+            List<HeaderProvider> providers = preAuth ? this.preAuthHeaderProviders : this.headerProviders;
+            for (HeaderProvider provider : providers) {
 
                 for (Header header : provider.getCustomRequestHeaders(session, originalRequest)) {
 
-                    logger.debug("Processing  header : " + header.getName() + " from " + provider.getClass().toString());
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("Processing  header : " + header.getName() + " from " + provider.getClass().toString());
+                    }
 
                     if ((header.getName().equalsIgnoreCase(SEC_USERNAME) ||
                             header.getName().equalsIgnoreCase(SEC_ROLES)) &&
                             proxyRequest.getHeaders(header.getName()) != null &&
                             proxyRequest.getHeaders(header.getName()).length > 0) {
-                        Header[] originalHeaders = proxyRequest.getHeaders(header.getName());
-                        for (Header originalHeader : originalHeaders) {
-                            headersLog.append("\t" + originalHeader.getName());
-                            headersLog.append("=");
-                            headersLog.append(originalHeader.getValue());
-                            headersLog.append("\n");
+                        if (headersLog != null) {
+                            Header[] originalHeaders = proxyRequest.getHeaders(header.getName());
+                            for (Header originalHeader : originalHeaders) {
+                                appendToLog(headersLog, originalHeader.getName(), originalHeader.getValue());
+                            }
                         }
                     } else {
                         // ignore Host and Content-Length header
@@ -177,30 +199,39 @@ public class HeadersManagementStrategy {
                                 header.getName().equalsIgnoreCase(HttpHeaders.CONTENT_LENGTH))
                             continue;
 
-                        logger.debug("Adding header to proxyed request : " + header.getName() + "=" + header.getValue());
+                        if (logger.isDebugEnabled()) {
+                            logger.debug("Adding header to proxyed request : " + header.getName() + "=" + header.getValue());
+                        }
                         proxyRequest.addHeader(header);
-                        headersLog.append("\t" + header.getName());
-                        headersLog.append("=");
-                        headersLog.append(header.getValue());
-                        headersLog.append("\n");
+                        appendToLog(headersLog, header.getName(), header.getValue());
                     }
                 }
             }
         }
 
-        headersLog
-                .append("==========================================================");
+        if (headersLog != null) {
+            headersLog
+                    .append("==========================================================");
 
-        logger.trace(headersLog.toString());
+            logger.trace(headersLog.toString());
+        }
     }
 
     private void addHeaderToRequestAndLog(HttpRequestBase proxyRequest, StringBuilder headersLog, String headerName, String value) {
-        logger.debug("Add Header : " + headerName + " = " + value);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Add Header : " + headerName + " = " + value);
+        }
         proxyRequest.addHeader(new BasicHeader(headerName, value));
-        headersLog.append("\t" + headerName);
-        headersLog.append("=");
-        headersLog.append(value);
-        headersLog.append("\n");
+        appendToLog(headersLog, headerName, value);
+    }
+
+    /**
+     * Appends a header to the headers dump, if the dump is enabled (non null)
+     */
+    private static void appendToLog(StringBuilder headersLog, String headerName, Object value) {
+        if (headersLog != null) {
+            headersLog.append('\t').append(headerName).append('=').append(value).append('\n');
+        }
     }
 
     private void handleRequestCookies(HttpServletRequest originalRequest, HttpRequestBase proxyRequest,
@@ -251,16 +282,14 @@ public class HeadersManagementStrategy {
             }
         }
 
-        headersLog.append("\t" + COOKIE_ID);
-        headersLog.append("=");
-        headersLog.append(cookies);
-        headersLog.append("\n");
+        appendToLog(headersLog, COOKIE_ID, cookies);
 
         proxyRequest.addHeader(new BasicHeader(COOKIE_ID, cookies.toString()));
 
     }
 
-    private boolean filter(HttpServletRequest originalRequest, String headerName, HttpRequestBase proxyRequest) {
+    private static boolean filter(List<HeaderFilter> filters, HttpServletRequest originalRequest, String headerName,
+            HttpRequestBase proxyRequest) {
         for (HeaderFilter filter : filters) {
             if(filter.filter(headerName, originalRequest, proxyRequest)) {
                 return true;
@@ -272,7 +301,7 @@ public class HeadersManagementStrategy {
     /**
      * Copy headers from the proxy response to the final response
      */
-    public synchronized void copyResponseHeaders(HttpServletRequest originalRequest, String originalRequestURI, HttpResponse proxyResponse, HttpServletResponse finalResponse,
+    public void copyResponseHeaders(HttpServletRequest originalRequest, String originalRequestURI, HttpResponse proxyResponse, HttpServletResponse finalResponse,
             Map<String,String> proxyTargets) {
         HttpSession session = originalRequest.getSession(true);
         Collection<String> protectedHeaders = finalResponse.getHeaderNames();
@@ -342,13 +371,20 @@ public class HeadersManagementStrategy {
 
     private void storeJsessionHeader(HttpSession session, String path, String cookie) {
         Map<String,String> map = (Map<String, String>) session.getAttribute(HeaderNames.JSESSION_ID);
-        if(map==null) {
-            map = new HashMap<String,String>();
-            session.setAttribute(HeaderNames.JSESSION_ID, map);
+        if(!(map instanceof ConcurrentHashMap)) {
+            // concurrent requests of a same session may read / update the map
+            synchronized (session) {
+                map = (Map<String, String>) session.getAttribute(HeaderNames.JSESSION_ID);
+                if (!(map instanceof ConcurrentHashMap)) {
+                    map = map == null ? new ConcurrentHashMap<String, String>()
+                            : new ConcurrentHashMap<String, String>(map);
+                    session.setAttribute(HeaderNames.JSESSION_ID, map);
+                }
+            }
         }
         if(path.length() > 0) {
             // clean out session IDs with longer path since this should supercede them
-            for (String key : new HashMap<String,String>(map).keySet()) {
+            for (String key : map.keySet()) {
                 if(key.startsWith(path)) {
                     map.remove(key);
                 }
@@ -369,11 +405,18 @@ public class HeadersManagementStrategy {
     }
 
     public void setHeaderProviders(List<HeaderProvider> headerProviders) {
-        this.headerProviders = headerProviders;
+        List<HeaderProvider> preAuthProviders = new ArrayList<HeaderProvider>();
+        for (HeaderProvider provider : headerProviders) {
+            if (provider instanceof TrustedProxyRequestHeaderProvider) {
+                preAuthProviders.add(provider);
+            }
+        }
+        this.preAuthHeaderProviders = ImmutableList.copyOf(preAuthProviders);
+        this.headerProviders = ImmutableList.copyOf(headerProviders);
     }
 
     public void setFilters(List<HeaderFilter> filters) {
-        this.filters = filters;
+        this.filters = ImmutableList.copyOf(filters);
     }
 
     public void setReferer(String referer){
@@ -23,8 +23,12 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -44,13 +48,30 @@ import org.springframework.ldap.core.LdapTemplate;
 import org.springframework.security.authentication.AnonymousAuthenticationToken;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
-import org.springframework.security.ldap.search.FilterBasedLdapUserSearch;
 import org.springframework.security.ldap.search.LdapUserSearch;
 import org.springframework.util.Assert;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
 /**
  * Reads information from a user node in LDAP and adds the information as
  * headers to the request.
+ * <p>
+ * The computed headers are kept in a cache keyed by username and shared
+ * across sessions, bounded in size and expiring after a configurable delay.
+ * The cache can be invalidated for a single user (e.g. when the console
+ * updates it) or as a whole (e.g. when a role or an organization changes).
+ * </p>
+ * <p>
+ * The user search is expected to return the <code>memberOf</code>
+ * operational attribute along with the user attributes (see the
+ * <code>returningAttributes</code> of the search bean), so that the
+ * organization of the user is found without an extra LDAP query.
+ * </p>
  *
  * @author jeichar
  */
@@ -63,6 +84,10 @@ public class LdapUserDetailsRequestHeaderProvider extends HeaderProvider {
     private Pattern pattern;
     private String orgSearchBaseDN;
 
+    private long cacheMaxSize = 10000;
+    private int cacheTimeToLive = 300;
+    private Cache<String, List<Header>> cache;
+
     @Autowired
     private LdapTemplate ldapTemplate;
 
@@ -77,6 +102,7 @@ public class LdapUserDetailsRequestHeaderProvider extends HeaderProvider {
         this.orgSearchBaseDN = orgSearchBaseDN;
 
         this.pattern = Pattern.compile("([^=,]+)=([^=,]+)," + orgSearchBaseDN + ".*");
+        this.cache = buildCache();
     }
 
     public void init() throws IOException {
@@ -87,10 +113,15 @@ public class LdapUserDetailsRequestHeaderProvider extends HeaderProvider {
                 _headerMapping.put(key, pHmap.getProperty(key));
             }
         }
+        this.cache = buildCache();
+    }
+
+    private Cache<String, List<Header>> buildCache() {
+        return CacheBuilder.newBuilder().maximumSize(cacheMaxSize)
+                .expireAfterWrite(cacheTimeToLive, TimeUnit.SECONDS).recordStats().build();
     }
 
-    @SuppressWarnings("unchecked")
-	@Override
+    @Override
     protected Collection<Header> getCustomRequestHeaders(HttpSession session, HttpServletRequest originalRequest) {
 
         // Don't use this provider for trusted request
@@ -102,99 +133,126 @@ public class LdapUserDetailsRequestHeaderProvider extends HeaderProvider {
         if(authentication instanceof AnonymousAuthenticationToken){
             return Collections.emptyList();
         }
-        String username = authentication.getName();
-        DirContextOperations userData;
-
-        Collection<Header> headers = Collections.emptyList();
-
-		synchronized (session) {
-
-            if (session.getAttribute("security-proxy-cached-attrs") != null) {
-				try {
-					headers = (Collection<Header>) session.getAttribute("security-proxy-cached-attrs");
-					String expectedUsername = (String) session.getAttribute("security-proxy-cached-username");
-
-					if (username.equals(expectedUsername)) {
-						return headers;
-					}
-				} catch (Exception e) {
-					logger.info("Unable to lookup cached user's attributes for user :" + username, e);
-				}
-			} else {
-				try {
-					userData = _userSearch.searchForUser(username);
-				} catch (Exception e) {
-					logger.info("Unable to lookup user:" + username, e);
-					return Collections.emptyList();
-				}
-				headers = new ArrayList<Header>();
-				for (Map.Entry<String, String> entry : _headerMapping
-						.entrySet()) {
-					try {
-						Attribute attributes = userData.getAttributes().get(
-								entry.getValue());
-						if (attributes != null) {
-							NamingEnumeration<?> all = attributes.getAll();
-							StringBuilder value = new StringBuilder();
-							while (all.hasMore()) {
-								if (value.length() > 0) {
-									value.append(',');
-								}
-								value.append(all.next());
-							}
-							headers.add(new BasicHeader(entry.getKey(), value
-									.toString()));
-						}
-					} catch (javax.naming.NamingException e) {
-						logger.error("problem adding headers for request:"
-								+ entry.getKey(), e);
-                    }
+        final String username = authentication.getName();
+
+        try {
+            // concurrent requests for the same user share a single lookup
+            return cache.get(username, new Callable<List<Header>>() {
+                public List<Header> call() throws Exception {
+                    return loadHeaders(username);
                 }
+            });
+        } catch (ExecutionException e) {
+            logger.info("Unable to lookup user:" + username, e.getCause());
+        } catch (UncheckedExecutionException e) {
+            logger.info("Unable to lookup user:" + username, e.getCause());
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Computes the headers of a user, from a single search of the user node,
+     * plus a lookup of its organization if any.
+     */
+    private List<Header> loadHeaders(String username) {
+        DirContextOperations userData = _userSearch.searchForUser(username);
 
-                // Add user organization
-                String orgCn = null;
-                try {
-                    // Retreive memberOf attributes
-                    String[] attrs = {"memberOf"};
-                    ((FilterBasedLdapUserSearch) this._userSearch).setReturningAttributes(attrs);
-                    userData = _userSearch.searchForUser(username);
-                    Attribute attributes = userData.getAttributes().get("memberOf");
-                    if (attributes != null) {
-                        NamingEnumeration<?> all = attributes.getAll();
-
-                        while (all.hasMore()) {
-                            String memberOf = all.next().toString();
-                            Matcher m = this.pattern.matcher(memberOf);
-                            if (m.matches()) {
-                                orgCn = m.group(2);
-                                headers.add(new BasicHeader("sec-org", orgCn));
-                                break;
-                            }
+        List<Header> headers = new ArrayList<Header>();
+        for (Map.Entry<String, String> entry : _headerMapping.entrySet()) {
+            try {
+                Attribute attributes = userData.getAttributes().get(entry.getValue());
+                if (attributes != null) {
+                    NamingEnumeration<?> all = attributes.getAll();
+                    StringBuilder value = new StringBuilder();
+                    while (all.hasMore()) {
+                        if (value.length() > 0) {
+                            value.append(',');
                         }
+                        value.append(all.next());
                     }
-                } catch (javax.naming.NamingException e) {
-                    logger.error("problem adding headers for request: organization", e);
-                } finally {
-                    // restore standard attribute list
-                    ((FilterBasedLdapUserSearch) this._userSearch).setReturningAttributes(null);
+                    headers.add(new BasicHeader(entry.getKey(), value.toString()));
                 }
+            } catch (javax.naming.NamingException e) {
+                logger.error("problem adding headers for request:" + entry.getKey(), e);
+            }
+        }
 
-                // add sec-orgname
-                if(orgCn != null) {
-                    try {
-                        DirContextOperations ctx = this.ldapTemplate.lookupContext("cn=" + orgCn + "," + this.orgSearchBaseDN);
-                        headers.add(new BasicHeader("sec-orgname", ctx.getStringAttribute("o")));
-                    }catch (RuntimeException ex){
-                        logger.warn("Cannot find associated org with cn " + orgCn);
+        // Add user organization
+        String orgCn = null;
+        try {
+            Attribute attributes = userData.getAttributes().get("memberOf");
+            if (attributes != null) {
+                NamingEnumeration<?> all = attributes.getAll();
+
+                while (all.hasMore()) {
+                    String memberOf = all.next().toString();
+                    Matcher m = this.pattern.matcher(memberOf);
+                    if (m.matches()) {
+                        orgCn = m.group(2);
+                        headers.add(new BasicHeader("sec-org", orgCn));
+                        break;
                     }
                 }
+            }
+        } catch (javax.naming.NamingException e) {
+            logger.error("problem adding headers for request: organization", e);
+        }
 
-                logger.info("Storing attributes into session for user :" + username);
-                session.setAttribute("security-proxy-cached-username", username);
-                session.setAttribute("security-proxy-cached-attrs", headers);
-			}
-		}
+        // add sec-orgname
+        if(orgCn != null) {
+            try {
+                DirContextOperations ctx = this.ldapTemplate.lookupContext("cn=" + orgCn + "," + this.orgSearchBaseDN);
+                headers.add(new BasicHeader("sec-orgname", ctx.getStringAttribute("o")));
+            }catch (RuntimeException ex){
+                logger.warn("Cannot find associated org with cn " + orgCn);
+            }
+        }
+
+        logger.info("Caching attributes for user :" + username);
+        return ImmutableList.copyOf(headers);
+    }
+
+    /**
+     * Forgets the cached headers of the given user, to be called when the user
+     * is modified or deleted.
+     */
+    public void invalidate(String username) {
+        cache.invalidate(username);
+    }
+
+    /**
+     * Forgets all the cached headers, to be called when a role or an
+     * organization is modified, as it may affect many users.
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * @return the hit / miss statistics of the cache
+     */
+    public CacheStats getCacheStats() {
+        return cache.stats();
+    }
+
+    public long getCacheSize() {
+        return cache.size();
+    }
+
+    /**
+     * @param cacheMaxSize the maximum number of users kept in cache, taken
+     *        into account at init()
+     */
+    public void setCacheMaxSize(long cacheMaxSize) {
+        this.cacheMaxSize = cacheMaxSize;
+    }
 
-        return headers;
+    /**
+     * @param cacheTimeToLive the number of seconds after which the cached
+     *        headers of a user are looked up again, taken into account at
+     *        init()
+     */
+    public void setCacheTimeToLive(int cacheTimeToLive) {
+        this.cacheTimeToLive = cacheTimeToLive;
     }
 }
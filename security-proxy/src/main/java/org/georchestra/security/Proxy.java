@@ -31,7 +31,6 @@ import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.InetAddress;
 import java.net.MalformedURLException;
-import java.net.ProxySelector;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
@@ -65,7 +64,6 @@ import org.apache.http.HttpResponse;
 import org.apache.http.NameValuePair;
 import org.apache.http.StatusLine;
 import org.apache.http.client.HttpClient;
-import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
@@ -77,19 +75,19 @@ import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.methods.HttpTrace;
 import org.apache.http.client.utils.URIBuilder;
 import org.apache.http.entity.InputStreamEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.impl.conn.SystemDefaultRoutePlanner;
 import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.util.EntityUtils;
 import org.georchestra.commons.configuration.GeorchestraConfiguration;
 import org.georchestra.ogcservstatistics.log4j.OGCServiceMessageFormatter;
+import org.georchestra.security.permissions.HostResolver;
 import org.georchestra.security.permissions.Permissions;
 import org.georchestra.security.permissions.UriMatcher;
+import org.json.JSONObject;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpMethod;
 import org.springframework.security.cas.ServiceProperties;
 import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.web.DefaultRedirectStrategy;
 import org.springframework.security.web.RedirectStrategy;
@@ -98,6 +96,7 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.CacheStats;
 import com.google.common.io.Closer;
 
 /**
@@ -145,6 +144,7 @@ public class Proxy {
 
     private Map<String, String> targets = Collections.emptyMap();
     private HeadersManagementStrategy headerManagement = new HeadersManagementStrategy();
+    private LdapUserDetailsRequestHeaderProvider userDetailsHeaderProvider = null;
     private FilterRequestsStrategy strategyForFilteringRequests = new AcceptAllRequests();
     private List<String> requireCharsetContentTypes = Collections.emptyList();
     private String defaultCharset = "UTF-8";
@@ -155,9 +155,20 @@ public class Proxy {
     private Permissions proxyPermissions = null;
     private Permissions sameDomainPermissions;
     private String proxyPermissionsFile;
+    /**
+     * DNS cache shared by the permissions checks
+     */
+    private final HostResolver hostResolver = new HostResolver();
 
     private Integer httpClientTimeout = 300000;
 
+    private int connectionRequestTimeout = 30000;
+    private int maxConnections = 400;
+    private int maxConnectionsPerTarget = 100;
+    private int maxConnectionsPerRoute = 20;
+    private int idleConnectionTimeout = 60;
+    private ProxyConnectionPool connectionPool;
+
     private final static String setCookieHeader = "Set-Cookie";
 
     public void setHttpClientTimeout(Integer timeout) {
@@ -172,6 +183,26 @@ public class Proxy {
         return httpClientTimeout;
     }
 
+    public void setConnectionRequestTimeout(int connectionRequestTimeout) {
+        this.connectionRequestTimeout = connectionRequestTimeout;
+    }
+
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    public void setMaxConnectionsPerTarget(int maxConnectionsPerTarget) {
+        this.maxConnectionsPerTarget = maxConnectionsPerTarget;
+    }
+
+    public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+    }
+
+    public void setIdleConnectionTimeout(int idleConnectionTimeout) {
+        this.idleConnectionTimeout = idleConnectionTimeout;
+    }
+
     public void init() throws Exception {
 
         if (targets != null) {
@@ -220,9 +251,12 @@ public class Proxy {
         this.sameDomainPermissions = new Permissions();
         this.sameDomainPermissions.setDenied(Collections.singletonList(new UriMatcher().setDomain(publicDomain)));
         this.sameDomainPermissions.setAllowByDefault(true);
+        this.sameDomainPermissions.setHostResolver(hostResolver);
         this.sameDomainPermissions.init();
 
-        this.servicesMonitoring = new ServicesMonitoring(targets);
+        this.connectionPool = new ProxyConnectionPool(targets, httpClientTimeout, connectionRequestTimeout,
+                maxConnections, maxConnectionsPerTarget, maxConnectionsPerRoute, idleConnectionTimeout);
+        this.servicesMonitoring = new ServicesMonitoring(targets, connectionPool);
 
         // Proxy permissions not set by datadir
         if (proxyPermissionsFile != null && proxyPermissions == null) {
@@ -240,6 +274,12 @@ public class Proxy {
         }
     }
 
+    public void destroy() {
+        if (connectionPool != null) {
+            connectionPool.close();
+        }
+    }
+
     /* ---------- start work around for no gateway option -------------- */
     private Gateway gateway = new Gateway();
 
@@ -286,6 +326,76 @@ public class Proxy {
         this.servicesMonitoring.checkServices(request, response);
     }
 
+    /**
+     * Returns the statistics of the users headers cache, as JSON.
+     *
+     * @param request
+     * @param response
+     * @throws IOException
+     */
+    @RequestMapping(value = "/users_headers_cache", method = { GET })
+    public void usersHeadersCacheStats(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (!checkUsersHeadersCacheAccess(response)) {
+            return;
+        }
+        CacheStats stats = userDetailsHeaderProvider.getCacheStats();
+        JSONObject json = new JSONObject();
+        json.put("size", userDetailsHeaderProvider.getCacheSize());
+        json.put("hitCount", stats.hitCount());
+        json.put("missCount", stats.missCount());
+        json.put("hitRate", stats.hitRate());
+        json.put("loadExceptionCount", stats.loadExceptionCount());
+        json.put("evictionCount", stats.evictionCount());
+        json.put("averageLoadPenalty", stats.averageLoadPenalty());
+        response.setContentType("application/json");
+        response.getWriter().write(json.toString());
+    }
+
+    /**
+     * Invalidates the users headers cache, for the given user if any, else as a
+     * whole. Meant to be called by the console when a user, a role or an
+     * organization is modified.
+     *
+     * @param request
+     * @param response
+     * @param username the user to forget, optional
+     * @throws IOException
+     */
+    @RequestMapping(value = "/users_headers_cache/invalidate", method = { POST })
+    public void invalidateUsersHeadersCache(HttpServletRequest request, HttpServletResponse response,
+            @RequestParam(value = "user", required = false) String username) throws IOException {
+        if (!checkUsersHeadersCacheAccess(response)) {
+            return;
+        }
+        if (username == null) {
+            userDetailsHeaderProvider.invalidateAll();
+        } else {
+            userDetailsHeaderProvider.invalidate(username);
+        }
+        response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+    }
+
+    /**
+     * The users headers cache endpoints are restricted to the super users,
+     * whatever the security mappings are.
+     */
+    private boolean checkUsersHeadersCacheAccess(HttpServletResponse response) throws IOException {
+        if (userDetailsHeaderProvider == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return false;
+        }
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication != null) {
+            for (GrantedAuthority authority : authentication.getAuthorities()) {
+                if ("ROLE_SUPERUSER".equals(authority.getAuthority())) {
+                    return true;
+                }
+            }
+        }
+        response.sendError(HttpServletResponse.SC_FORBIDDEN);
+        return false;
+    }
+
     /**
      * Entrypoint used for login.
      *
@@ -597,17 +707,6 @@ public class Proxy {
      * @param localProxy true if the request targets a security-proxyfied webapp (e.g. mapfishapp, ...), false otherwise
      */
     private void handleRequest(HttpServletRequest request, HttpServletResponse finalResponse, String sURL, boolean localProxy) {
-        HttpClientBuilder htb = HttpClients.custom().disableRedirectHandling();
-
-        RequestConfig config = RequestConfig.custom().setSocketTimeout(this.httpClientTimeout).build();
-        htb.setDefaultRequestConfig(config);
-
-        //
-        // Handle http proxy for external request.
-        // Proxy must be configured by system variables (e.g.: -Dhttp.proxyHost=proxy -Dhttp.proxyPort=3128)
-        htb.setRoutePlanner(new SystemDefaultRoutePlanner(ProxySelector.getDefault()));
-        CloseableHttpClient httpclient = htb.build();
-
         HttpResponse proxiedResponse = null;
         int statusCode = 500;
 
@@ -679,7 +778,7 @@ public class Proxy {
                 }
             }
 
-            proxiedResponse = executeHttpRequest(httpclient, proxyingRequest);
+            proxiedResponse = executeHttpRequest(connectionPool.getHttpClient(), proxyingRequest);
             StatusLine statusLine = proxiedResponse.getStatusLine();
             statusCode = statusLine.getStatusCode();
             String reasonPhrase = statusLine.getReasonPhrase();
@@ -738,6 +837,10 @@ public class Proxy {
         } catch (IOException e) {
             // connection problem with the host
             logger.error("Exception occured when trying to connect to the remote host: ", e);
+            // do not hand a half-read connection back to the pool
+            if (proxiedResponse instanceof Closeable) {
+                close((Closeable) proxiedResponse);
+            }
             try {
                 finalResponse.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
             } catch (IOException e2) {
@@ -746,10 +849,10 @@ public class Proxy {
                 finalResponse.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
             }
         } finally {
-            try {
-                httpclient.close();
-            } catch (IOException e) {
-                logger.error("Unable to close the httpclient", e);
+            // make sure the connection is released back to the pool, even if
+            // the response body has not been forwarded to the client
+            if (proxiedResponse != null) {
+                EntityUtils.consumeQuietly(proxiedResponse.getEntity());
             }
         }
     }
@@ -1326,6 +1429,10 @@ public class Proxy {
         this.headerManagement = headerManagement;
     }
 
+    public void setUserDetailsHeaderProvider(LdapUserDetailsRequestHeaderProvider userDetailsHeaderProvider) {
+        this.userDetailsHeaderProvider = userDetailsHeaderProvider;
+    }
+
     public void setRequireCharsetContentTypes(List<String> requireCharsetContentTypes) {
         this.requireCharsetContentTypes = requireCharsetContentTypes;
     }
@@ -1352,6 +1459,9 @@ public class Proxy {
     }
 
     public void setProxyPermissions(Permissions proxyPermissions) throws UnknownHostException {
+        if (proxyPermissions != null) {
+            proxyPermissions.setHostResolver(hostResolver);
+        }
         this.proxyPermissions = proxyPermissions;
     }
 
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2009-2018 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.georchestra.security;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.ProxySelector;
+import java.net.URL;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.routing.HttpRoutePlanner;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.conn.SystemDefaultRoutePlanner;
+import org.apache.http.message.BasicHttpRequest;
+import org.apache.http.pool.PoolStats;
+
+/**
+ * Holds the single, long-lived http client used by the {@link Proxy} to reach
+ * the downstream services.
+ * <p>
+ * Connections are pooled so that keep-alive connections to GeoServer,
+ * GeoNetwork and the other targets are reused from one proxied request to the
+ * next. Each target declared in the targets mapping gets its own per-route
+ * limit, other hosts (reached through <code>/proxy/?url=</code>) share the
+ * default per-route limit. A request waits at most
+ * <code>connectionRequestTimeout</code> ms for a connection when the pool is
+ * exhausted. A background thread evicts expired and idle connections.
+ * </p>
+ * <p>
+ * The client does not manage cookies: the Set-Cookie headers of the targets
+ * are only relayed to the browser, which sends them back with its requests.
+ * </p>
+ */
+public class ProxyConnectionPool {
+
+    protected static final Log logger = LogFactory.getLog(ProxyConnectionPool.class.getPackage().getName());
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final HttpRoutePlanner routePlanner;
+    private final CloseableHttpClient httpClient;
+
+    /**
+     * @param targets the proxy targets mapping, used to compute per-route limits
+     * @param socketTimeout socket timeout in ms
+     * @param connectionRequestTimeout maximum time to wait for a pooled connection, in ms
+     * @param maxTotal maximum number of connections overall
+     * @param maxPerTarget maximum number of connections to each target
+     * @param maxPerRoute maximum number of connections to any other host
+     * @param idleTimeout number of seconds after which an idle connection is closed
+     */
+    public ProxyConnectionPool(Map<String, String> targets, int socketTimeout, int connectionRequestTimeout,
+            int maxTotal, int maxPerTarget, int maxPerRoute, int idleTimeout) {
+        this.connectionManager = new PoolingHttpClientConnectionManager();
+        this.connectionManager.setMaxTotal(maxTotal);
+        this.connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+        // stale check only on connections which have been idle for a while
+        this.connectionManager.setValidateAfterInactivity(2000);
+
+        //
+        // Handle http proxy for external request.
+        // Proxy must be configured by system variables (e.g.: -Dhttp.proxyHost=proxy -Dhttp.proxyPort=3128)
+        this.routePlanner = new SystemDefaultRoutePlanner(ProxySelector.getDefault());
+
+        if (targets != null) {
+            for (String target : targets.values()) {
+                try {
+                    this.connectionManager.setMaxPerRoute(getRoute(new URL(target)), maxPerTarget);
+                } catch (MalformedURLException e) {
+                    logger.error("Invalid target url, no connection limit configured for: " + target);
+                } catch (HttpException e) {
+                    logger.error("No route to target, no connection limit configured for: " + target, e);
+                }
+            }
+        }
+
+        RequestConfig config = RequestConfig.custom().setSocketTimeout(socketTimeout)
+                .setConnectionRequestTimeout(connectionRequestTimeout).build();
+
+        // the client is shared by all the users: cookies set by a target are
+        // relayed to the browser, they must not be stored and sent along with
+        // the requests of someone else
+        this.httpClient = HttpClients.custom().disableRedirectHandling()
+                .disableCookieManagement()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(config)
+                .setRoutePlanner(routePlanner)
+                .evictExpiredConnections()
+                .evictIdleConnections(idleTimeout, TimeUnit.SECONDS)
+                .build();
+    }
+
+    private static HttpHost toHttpHost(URL url) {
+        int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+        return new HttpHost(url.getHost(), port, url.getProtocol());
+    }
+
+    /**
+     * Computes the route the http client takes to reach the url: the same
+     * planner decides whether it is secure and goes through an http proxy, so
+     * that the per-route limits apply to the routes actually used.
+     */
+    HttpRoute getRoute(URL url) throws HttpException {
+        return routePlanner.determineRoute(toHttpHost(url), new BasicHttpRequest("GET", url.toString()),
+                HttpClientContext.create());
+    }
+
+    int getMaxPerRoute(HttpRoute route) {
+        return connectionManager.getMaxPerRoute(route);
+    }
+
+    public CloseableHttpClient getHttpClient() {
+        return httpClient;
+    }
+
+    /**
+     * @return the pool statistics over all routes
+     */
+    public PoolStats getTotalStats() {
+        return connectionManager.getTotalStats();
+    }
+
+    /**
+     * @return the routes for which the pool currently holds connections
+     */
+    public Set<HttpRoute> getRoutes() {
+        return connectionManager.getRoutes();
+    }
+
+    public PoolStats getStats(HttpRoute route) {
+        return connectionManager.getStats(route);
+    }
+
+    /**
+     * Closes the http client, and all the pooled connections along with it.
+     */
+    public void close() {
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            logger.error("Unable to close the httpclient", e);
+        }
+    }
+}
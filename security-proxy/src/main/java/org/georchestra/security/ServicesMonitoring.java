@@ -3,6 +3,8 @@ package org.georchestra.security;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.apache.http.client.fluent.Request;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.pool.PoolStats;
 
 import java.io.IOException;
 import java.io.PrintWriter;
@@ -20,15 +22,23 @@ import java.util.Properties;
  * 200 Code then services should be OK otherwise this page will return a HTTP 500 code with description of services not
  * available.
  *
+ * The statistics of the proxy connection pool are also displayed, if available.
+ *
  */
 
 public class ServicesMonitoring {
 
     private Properties mappings;
+    private ProxyConnectionPool connectionPool;
 
     public ServicesMonitoring(Map<String, String> targets) {
+        this(targets, null);
+    }
+
+    public ServicesMonitoring(Map<String, String> targets, ProxyConnectionPool connectionPool) {
         this.mappings = new Properties();
         this.mappings.putAll(targets);
+        this.connectionPool = connectionPool;
     }
 
     public void checkServices(HttpServletRequest request, HttpServletResponse response) throws IOException {
@@ -67,6 +77,10 @@ public class ServicesMonitoring {
             writer.write(this.writeFailure("Header", e));
         }
 
+        if (this.connectionPool != null) {
+            writer.write(this.writePoolStats());
+        }
+
         if(success)
             response.setStatus(200);
         else
@@ -105,6 +119,23 @@ public class ServicesMonitoring {
         return response;
     }
 
+    private String writePoolStats() {
+        StringBuilder sb = new StringBuilder("<div class=\"pool\">Connection pool: ");
+        sb.append(formatPoolStats(this.connectionPool.getTotalStats()));
+        sb.append("<ul>");
+        for (HttpRoute route : this.connectionPool.getRoutes()) {
+            sb.append("<li>").append(route.getTargetHost().toURI()).append(": ");
+            sb.append(formatPoolStats(this.connectionPool.getStats(route))).append("</li>");
+        }
+        sb.append("</ul></div>");
+        return sb.toString();
+    }
+
+    private String formatPoolStats(PoolStats stats) {
+        return "leased=" + stats.getLeased() + ", available=" + stats.getAvailable() + ", pending="
+                + stats.getPending() + ", max=" + stats.getMax();
+    }
+
     private String writeSuccess(String service){
         return "<div class=\"success\">" + service + " OK</div>";
     }
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2009-2018 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.georchestra.security.permissions;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * A binary prefix trie of CIDR networks, answering whether an address belongs
+ * to any of them in at most 32 (IPv4) or 128 (IPv6) steps, whatever the number
+ * of networks.
+ * <p>
+ * IPv4 and IPv6 networks are kept in separate trees, an IPv4 address never
+ * matches an IPv6 network and conversely (same as spring's
+ * <code>IpAddressMatcher</code>).
+ * </p>
+ */
+class CidrTrie {
+
+    private final Node ipv4 = new Node();
+    private final Node ipv6 = new Node();
+    private boolean empty = true;
+
+    /**
+     * Adds a network, given as "address/bits" or as a single address.
+     *
+     * @throws IllegalArgumentException if the network is not valid
+     */
+    public void add(String network) {
+        String address = network;
+        int bits = -1;
+        int slash = network.indexOf('/');
+        if (slash > 0) {
+            address = network.substring(0, slash);
+            try {
+                bits = Integer.parseInt(network.substring(slash + 1));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid network mask: " + network);
+            }
+        }
+        byte[] bytes;
+        try {
+            bytes = InetAddress.getByName(address).getAddress();
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException("Failed to parse address: " + address, e);
+        }
+        if (bits == -1) {
+            bits = bytes.length * 8;
+        }
+        if (bits < 0 || bits > bytes.length * 8) {
+            throw new IllegalArgumentException("Invalid network mask: " + network);
+        }
+
+        Node node = bytes.length == 4 ? ipv4 : ipv6;
+        for (int i = 0; i < bits && !node.terminal; i++) {
+            int bit = bit(bytes, i);
+            if (node.children[bit] == null) {
+                node.children[bit] = new Node();
+            }
+            node = node.children[bit];
+        }
+        // a shorter prefix already covers the longer ones
+        node.terminal = true;
+        node.children[0] = null;
+        node.children[1] = null;
+        empty = false;
+    }
+
+    public boolean isEmpty() {
+        return empty;
+    }
+
+    public boolean contains(InetAddress address) {
+        byte[] bytes = address.getAddress();
+        Node node = bytes.length == 4 ? ipv4 : ipv6;
+        int length = bytes.length * 8;
+        for (int i = 0; node != null; i++) {
+            if (node.terminal) {
+                return true;
+            }
+            if (i == length) {
+                return false;
+            }
+            node = node.children[bit(bytes, i)];
+        }
+        return false;
+    }
+
+    private static int bit(byte[] bytes, int index) {
+        return (bytes[index >> 3] >> (7 - (index & 7))) & 1;
+    }
+
+    private static final class Node {
+        final Node[] children = new Node[2];
+        boolean terminal;
+    }
+}
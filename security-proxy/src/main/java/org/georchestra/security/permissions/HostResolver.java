@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2009-2018 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.georchestra.security.permissions;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Resolves host names to their addresses, keeping the results for a while so
+ * that checking the permissions of a request doesn't imply a blocking DNS
+ * lookup each time.
+ * <p>
+ * Unknown hosts are cached as well (negative caching), for a shorter time.
+ * </p>
+ */
+public class HostResolver {
+
+    private static final InetAddress[] UNRESOLVED = new InetAddress[0];
+
+    private final Cache<String, Entry> cache;
+    private final long negativeTimeToLive;
+
+    /**
+     * @param maxSize the maximum number of host names kept in cache
+     * @param timeToLive the number of seconds a resolved host is kept
+     * @param negativeTimeToLive the number of seconds an unknown host is kept
+     */
+    public HostResolver(long maxSize, int timeToLive, int negativeTimeToLive) {
+        this.cache = CacheBuilder.newBuilder().maximumSize(maxSize).expireAfterWrite(timeToLive, TimeUnit.SECONDS)
+                .build();
+        this.negativeTimeToLive = TimeUnit.SECONDS.toMillis(negativeTimeToLive);
+    }
+
+    public HostResolver() {
+        this(10000, 60, 10);
+    }
+
+    /**
+     * @return the addresses of the given host, an empty array if the host is
+     *         unknown
+     */
+    public InetAddress[] resolve(String host) {
+        long now = System.currentTimeMillis();
+        Entry entry = cache.getIfPresent(host);
+        if (entry != null && (entry.expiresAt == 0 || entry.expiresAt > now)) {
+            return entry.addresses;
+        }
+        // concurrent misses may both resolve the host, which is harmless
+        try {
+            entry = new Entry(lookup(host), 0);
+        } catch (UnknownHostException e) {
+            entry = new Entry(UNRESOLVED, now + negativeTimeToLive);
+        }
+        cache.put(host, entry);
+        return entry.addresses;
+    }
+
+    protected InetAddress[] lookup(String host) throws UnknownHostException {
+        return InetAddress.getAllByName(host);
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    private static final class Entry {
+        final InetAddress[] addresses;
+        /** 0 if the entry only expires with the cache ttl */
+        final long expiresAt;
+
+        Entry(InetAddress[] addresses, long expiresAt) {
+            this.addresses = addresses;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
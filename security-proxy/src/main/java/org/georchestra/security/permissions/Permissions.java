@@ -33,6 +33,13 @@ import java.util.List;
 import java.util.Map;
 
 /**
+ * The permissions applied to the urls requested through the proxy.
+ * <p>
+ * Once initialized, the allowed and denied matchers are compiled into
+ * {@link UriMatcherGroup}s, and the url host is resolved at most once per
+ * check, through a {@link HostResolver} caching the DNS lookups.
+ * </p>
+ *
  * @author Jesse on 8/15/2014.
  */
 public class Permissions {
@@ -41,45 +48,79 @@ public class Permissions {
     private boolean allowByDefault = false;
     private boolean initialized = false;
 
+    private transient volatile UriMatcherGroup allowedGroup;
+    private transient volatile UriMatcherGroup deniedGroup;
+    private transient volatile HostResolver hostResolver;
+
     public Permissions setAllowed(List<UriMatcher> allowed) {
         this.allowed = allowed;
+        this.allowedGroup = null;
         return this;
     }
 
     public Permissions setDenied(List<UriMatcher> denied) {
         this.denied = denied;
+        this.deniedGroup = null;
+        return this;
+    }
+
+    /**
+     * Sets the resolver used to look up the url hosts, allowing to share it
+     * between several permissions.
+     */
+    public Permissions setHostResolver(HostResolver hostResolver) {
+        this.hostResolver = hostResolver;
         return this;
     }
 
     public boolean isDenied(URL url) {
+        ResolvedHost host = new ResolvedHost(url.getHost(), getHostResolver());
         if (allowByDefault) {
-            if (checkIfAllowed(url)) return false;
-            if (checkIfDenied(url)) return true;
+            if (checkIfAllowed(url, host)) return false;
+            if (checkIfDenied(url, host)) return true;
         } else {
-            if (checkIfDenied(url)) return true;
-            if (checkIfAllowed(url)) return false;
+            if (checkIfDenied(url, host)) return true;
+            if (checkIfAllowed(url, host)) return false;
         }
         return !allowByDefault;
     }
 
-    private boolean checkIfDenied(URL url) {
+    private boolean checkIfDenied(URL url, ResolvedHost host) {
+        UriMatcherGroup group = this.deniedGroup;
+        if (group != null) {
+            return group.matches(url, host);
+        }
         for (UriMatcher uriMatcher : denied) {
-            if (uriMatcher.matches(url)) {
+            if (uriMatcher.matches(url, host)) {
                 return true;
             }
         }
         return false;
     }
 
-    private boolean checkIfAllowed(URL url) {
+    private boolean checkIfAllowed(URL url, ResolvedHost host) {
+        UriMatcherGroup group = this.allowedGroup;
+        if (group != null) {
+            return group.matches(url, host);
+        }
         for (UriMatcher uriMatcher : allowed) {
-            if (uriMatcher.matches(url)) {
+            if (uriMatcher.matches(url, host)) {
                 return true;
             }
         }
         return false;
     }
 
+    private HostResolver getHostResolver() {
+        HostResolver resolver = this.hostResolver;
+        if (resolver == null) {
+            // transient, hence not set by the unmarshaller
+            resolver = new HostResolver();
+            this.hostResolver = resolver;
+        }
+        return resolver;
+    }
+
     public List<UriMatcher> getAllowed() {
         return allowed;
     }
@@ -104,6 +145,8 @@ public class Permissions {
         for (UriMatcher uriMatcher : denied) {
             uriMatcher.init();
         }
+        this.allowedGroup = new UriMatcherGroup(allowed);
+        this.deniedGroup = new UriMatcherGroup(denied);
         initialized = true;
     }
 
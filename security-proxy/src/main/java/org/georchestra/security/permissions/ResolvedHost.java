@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2009-2018 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.georchestra.security.permissions;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * The host of a checked url, resolved at most once and only if a matcher
+ * needs its addresses.
+ */
+final class ResolvedHost {
+
+    private final String host;
+    private final HostResolver resolver;
+    private InetAddress[] addresses;
+
+    /**
+     * @param resolver the resolver to use, null to do a plain (uncached)
+     *        lookup
+     */
+    ResolvedHost(String host, HostResolver resolver) {
+        this.host = host;
+        this.resolver = resolver;
+    }
+
+    InetAddress[] addresses() {
+        if (addresses == null) {
+            if (resolver != null) {
+                addresses = resolver.resolve(host);
+            } else {
+                try {
+                    addresses = InetAddress.getAllByName(host);
+                } catch (UnknownHostException e) {
+                    addresses = new InetAddress[0];
+                }
+            }
+        }
+        return addresses;
+    }
+}
@@ -23,10 +23,10 @@ import java.net.InetAddress;
 import java.net.URL;
 import java.net.UnknownHostException;
 import java.util.HashSet;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 import com.google.common.collect.Sets;
-import org.springframework.security.web.util.matcher.IpAddressMatcher;
 
 /**
  * @author Jesse on 8/15/2014.
@@ -38,7 +38,7 @@ public class UriMatcher {
     private HashSet<InetAddress> hostNames;
     private String host;
     private String network;
-    private IpAddressMatcher ipMatcher;
+    private CidrTrie networkTrie;
     private String domain;
     private Pattern domainPattern;
 
@@ -58,23 +58,59 @@ public class UriMatcher {
         if (this.domain != null) {
             this.domainPattern = Pattern.compile(this.domain, Pattern.CASE_INSENSITIVE);
         }
+        this.networkTrie = null;
         if(this.network != null){
-            this.ipMatcher = new IpAddressMatcher(network);
+            this.networkTrie = new CidrTrie();
+            this.networkTrie.add(network);
         }
     }
 
     public boolean matches(URL url) {
-        if (hostNames != null && !matchesHost(url))
+        return matches(url, new ResolvedHost(url.getHost(), null));
+    }
+
+    /**
+     * @param host the lazily resolved addresses of the url host, shared by all
+     *        the matchers checked for a given url
+     */
+    boolean matches(URL url, ResolvedHost host) {
+        if (hostNames != null && !matchesHost(host))
             return false;
         if (domain != null && !matchesDomain(url))
             return false;
         if (port != -1 && !matchesPort(url))
             return false;
-        if (network != null && !matchesNetwork(url))
+        if (network != null && !matchesNetwork(host))
             return false;
         return !(pathPattern != null && !matchesPath(url));
     }
 
+    /**
+     * @return the number of criteria (host, domain, port, network, path) this
+     *         matcher checks
+     */
+    int getCriteriaCount() {
+        int count = 0;
+        if (hostNames != null) count++;
+        if (domainPattern != null) count++;
+        if (port != -1) count++;
+        if (networkTrie != null) count++;
+        if (pathPattern != null) count++;
+        return count;
+    }
+
+    Set<InetAddress> getHostNames() {
+        return hostNames;
+    }
+
+    Pattern getPathPattern() {
+        return pathPattern;
+    }
+
+    Pattern getDomainPattern() {
+        return domainPattern;
+    }
+
     private boolean matchesPath(URL url) {
         return this.pathPattern.matcher(url.getPath()).matches();
     }
@@ -86,15 +122,8 @@ public class UriMatcher {
         return url.getPort() == -1 && url.getDefaultPort() == this.port;
     }
 
-    private boolean matchesHost(URL url) {
-        final InetAddress[] allByName;
-        try {
-            allByName = InetAddress.getAllByName(url.getHost());
-        } catch (UnknownHostException e) {
-            return false;
-        }
-
-        for (InetAddress inetAddress : allByName) {
+    private boolean matchesHost(ResolvedHost host) {
+        for (InetAddress inetAddress : host.addresses()) {
             if (this.hostNames.contains(inetAddress)) {
                 return true;
             }
@@ -102,16 +131,9 @@ public class UriMatcher {
         return false;
     }
 
-    private boolean matchesNetwork(URL url) {
-        final InetAddress[] allByName;
-        try {
-            allByName = InetAddress.getAllByName(url.getHost());
-        } catch (UnknownHostException e) {
-            return false;
-        }
-
-        for (InetAddress inetAddress : allByName) {
-            if (this.ipMatcher.matches(inetAddress.getHostAddress())) {
+    private boolean matchesNetwork(ResolvedHost host) {
+        for (InetAddress inetAddress : host.addresses()) {
+            if (this.networkTrie.contains(inetAddress)) {
                 return true;
             }
         }
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2009-2018 by the geOrchestra PSC
+ *
+ * This file is part of geOrchestra.
+ *
+ * geOrchestra is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free
+ * Software Foundation, either version 3 of the License, or (at your option)
+ * any later version.
+ *
+ * geOrchestra is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License for
+ * more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * geOrchestra.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.georchestra.security.permissions;
+
+import java.net.InetAddress;
+import java.net.URL;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * A list of {@link UriMatcher}s compiled for fast lookups: the matchers
+ * checking a single criterion are merged together (one address set for the
+ * hosts, one prefix trie for the networks, one set of ports, one regex for
+ * the domains and one for the paths, or a few when some of them cannot be
+ * combined), the other ones are checked in turn.
+ */
+class UriMatcherGroup {
+
+    private final Set<InetAddress> hostAddresses = Sets.newHashSet();
+    private final CidrTrie networks = new CidrTrie();
+    private final Set<Integer> ports = Sets.newHashSet();
+    private final List<Pattern> domainPatterns;
+    private final List<Pattern> pathPatterns;
+    private final List<UriMatcher> others = Lists.newArrayList();
+    private boolean matchesAll = false;
+
+    /**
+     * @param matchers the matchers, already initialized
+     */
+    UriMatcherGroup(List<UriMatcher> matchers) {
+        List<Pattern> domains = Lists.newArrayList();
+        List<Pattern> paths = Lists.newArrayList();
+        for (UriMatcher matcher : matchers) {
+            switch (matcher.getCriteriaCount()) {
+            case 0:
+                matchesAll = true;
+                break;
+            case 1:
+                if (matcher.getHostNames() != null) {
+                    hostAddresses.addAll(matcher.getHostNames());
+                } else if (matcher.getNetwork() != null) {
+                    networks.add(matcher.getNetwork());
+                } else if (matcher.getPort() != -1) {
+                    ports.add(matcher.getPort());
+                } else if (matcher.getDomainPattern() != null && isCombinable(matcher.getDomainPattern())) {
+                    domains.add(matcher.getDomainPattern());
+                } else if (matcher.getPathPattern() != null && isCombinable(matcher.getPathPattern())) {
+                    paths.add(matcher.getPathPattern());
+                } else {
+                    others.add(matcher);
+                }
+                break;
+            default:
+                others.add(matcher);
+            }
+        }
+        this.domainPatterns = combine(domains);
+        this.pathPatterns = combine(paths);
+    }
+
+    /**
+     * Back references are numbered from the start of the pattern, they would
+     * not survive the patterns concatenation.
+     */
+    private static boolean isCombinable(Pattern pattern) {
+        return !pattern.pattern().matches("(?s).*\\\\([1-9]|k<).*");
+    }
+
+    /**
+     * Concatenates the patterns into as few alternations as possible. A
+     * pattern which does not compile along with the previous ones, eg. because
+     * it reuses the name of one of their groups, starts a new alternation.
+     */
+    private static List<Pattern> combine(List<Pattern> patterns) {
+        List<Pattern> combined = Lists.newArrayList();
+        Pattern current = null;
+        String regex = null;
+        for (Pattern pattern : patterns) {
+            String alternative = "(?:" + pattern.pattern() + ")";
+            if (current != null) {
+                try {
+                    current = Pattern.compile(regex + "|" + alternative, Pattern.CASE_INSENSITIVE);
+                    regex = current.pattern();
+                    continue;
+                } catch (PatternSyntaxException e) {
+                    combined.add(current);
+                }
+            }
+            current = pattern;
+            regex = alternative;
+        }
+        if (current != null) {
+            combined.add(current);
+        }
+        return combined;
+    }
+
+    private static boolean matchesAny(List<Pattern> patterns, String value) {
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(value).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean matches(URL url, ResolvedHost host) {
+        if (matchesAll) {
+            return true;
+        }
+        if (!ports.isEmpty()) {
+            int port = url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+            if (ports.contains(port)) {
+                return true;
+            }
+        }
+        if (matchesAny(domainPatterns, url.getHost())) {
+            return true;
+        }
+        if (matchesAny(pathPatterns, url.getPath())) {
+            return true;
+        }
+        if (!hostAddresses.isEmpty() || !networks.isEmpty()) {
+            for (InetAddress address : host.addresses()) {
+                if (hostAddresses.contains(address) || networks.contains(address)) {
+                    return true;
+                }
+            }
+        }
+        for (UriMatcher matcher : others) {
+            if (matcher.matches(url, host)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
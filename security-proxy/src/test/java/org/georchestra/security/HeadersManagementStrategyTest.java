@@ -8,7 +8,20 @@ import org.springframework.security.authentication.UsernamePasswordAuthenticatio
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -91,4 +104,46 @@ public class HeadersManagementStrategyTest {
         assertEquals(proxyRequest.getHeaders("sec-username")[0].getValue(), "jeichar");
     }
 
+    /**
+     * The strategy is shared by all the requests, make sure concurrent calls
+     * don't leak headers from one request to another.
+     */
+    @Test
+    public void testConfigureRequestHeadersConcurrently() throws Exception {
+        final HeadersManagementStrategy headerManagement = new HeadersManagementStrategy();
+        headerManagement.setHeaderProviders(Collections.<HeaderProvider>singletonList(new HeaderProvider() {
+            @Override
+            protected Collection<Header> getCustomRequestHeaders(HttpSession session, HttpServletRequest originalRequest) {
+                return Collections.<Header>singletonList(new BasicHeader("sec-org", originalRequest.getHeader("other_header")));
+            }
+        }));
+        headerManagement.init();
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < 200; i++) {
+                final String value = "value" + i;
+                results.add(executor.submit(new Callable<Boolean>() {
+                    public Boolean call() throws Exception {
+                        MockHttpServletRequest originalRequest = new MockHttpServletRequest("get",
+                                "http://georchestra.org/geonetwork");
+                        originalRequest.addHeader("sec-org", "forged");
+                        originalRequest.addHeader("other_header", value);
+                        HttpRequestBase proxyRequest = new HttpGet("http://localhost/geonetwork");
+                        headerManagement.configureRequestHeaders(originalRequest, proxyRequest, true);
+                        Header[] org = proxyRequest.getHeaders("sec-org");
+                        return org.length == 1 && value.equals(org[0].getValue())
+                                && value.equals(proxyRequest.getFirstHeader("other_header").getValue());
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
 }
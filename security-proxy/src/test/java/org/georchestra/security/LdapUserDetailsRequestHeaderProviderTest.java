@@ -0,0 +1,88 @@
+package org.georchestra.security;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.http.Header;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.ldap.core.DirContextAdapter;
+import org.springframework.ldap.core.DirContextOperations;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpSession;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.ldap.search.LdapUserSearch;
+
+public class LdapUserDetailsRequestHeaderProviderTest {
+
+    private int searches;
+    private LdapUserDetailsRequestHeaderProvider provider;
+
+    @Before
+    public void setUp() throws Exception {
+        searches = 0;
+        LdapUserSearch userSearch = new LdapUserSearch() {
+            public DirContextOperations searchForUser(String username) {
+                searches++;
+                DirContextAdapter user = new DirContextAdapter();
+                user.setAttributeValue("mail", username + "@georchestra.org");
+                user.setAttributeValues("memberOf", new String[] { "cn=ROLE_USER,ou=roles,dc=georchestra,dc=org",
+                        "cn=psc,ou=orgs,dc=georchestra,dc=org" });
+                return user;
+            }
+        };
+        Map<String, String> mapping = new HashMap<String, String>();
+        mapping.put("sec-email", "mail");
+        provider = new LdapUserDetailsRequestHeaderProvider(userSearch, "ou=orgs,dc=georchestra,dc=org", mapping);
+        provider.init();
+
+        SecurityContextHolder.getContext().setAuthentication(new UsernamePasswordAuthenticationToken("testuser", "random"));
+    }
+
+    @After
+    public void tearDown() {
+        SecurityContextHolder.getContext().setAuthentication(null);
+    }
+
+    @Test
+    public void testHeadersSharedAcrossSessions() throws Exception {
+        Collection<Header> headers = provider.getCustomRequestHeaders(new MockHttpSession(), new MockHttpServletRequest());
+        assertContains(headers, "sec-email", "testuser@georchestra.org");
+        assertContains(headers, "sec-org", "psc");
+
+        provider.getCustomRequestHeaders(new MockHttpSession(), new MockHttpServletRequest());
+        provider.getCustomRequestHeaders(new MockHttpSession(), new MockHttpServletRequest());
+
+        assertEquals(1, searches);
+        assertEquals(2, provider.getCacheStats().hitCount());
+        assertEquals(1, provider.getCacheStats().missCount());
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        provider.getCustomRequestHeaders(new MockHttpSession(), new MockHttpServletRequest());
+        provider.invalidate("testuser");
+        provider.getCustomRequestHeaders(new MockHttpSession(), new MockHttpServletRequest());
+        assertEquals(2, searches);
+
+        provider.invalidateAll();
+        provider.getCustomRequestHeaders(new MockHttpSession(), new MockHttpServletRequest());
+        assertEquals(3, searches);
+    }
+
+    private void assertContains(Collection<Header> headers, String name, String value) {
+        for (Header header : headers) {
+            if (header.getName().equals(name)) {
+                assertEquals(value, header.getValue());
+                return;
+            }
+        }
+        assertTrue("header " + name + " not found", false);
+    }
+}
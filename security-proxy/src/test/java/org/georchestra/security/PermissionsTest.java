@@ -1,11 +1,16 @@
 package org.georchestra.security;
 
+import org.georchestra.security.permissions.HostResolver;
 import org.georchestra.security.permissions.Permissions;
+import org.georchestra.security.permissions.UriMatcher;
 import org.junit.Test;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.InetAddress;
 import java.net.URL;
+import java.net.UnknownHostException;
+import java.util.Arrays;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -180,4 +185,50 @@ public class PermissionsTest {
         assertFalse(perm.isDenied(new URL("http://www.example.org/search.py")));
 
     }
+
+    @Test
+    public void testDuplicateNamedGroup() throws Exception {
+        Permissions perm = new Permissions();
+        perm.setAllowByDefault(true);
+        perm.setDenied(Arrays.asList(new UriMatcher().setPath("/(?<service>wms)/private/.*"),
+                new UriMatcher().setPath("/(?<service>wfs)/private/.*"),
+                new UriMatcher().setPath("/admin/.*")));
+        perm.init();
+
+        assertTrue(perm.isDenied(new URL("http://www.example.org/wms/private/layer")));
+        assertTrue(perm.isDenied(new URL("http://www.example.org/wfs/private/layer")));
+        assertTrue(perm.isDenied(new URL("http://www.example.org/admin/users")));
+        assertFalse(perm.isDenied(new URL("http://www.example.org/wcs/private/layer")));
+    }
+
+    @Test
+    public void testHostResolverCache() throws Exception {
+        final int[] lookups = new int[1];
+        HostResolver resolver = new HostResolver(100, 60, 60) {
+            @Override
+            protected InetAddress[] lookup(String host) throws UnknownHostException {
+                lookups[0]++;
+                if ("unknown.invalid".equals(host)) {
+                    throw new UnknownHostException(host);
+                }
+                return new InetAddress[] { InetAddress.getByName("192.168.1.12") };
+            }
+        };
+        Permissions perm = this.load("test-permissions-uriMatcher.xml");
+        perm.setHostResolver(resolver);
+
+        // host and network rules share a single lookup, cached afterwards
+        assertTrue(perm.isDenied(new URL("http://intranet.example.org/wms")));
+        assertTrue(perm.isDenied(new URL("http://intranet.example.org/wfs")));
+        assertEquals(1, lookups[0]);
+
+        // unknown hosts are cached too
+        assertFalse(perm.isDenied(new URL("http://unknown.invalid/wms")));
+        assertFalse(perm.isDenied(new URL("http://unknown.invalid/wms")));
+        assertEquals(2, lookups[0]);
+
+        // no lookup needed when a cheaper rule matches first
+        assertTrue(perm.isDenied(new URL("http://other.example.org:8080/wms")));
+        assertEquals(2, lookups[0]);
+    }
 }
@@ -0,0 +1,109 @@
+package org.georchestra.security;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.http.HttpHost;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.util.EntityUtils;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class ProxyConnectionPoolTest {
+
+    @Test
+    public void testSecureTargetLimit() throws Exception {
+        Map<String, String> targets = new HashMap<String, String>();
+        targets.put("geoserver", "https://georchestra.example.org/geoserver/");
+        ProxyConnectionPool pool = new ProxyConnectionPool(targets, 1000, 1000, 40, 10, 2, 60);
+        try {
+            HttpRoute route = pool.getRoute(new URL("https://georchestra.example.org/geoserver/wms"));
+            assertTrue(route.isSecure());
+            // the route HttpClient uses for the target
+            assertEquals(new HttpRoute(new HttpHost("georchestra.example.org", 443, "https"), null, true), route);
+            assertEquals(10, pool.getMaxPerRoute(route));
+            assertEquals(2, pool.getMaxPerRoute(pool.getRoute(new URL("https://other.example.org/"))));
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testTargetBehindProxyLimit() throws Exception {
+        System.setProperty("http.proxyHost", "proxy.example.org");
+        System.setProperty("http.proxyPort", "3128");
+        try {
+            Map<String, String> targets = new HashMap<String, String>();
+            targets.put("geonetwork", "http://catalog.example.org/geonetwork/");
+            ProxyConnectionPool pool = new ProxyConnectionPool(targets, 1000, 1000, 40, 10, 2, 60);
+            try {
+                HttpRoute route = pool.getRoute(new URL("http://catalog.example.org/geonetwork/srv"));
+                assertEquals(new HttpHost("proxy.example.org", 3128), route.getProxyHost());
+                assertEquals(10, pool.getMaxPerRoute(route));
+            } finally {
+                pool.close();
+            }
+        } finally {
+            System.clearProperty("http.proxyHost");
+            System.clearProperty("http.proxyPort");
+        }
+    }
+
+    @Test
+    public void testCookiesNotShared() throws Exception {
+        // a target which opens a session on the first request
+        final List<String> cookies = Collections.synchronizedList(new ArrayList<String>());
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/geonetwork/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                cookies.add(exchange.getRequestHeaders().getFirst("Cookie"));
+                exchange.getResponseHeaders().add("Set-Cookie", "JSESSIONID=0123456789; Path=/geonetwork");
+                byte[] body = "ok".getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+                exchange.close();
+            }
+        });
+        server.start();
+        try {
+            String target = "http://localhost:" + server.getAddress().getPort() + "/geonetwork/";
+            Map<String, String> targets = new HashMap<String, String>();
+            targets.put("geonetwork", target);
+            ProxyConnectionPool pool = new ProxyConnectionPool(targets, 1000, 1000, 40, 10, 2, 60);
+            try {
+                for (int i = 0; i < 2; i++) {
+                    CloseableHttpResponse response = pool.getHttpClient().execute(new HttpGet(target + "srv"));
+                    try {
+                        assertEquals("JSESSIONID=0123456789; Path=/geonetwork",
+                                response.getFirstHeader("Set-Cookie").getValue());
+                        EntityUtils.consume(response.getEntity());
+                    } finally {
+                        response.close();
+                    }
+                }
+            } finally {
+                pool.close();
+            }
+        } finally {
+            server.stop(0);
+        }
+        assertEquals(2, cookies.size());
+        // the session of the first request is not sent along with the next one
+        assertNull(cookies.get(1));
+    }
+}